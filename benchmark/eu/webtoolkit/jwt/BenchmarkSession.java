@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import eu.webtoolkit.jwt.servlet.WebRequest;
+import eu.webtoolkit.jwt.servlet.WebResponse;
+
+/*
+ * A headless application session for the benchmarks: an application in a
+ * WTestEnvironment, whose responses are rendered into a byte counter.
+ *
+ * A session must be used from the thread that created it (the session
+ * lock is held by that thread).
+ */
+class BenchmarkSession {
+	private final WTestEnvironment env_;
+	private final WApplication app_;
+	private final CountingStream out_;
+	private final HttpServletResponse response_;
+
+	BenchmarkSession() {
+		env_ = new WTestEnvironment(new Configuration());
+		app_ = new WApplication(env_);
+		out_ = new CountingStream();
+		response_ = createResponse(out_);
+	}
+
+	WApplication getApp() {
+		return app_;
+	}
+
+	/*
+	 * Renders the complete widget tree, as for the first Ajax response of a
+	 * session, and returns the response size.
+	 */
+	long renderInitial() throws IOException {
+		WebRenderer renderer = app_.getSession().getRenderer();
+		renderer.setRendered(false);
+		return serve(WebRequest.ResponseType.Update);
+	}
+
+	/*
+	 * Renders the changes since the previous response, as for an Ajax
+	 * update, and returns the response size. The update is acknowledged, as
+	 * the browser would.
+	 */
+	long renderUpdate() throws IOException {
+		return serve(WebRequest.ResponseType.Update);
+	}
+
+	void close() {
+		env_.close();
+	}
+
+	private long serve(WebRequest.ResponseType type) throws IOException {
+		WebRenderer renderer = app_.getSession().getRenderer();
+
+		out_.count = 0;
+		WebResponse response = new WebResponse(response_, null);
+		response.setResponseType(type);
+		renderer.serveResponse(response);
+		response.out().flush();
+		renderer.setJSSynced(false);
+
+		return out_.count;
+	}
+
+	private static class CountingStream extends ServletOutputStream {
+		long count;
+
+		@Override
+		public void write(int b) {
+			++count;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+	/*
+	 * A response which only provides the output stream; headers are
+	 * discarded.
+	 */
+	private static HttpServletResponse createResponse(final ServletOutputStream out) {
+		return (HttpServletResponse) Proxy.newProxyInstance(BenchmarkSession.class.getClassLoader(),
+				new Class<?>[] { HttpServletResponse.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("getOutputStream"))
+							return out;
+						else if (name.equals("getCharacterEncoding"))
+							return "UTF-8";
+						else if (name.equals("containsHeader") || name.equals("isCommitted"))
+							return false;
+						else if (name.equals("getStatus"))
+							return HttpServletResponse.SC_OK;
+						else
+							return null;
+					}
+				});
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * The escaping and encoding kernels, on text as found in widgets: labels,
+ * tool tips, attribute values and URLs, most of which need no escaping.
+ *
+ * The previous* benchmarks run the same text through the implementation
+ * that the escape tables replaced (PreviousEscapeOStream, from the tests),
+ * as a baseline.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class EscapeBenchmark {
+	private static final String[] TEXTS = {
+		"Save",
+		"Cancel",
+		"Name",
+		"Enter your e-mail address",
+		"Item 42, 7",
+		"Tom & Jerry's \"adventures\"",
+		"Line one\nLine two\twith a tab",
+		"<b>bold</b> text",
+		"\u00dcn\u00efc\u00f6d\u00e9 t\u00ebxt \u2014 with \u201cquotes\u201d",
+		"Wt-form o1a2b3c4 Wt-btn btn-primary"
+	};
+
+	private static final String[] URLS = {
+		"/app/resources/icon.png",
+		"?wtd=abc123&request=resource&resource=o12&rand=4",
+		"/path/with spaces/and-\u00fcn\u00efc\u00f6d\u00e9",
+		"https://example.com/search?q=a+b&lang=en"
+	};
+
+	private StringBuilder out;
+	private EscapeOStream attribute;
+	private EscapeOStream nested;
+	private PreviousEscapeOStream previousAttribute;
+	private PreviousEscapeOStream previousNested;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		out = new StringBuilder(64 * 1024);
+
+		attribute = new EscapeOStream(out);
+		attribute.pushEscape(EscapeOStream.RuleSet.HtmlAttribute);
+
+		nested = new EscapeOStream(out);
+		nested.pushEscape(EscapeOStream.RuleSet.JsStringLiteralSQuote);
+		nested.pushEscape(EscapeOStream.RuleSet.HtmlAttribute);
+
+		previousAttribute = new PreviousEscapeOStream(out);
+		previousAttribute.pushEscape(EscapeOStream.RuleSet.HtmlAttribute);
+
+		previousNested = new PreviousEscapeOStream(out);
+		previousNested.pushEscape(EscapeOStream.RuleSet.JsStringLiteralSQuote);
+		previousNested.pushEscape(EscapeOStream.RuleSet.HtmlAttribute);
+	}
+
+	@Benchmark
+	public int htmlAttribute() {
+		out.setLength(0);
+		for (String s : TEXTS)
+			attribute.append(s);
+		return out.length();
+	}
+
+	@Benchmark
+	public int previousHtmlAttribute() {
+		out.setLength(0);
+		for (String s : TEXTS)
+			previousAttribute.append(s);
+		return out.length();
+	}
+
+	@Benchmark
+	public int nestedRules() {
+		out.setLength(0);
+		for (String s : TEXTS)
+			nested.append(s);
+		return out.length();
+	}
+
+	@Benchmark
+	public int previousNestedRules() {
+		out.setLength(0);
+		for (String s : TEXTS)
+			previousNested.append(s);
+		return out.length();
+	}
+
+	@Benchmark
+	public int pushPopEscape() {
+		out.setLength(0);
+		EscapeOStream s = new EscapeOStream(out);
+		for (String t : TEXTS) {
+			s.pushEscape(EscapeOStream.RuleSet.PlainTextNewLines);
+			s.append(t);
+			s.popEscape();
+		}
+		return out.length();
+	}
+
+	@Benchmark
+	public int jsStringLiteral() {
+		int length = 0;
+		for (String s : TEXTS)
+			length += WWebWidget.jsStringLiteral(s).length();
+		return length;
+	}
+
+	@Benchmark
+	public int jsStringLiteralAppend() {
+		out.setLength(0);
+		for (String s : TEXTS)
+			DomElement.jsStringLiteral(out, s, '\'');
+		return out.length();
+	}
+
+	@Benchmark
+	public int urlEncode() {
+		int length = 0;
+		for (String s : URLS)
+			length += DomElement.urlEncodeS(s, "/?&=").length();
+		return length;
+	}
+
+	@Benchmark
+	public int previousUrlEncode() throws UnsupportedEncodingException {
+		int length = 0;
+		for (String s : URLS)
+			length += PreviousEscapeOStream.urlEncodeS(s, "/?&=").length();
+		return length;
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import eu.webtoolkit.jwt.render.WPdfRenderer;
+
+/*
+ * Rendering an XHTML report (paragraphs and a table) to a PDF document.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class PdfRendererBenchmark {
+	private String html;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		StringBuilder s = new StringBuilder();
+		s.append("<h1>Report</h1>");
+		for (int i = 0; i < 10; ++i)
+			s.append("<p>Paragraph ").append(i)
+				.append(": the quick brown fox jumps over the lazy dog, <b>twice</b>, and then <i>once more</i>.</p>");
+		s.append("<table border=\"1\" cellspacing=\"0\">");
+		for (int i = 0; i < 40; ++i) {
+			s.append("<tr>");
+			for (int j = 0; j < 5; ++j)
+				s.append("<td>").append(i).append('.').append(j).append("</td>");
+			s.append("</tr>");
+		}
+		s.append("</table>");
+		html = s.toString();
+	}
+
+	@Benchmark
+	public void render(ResponseBytes bytes) throws Exception {
+		CountingStream out = new CountingStream();
+		com.pdfjet.PDF pdf = new com.pdfjet.PDF(out);
+		com.pdfjet.Page page = new com.pdfjet.Page(pdf, com.pdfjet.A4.PORTRAIT);
+
+		WPdfRenderer renderer = new WPdfRenderer(pdf, page);
+		renderer.setMargin(2);
+		renderer.render(html);
+
+		pdf.flush();
+		bytes.bytes += out.count;
+	}
+
+	private static class CountingStream extends OutputStream {
+		long count;
+
+		@Override
+		public void write(int b) {
+			++count;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * The application lifecycle: creating a session, rendering its initial
+ * page, and rendering an incremental update after an event.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SessionBenchmark {
+	private static final int WIDGETS = 200;
+
+	@State(Scope.Thread)
+	public static class Session {
+		BenchmarkSession session;
+		WPushButton button;
+		WText counter;
+		int clicks;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			session = new BenchmarkSession();
+			createContents(session.getApp());
+			button = new WPushButton("Click", session.getApp().getRoot());
+			counter = new WText("0", session.getApp().getRoot());
+			button.clicked().addListener(button, new Signal1.Listener<WMouseEvent>() {
+				public void trigger(WMouseEvent event) {
+					counter.setText(String.valueOf(++clicks));
+				}
+			});
+			session.renderInitial();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public void createSession(ResponseBytes bytes) {
+		BenchmarkSession session = new BenchmarkSession();
+		try {
+			createContents(session.getApp());
+		} finally {
+			session.close();
+		}
+	}
+
+	@Benchmark
+	public void initialRender(Session s, ResponseBytes bytes) throws IOException {
+		bytes.bytes += s.session.renderInitial();
+	}
+
+	@Benchmark
+	public void incrementalUpdate(Session s, ResponseBytes bytes) throws IOException {
+		s.button.clicked().trigger(new WMouseEvent());
+		bytes.bytes += s.session.renderUpdate();
+	}
+
+	/*
+	 * A form-like page: labelled line edits, check boxes and buttons in
+	 * nested containers.
+	 */
+	static void createContents(WApplication app) {
+		app.setTitle("Benchmark");
+		for (int i = 0; i < WIDGETS / 4; ++i) {
+			WContainerWidget row = new WContainerWidget(app.getRoot());
+			row.setStyleClass("row");
+			new WText("Field <b>" + i + "</b> &amp; \"label\"", row);
+			WLineEdit edit = new WLineEdit("value " + i, row);
+			edit.setToolTip("Enter the value for field " + i);
+			new WCheckBox("enabled", row);
+			new WPushButton("Apply", row);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Building a tree model of WStandardItems: parents with 99 children each.
+ * build() reports the time, and with -prof gc the bytes allocated
+ * (gc.alloc.rate.norm), which include garbage such as grown arrays.
+ * retainedHeap() reports the heap the model holds on to after a full GC,
+ * per item, as its bytesPerItem counter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class StandardItemModelBenchmark {
+	@Param({ "200000" })
+	public int items;
+
+	/* the number of roles set per item: DisplayRole, and UserRole */
+	@Param({ "1", "2" })
+	public int roles;
+
+	/*
+	 * Reports the heap retained by a model, per item.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class RetainedHeap {
+		public long bytesPerItem;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			bytesPerItem = 0;
+		}
+	}
+
+	private static final String[] TEXTS = { "alpha", "beta", "gamma", "delta", "epsilon" };
+
+	@Benchmark
+	public WStandardItemModel build() {
+		WStandardItemModel model = new WStandardItemModel();
+		WStandardItem root = model.getInvisibleRootItem();
+		for (int p = 0; p < items / 100; ++p) {
+			WStandardItem parent = new WStandardItem(TEXTS[p % TEXTS.length]);
+			for (int c = 0; c < 99; ++c) {
+				WStandardItem item = new WStandardItem(TEXTS[c % TEXTS.length]);
+				if (roles > 1)
+					item.setData(c, ItemDataRole.UserRole);
+				parent.appendRow(item);
+			}
+			root.appendRow(parent);
+		}
+		return model;
+	}
+
+	/*
+	 * One model per iteration: the used heap after a full GC, with and
+	 * without the model.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	public WStandardItemModel retainedHeap(RetainedHeap retained) throws InterruptedException {
+		long before = usedHeapAfterGc();
+		WStandardItemModel model = build();
+		long after = usedHeapAfterGc();
+		retained.bytesPerItem = (after - before) / items;
+		return model;
+	}
+
+	private static long usedHeapAfterGc() throws InterruptedException {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long used = Long.MAX_VALUE;
+		/* until a GC frees nothing more */
+		for (int i = 0; i < 10; ++i) {
+			System.gc();
+			Thread.sleep(50);
+			long u = memory.getHeapMemoryUsage().getUsed();
+			if (u >= used)
+				break;
+			used = u;
+		}
+		return used;
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * Scrolling through a large WTableView: each operation moves the viewport
+ * (as the browser reports it) and renders the rows that come into view.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class TableViewBenchmark {
+	@Param({ "10000" })
+	public int rows;
+
+	@Param({ "10" })
+	public int columns;
+
+	private BenchmarkSession session;
+	private JSignal4<Integer, Integer, Integer, Integer> scrolled;
+	private int top;
+	private int rowHeight;
+
+	@Setup(Level.Trial)
+	@SuppressWarnings("unchecked")
+	public void setUp() throws Exception {
+		session = new BenchmarkSession();
+
+		WStandardItemModel model = new WStandardItemModel(rows, columns);
+		for (int i = 0; i < rows; ++i)
+			for (int j = 0; j < columns; ++j)
+				model.setData(i, j, "Item " + i + ", " + j);
+
+		WTableView view = new WTableView(session.getApp().getRoot());
+		view.setModel(model);
+		view.resize(new WLength(800), new WLength(600));
+		rowHeight = (int) view.getRowHeight().toPixels();
+
+		session.renderInitial();
+
+		/* the viewport is reported by the browser through this signal */
+		Field f = WTableView.class.getDeclaredField("scrolled_");
+		f.setAccessible(true);
+		scrolled = (JSignal4<Integer, Integer, Integer, Integer>) f.get(view);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		session.close();
+	}
+
+	@Benchmark
+	public void scroll(ResponseBytes bytes) throws IOException {
+		top += 37 * rowHeight;
+		if (top > (rows - 40) * rowHeight)
+			top = 0;
+
+		scrolled.trigger(0, top, 800, 600);
+		bytes.bytes += session.renderUpdate();
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * Rendering a WTemplate with bound strings and widgets, both directly and
+ * as part of an update after its bindings changed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class TemplateBenchmark {
+	private static final int ITEMS = 50;
+
+	private BenchmarkSession session;
+	private WTemplate template;
+	private int version;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		session = new BenchmarkSession();
+
+		StringBuilder text = new StringBuilder();
+		text.append("<div class=\"page\"><h1>${title}</h1>${<if-intro>}<p>${intro}</p>${</if-intro>}<ul>");
+		for (int i = 0; i < ITEMS; ++i)
+			text.append("<li class=\"item\">${item").append(i).append("} ${edit").append(i).append("}</li>");
+		text.append("</ul></div>");
+
+		template = new WTemplate(new WString(text.toString()), session.getApp().getRoot());
+		template.setCondition("if-intro", true);
+		template.bindString("intro", "Rendering <b>benchmark</b> &amp; more", TextFormat.XHTMLText);
+		for (int i = 0; i < ITEMS; ++i) {
+			template.bindString("item" + i, "Item \"" + i + "\" <with> markup", TextFormat.PlainText);
+			template.bindWidget("edit" + i, new WLineEdit("value " + i));
+		}
+		bindTitle();
+
+		session.renderInitial();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		session.close();
+	}
+
+	@Benchmark
+	public void renderTemplate(ResponseBytes bytes) throws IOException {
+		StringBuilderWriter out = new StringBuilderWriter();
+		template.renderTemplate(out);
+		bytes.bytes += out.length();
+	}
+
+	@Benchmark
+	public void update(ResponseBytes bytes) throws IOException {
+		bindTitle();
+		bytes.bytes += session.renderUpdate();
+	}
+
+	private void bindTitle() {
+		template.bindString("title", "Benchmark " + (++version));
+	}
+
+	private static class StringBuilderWriter extends java.io.Writer {
+		private final StringBuilder sb = new StringBuilder(16 * 1024);
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			sb.append(cbuf, off, len);
+		}
+
+		@Override
+		public void write(String str) {
+			sb.append(str);
+		}
+
+		@Override
+		public java.io.Writer append(CharSequence csq) {
+			sb.append(csq);
+			return this;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+
+		int length() {
+			return sb.length();
+		}
+	}
+}
@@ -12,6 +12,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -60,6 +61,31 @@ public class Configuration {
 		ErrorMessageWithStack
 	}
 
+	/**
+	 * An enumeration for the way requests are run when the servlet container
+	 * supports asynchronous processing (Servlet 3.0).
+	 */
+	public enum RequestExecution {
+		/**
+		 * Requests are run using the servlet container's thread pool. This is
+		 * the default behaviour.
+		 */
+		ContainerPool,
+
+		/**
+		 * Requests are run using an executor.
+		 * 
+		 * @see Configuration#setRequestExecutor(Executor)
+		 */
+		Executor,
+
+		/**
+		 * Each request is run in a new virtual thread. This requires Java 21
+		 * or later; otherwise the container's thread pool is used.
+		 */
+		VirtualThreads
+	}
+
 	private HashMap<String, String> properties_ = new HashMap<String, String>();
 	private String redirectMessage_ = "Plain HTML version";
 	private boolean sendXHTMLMimeType = false;
@@ -83,6 +109,23 @@ public class Configuration {
 	private long maxRequestSize = 1024*1024; // 1 Megabyte
 	private boolean behindReverseProxy = false;
 	private boolean webSocketsEnabled = false;
+	private int webSocketSendQueueLimit = 1024*1024; // 1 Megabyte
+	private int staticResourceMaxAge = 7 * 24 * 60 * 60; // 1 week
+	private long staticResourceCacheMaxFileSize = 1024*1024; // 1 Megabyte
+	private long staticResourceCacheSize = 32*1024*1024; // 32 Megabyte
+	private boolean responseCompression = false;
+	private int compressionThreshold = 1024;
+	private int compressionLevel = 6;
+	private int postAllThreads = 0;
+	private RequestExecution requestExecution = RequestExecution.ContainerPool;
+	private Executor requestExecutor = null;
+	private int requestExecutorThreads = 200;
+	private int requestExecutorQueueSize = 1000;
+	private int asyncTimeout = 90;
+	private int passivationIdleTime = 0;
+	private String passivationDirectory = null;
+	private int uploadMemoryThreshold = 10*1024; // 10 Kilobyte
+	private boolean metricsEnabled = false;
 
 	private Collection<String> allowedOrigins_ = Collections.<String>emptySet();
 
@@ -180,6 +223,46 @@ public class Configuration {
 						} else if (node.getAttributes().getNamedItem("type").getTextContent().trim().equals("bot")) {
 							parseUserAgents(errorMessage, node, botList);
 						}
+					} else if (node.getNodeName().equalsIgnoreCase("static-resource-max-age")) {
+						setStaticResourceMaxAge((int) parseLong(errorMessage, node));
+					} else if (node.getNodeName().equalsIgnoreCase("static-resource-cache-max-file-size")) {
+						setStaticResourceCacheMaxFileSize(parseLong(errorMessage, node));
+					} else if (node.getNodeName().equalsIgnoreCase("static-resource-cache-size")) {
+						setStaticResourceCacheSize(parseLong(errorMessage, node));
+					} else if (node.getNodeName().equalsIgnoreCase("response-compression")) {
+						setResponseCompression(parseBoolean(errorMessage, node));
+					} else if (node.getNodeName().equalsIgnoreCase("compression-threshold")) {
+						setCompressionThreshold((int) parseLong(errorMessage, node));
+					} else if (node.getNodeName().equalsIgnoreCase("compression-level")) {
+						setCompressionLevel((int) parseLong(errorMessage, node));
+					} else if (node.getNodeName().equalsIgnoreCase("post-all-threads")) {
+						setPostAllThreads((int) parseLong(errorMessage, node));
+					} else if (node.getNodeName().equalsIgnoreCase("request-execution")) {
+						String v = node.getTextContent().trim();
+						if (v.equalsIgnoreCase("container-pool"))
+							setRequestExecution(RequestExecution.ContainerPool);
+						else if (v.equalsIgnoreCase("executor"))
+							setRequestExecution(RequestExecution.Executor);
+						else if (v.equalsIgnoreCase("virtual-threads"))
+							setRequestExecution(RequestExecution.VirtualThreads);
+						else
+							throw new RuntimeException(errorMessage + "Illegal value for request-execution: " + v);
+					} else if (node.getNodeName().equalsIgnoreCase("request-executor-threads")) {
+						setRequestExecutorThreads((int) parseLong(errorMessage, node));
+					} else if (node.getNodeName().equalsIgnoreCase("request-executor-queue-size")) {
+						setRequestExecutorQueueSize((int) parseLong(errorMessage, node));
+					} else if (node.getNodeName().equalsIgnoreCase("async-timeout")) {
+						setAsyncTimeout((int) parseLong(errorMessage, node));
+					} else if (node.getNodeName().equalsIgnoreCase("passivation-idle-time")) {
+						setPassivationIdleTime((int) parseLong(errorMessage, node));
+					} else if (node.getNodeName().equalsIgnoreCase("passivation-directory")) {
+						setPassivationDirectory(node.getTextContent().trim());
+					} else if (node.getNodeName().equalsIgnoreCase("upload-memory-threshold")) {
+						setUploadMemoryThreshold((int) parseLong(errorMessage, node));
+					} else if (node.getNodeName().equalsIgnoreCase("metrics")) {
+						setMetricsEnabled(parseBoolean(errorMessage, node));
+					} else if (node.getNodeName().equalsIgnoreCase("websocket-send-queue-limit")) {
+						setWebSocketSendQueueLimit((int) parseLong(errorMessage, node));
 					} else if (node.getNodeName().equalsIgnoreCase("allowed-origins")) {
 						String origins = node.getTextContent().trim();
 						for (String origin : origins.split(",")) {
@@ -215,6 +298,14 @@ public class Configuration {
 		}
 	}
 
+	private long parseLong(String errorMessage, Node n) {
+		try {
+			return Long.parseLong(n.getTextContent().trim());
+		} catch (NumberFormatException e) {
+			throw new RuntimeException(errorMessage + "Cannot parse integer value from element " + n.getNodeName());
+		}
+	}
+
 	/**
 	 * Sets properties.
 	 * <br/>
@@ -720,6 +811,416 @@ public class Configuration {
 		return webSocketsEnabled;
 	}
 
+	/**
+	 * Sets the maximum size (in bytes) of messages queued for a web socket.
+	 * <p>
+	 * Messages are sent asynchronously. While a message is being sent,
+	 * updates are accumulated and sent as a single message afterwards, but
+	 * other messages are queued. When a slow client lets the queue grow beyond
+	 * this limit, the web socket is closed, and the client falls back to
+	 * polling.
+	 * <p>
+	 * The default value is 1MB.
+	 */
+	public void setWebSocketSendQueueLimit(int bytes) {
+		this.webSocketSendQueueLimit = bytes;
+	}
+
+	/**
+	 * Returns the maximum size of messages queued for a web socket.
+	 * 
+	 * @see #setWebSocketSendQueueLimit(int)
+	 */
+	public int getWebSocketSendQueueLimit() {
+		return webSocketSendQueueLimit;
+	}
+
+	/**
+	 * Sets the maximum age (in seconds) for which browsers may cache static
+	 * resources.
+	 * <p>
+	 * This configures the <tt>Cache-Control</tt> header that is sent for the
+	 * files below the resources URL (<tt>wt-resources</tt>) and the favicon.
+	 * After this time, browsers revalidate their copy using a conditional
+	 * request.
+	 * <p>
+	 * The default value is one week.
+	 */
+	public void setStaticResourceMaxAge(int seconds) {
+		this.staticResourceMaxAge = seconds;
+	}
+
+	/**
+	 * Returns the maximum age for which browsers may cache static resources.
+	 * 
+	 * @see #setStaticResourceMaxAge(int)
+	 */
+	public int getStaticResourceMaxAge() {
+		return staticResourceMaxAge;
+	}
+
+	/**
+	 * Sets the maximum size (in bytes) of a static resource that is kept in
+	 * memory.
+	 * <p>
+	 * Static resources are cached in memory together with precompressed
+	 * variants. Larger files are streamed from their original location on
+	 * every request.
+	 * <p>
+	 * The default value is 1MB.
+	 */
+	public void setStaticResourceCacheMaxFileSize(long size) {
+		this.staticResourceCacheMaxFileSize = size;
+	}
+
+	/**
+	 * Returns the maximum size of a static resource that is kept in memory.
+	 * 
+	 * @see #setStaticResourceCacheMaxFileSize(long)
+	 */
+	public long getStaticResourceCacheMaxFileSize() {
+		return staticResourceCacheMaxFileSize;
+	}
+
+	/**
+	 * Sets the total size (in bytes) of the in-memory static resource cache.
+	 * <p>
+	 * The default value is 32MB.
+	 * 
+	 * @see #setStaticResourceCacheMaxFileSize(long)
+	 */
+	public void setStaticResourceCacheSize(long size) {
+		this.staticResourceCacheSize = size;
+	}
+
+	/**
+	 * Returns the total size of the in-memory static resource cache.
+	 * 
+	 * @see #setStaticResourceCacheSize(long)
+	 */
+	public long getStaticResourceCacheSize() {
+		return staticResourceCacheSize;
+	}
+
+	/**
+	 * Configures whether responses may be compressed.
+	 * <p>
+	 * When enabled, JWt compresses responses (pages, scripts and updates, but
+	 * also the output of {@link WResource resources}) using gzip or deflate,
+	 * as negotiated with the browser using the <tt>Accept-Encoding</tt> header.
+	 * Only responses with a textual content type (HTML, CSS, JavaScript, JSON,
+	 * XML) which are larger than {@link #getCompressionThreshold()} are
+	 * compressed.
+	 * <p>
+	 * Compression is disabled by default, since it is often done by a reverse
+	 * proxy or by the servlet container.
+	 */
+	public void setResponseCompression(boolean enabled) {
+		this.responseCompression = enabled;
+	}
+
+	/**
+	 * Returns whether responses may be compressed.
+	 * 
+	 * @see #setResponseCompression(boolean)
+	 */
+	public boolean isResponseCompression() {
+		return responseCompression;
+	}
+
+	/**
+	 * Sets the minimum size (in bytes) of a response that is compressed.
+	 * <p>
+	 * Output is buffered up to this size before the response is committed.
+	 * <p>
+	 * The default value is 1024.
+	 * 
+	 * @see #setResponseCompression(boolean)
+	 */
+	public void setCompressionThreshold(int threshold) {
+		this.compressionThreshold = threshold;
+	}
+
+	/**
+	 * Returns the minimum size of a response that is compressed.
+	 * 
+	 * @see #setCompressionThreshold(int)
+	 */
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	/**
+	 * Sets the compression level.
+	 * <p>
+	 * The level ranges from 1 (fastest) to 9 (best compression).
+	 * <p>
+	 * The default value is 6.
+	 * 
+	 * @see #setResponseCompression(boolean)
+	 */
+	public void setCompressionLevel(int level) {
+		if (level < 1 || level > 9)
+			throw new IllegalArgumentException("Compression level must be between 1 and 9");
+		this.compressionLevel = level;
+	}
+
+	/**
+	 * Returns the compression level.
+	 * 
+	 * @see #setCompressionLevel(int)
+	 */
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	/**
+	 * Sets the number of threads used by {@link WtServlet#postAll(Runnable)}.
+	 * <p>
+	 * When greater than 0, {@link WtServlet#postAll(Runnable) postAll()}
+	 * queues the task to all sessions and then returns, while a pool of this
+	 * many threads runs the task for those sessions that are not currently
+	 * locked. When 0, the task is run for all sessions on the calling thread
+	 * before postAll() returns.
+	 * <p>
+	 * The default value is 0.
+	 */
+	public void setPostAllThreads(int threads) {
+		if (threads < 0)
+			throw new IllegalArgumentException("Number of postAll() threads must not be negative");
+		this.postAllThreads = threads;
+	}
+
+	/**
+	 * Returns the number of threads used by {@link WtServlet#postAll(Runnable)}.
+	 * 
+	 * @see #setPostAllThreads(int)
+	 */
+	public int getPostAllThreads() {
+		return postAllThreads;
+	}
+
+	/**
+	 * Sets how requests are run.
+	 * <p>
+	 * This only applies when the servlet container supports asynchronous
+	 * processing. Requests spend most of their time waiting for the session
+	 * lock or for server push updates, and running them in virtual threads
+	 * avoids tying up a platform thread for each such request.
+	 * <p>
+	 * The default value is {@link RequestExecution#ContainerPool}.
+	 * 
+	 * @see #setRequestExecutor(Executor)
+	 * @see #setAsyncTimeout(int)
+	 */
+	public void setRequestExecution(RequestExecution execution) {
+		this.requestExecution = execution;
+	}
+
+	/**
+	 * Returns how requests are run.
+	 * 
+	 * @see #setRequestExecution(RequestExecution)
+	 */
+	public RequestExecution getRequestExecution() {
+		return requestExecution;
+	}
+
+	/**
+	 * Sets the executor used to run requests.
+	 * <p>
+	 * This sets the request execution to {@link RequestExecution#Executor}.
+	 * The executor is not shut down by JWt. If no executor is set for that
+	 * mode, a thread pool with {@link #getRequestExecutorThreads()} threads
+	 * is used. A request which is rejected by the executor is answered with
+	 * <tt>503 Service Unavailable</tt>.
+	 */
+	public void setRequestExecutor(Executor executor) {
+		this.requestExecutor = executor;
+		if (executor != null)
+			this.requestExecution = RequestExecution.Executor;
+	}
+
+	/**
+	 * Returns the executor used to run requests.
+	 * 
+	 * @see #setRequestExecutor(Executor)
+	 */
+	public Executor getRequestExecutor() {
+		return requestExecutor;
+	}
+
+	/**
+	 * Sets the number of threads of the request thread pool.
+	 * <p>
+	 * This is used for {@link RequestExecution#Executor} when no executor has
+	 * been set.
+	 * <p>
+	 * The default value is 200.
+	 */
+	public void setRequestExecutorThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Number of request threads must be positive");
+		this.requestExecutorThreads = threads;
+	}
+
+	/**
+	 * Returns the number of threads of the request thread pool.
+	 * 
+	 * @see #setRequestExecutorThreads(int)
+	 */
+	public int getRequestExecutorThreads() {
+		return requestExecutorThreads;
+	}
+
+	/**
+	 * Sets the number of requests that may wait for a thread of the request
+	 * thread pool.
+	 * <p>
+	 * When all threads are busy and this many requests are waiting, further
+	 * requests are answered with <tt>503 Service Unavailable</tt>.
+	 * <p>
+	 * The default value is 1000.
+	 *
+	 * @see #setRequestExecutorThreads(int)
+	 */
+	public void setRequestExecutorQueueSize(int size) {
+		if (size < 1)
+			throw new IllegalArgumentException("Request queue size must be positive");
+		this.requestExecutorQueueSize = size;
+	}
+
+	/**
+	 * Returns the number of requests that may wait for a thread of the
+	 * request thread pool.
+	 *
+	 * @see #setRequestExecutorQueueSize(int)
+	 */
+	public int getRequestExecutorQueueSize() {
+		return requestExecutorQueueSize;
+	}
+
+	/**
+	 * Sets the timeout for asynchronous requests (in seconds).
+	 * <p>
+	 * This should be larger than the server push timeout, since server push
+	 * requests are kept open that long.
+	 * <p>
+	 * The default value is 90 (seconds).
+	 */
+	public void setAsyncTimeout(int seconds) {
+		this.asyncTimeout = seconds;
+	}
+
+	/**
+	 * Returns the timeout for asynchronous requests (in seconds).
+	 * 
+	 * @see #setAsyncTimeout(int)
+	 */
+	public int getAsyncTimeout() {
+		return asyncTimeout;
+	}
+
+	/**
+	 * Sets the idle time (in seconds) after which a session is passivated.
+	 * <p>
+	 * A passivated session no longer keeps its application in memory: the
+	 * state returned by {@link WApplication#passivate()} is stored (see
+	 * {@link #setPassivationDirectory(String)}), and the application is
+	 * destroyed. On the next request from the user, a new application is
+	 * created and restored using {@link WApplication#activate(java.io.Serializable)},
+	 * and the page is reloaded.
+	 * <p>
+	 * Only applications which implement {@link WApplication#passivate()} and
+	 * do not use server push are passivated. Keep-alive requests do not count
+	 * as activity.
+	 * <p>
+	 * The default value is 0, which disables passivation.
+	 */
+	public void setPassivationIdleTime(int seconds) {
+		this.passivationIdleTime = seconds;
+	}
+
+	/**
+	 * Returns the idle time after which a session is passivated.
+	 * 
+	 * @see #setPassivationIdleTime(int)
+	 */
+	public int getPassivationIdleTime() {
+		return passivationIdleTime;
+	}
+
+	/**
+	 * Sets the directory in which the state of passivated sessions is stored.
+	 * <p>
+	 * The default value is <code>null</code>, in which case the state is kept
+	 * in memory outside of the Java heap.
+	 * 
+	 * @see #setPassivationIdleTime(int)
+	 */
+	public void setPassivationDirectory(String directory) {
+		this.passivationDirectory = directory;
+	}
+
+	/**
+	 * Returns the directory in which the state of passivated sessions is
+	 * stored.
+	 * 
+	 * @see #setPassivationDirectory(String)
+	 */
+	public String getPassivationDirectory() {
+		return passivationDirectory;
+	}
+
+	/**
+	 * Sets the size below which uploaded files are kept in memory.
+	 * <p>
+	 * Uploaded files which are larger are streamed to a spool file while the
+	 * request is being received. Smaller files are only written to a spool
+	 * file when {@link eu.webtoolkit.jwt.servlet.UploadedFile#getSpoolFileName()}
+	 * is called.
+	 * <p>
+	 * The default value is 10 kB.
+	 */
+	public void setUploadMemoryThreshold(int bytes) {
+		this.uploadMemoryThreshold = bytes;
+	}
+
+	/**
+	 * Returns the size below which uploaded files are kept in memory.
+	 * 
+	 * @see #setUploadMemoryThreshold(int)
+	 */
+	public int getUploadMemoryThreshold() {
+		return uploadMemoryThreshold;
+	}
+
+	/**
+	 * Configures whether requests are measured.
+	 * <p>
+	 * When enabled, the time spent in each phase of handling a request, the
+	 * size of the response and the number of DOM elements created and widgets
+	 * updated are summed per application class, and made available through
+	 * JMX and a {@link MetricsResource}. When disabled, this has a negligible
+	 * overhead.
+	 * <p>
+	 * The default value is <code>false</code>.
+	 * 
+	 * @see RequestMetrics
+	 */
+	public void setMetricsEnabled(boolean enabled) {
+		this.metricsEnabled = enabled;
+	}
+
+	/**
+	 * Returns whether requests are measured.
+	 * 
+	 * @see #setMetricsEnabled(boolean)
+	 */
+	public boolean isMetricsEnabled() {
+		return metricsEnabled;
+	}
+
 	/*
 	 * The following are not yet enabled for JWt
 	 */
@@ -79,20 +79,21 @@ public class DomElement {
 		this.id_ = "";
 		this.numManipulations_ = 0;
 		this.timeOut_ = -1;
-		this.javaScript_ = new EscapeOStream();
+		this.javaScript_ = null;
 		this.javaScriptEvenWhenDeleted_ = "";
 		this.var_ = "";
 		this.globalUnfocused_ = false;
-		this.attributes_ = new HashMap<String, String>();
-		this.removedAttributes_ = new HashSet<String>();
+		this.attributes_ = Collections.emptyMap();
+		this.removedAttributes_ = Collections.emptySet();
 		this.properties_ = new TreeMap<Property, String>();
-		this.eventHandlers_ = new HashMap<String, DomElement.EventHandler>();
-		this.childrenToAdd_ = new ArrayList<DomElement.ChildInsertion>();
-		this.childrenToSave_ = new ArrayList<String>();
-		this.updatedChildren_ = new ArrayList<DomElement>();
-		this.childrenHtml_ = new EscapeOStream();
-		this.timeouts_ = new ArrayList<DomElement.TimeoutEvent>();
+		this.eventHandlers_ = Collections.emptyMap();
+		this.childrenToAdd_ = Collections.emptyList();
+		this.childrenToSave_ = Collections.emptyList();
+		this.updatedChildren_ = Collections.emptyList();
+		this.childrenHtml_ = null;
+		this.timeouts_ = Collections.emptyList();
 		this.elementTagName_ = "";
+		RequestMetrics.domElementCreated();
 	}
 
 	/**
@@ -116,27 +117,69 @@ public class DomElement {
 	 * encoding.
 	 */
 	public static String urlEncodeS(final String url, final String allowed) {
-		StringBuilder result = new StringBuilder();
-		List<Byte> bytes = new ArrayList<Byte>();
-		try {
-			Utils.copyList(url.getBytes("UTF-8"), bytes);
-		} catch (final UnsupportedEncodingException e) {
-		}
-		for (int i = 0; i < bytes.size(); ++i) {
-			char c = toChar(bytes.get(i));
-			if (c <= 31 || c >= 127 || unsafeChars_.indexOf(c) != -1) {
-				if (allowed.indexOf(c) != -1) {
-					result.append((char) c);
+		int i = 0;
+		for (int len = url.length(); i < len; ++i) {
+			char c = url.charAt(i);
+			if (c >= 128 || urlUnsafe_[c] && allowed.indexOf(c) == -1)
+				break;
+		}
+
+		if (i == url.length())
+			return url;
+
+		StringBuilder result = new StringBuilder(url.length() + 16);
+		result.append(url, 0, i);
+		urlEncodeS(result, url, i, allowed);
+		return result.toString();
+	}
+
+	/*
+	 * Encodes url from index start as UTF-8 on the fly, without intermediate
+	 * copies.
+	 */
+	private static void urlEncodeS(final StringBuilder out, final String url,
+			int start, final String allowed) {
+		for (int i = start, len = url.length(); i < len; ++i) {
+			int c = url.charAt(i);
+			if (c < 128) {
+				if (urlUnsafe_[c] && allowed.indexOf(c) == -1)
+					urlEncodeByte(out, c);
+				else
+					out.append((char) c);
+			} else {
+				if (Character.isHighSurrogate((char) c) && i + 1 < len
+						&& Character.isLowSurrogate(url.charAt(i + 1))) {
+					c = Character.toCodePoint((char) c, url.charAt(++i));
+				} else if (Character.isHighSurrogate((char) c)
+						|| Character.isLowSurrogate((char) c)) {
+					/* unpaired surrogate: '?', as in String.getBytes("UTF-8") */
+					c = '?';
+					if (allowed.indexOf(c) == -1)
+						urlEncodeByte(out, c);
+					else
+						out.append((char) c);
+					continue;
+				}
+
+				if (c < 0x800) {
+					urlEncodeByte(out, 0xC0 | (c >> 6));
+					urlEncodeByte(out, 0x80 | (c & 0x3F));
+				} else if (c < 0x10000) {
+					urlEncodeByte(out, 0xE0 | (c >> 12));
+					urlEncodeByte(out, 0x80 | ((c >> 6) & 0x3F));
+					urlEncodeByte(out, 0x80 | (c & 0x3F));
 				} else {
-					result.append('%');
-					result.append(hexLookup(c >> 4));
-					result.append(hexLookup(c));
+					urlEncodeByte(out, 0xF0 | (c >> 18));
+					urlEncodeByte(out, 0x80 | ((c >> 12) & 0x3F));
+					urlEncodeByte(out, 0x80 | ((c >> 6) & 0x3F));
+					urlEncodeByte(out, 0x80 | (c & 0x3F));
 				}
-			} else {
-				result.append((char) c);
 			}
 		}
-		return result.toString();
+	}
+
+	private static void urlEncodeByte(final StringBuilder out, int b) {
+		out.append('%').append(hexLookup(b >> 4)).append(hexLookup(b));
 	}
 
 	/**
@@ -233,15 +276,16 @@ public class DomElement {
 			this.numManipulations_ += 2;
 			if (this.wasEmpty_
 					&& this.canWriteInnerHTML(WApplication.getInstance())) {
-				child.asHTML(this.childrenHtml_, this.javaScript_,
-						this.timeouts_);
+				child.asHTML(this.getChildrenHtmlForUpdate(),
+						this.getJavaScriptForUpdate(),
+						this.getTimeoutsForUpdate());
 				;
 			} else {
-				this.childrenToAdd_
-						.add(new DomElement.ChildInsertion(-1, child));
+				this.getChildrenToAddForUpdate().add(
+						new DomElement.ChildInsertion(-1, child));
 			}
 		} else {
-			this.updatedChildren_.add(child);
+			this.getUpdatedChildrenForUpdate().add(child);
 		}
 	}
 
@@ -253,7 +297,8 @@ public class DomElement {
 	 */
 	public void insertChildAt(DomElement child, int pos) {
 		++this.numManipulations_;
-		this.childrenToAdd_.add(new DomElement.ChildInsertion(pos, child));
+		this.getChildrenToAddForUpdate().add(
+				new DomElement.ChildInsertion(pos, child));
 	}
 
 	/**
@@ -264,7 +309,7 @@ public class DomElement {
 	 * reference the same id will be replaced with the saved child.
 	 */
 	public void saveChild(final String id) {
-		this.childrenToSave_.add(id);
+		this.getChildrenToSaveForUpdate().add(id);
 	}
 
 	/**
@@ -272,8 +317,10 @@ public class DomElement {
 	 */
 	public void setAttribute(final String attribute, final String value) {
 		++this.numManipulations_;
-		this.attributes_.put(attribute, value);
-		this.removedAttributes_.remove(attribute);
+		this.getAttributesForUpdate().put(attribute, value);
+		if (!this.removedAttributes_.isEmpty()) {
+			this.removedAttributes_.remove(attribute);
+		}
 	}
 
 	/**
@@ -296,8 +343,10 @@ public class DomElement {
 	 */
 	public void removeAttribute(final String attribute) {
 		++this.numManipulations_;
-		this.attributes_.remove(attribute);
-		this.removedAttributes_.add(attribute);
+		if (!this.attributes_.isEmpty()) {
+			this.attributes_.remove(attribute);
+		}
+		this.getRemovedAttributesForUpdate().add(attribute);
 	}
 
 	/**
@@ -416,7 +465,7 @@ public class DomElement {
 			}
 		}
 		++this.numManipulations_;
-		this.eventHandlers_.put(eventName,
+		this.getEventHandlersForUpdate().put(eventName,
 				new DomElement.EventHandler(js.toString(), signalName));
 	}
 
@@ -438,8 +487,8 @@ public class DomElement {
 	 * This sets a JavaScript event handler.
 	 */
 	public void setEvent(String eventName, final String jsCode) {
-		this.eventHandlers_.put(eventName, new DomElement.EventHandler(jsCode,
-				""));
+		this.getEventHandlersForUpdate().put(eventName,
+				new DomElement.EventHandler(jsCode, ""));
 	}
 
 	/**
@@ -526,10 +575,10 @@ public class DomElement {
 	public void callMethod(final String method) {
 		++this.numManipulations_;
 		if (this.var_.length() == 0) {
-			this.javaScript_.append("Wt3_3_8").append(".$('").append(this.id_)
-					.append("').");
+			this.getJavaScriptForUpdate().append("Wt3_3_8").append(".$('")
+					.append(this.id_).append("').");
 		} else {
-			this.javaScript_.append(this.var_).append('.');
+			this.getJavaScriptForUpdate().append(this.var_).append('.');
 		}
 		this.javaScript_.append(method).append(";\n");
 	}
@@ -540,7 +589,7 @@ public class DomElement {
 	public void callJavaScript(final String jsCode, boolean evenWhenDeleted) {
 		++this.numManipulations_;
 		if (!evenWhenDeleted) {
-			this.javaScript_.append(jsCode).append('\n');
+			this.getJavaScriptForUpdate().append(jsCode).append('\n');
 		} else {
 			this.javaScriptEvenWhenDeleted_ += jsCode;
 		}
@@ -760,7 +809,7 @@ public class DomElement {
 						}
 					}
 				} else {
-					if (!this.javaScript_.isEmpty()) {
+					if (this.javaScript_ != null && !this.javaScript_.isEmpty()) {
 						out.append(this.javaScript_);
 						return this.var_;
 					}
@@ -1021,9 +1070,14 @@ public class DomElement {
 						this.setJavaScriptEvent(javaScript, i.getKey(),
 								i.getValue(), app);
 					} else {
+						String shared = openingTagOnly ? null : this
+								.getSharedHandler(i.getKey(),
+										i.getValue().jsCode, app);
 						out.append(" on").append(i.getKey()).append('=');
 						fastHtmlAttributeValue(out, attributeValues,
-								i.getValue().jsCode);
+								shared != null ? "return " + shared
+										+ ".call(this,event)"
+										: i.getValue().jsCode);
 					}
 				}
 			}
@@ -1140,12 +1194,14 @@ public class DomElement {
 							timeouts);
 				}
 				out.append(innerHTML);
-				out.append(this.childrenHtml_.toString());
+				if (this.childrenHtml_ != null) {
+					out.append(this.childrenHtml_);
+				}
 				if (renderedType == DomElementType.DomElement_DIV
 						&& app.getEnvironment().getAgent() == WEnvironment.UserAgent.IE6
 						&& innerHTML.length() == 0
 						&& this.childrenToAdd_.isEmpty()
-						&& this.childrenHtml_.isEmpty()) {
+						&& this.isChildrenHtmlEmpty()) {
 					out.append("&nbsp;");
 				}
 				if (renderedType == DomElementType.DomElement_OTHER) {
@@ -1166,8 +1222,10 @@ public class DomElement {
 				}
 			}
 		}
-		javaScript.append(this.javaScriptEvenWhenDeleted_).append(
-				this.javaScript_);
+		javaScript.append(this.javaScriptEvenWhenDeleted_);
+		if (this.javaScript_ != null) {
+			javaScript.append(this.javaScript_);
+		}
 		if (this.timeOut_ != -1) {
 			timeouts.add(new DomElement.TimeoutEvent(this.timeOut_, this.id_,
 					this.timeOutJSRepeat_));
@@ -1316,8 +1374,11 @@ public class DomElement {
 	 */
 	public static void jsStringLiteral(final StringBuilder out, final String s,
 			char delimiter) {
-		EscapeOStream sout = new EscapeOStream(out);
-		jsStringLiteral(sout, s, delimiter);
+		out.append(delimiter);
+		EscapeOStream.escape(out, s,
+				delimiter == '\'' ? EscapeOStream.RuleSet.JsStringLiteralSQuote
+						: EscapeOStream.RuleSet.JsStringLiteralDQuote);
+		out.append(delimiter);
 	}
 
 	/**
@@ -1337,9 +1398,7 @@ public class DomElement {
 	 */
 	public static void htmlAttributeValue(final StringBuilder out,
 			final String s) {
-		EscapeOStream sout = new EscapeOStream(out);
-		sout.pushEscape(EscapeOStream.RuleSet.HtmlAttribute);
-		sout.append(s);
+		EscapeOStream.escape(out, s, EscapeOStream.RuleSet.HtmlAttribute);
 	}
 
 	/**
@@ -1400,7 +1459,7 @@ public class DomElement {
 	 * Returns all custom JavaScript collected in this element.
 	 */
 	public String getJavaScript() {
-		return this.javaScript_.toString();
+		return this.javaScript_ != null ? this.javaScript_.toString() : "";
 	}
 
 	/**
@@ -1410,9 +1469,9 @@ public class DomElement {
 		this.mode_ = DomElement.Mode.ModeUpdate;
 		assert this.replaced_ == null;
 		assert this.insertBefore_ == null;
-		this.attributes_.clear();
-		this.removedAttributes_.clear();
-		this.eventHandlers_.clear();
+		this.attributes_ = Collections.emptyMap();
+		this.removedAttributes_ = Collections.emptySet();
+		this.eventHandlers_ = Collections.emptyMap();
 		for (Iterator<Map.Entry<Property, String>> i_it = this.properties_
 				.entrySet().iterator(); i_it.hasNext();) {
 			Map.Entry<Property, String> i = i_it.next();
@@ -1477,7 +1536,7 @@ public class DomElement {
 	}
 
 	private boolean willRenderInnerHtmlJS(WApplication app) {
-		return !this.childrenHtml_.isEmpty() || this.wasEmpty_
+		return !this.isChildrenHtmlEmpty() || this.wasEmpty_
 				&& this.canWriteInnerHTML(app);
 	}
 
@@ -1737,14 +1796,18 @@ public class DomElement {
 
 	private void setJavaScriptEvent(final EscapeOStream out, String eventName,
 			final DomElement.EventHandler handler, WApplication app) {
-		int fid = nextId_++;
-		out.append("function f").append(fid).append("(event) { ");
-		out.append(handler.jsCode);
-		out.append("}\n");
+		String f = this.getSharedHandler(eventName, handler.jsCode, app);
+		if (f == null) {
+			int fid = nextId_++;
+			out.append("function f").append(fid).append("(event) { ");
+			out.append(handler.jsCode);
+			out.append("}\n");
+			f = "f" + fid;
+		}
 		if (this.globalUnfocused_) {
 			out.append(app.getJavaScriptClass()).append("._p_.bindGlobal('")
 					.append(eventName).append("', '").append(this.id_)
-					.append("', f").append(fid).append(")\n");
+					.append("', ").append(f).append(")\n");
 			return;
 		} else {
 			this.declare(out);
@@ -1754,14 +1817,250 @@ public class DomElement {
 				&& app.getEnvironment().agentIsIE()
 				&& app.getEnvironment().getAgent().getValue() >= WEnvironment.UserAgent.IE9
 						.getValue()) {
-			out.append(".addEventListener('wheel', f").append(fid)
+			out.append(".addEventListener('wheel', ").append(f)
 					.append(", false);\n");
 		} else {
-			out.append(".on").append(eventName).append("=f").append(fid)
+			out.append(".on").append(eventName).append("=").append(f)
 					.append(";\n");
 		}
 	}
 
+	private static final int MIN_SHARED_HANDLER_LENGTH = 64;
+
+	/*
+	 * Returns a reference to a shared function for an event handler body, or
+	 * null if the handler should be rendered in full.
+	 *
+	 * An event handler body which is used by several elements (e.g. the same
+	 * key press handler for every cell of a view) is declared once per page,
+	 * in a client-side table of the application, and elements refer to it
+	 * (see WApplication.bindSharedHandler()). Only handlers which do not
+	 * depend on the scope they are rendered in are shared: an inline handler
+	 * resolves names through the element, its form and the document, and a
+	 * function that is rendered in a response may see the variables of that
+	 * response.
+	 *
+	 * Handlers are not shared while a stateless slot is being learned, since
+	 * learned JavaScript is reused without the declarations.
+	 */
+	private String getSharedHandler(String eventName, String jsCode,
+			WApplication app) {
+		if (this.id_.length() == 0
+				|| !app.getSession().getRenderer().isSharingHandlers()) {
+			return null;
+		}
+		if (jsCode.length() >= MIN_SHARED_HANDLER_LENGTH
+				&& isScopeIndependent(jsCode, app.getJavaScriptClass())) {
+			return app.bindSharedHandler(this.id_, eventName, jsCode);
+		} else {
+			app.unbindSharedHandler(this.id_, eventName);
+			return null;
+		}
+	}
+
+	private static final Set<String> jsKeywords_ = new HashSet<String>(
+			Arrays.asList("break", "case", "catch", "continue", "debugger",
+					"default", "delete", "do", "else", "false", "finally",
+					"for", "if", "in", "instanceof", "new", "null", "return",
+					"switch", "this", "throw", "true", "try", "typeof",
+					"void", "while"));
+	private static final Set<String> jsGlobals_ = new HashSet<String>(
+			Arrays.asList("window", "document", "event", "Math", "JSON",
+					"parseInt", "parseFloat", "isNaN", "isFinite",
+					"setTimeout", "clearTimeout", "setInterval",
+					"clearInterval", "encodeURIComponent",
+					"decodeURIComponent", "Date", "String", "Number",
+					"Boolean", "Array", "Object", "RegExp", "Error", "NaN",
+					"Infinity", "undefined", "jQuery", "$"));
+	private static final Pattern wtClass_ = Pattern.compile("Wt\\d+_\\d+_\\d+");
+
+	/*
+	 * Returns whether an event handler body only refers to its own variables
+	 * and functions, to the application and Wt objects and to a fixed set of
+	 * globals, so that it may be moved into a function that is declared
+	 * elsewhere.
+	 *
+	 * This is a conservative analysis: code which cannot be analysed without
+	 * a full parser (regular expressions, comments, template strings, arrow
+	 * functions and with statements) is not accepted.
+	 */
+	static boolean isScopeIndependent(String jsCode, String appClass) {
+		List<String> tokens = tokenizeJavaScript(jsCode);
+		if (tokens == null) {
+			return false;
+		}
+		int n = tokens.size();
+		List<Set<String>> scopes = new ArrayList<Set<String>>();
+		scopes.add(new HashSet<String>());
+		/*
+		 * The first pass collects the declarations of each function, since
+		 * these are visible in the whole function
+		 */
+		for (int pass = 0; pass < 2; ++pass) {
+			boolean check = pass == 1;
+			int scopeCount = 1;
+			List<Integer> scopeStack = new ArrayList<Integer>();
+			List<Integer> scopeDepths = new ArrayList<Integer>();
+			scopeStack.add(0);
+			scopeDepths.add(0);
+			int depth = 0;
+			boolean declaring = false;
+			int declaringDepth = 0;
+			boolean declareNext = false;
+			int functionScope = -1;
+			int paramsDepth = -1;
+			int bodyScope = -1;
+			for (int i = 0; i < n; ++i) {
+				String t = tokens.get(i);
+				String prev = i > 0 ? tokens.get(i - 1) : ";";
+				String next = i + 1 < n ? tokens.get(i + 1) : ";";
+				Set<String> scope = scopes.get(scopeStack.get(scopeStack
+						.size() - 1));
+				char c = t.charAt(0);
+				if (isJsIdentifierStart(c)) {
+					if (prev.equals(".")) {
+						continue;
+					} else if (t.equals("var") || t.equals("let")
+							|| t.equals("const")) {
+						declaring = true;
+						declaringDepth = depth;
+						declareNext = true;
+					} else if (t.equals("function")) {
+						functionScope = scopeCount++;
+						if (!check) {
+							scopes.add(new HashSet<String>());
+						}
+						if (isJsIdentifierStart(next.charAt(0))) {
+							scopes.get(functionScope).add(next);
+							if (prev.equals(";") || prev.equals("{")
+									|| prev.equals("}")) {
+								scope.add(next);
+							}
+							++i;
+						}
+					} else if (t.equals("catch")) {
+						declareNext = true;
+					} else if (t.equals("with")) {
+						return false;
+					} else if (jsKeywords_.contains(t)) {
+						continue;
+					} else if (next.equals(":")
+							&& (prev.equals("{") || prev.equals(","))) {
+						continue;
+					} else if (paramsDepth != -1) {
+						scopes.get(functionScope).add(t);
+					} else if (declareNext) {
+						scope.add(t);
+						declareNext = false;
+					} else if (check && !jsGlobals_.contains(t)
+							&& !t.equals(appClass)
+							&& !wtClass_.matcher(t).matches()) {
+						boolean declared = false;
+						for (int j = scopeStack.size() - 1; j >= 0
+								&& !declared; --j) {
+							declared = scopes.get(scopeStack.get(j))
+									.contains(t);
+						}
+						if (!declared) {
+							return false;
+						}
+					}
+				} else if (c == '(' || c == '[' || c == '{') {
+					++depth;
+					if (c == '(' && functionScope != -1 && paramsDepth == -1) {
+						paramsDepth = depth;
+					} else if (c == '{' && bodyScope != -1) {
+						scopeStack.add(bodyScope);
+						scopeDepths.add(depth);
+						bodyScope = -1;
+					}
+				} else if (c == ')' || c == ']' || c == '}') {
+					if (c == ')' && depth == paramsDepth) {
+						paramsDepth = -1;
+						bodyScope = functionScope;
+						functionScope = -1;
+					} else if (c == '}'
+							&& scopeDepths.get(scopeDepths.size() - 1) == depth) {
+						scopeStack.remove(scopeStack.size() - 1);
+						scopeDepths.remove(scopeDepths.size() - 1);
+					}
+					--depth;
+					if (declaring && depth < declaringDepth) {
+						declaring = false;
+					}
+				} else if (c == ',') {
+					if (declaring && depth == declaringDepth) {
+						declareNext = true;
+					}
+				} else if (c == ';') {
+					if (declaring && depth == declaringDepth) {
+						declaring = false;
+					}
+				} else if (c == '=') {
+					if (next.equals(">")) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Splits JavaScript code in identifiers, single punctuation characters
+	 * and literals (which are returned as "0"), or returns null if the code
+	 * contains a '/', a '`' or a non-ASCII character outside a string.
+	 */
+	private static List<String> tokenizeJavaScript(String jsCode) {
+		List<String> result = new ArrayList<String>();
+		int n = jsCode.length();
+		for (int i = 0; i < n;) {
+			char c = jsCode.charAt(i);
+			if (Character.isWhitespace(c)) {
+				++i;
+			} else if (isJsIdentifierStart(c)) {
+				int start = i;
+				while (i < n && isJsIdentifierPart(jsCode.charAt(i))) {
+					++i;
+				}
+				result.add(jsCode.substring(start, i));
+			} else if (c >= '0' && c <= '9') {
+				while (i < n
+						&& (isJsIdentifierPart(jsCode.charAt(i)) || jsCode
+								.charAt(i) == '.')) {
+					++i;
+				}
+				result.add("0");
+			} else if (c == '\'' || c == '"') {
+				for (++i; i < n && jsCode.charAt(i) != c; ++i) {
+					if (jsCode.charAt(i) == '\\') {
+						++i;
+					}
+				}
+				if (i >= n) {
+					return null;
+				}
+				++i;
+				result.add("0");
+			} else if (c == '/' || c == '`' || c > 127) {
+				return null;
+			} else {
+				result.add(String.valueOf(c));
+				++i;
+			}
+		}
+		return result;
+	}
+
+	private static boolean isJsIdentifierStart(char c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_'
+				|| c == '$';
+	}
+
+	private static boolean isJsIdentifierPart(char c) {
+		return isJsIdentifierStart(c) || c >= '0' && c <= '9';
+	}
+
 	private void createElement(final EscapeOStream out, WApplication app,
 			final String domInsertJS) {
 		if (this.var_.length() == 0) {
@@ -1839,7 +2138,7 @@ public class DomElement {
 			if (this.type_ == DomElementType.DomElement_DIV
 					&& app.getEnvironment().getAgent() == WEnvironment.UserAgent.IE6
 					|| !this.childrenToAdd_.isEmpty()
-					|| !this.childrenHtml_.isEmpty() || innerHTML.length() != 0) {
+					|| !this.isChildrenHtmlEmpty() || innerHTML.length() != 0) {
 				this.declare(out);
 				out.append("Wt3_3_8.setHtml(").append(this.var_).append(",'");
 				out.pushEscape(EscapeOStream.RuleSet.JsStringLiteralSQuote);
@@ -1849,12 +2148,14 @@ public class DomElement {
 					this.childrenToAdd_.get(i).child.asHTML(out, js, timeouts);
 				}
 				out.append(innerHTML);
-				out.append(this.childrenHtml_.toString());
+				if (this.childrenHtml_ != null) {
+					out.append(this.childrenHtml_);
+				}
 				if (this.type_ == DomElementType.DomElement_DIV
 						&& app.getEnvironment().getAgent() == WEnvironment.UserAgent.IE6
 						&& this.childrenToAdd_.isEmpty()
 						&& innerHTML.length() == 0
-						&& this.childrenHtml_.isEmpty()) {
+						&& this.isChildrenHtmlEmpty()) {
 					out.append("&nbsp;");
 				}
 				out.popEscape();
@@ -1885,12 +2186,84 @@ public class DomElement {
 	}
 
 	private void renderDeferredJavaScript(final EscapeOStream out) {
-		if (!this.javaScript_.isEmpty()) {
+		if (this.javaScript_ != null && !this.javaScript_.isEmpty()) {
 			this.declare(out);
 			out.append(this.javaScript_).append('\n');
 		}
 	}
 
+	/*
+	 * Most elements are a small update with only a few manipulations. The
+	 * collections and JavaScript of an element are therefore shared empty
+	 * instances (or null) until they are first written.
+	 */
+	private Map<String, String> getAttributesForUpdate() {
+		if (!(this.attributes_ instanceof HashMap)) {
+			this.attributes_ = new HashMap<String, String>();
+		}
+		return this.attributes_;
+	}
+
+	private Set<String> getRemovedAttributesForUpdate() {
+		if (!(this.removedAttributes_ instanceof HashSet)) {
+			this.removedAttributes_ = new HashSet<String>();
+		}
+		return this.removedAttributes_;
+	}
+
+	private Map<String, DomElement.EventHandler> getEventHandlersForUpdate() {
+		if (!(this.eventHandlers_ instanceof HashMap)) {
+			this.eventHandlers_ = new HashMap<String, DomElement.EventHandler>();
+		}
+		return this.eventHandlers_;
+	}
+
+	private List<DomElement.ChildInsertion> getChildrenToAddForUpdate() {
+		if (!(this.childrenToAdd_ instanceof ArrayList)) {
+			this.childrenToAdd_ = new ArrayList<DomElement.ChildInsertion>();
+		}
+		return this.childrenToAdd_;
+	}
+
+	private List<String> getChildrenToSaveForUpdate() {
+		if (!(this.childrenToSave_ instanceof ArrayList)) {
+			this.childrenToSave_ = new ArrayList<String>();
+		}
+		return this.childrenToSave_;
+	}
+
+	private List<DomElement> getUpdatedChildrenForUpdate() {
+		if (!(this.updatedChildren_ instanceof ArrayList)) {
+			this.updatedChildren_ = new ArrayList<DomElement>();
+		}
+		return this.updatedChildren_;
+	}
+
+	private List<DomElement.TimeoutEvent> getTimeoutsForUpdate() {
+		if (!(this.timeouts_ instanceof ArrayList)) {
+			this.timeouts_ = new ArrayList<DomElement.TimeoutEvent>();
+		}
+		return this.timeouts_;
+	}
+
+	private EscapeOStream getJavaScriptForUpdate() {
+		if (this.javaScript_ == null) {
+			this.javaScript_ = new EscapeOStream();
+		}
+		return this.javaScript_;
+	}
+
+	private EscapeOStream getChildrenHtmlForUpdate() {
+		if (this.childrenHtml_ == null) {
+			this.childrenHtml_ = new EscapeOStream();
+		}
+		return this.childrenHtml_;
+	}
+
+	private boolean isChildrenHtmlEmpty() {
+		return this.childrenHtml_ == null || this.childrenHtml_.isEmpty();
+	}
+
 	private DomElement.Mode mode_;
 	private boolean wasEmpty_;
 	private int removeAllChildren_;
@@ -1987,6 +2360,12 @@ public class DomElement {
 			"border-collapse", "pageBreakBefore", "pageBreakAfter", "zoom",
 			"visibility", "display", "boxSizing" };
 	private static final String unsafeChars_ = " $&+,:;=?@'\"<>#%{}|\\^~[]`/";
+	private static final boolean[] urlUnsafe_ = new boolean[128];
+
+	static {
+		for (int c = 0; c < 128; ++c)
+			urlUnsafe_[c] = c <= 31 || c == 127 || unsafeChars_.indexOf(c) != -1;
+	}
 
 	static char hexLookup(int n) {
 		return "0123456789abcdef".charAt(n & 0xF);
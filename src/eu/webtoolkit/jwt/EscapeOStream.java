@@ -19,21 +19,24 @@ public class EscapeOStream {
 
 	public EscapeOStream(Appendable sink) {
 		sink_ = sink;
-		mixed_ = null;
-		special_ = "";
-		ruleSets_ = new ArrayList<RuleSet>();
+		table_ = null;
+		ruleSets_ = null;
 	}
 
 	@SuppressWarnings("unchecked")
 	public EscapeOStream push() {
 		EscapeOStream result = new EscapeOStream(sink_);
 
-		result.ruleSets_ = (ArrayList<RuleSet>) ruleSets_.clone();
+		if (ruleSets_ != null)
+			result.ruleSets_ = (ArrayList<RuleSet>) ruleSets_.clone();
+		result.table_ = table_;
 
 		return result;
 	}
 
 	public void pushEscape(RuleSet rules) {
+		if (ruleSets_ == null)
+			ruleSets_ = new ArrayList<RuleSet>();
 		ruleSets_.add(rules);
 		mixRules();
 	}
@@ -45,21 +48,19 @@ public class EscapeOStream {
 
 
 	public EscapeOStream append(EscapeOStream stream) {
-		return append(stream.toString());
+		if (stream.sink_ instanceof CharSequence && stream.sink_ != sink_)
+			return append((CharSequence) stream.sink_, this);
+		else
+			return append(stream.toString());
 	}
 
 	public EscapeOStream append(char c) {
 		try {
-			if (special_ == "")
+			String r = table_ != null && c < TABLE_SIZE ? table_[c] : null;
+			if (r != null)
+				sink_.append(r);
+			else
 				sink_.append(c);
-			else {
-				int i = special_.indexOf(c);
-
-				if (i != -1)
-					sink_.append(mixed_.get(i).s);
-				else
-					sink_.append(c);
-			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -73,23 +74,28 @@ public class EscapeOStream {
 	}
 
 	public EscapeOStream append(String s, EscapeOStream rules) {
+		return append((CharSequence) s, rules);
+	}
+
+	EscapeOStream append(CharSequence s, EscapeOStream rules) {
 		try {
-			if (rules.special_ == null) {
+			if (rules.table_ == null)
 				sink_.append(s);
-				return this;
-			} else
-				put(s, rules);
+			else
+				put(sink_, s, rules.table_);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 
 		return this;
-
 	}
 
 	public EscapeOStream append(int i) {
 		try {
-			sink_.append(String.valueOf(i));
+			if (sink_ instanceof StringBuilder)
+				((StringBuilder) sink_).append(i);
+			else
+				sink_.append(String.valueOf(i));
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -108,140 +114,165 @@ public class EscapeOStream {
 
 
 	public boolean isEmpty() {
-		return sink_.toString().length() == 0;
+		if (sink_ instanceof CharSequence)
+			return ((CharSequence) sink_).length() == 0;
+		else
+			return sink_.toString().length() == 0;
 	}
 
 	public void flush() {
 	}
 
-	private Appendable sink_ = null;
-
-	private static class Entry {
-		public Entry(char c_, String s_) {
-			c = c_;
-			s = s_;
+	/**
+	 * Appends a string to a string builder, escaped according to a rule set.
+	 * <p>
+	 * This is equivalent to appending the string to an EscapeOStream on which
+	 * the rule set has been pushed, without creating one.
+	 */
+	public static void escape(StringBuilder out, CharSequence s, RuleSet rules) {
+		try {
+			put(out, s, standardTables_[rules.ordinal()]);
+		} catch (IOException e) {
+			/* StringBuilder does not throw */
 		}
+	}
 
-		public Entry clone() {
-			return new Entry(c, s);
+	/**
+	 * Returns the length of a string after escaping according to a rule set.
+	 */
+	public static int escapedLength(CharSequence s, RuleSet rules) {
+		String[] table = standardTables_[rules.ordinal()];
+		int result = s.length();
+		for (int i = 0, len = s.length(); i < len; ++i) {
+			char c = s.charAt(i);
+			if (c < TABLE_SIZE && table[c] != null)
+				result += table[c].length() - 1;
 		}
-
-		public char c;
-		public String s = "";
+		return result;
 	}
 
-	private ArrayList<Entry> mixed_;
-	private String special_;
+	private Appendable sink_ = null;
+
+	/*
+	 * The escape tables map a (7-bit) character to its replacement, or to
+	 * null when the character is not escaped. All escaped characters are
+	 * ASCII.
+	 */
+	private static final int TABLE_SIZE = 128;
+
+	private String[] table_;
 
 	private void mixRules() {
 		int ruleSetsSize = ruleSets_.size();
 
-		if (ruleSetsSize == 0) {
-			mixed_ = null;
-			special_ = "";
-		} else if (ruleSetsSize == 1) {
-			mixed_ = standardSets_.get(ruleSets_.get(0).ordinal());
-			special_ = standardSetsSpecial_.get(ruleSets_.get(0).ordinal());
-		} else {
-			mixed_ = new ArrayList<Entry>();
-			for (int i = ruleSetsSize - 1; i >= 0; --i) {
-				ArrayList<Entry> toMix = standardSets_.get(ruleSets_.get(i).ordinal());
-
-				for (int j = 0; j < mixed_.size(); ++j)
-					for (int k = 0; k < toMix.size(); ++k)
-						mixed_.get(j).s = mixed_.get(j).s.replace(toMix.get(k).c + "", toMix.get(k).s);
-
-				for (int j = 0; j < toMix.size(); ++j) {
-					mixed_.add((Entry) toMix.get(j).clone());
-					special_ += toMix.get(j).c;
-				}
-			}
+		if (ruleSetsSize == 0)
+			table_ = null;
+		else if (ruleSetsSize == 1)
+			table_ = standardTables_[ruleSets_.get(0).ordinal()];
+		else if (ruleSetsSize == 2)
+			table_ = mixedTables_[ruleSets_.get(0).ordinal()][ruleSets_.get(1).ordinal()];
+		else {
+			String[] table = standardTables_[ruleSets_.get(ruleSetsSize - 1).ordinal()];
+			for (int i = ruleSetsSize - 2; i >= 0; --i)
+				table = mix(standardTables_[ruleSets_.get(i).ordinal()], table);
+			table_ = table;
 		}
 	}
 
-	private void put(String s, EscapeOStream rules) {
-		try {
-			char [] sA = s.toCharArray();
-			char [] specialA = rules.special_.toCharArray();
-
-			for (int pos = 0; pos != -1;) {
-				int lastPos = pos;
-				pos = StringUtils.strpbrk(sA, pos, specialA);
-				if (pos != -1) {
-					char f = sA[pos];
-
-					sink_.append(s.substring(lastPos, pos));
-
-					for (int i = 0; i < rules.mixed_.size(); ++i) {
-						if (rules.mixed_.get(i).c == f) {
-							sink_.append(rules.mixed_.get(i).s);
-							break;
-						}
-					}
-
-					pos = pos + 1;
+	/*
+	 * Combines an outer rule set with an inner rule set (pushed later): the
+	 * inner replacement is escaped according to the outer rules, and
+	 * characters that are not escaped by the inner rules are escaped
+	 * according to the outer rules.
+	 */
+	private static String[] mix(String[] outer, String[] inner) {
+		String[] result = new String[TABLE_SIZE];
+		for (int c = 0; c < TABLE_SIZE; ++c) {
+			if (inner[c] != null) {
+				StringBuilder s = new StringBuilder();
+				try {
+					put(s, inner[c], outer);
+				} catch (IOException e) {
+					/* a StringBuilder does not throw */
+					throw new RuntimeException(e);
+				}
+				result[c] = s.toString();
+			} else
+				result[c] = outer[c];
+		}
+		return result;
+	}
 
-				} else {
-					sink_.append(s.substring(lastPos));
+	private static void put(Appendable sink, CharSequence s, String[] table) throws IOException {
+		int lastPos = 0;
+		for (int pos = 0, len = s.length(); pos < len; ++pos) {
+			char c = s.charAt(pos);
+			if (c < TABLE_SIZE) {
+				String r = table[c];
+				if (r != null) {
+					if (pos > lastPos)
+						sink.append(s, lastPos, pos);
+					sink.append(r);
+					lastPos = pos + 1;
 				}
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
+
+		if (lastPos == 0)
+			sink.append(s);
+		else if (lastPos < s.length())
+			sink.append(s, lastPos, s.length());
 	}
-	
+
 	public void clear() {
 		((StringBuilder)sink_).delete(0, ((StringBuilder)sink_).length());
 	}
-	
+
 	public String toString() {
 		return sink_.toString();
 	}
 
-	private ArrayList<RuleSet> ruleSets_ = new ArrayList<RuleSet>();
+	/* allocated by the first pushEscape() */
+	private ArrayList<RuleSet> ruleSets_;
+
+	private static final String[][] standardTables_ = new String[RuleSet.values().length][];
+	private static final String[][][] mixedTables_ = new String[RuleSet.values().length][RuleSet.values().length][];
 
-	private static ArrayList<String> standardSetsSpecial_ = new ArrayList<String>();
-	private static ArrayList<Entry> htmlAttributeEntries_ = new ArrayList<Entry>();
-	private static ArrayList<Entry> jsStringLiteralSQuoteEntries_ = new ArrayList<Entry>();
-	private static ArrayList<Entry> jsStringLiteralDQuoteEntries_ = new ArrayList<Entry>();
-	private static ArrayList<ArrayList<Entry>> standardSets_ = new ArrayList<ArrayList<Entry>>();
-	private static ArrayList<Entry> plainTextEntries_ = new ArrayList<Entry>();
-	private static ArrayList<Entry> plainTextEntriesNewLines_ = new ArrayList<Entry>(); 
-	
 	static {
-		standardSetsSpecial_.add("&\"<");
-		standardSetsSpecial_.add("\\\n\r\t'");
-		standardSetsSpecial_.add("\\\n\r\t\"");
-		standardSetsSpecial_.add("&><");
-		standardSetsSpecial_.add("&><\n");
-
-		htmlAttributeEntries_.add(new Entry('&', "&amp;"));
-		htmlAttributeEntries_.add(new Entry('\"', "&#34;"));
-		htmlAttributeEntries_.add(new Entry('<', "&lt;"));
-		
-		plainTextEntries_.add(new Entry('&', "&amp;"));
-		plainTextEntries_.add(new Entry('>', "&gt;"));
-		plainTextEntries_.add(new Entry('<', "&lt;"));
-		
-		plainTextEntriesNewLines_.addAll(plainTextEntries_);
-		plainTextEntriesNewLines_.add(new Entry('\n', "<br />"));
-
-		jsStringLiteralSQuoteEntries_.add(new Entry('\\', "\\\\"));
-		jsStringLiteralSQuoteEntries_.add(new Entry('\n', "\\n"));
-		jsStringLiteralSQuoteEntries_.add(new Entry('\r', "\\r"));
-		jsStringLiteralSQuoteEntries_.add(new Entry('\t', "\\t"));
-		jsStringLiteralSQuoteEntries_.add(new Entry('\'', "\\'"));
-
-		jsStringLiteralDQuoteEntries_.add(new Entry('\\', "\\\\"));
-		jsStringLiteralDQuoteEntries_.add(new Entry('\n', "\\n"));
-		jsStringLiteralDQuoteEntries_.add(new Entry('\r', "\\r"));
-		jsStringLiteralDQuoteEntries_.add(new Entry('\t', "\\t"));
-		jsStringLiteralDQuoteEntries_.add(new Entry('"', "\\\""));
-
-		standardSets_.add(htmlAttributeEntries_);
-		standardSets_.add(jsStringLiteralSQuoteEntries_);
-		standardSets_.add(jsStringLiteralDQuoteEntries_);
-		standardSets_.add(plainTextEntries_);
-		standardSets_.add(plainTextEntriesNewLines_);
+		for (RuleSet r : RuleSet.values())
+			standardTables_[r.ordinal()] = new String[TABLE_SIZE];
+
+		String[] htmlAttribute = standardTables_[RuleSet.HtmlAttribute.ordinal()];
+		htmlAttribute['&'] = "&amp;";
+		htmlAttribute['\"'] = "&#34;";
+		htmlAttribute['<'] = "&lt;";
+
+		String[] plainText = standardTables_[RuleSet.PlainText.ordinal()];
+		plainText['&'] = "&amp;";
+		plainText['>'] = "&gt;";
+		plainText['<'] = "&lt;";
+
+		String[] plainTextNewLines = standardTables_[RuleSet.PlainTextNewLines.ordinal()];
+		System.arraycopy(plainText, 0, plainTextNewLines, 0, TABLE_SIZE);
+		plainTextNewLines['\n'] = "<br />";
+
+		String[] jsSQuote = standardTables_[RuleSet.JsStringLiteralSQuote.ordinal()];
+		jsSQuote['\\'] = "\\\\";
+		jsSQuote['\n'] = "\\n";
+		jsSQuote['\r'] = "\\r";
+		jsSQuote['\t'] = "\\t";
+		jsSQuote['\''] = "\\'";
+
+		String[] jsDQuote = standardTables_[RuleSet.JsStringLiteralDQuote.ordinal()];
+		jsDQuote['\\'] = "\\\\";
+		jsDQuote['\n'] = "\\n";
+		jsDQuote['\r'] = "\\r";
+		jsDQuote['\t'] = "\\t";
+		jsDQuote['"'] = "\\\"";
+
+		for (RuleSet outer : RuleSet.values())
+			for (RuleSet inner : RuleSet.values())
+				mixedTables_[outer.ordinal()][inner.ordinal()]
+					= mix(standardTables_[outer.ordinal()], standardTables_[inner.ordinal()]);
 	}
 }
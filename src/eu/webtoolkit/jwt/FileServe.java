@@ -6,12 +6,230 @@
 package eu.webtoolkit.jwt;
 
 import java.io.IOException;
-import java.io.Writer;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import eu.webtoolkit.jwt.servlet.WebResponse;
 
 class FileServe {
+	/*
+	 * A template, compiled into a list of segments: literal text, variables
+	 * and the conditional markers $if_NAME, $ifnot_NAME and $endif.
+	 */
+	static class Template {
+		private static final int TEXT = 0;
+		private static final int VAR = 1;
+		private static final int IF = 2;
+		private static final int IFNOT = 3;
+		private static final int ENDIF = 4;
+
+		private static final Map<String, Template> compiled_ = new ConcurrentHashMap<String, Template>();
+
+		private final int[] kinds_;
+		private final String[] values_;
+		private byte[][] encoded_;
+
+		private Template(List<Integer> kinds, List<String> values) {
+			this.kinds_ = new int[kinds.size()];
+			for (int i = 0; i < kinds_.length; ++i)
+				this.kinds_[i] = kinds.get(i);
+			this.values_ = values.toArray(new String[values.size()]);
+		}
+
+		/*
+		 * Returns the compiled version of a template; templates are compiled
+		 * only once.
+		 */
+		static Template get(String contents) {
+			Template result = compiled_.get(contents);
+			if (result == null) {
+				result = compile(contents);
+				compiled_.put(contents, result);
+			}
+			return result;
+		}
+
+		static Template compile(String contents) {
+			List<Integer> kinds = new ArrayList<Integer>();
+			List<String> values = new ArrayList<String>();
+
+			int start = 0;
+			for (;;) {
+				int varStart = contents.indexOf("_$_", start);
+				if (varStart == -1)
+					break;
+
+				int varEnd = contents.indexOf("_$_", varStart + 3);
+				if (varEnd == -1)
+					break;
+
+				if (varStart > start) {
+					kinds.add(TEXT);
+					values.add(contents.substring(start, varStart));
+				}
+
+				String var = contents.substring(varStart + 3, varEnd);
+				start = varEnd + 3;
+
+				if (var.length() > 0 && var.charAt(0) == '$') {
+					start += 2; // skip ()
+
+					int _pos = var.indexOf('_');
+					String fname = _pos == -1 ? var.substring(1) : var.substring(1, _pos);
+					if (fname.equals("endif")) {
+						kinds.add(ENDIF);
+						values.add(null);
+					} else {
+						String farg = var.substring(_pos + 1);
+						kinds.add(fname.equals("ifnot") ? IFNOT : IF);
+						values.add(farg);
+					}
+				} else {
+					kinds.add(VAR);
+					values.add(var);
+				}
+			}
+
+			if (start < contents.length()) {
+				kinds.add(TEXT);
+				values.add(contents.substring(start));
+			}
+
+			return new Template(kinds, values);
+		}
+
+		/*
+		 * Returns a new template in which the given conditions and variables
+		 * have been applied. Conditions and variables that are not given are
+		 * kept, and adjacent text is merged.
+		 */
+		Template bind(Map<String, Boolean> conditions, Map<String, String> vars) {
+			List<Integer> kinds = new ArrayList<Integer>();
+			List<String> values = new ArrayList<String>();
+			StringBuilder text = new StringBuilder();
+
+			/* for each open condition: 1 = kept, 0 = resolved and matching, -1 = resolved and not matching */
+			List<Integer> open = new ArrayList<Integer>();
+			int noMatchConditions = 0;
+
+			for (int i = 0; i < kinds_.length; ++i) {
+				int kind = kinds_[i];
+				String value = values_[i];
+
+				switch (kind) {
+				case ENDIF:
+					if (!open.isEmpty()) {
+						int o = open.remove(open.size() - 1);
+						if (o == -1)
+							--noMatchConditions;
+						else if (o == 1) {
+							flushText(text, kinds, values);
+							kinds.add(ENDIF);
+							values.add(null);
+						}
+					}
+					break;
+				case IF:
+				case IFNOT:
+					if (noMatchConditions > 0) {
+						open.add(-1);
+						++noMatchConditions;
+					} else {
+						Boolean c = conditions.get(value);
+						if (c == null) {
+							open.add(1);
+							flushText(text, kinds, values);
+							kinds.add(kind);
+							values.add(value);
+						} else if (c.booleanValue() == (kind == IF))
+							open.add(0);
+						else {
+							open.add(-1);
+							++noMatchConditions;
+						}
+					}
+					break;
+				case VAR:
+					if (noMatchConditions == 0) {
+						String v = vars.get(value);
+						if (v != null)
+							text.append(v);
+						else {
+							flushText(text, kinds, values);
+							kinds.add(VAR);
+							values.add(value);
+						}
+					}
+					break;
+				default:
+					if (noMatchConditions == 0)
+						text.append(value);
+				}
+			}
+
+			flushText(text, kinds, values);
+
+			return new Template(kinds, values);
+		}
+
+		private static void flushText(StringBuilder text, List<Integer> kinds, List<String> values) {
+			if (text.length() > 0) {
+				kinds.add(TEXT);
+				values.add(text.toString());
+				text.setLength(0);
+			}
+		}
+
+		/*
+		 * Returns a new template with literal text prepended. The text is not
+		 * parsed for variables or conditions.
+		 */
+		Template prepend(String text) {
+			List<Integer> kinds = new ArrayList<Integer>();
+			List<String> values = new ArrayList<String>();
+			kinds.add(TEXT);
+			values.add(text);
+			for (int i = 0; i < kinds_.length; ++i) {
+				if (i == 0 && kinds_[i] == TEXT)
+					values.set(0, text + values_[i]);
+				else {
+					kinds.add(kinds_[i]);
+					values.add(values_[i]);
+				}
+			}
+			return new Template(kinds, values);
+		}
+
+		/*
+		 * Pre-encodes the literal text of this template as UTF-8, for use by
+		 * FileServe.stream(WebResponse).
+		 */
+		Template encode() {
+			byte[][] encoded = new byte[kinds_.length][];
+			for (int i = 0; i < kinds_.length; ++i)
+				if (kinds_[i] == TEXT) {
+					try {
+						encoded[i] = values_[i].getBytes("UTF-8");
+					} catch (UnsupportedEncodingException e) {
+						throw new WtException("Internal error: " + e.getMessage());
+					}
+				}
+			this.encoded_ = encoded;
+			return this;
+		}
+	}
+
 	public FileServe(String contents) {
-		this.template_ = contents;
+		this(Template.get(contents));
+	}
+
+	public FileServe(Template template) {
+		this.template_ = template;
 		this.currentPos_ = 0;
 		this.vars_ = new HashMap<String, String>();
 		this.conditions_ = new HashMap<String, Boolean>();
@@ -38,79 +256,82 @@ class FileServe {
 	}
 
 	public void streamUntil(StringBuilder out, String until) throws IOException {
-		String currentVar = "";
-		boolean readingVar = false;
-		int start = currentPos_;
-		int noMatchConditions = 0;
-
-		for (; currentPos_ < template_.length(); ++currentPos_) {
-			if (readingVar) {
-				if (template_.startsWith("_$_", currentPos_)) {
-					if (currentVar.charAt(0) == '$') {
-						int _pos = currentVar.indexOf('_');
-						String fname = _pos == -1 ? currentVar.substring(1) : currentVar.substring(1, _pos);
-
-						currentPos_ += 2; // skip ()
-						
-						if (fname.equals("endif")) {
-							if (noMatchConditions > 0)
-								--noMatchConditions;
-						} else {
-							String farg = currentVar.substring(_pos + 1);
-
-							Boolean i = conditions_.get(farg);
-
-							if (i == null)
-								throw new WtException("Internal error: could not find condition: " + farg);
-
-							boolean c = i;
-							if (fname.equals("if"))
-								;
-							else if (fname.equals("ifnot"))
-								c = !c;
-
-							if (!c || noMatchConditions > 0)
-								++noMatchConditions;
-						}
-					} else {
-						if (currentVar.equals(until)) {
-							this.currentPos_ += 3;
-							return;
-						}
+		final int[] kinds = template_.kinds_;
+		final String[] values = template_.values_;
 
-						String v = vars_.get(currentVar);
-						if (v == null) {
-							throw new WtException("Internal error: could not find variable: " + currentVar);
-						}
+		for (; currentPos_ < kinds.length; ++currentPos_) {
+			int kind = kinds[currentPos_];
+			if (kind == Template.VAR && values[currentPos_].equals(until)) {
+				++currentPos_;
+				return;
+			}
 
-						if (noMatchConditions == 0)
-							out.append(v);					
-					}
+			String s = nextText(kind, values[currentPos_]);
+			if (s != null)
+				out.append(s);
+		}
+	}
 
-					readingVar = false;
-					start = this.currentPos_ + 3;
-					this.currentPos_ += 2;
-				} else {
-					currentVar += template_.charAt(currentPos_);
-				}
+	/*
+	 * Streams the template to a response output stream: pre-encoded literal
+	 * text (see Template.encode()) is written as is, and only variables are
+	 * encoded.
+	 */
+	public void stream(WebResponse response) throws IOException {
+		final int[] kinds = template_.kinds_;
+		final String[] values = template_.values_;
+		final byte[][] encoded = template_.encoded_;
+
+		response.out().flush();
+		OutputStream stream = response.getOutputStream();
+		for (; currentPos_ < kinds.length; ++currentPos_) {
+			int kind = kinds[currentPos_];
+			if (kind == Template.TEXT && encoded != null) {
+				if (noMatchConditions_ == 0)
+					stream.write(encoded[currentPos_]);
 			} else {
-				if (template_.startsWith("_$_", currentPos_)) {
-					if (noMatchConditions == 0 && (currentPos_ - start > 0)) {
-						out.append(this.template_.substring(start, this.currentPos_));
-					}
-					this.currentPos_ += 2;
-					readingVar = true;
-					currentVar = "";
-				}
+				String s = nextText(kind, values[currentPos_]);
+				if (s != null)
+					stream.write(s.getBytes("UTF-8"));
 			}
 		}
-		if (noMatchConditions == 0 && (currentPos_ - start > 0)) {
-			out.append(this.template_.substring(start, this.currentPos_));
+	}
+
+	private String nextText(int kind, String value) {
+		switch (kind) {
+		case Template.ENDIF:
+			if (noMatchConditions_ > 0)
+				--noMatchConditions_;
+			return null;
+		case Template.IF:
+		case Template.IFNOT:
+			Boolean i = conditions_.get(value);
+
+			if (i == null)
+				throw new WtException("Internal error: could not find condition: " + value);
+
+			boolean c = i;
+			if (kind == Template.IFNOT)
+				c = !c;
+
+			if (!c || noMatchConditions_ > 0)
+				++noMatchConditions_;
+			return null;
+		case Template.VAR:
+			String v = vars_.get(value);
+			if (v == null) {
+				throw new WtException("Internal error: could not find variable: " + value);
+			}
+
+			return noMatchConditions_ == 0 ? v : null;
+		default:
+			return noMatchConditions_ == 0 ? value : null;
 		}
 	}
 
-	private final String template_;
+	private final Template template_;
 	private int currentPos_;
+	private int noMatchConditions_;
 	private HashMap<String, String> vars_;
 	private HashMap<String, Boolean> conditions_;
 }
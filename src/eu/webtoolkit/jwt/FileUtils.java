@@ -49,6 +49,14 @@ public class FileUtils {
 	}
 
 	public static InputStream getResourceAsStream(String path) throws IOException {
+		return getResource(path).openStream();
+	}
+
+	/*
+	 * Resolves a path in the same way as getResourceAsStream(), i.e. as a
+	 * resource path, a URL string or a file path.
+	 */
+	public static URL getResource(String path) throws IOException {
 		URL url = FileUtils.class.getResource(path);
 		
 		if (url == null) {
@@ -71,7 +79,7 @@ public class FileUtils {
 			}
 		}
 
-		return url.openStream();
+		return url;
 	}
 
 	/*
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * A list of ints, backed by an array, for row mappings of large models
+ * which would otherwise be kept in a List<Integer>.
+ */
+class IntArrayList {
+	/*
+	 * Compares two ints, e.g. two rows of a model.
+	 */
+	interface IntComparator {
+		int compare(int i1, int i2);
+	}
+
+	private int[] data_;
+	private int size_;
+
+	IntArrayList() {
+		this(10);
+	}
+
+	IntArrayList(int capacity) {
+		data_ = new int[capacity];
+		size_ = 0;
+	}
+
+	int size() {
+		return size_;
+	}
+
+	boolean isEmpty() {
+		return size_ == 0;
+	}
+
+	int get(int index) {
+		if (index >= size_)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size_);
+		return data_[index];
+	}
+
+	void set(int index, int value) {
+		if (index >= size_)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size_);
+		data_[index] = value;
+	}
+
+	void add(int value) {
+		ensureCapacity(size_ + 1);
+		data_[size_++] = value;
+	}
+
+	void add(int index, int value) {
+		insert(index, 1, value);
+	}
+
+	/*
+	 * Inserts count times a value at an index.
+	 */
+	void insert(int index, int count, int value) {
+		if (index > size_)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size_);
+		ensureCapacity(size_ + count);
+		System.arraycopy(data_, index, data_, index + count, size_ - index);
+		Arrays.fill(data_, index, index + count, value);
+		size_ += count;
+	}
+
+	/*
+	 * Removes the value at an index, and returns it.
+	 */
+	int remove(int index) {
+		int result = get(index);
+		removeRange(index, 1);
+		return result;
+	}
+
+	void removeRange(int index, int count) {
+		if (index + count > size_)
+			throw new IndexOutOfBoundsException("Index: " + (index + count) + ", Size: " + size_);
+		System.arraycopy(data_, index + count, data_, index, size_ - index - count);
+		size_ -= count;
+	}
+
+	void clear() {
+		size_ = 0;
+	}
+
+	/*
+	 * Resizes the list, setting new values to value.
+	 */
+	void resize(int size, int value) {
+		ensureCapacity(size);
+		if (size > size_)
+			Arrays.fill(data_, size_, size, value);
+		size_ = size;
+	}
+
+	void fill(int value) {
+		Arrays.fill(data_, 0, size_, value);
+	}
+
+	/*
+	 * Returns the backing array, which holds the values at indexes 0 to
+	 * size() - 1.
+	 */
+	int[] getData() {
+		return data_;
+	}
+
+	/*
+	 * Sets the values, taking ownership of the array.
+	 */
+	void setData(int[] data, int size) {
+		data_ = data;
+		size_ = size;
+	}
+
+	/*
+	 * Returns the index at which a value is to be inserted to keep the list
+	 * sorted, as CollectionUtils.insertionPoint().
+	 */
+	int insertionPoint(int value, IntComparator c) {
+		int low = 0;
+		int high = size_ - 1;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = c.compare(data_[mid], value);
+
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp > 0)
+				high = mid - 1;
+			else
+				return mid;
+		}
+
+		return low;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > data_.length)
+			data_ = Arrays.copyOf(data_, Math.max(capacity, data_.length + (data_.length >> 1) + 1));
+	}
+
+	/*
+	 * Sorts the values from index from to to (exclusive). The sort is stable
+	 * (a merge sort, like Collections.sort()).
+	 */
+	static void sort(int[] a, int from, int to, IntComparator c) {
+		int[] aux = new int[to - from];
+		System.arraycopy(a, from, aux, 0, to - from);
+		mergeSort(aux, a, from, to, -from, c);
+	}
+
+	/*
+	 * Sorts the values from index from to to (exclusive) with a number of
+	 * threads (a power of two): the parts are sorted on a shared pool of
+	 * threads and by the calling thread, and the sorted parts are merged. The
+	 * sort is stable, and the comparator must be safe to use from several
+	 * threads.
+	 */
+	static void parallelSort(final int[] a, int from, int to, final IntComparator c, int threads) {
+		final int[] bounds = new int[threads + 1];
+		for (int i = 0; i <= threads; ++i)
+			bounds[i] = from + (int) ((long) (to - from) * i / threads);
+
+		ThreadPoolExecutor executor = getSortExecutor();
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		FutureTask<Object>[] parts = new FutureTask[threads - 1];
+		for (int i = 0; i < threads - 1; ++i) {
+			final int part = i;
+			parts[i] = new FutureTask<Object>(new Runnable() {
+				public void run() {
+					sort(a, bounds[part], bounds[part + 1], c);
+				}
+			}, null);
+			executor.execute(parts[i]);
+		}
+
+		RuntimeException exception = null;
+		try {
+			sort(a, bounds[threads - 1], bounds[threads], c);
+		} catch (RuntimeException e) {
+			exception = e;
+		}
+
+		/* wait for all parts, also after an exception, since they write to a */
+		boolean interrupted = false;
+		for (int i = 0; i < parts.length; ++i) {
+			for (;;) {
+				try {
+					parts[i].get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					if (exception == null)
+						exception = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+								: new RuntimeException(e.getCause());
+					break;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		if (exception != null)
+			throw exception;
+
+		int[] src = a;
+		int[] dest = new int[a.length];
+		for (int step = 1; step < threads; step *= 2) {
+			for (int i = 0; i < threads; i += 2 * step)
+				merge(src, dest, bounds[i], bounds[i + step], bounds[i + 2 * step], c);
+			int[] t = src;
+			src = dest;
+			dest = t;
+		}
+		if (src != a)
+			System.arraycopy(src, from, a, from, to - from);
+	}
+
+	private static ThreadPoolExecutor sortExecutor;
+
+	/*
+	 * The pool is shared by all sessions and bounded by the number of
+	 * processors. When all of its threads are busy and its queue is full, the
+	 * calling thread sorts a part itself. Idle threads end, so that the pool
+	 * does not keep an undeployed web application loaded.
+	 */
+	private static synchronized ThreadPoolExecutor getSortExecutor() {
+		if (sortExecutor == null) {
+			int threads = Runtime.getRuntime().availableProcessors();
+			sortExecutor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(threads), new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "jwt-sort-" + count.incrementAndGet());
+							t.setDaemon(true);
+							return t;
+						}
+					}, new ThreadPoolExecutor.CallerRunsPolicy());
+			sortExecutor.allowCoreThreadTimeOut(true);
+		}
+
+		return sortExecutor;
+	}
+
+	private static final int INSERTION_SORT_THRESHOLD = 7;
+
+	/*
+	 * Sorts src[low - off .. high - off) into dest[low .. high), as in
+	 * Arrays.sort(Object[], Comparator) of Java 6.
+	 */
+	private static void mergeSort(int[] src, int[] dest, int low, int high, int off, IntComparator c) {
+		int length = high - low;
+
+		if (length < INSERTION_SORT_THRESHOLD) {
+			for (int i = low; i < high; i++)
+				for (int j = i; j > low && c.compare(dest[j - 1], dest[j]) > 0; j--) {
+					int t = dest[j];
+					dest[j] = dest[j - 1];
+					dest[j - 1] = t;
+				}
+			return;
+		}
+
+		int destLow = low;
+		int destHigh = high;
+		low += off;
+		high += off;
+		int mid = (low + high) >>> 1;
+		mergeSort(dest, src, low, mid, -off, c);
+		mergeSort(dest, src, mid, high, -off, c);
+
+		if (c.compare(src[mid - 1], src[mid]) <= 0) {
+			System.arraycopy(src, low, dest, destLow, length);
+			return;
+		}
+
+		for (int i = destLow, p = low, q = mid; i < destHigh; i++) {
+			if (q >= high || p < mid && c.compare(src[p], src[q]) <= 0)
+				dest[i] = src[p++];
+			else
+				dest[i] = src[q++];
+		}
+	}
+
+	/*
+	 * Merges the sorted src[from .. mid) and src[mid .. to) into dest[from ..
+	 * to), taking equal values from the first part first.
+	 */
+	static void merge(int[] src, int[] dest, int from, int mid, int to, IntComparator c) {
+		int p = from, q = mid;
+		for (int i = from; i < to; i++) {
+			if (q >= to || p < mid && c.compare(src[p], src[q]) <= 0)
+				dest[i] = src[p++];
+			else
+				dest[i] = src[q++];
+		}
+	}
+}
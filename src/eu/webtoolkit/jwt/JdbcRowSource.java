@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A row source for a {@link WQueryModel} which runs an SQL query.
+ * <p>
+ * Each row is returned as an array with the values of the columns of the
+ * result set. A block of rows is fetched by appending
+ * <code>" LIMIT ? OFFSET ?"</code> to the query, which is supported by e.g.
+ * PostgreSQL, MySQL, SQLite, H2 and HSQLDB. For another database, override
+ * {@link JdbcRowSource#prepareRows(Connection connection, int offset, int count)
+ * prepareRows()}.
+ * <p>
+ * A connection is taken from the data source for each call, and should
+ * therefore come from a connection pool.
+ * <p>
+ * Usage example:
+ * <p>
+ *
+ * <pre>
+ * {@code
+ *  JdbcRowSource source = new JdbcRowSource(dataSource,
+ *      "select name, price from product where price > ? order by name",
+ *      "select count(*) from product where price > ?", 10);
+ *  WQueryModel<Object[]> model = new WQueryModel<Object[]>(source);
+ *  model.addColumn("Name");
+ *  model.addColumn("Price");
+ * }
+ * </pre>
+ */
+public class JdbcRowSource implements QueryRowSource<Object[]> {
+	private static Logger logger = LoggerFactory.getLogger(JdbcRowSource.class);
+
+	/**
+	 * Creates a new row source.
+	 * <p>
+	 * The <code>countSql</code> query should return the number of rows of the
+	 * <code>sql</code> query, and may be <code>null</code> if this number is
+	 * not to be computed. The parameters are bound to both queries.
+	 */
+	public JdbcRowSource(DataSource dataSource, String sql, String countSql, Object... parameters) {
+		this.dataSource_ = dataSource;
+		this.sql_ = sql;
+		this.countSql_ = countSql;
+		this.parameters_ = parameters;
+	}
+
+	/**
+	 * Returns the data source.
+	 */
+	public DataSource getDataSource() {
+		return this.dataSource_;
+	}
+
+	/**
+	 * Returns the query.
+	 */
+	public String getSql() {
+		return this.sql_;
+	}
+
+	public List<Object[]> getRows(int offset, int count) {
+		Connection connection = null;
+		PreparedStatement statement = null;
+		ResultSet rs = null;
+		try {
+			connection = this.dataSource_.getConnection();
+			statement = this.prepareRows(connection, offset, count);
+			rs = statement.executeQuery();
+			int columns = rs.getMetaData().getColumnCount();
+			List<Object[]> result = new ArrayList<Object[]>(count);
+			while (rs.next() && result.size() < count) {
+				Object[] row = new Object[columns];
+				for (int i = 0; i < columns; ++i)
+					row[i] = rs.getObject(i + 1);
+				result.add(row);
+			}
+			return result;
+		} catch (SQLException e) {
+			throw error("could not fetch rows " + offset + " to " + (offset + count - 1), e);
+		} finally {
+			close(connection, statement, rs);
+		}
+	}
+
+	public int getRowCount() {
+		if (this.countSql_ == null)
+			return -1;
+
+		Connection connection = null;
+		PreparedStatement statement = null;
+		ResultSet rs = null;
+		try {
+			connection = this.dataSource_.getConnection();
+			statement = connection.prepareStatement(this.countSql_);
+			this.bindParameters(statement);
+			rs = statement.executeQuery();
+			return rs.next() ? rs.getInt(1) : -1;
+		} catch (SQLException e) {
+			throw error("could not count rows", e);
+		} finally {
+			close(connection, statement, rs);
+		}
+	}
+
+	/**
+	 * Prepares the statement to fetch a block of rows.
+	 * <p>
+	 * The default implementation appends <code>" LIMIT ? OFFSET ?"</code> to
+	 * the query, and binds the query parameters, <code>count</code> and
+	 * <code>offset</code>.
+	 */
+	protected PreparedStatement prepareRows(Connection connection, int offset, int count) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(this.sql_ + " LIMIT ? OFFSET ?");
+		int i = this.bindParameters(statement);
+		statement.setInt(++i, count);
+		statement.setInt(++i, offset);
+		return statement;
+	}
+
+	/**
+	 * Binds the query parameters to a statement.
+	 * <p>
+	 * Returns the number of parameters that were bound.
+	 */
+	protected int bindParameters(PreparedStatement statement) throws SQLException {
+		for (int i = 0; i < this.parameters_.length; ++i)
+			statement.setObject(i + 1, this.parameters_[i]);
+		return this.parameters_.length;
+	}
+
+	private DataSource dataSource_;
+	private String sql_;
+	private String countSql_;
+	private Object[] parameters_;
+
+	private static WException error(String message, SQLException e) {
+		WException result = new WException("JdbcRowSource: " + message + ": " + e.getMessage());
+		result.initCause(e);
+		return result;
+	}
+
+	private static void close(Connection connection, PreparedStatement statement, ResultSet rs) {
+		try {
+			if (rs != null)
+				rs.close();
+			if (statement != null)
+				statement.close();
+		} catch (SQLException e) {
+			logger.warn("could not close statement", e);
+		} finally {
+			try {
+				if (connection != null)
+					connection.close();
+			} catch (SQLException e) {
+				logger.warn("could not close connection", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+
+import eu.webtoolkit.jwt.servlet.WebRequest;
+import eu.webtoolkit.jwt.servlet.WebResponse;
+
+/**
+ * A resource which serves the request metrics in the Prometheus text format.
+ * <p>
+ * This serves the {@link RequestMetrics} of all application classes, and is
+ * typically deployed as a static resource:
+ *
+ * <pre>
+ * {@code
+ * addResource(new MetricsResource(), "/metrics");
+ * }
+ * </pre>
+ * <p>
+ * Requests are only measured when enabled in the configuration (see
+ * {@link Configuration#setMetricsEnabled(boolean)}).
+ */
+public class MetricsResource extends WResource {
+	/**
+	 * Creates a new resource.
+	 */
+	public MetricsResource() {
+		this((WObject) null);
+	}
+
+	/**
+	 * Creates a new resource.
+	 */
+	public MetricsResource(WObject parent) {
+		super(parent);
+		setCacheControl("no-store");
+	}
+
+	@Override
+	protected void handleRequest(WebRequest request, WebResponse response) throws IOException {
+		response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+
+		Collection<RequestMetrics> metrics = RequestMetrics.getAll();
+		Writer out = response.out();
+
+		header(out, "jwt_requests_total", "counter", "Number of requests handled.");
+		for (RequestMetrics m : metrics)
+			sample(out, "jwt_requests_total", m, null, String.valueOf(m.getRequestCount()));
+
+		header(out, "jwt_request_seconds_total", "counter", "Time spent in handling requests.");
+		for (RequestMetrics m : metrics)
+			sample(out, "jwt_request_seconds_total", m, null, seconds(m.getTotalTime()));
+
+		header(out, "jwt_request_seconds_max", "gauge", "Time spent in handling the slowest recent request.");
+		for (RequestMetrics m : metrics)
+			sample(out, "jwt_request_seconds_max", m, null, seconds(m.getMaxTime()));
+
+		header(out, "jwt_request_phase_seconds_total", "counter", "Time spent in each phase of handling requests.");
+		for (RequestMetrics m : metrics)
+			for (RequestMetrics.Phase phase : RequestMetrics.Phase.values())
+				sample(out, "jwt_request_phase_seconds_total", m, phaseName(phase), seconds(m.getPhaseTime(phase)));
+
+		header(out, "jwt_rendered_chars_total", "counter", "Size of the rendered responses, in characters.");
+		for (RequestMetrics m : metrics)
+			sample(out, "jwt_rendered_chars_total", m, null, String.valueOf(m.getCharsRendered()));
+
+		header(out, "jwt_dom_elements_created_total", "counter", "Number of DOM elements created.");
+		for (RequestMetrics m : metrics)
+			sample(out, "jwt_dom_elements_created_total", m, null, String.valueOf(m.getDomElementsCreated()));
+
+		header(out, "jwt_widgets_updated_total", "counter", "Number of widgets updated.");
+		for (RequestMetrics m : metrics)
+			sample(out, "jwt_widgets_updated_total", m, null, String.valueOf(m.getWidgetsUpdated()));
+	}
+
+	private static void header(Writer out, String name, String type, String help) throws IOException {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(Writer out, String name, RequestMetrics m, String phase, String value)
+			throws IOException {
+		out.append(name).append("{application=\"");
+		appendLabelValue(out, m.getApplicationClass());
+		out.append('"');
+		if (phase != null)
+			out.append(",phase=\"").append(phase).append('"');
+		out.append("} ").append(value).append('\n');
+	}
+
+	private static void appendLabelValue(Writer out, String value) throws IOException {
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c == '\\' || c == '"')
+				out.append('\\').append(c);
+			else if (c == '\n')
+				out.append("\\n");
+			else
+				out.append(c);
+		}
+	}
+
+	/*
+	 * LockWait -> lock_wait
+	 */
+	private static String phaseName(RequestMetrics.Phase phase) {
+		String name = phase.name();
+		StringBuilder result = new StringBuilder(name.length() + 4);
+		for (int i = 0; i < name.length(); ++i) {
+			char c = name.charAt(i);
+			if (Character.isUpperCase(c)) {
+				if (i > 0)
+					result.append('_');
+				result.append(Character.toLowerCase(c));
+			} else
+				result.append(c);
+		}
+		return result.toString();
+	}
+
+	private static String seconds(long nanos) {
+		return String.valueOf(nanos / 1E9);
+	}
+}
@@ -0,0 +1,827 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/*
+ * A sorted set of model indexes, stored as ranges of rows.
+ *
+ * The indexes are grouped by their internal pointer, which identifies the
+ * parent of an index (see WAbstractItemModel.createIndex()), and for each
+ * group and column the rows are kept as a sorted list of disjoint ranges.
+ *
+ * As a TreeSet of indexes, the set is ordered by WModelIndex.compareTo(), and
+ * indexes are equal when their model, row, column and internal pointer are.
+ * The indexes are created while iterating, and are not kept in the set.
+ */
+class ModelIndexRangeSet extends AbstractSet<WModelIndex> implements SortedSet<WModelIndex> {
+	private Map<Object, Group> groups_;
+	private int size_;
+	private int modCount_;
+
+	ModelIndexRangeSet() {
+		groups_ = null;
+		size_ = 0;
+		modCount_ = 0;
+	}
+
+	@Override
+	public int size() {
+		return size_;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size_ == 0;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof WModelIndex))
+			return false;
+
+		WModelIndex index = (WModelIndex) o;
+		Group g = getGroup(index, false);
+		return g != null && g.contains(index.getRow(), index.getColumn());
+	}
+
+	@Override
+	public boolean add(WModelIndex index) {
+		if (index == null)
+			throw new NullPointerException();
+
+		return addRange(index, index.getRow()) != 0;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (!(o instanceof WModelIndex))
+			return false;
+
+		WModelIndex index = (WModelIndex) o;
+		return removeRange(index, index.getRow()) != 0;
+	}
+
+	@Override
+	public void clear() {
+		groups_ = null;
+		size_ = 0;
+		++modCount_;
+	}
+
+	@Override
+	public Iterator<WModelIndex> iterator() {
+		return new RangeIterator();
+	}
+
+	public Comparator<? super WModelIndex> comparator() {
+		return null;
+	}
+
+	public WModelIndex first() {
+		WModelIndex result = null;
+		for (Group g : getGroups()) {
+			WModelIndex i = g.index(g.first());
+			if (result == null || i.compareTo(result) < 0)
+				result = i;
+		}
+		if (result == null)
+			throw new NoSuchElementException();
+		return result;
+	}
+
+	public WModelIndex last() {
+		WModelIndex result = null;
+		for (Group g : getGroups()) {
+			WModelIndex i = g.index(g.last());
+			if (result == null || i.compareTo(result) > 0)
+				result = i;
+		}
+		if (result == null)
+			throw new NoSuchElementException();
+		return result;
+	}
+
+	public SortedSet<WModelIndex> subSet(WModelIndex fromElement, WModelIndex toElement) {
+		return new SubSet(fromElement, toElement);
+	}
+
+	public SortedSet<WModelIndex> headSet(WModelIndex toElement) {
+		return new SubSet(null, toElement);
+	}
+
+	public SortedSet<WModelIndex> tailSet(WModelIndex fromElement) {
+		return new SubSet(fromElement, null);
+	}
+
+	/*
+	 * Adds the indexes from first down to lastRow, in the column of first,
+	 * and returns the number of indexes that were added.
+	 */
+	int addRange(WModelIndex first, int lastRow) {
+		int added = getGroup(first, true).add(first.getRow(), lastRow, first.getColumn());
+		if (added != 0) {
+			size_ += added;
+			++modCount_;
+		}
+		return added;
+	}
+
+	/*
+	 * Removes the indexes from first down to lastRow, in the column of first,
+	 * and returns the number of indexes that were removed.
+	 */
+	int removeRange(WModelIndex first, int lastRow) {
+		Group g = getGroup(first, false);
+		if (g == null)
+			return 0;
+
+		int removed = g.remove(first.getRow(), lastRow, first.getColumn());
+		if (removed != 0) {
+			size_ -= removed;
+			++modCount_;
+			if (g.size == 0)
+				removeGroup(g);
+		}
+		return removed;
+	}
+
+	/*
+	 * Returns whether the set contains an index in the row of an index, in
+	 * any column.
+	 */
+	boolean isRowSelected(WModelIndex index) {
+		if (index == null)
+			return false;
+
+		Group g = getGroup(index, false);
+		return g != null && g.containsRow(index.getRow());
+	}
+
+	/*
+	 * Returns whether the set contains an index of a parent in a row at or
+	 * after row.
+	 */
+	boolean hasRowsFrom(WModelIndex parent, int row) {
+		for (Group g : getGroups())
+			if (g.next(row, 0, true) != -1 && isSame(g.getParent(), parent))
+				return true;
+		return false;
+	}
+
+	/*
+	 * Shifts the rows of a parent at or after start by count, after count
+	 * rows were inserted or (when count < 0) before count rows are removed
+	 * at start. The indexes in removed rows, and their descendants, are
+	 * removed from the set.
+	 *
+	 * Returns the number of removed indexes of the parent.
+	 */
+	int shiftRows(WModelIndex parent, int start, int count) {
+		int removed = 0;
+
+		for (Group g : getGroups()) {
+			WModelIndex p = g.getParent();
+			if (isSame(p, parent)) {
+				int r = g.shiftRows(start, count);
+				size_ -= r;
+				removed += r;
+				if (g.size == 0)
+					removeGroup(g);
+			} else if (count < 0) {
+				for (; p != null; p = p.getParent()) {
+					WModelIndex pp = p.getParent();
+					if (isSame(pp, parent)) {
+						if (p.getRow() >= start && p.getRow() < start - count) {
+							size_ -= g.size;
+							removeGroup(g);
+						}
+						break;
+					}
+				}
+			}
+		}
+
+		++modCount_;
+		return removed;
+	}
+
+	/*
+	 * Shifts the columns of a parent at or after start by count, after count
+	 * columns were inserted or (when count < 0) removed at start.
+	 *
+	 * Returns whether any index was shifted or removed.
+	 */
+	boolean shiftColumns(WModelIndex parent, int start, int count) {
+		boolean result = false;
+
+		for (Group g : getGroups()) {
+			if (isSame(g.getParent(), parent)) {
+				int before = g.size;
+				if (g.shiftColumns(start, count))
+					result = true;
+				size_ -= before - g.size;
+				if (g.size == 0)
+					removeGroup(g);
+			}
+		}
+
+		++modCount_;
+		return result;
+	}
+
+	private static boolean isSame(WModelIndex i1, WModelIndex i2) {
+		return i1 == i2 || (i1 != null && i1.equals(i2));
+	}
+
+	private Group getGroup(WModelIndex index, boolean create) {
+		Object ptr = index.getInternalPointer();
+		WAbstractItemModel model = index.getModel();
+
+		Group result = groups_ != null ? groups_.get(ptr) : null;
+		while (result != null && result.model != model)
+			result = result.nextGroup;
+
+		if (result == null && create) {
+			if (groups_ == null)
+				groups_ = new IdentityHashMap<Object, Group>();
+			result = new Group(model, ptr);
+			result.nextGroup = groups_.get(ptr);
+			groups_.put(ptr, result);
+		}
+
+		return result;
+	}
+
+	private void removeGroup(Group g) {
+		Group head = groups_.get(g.ptr);
+		if (head == g) {
+			if (g.nextGroup != null)
+				groups_.put(g.ptr, g.nextGroup);
+			else
+				groups_.remove(g.ptr);
+		} else {
+			while (head.nextGroup != g)
+				head = head.nextGroup;
+			head.nextGroup = g.nextGroup;
+		}
+	}
+
+	private List<Group> getGroups() {
+		List<Group> result = new ArrayList<Group>(groups_ != null ? groups_.size() : 0);
+		if (groups_ != null)
+			for (Group g : groups_.values())
+				for (; g != null; g = g.nextGroup)
+					result.add(g);
+		return result;
+	}
+
+	/*
+	 * Iterates over the indexes of all parents in order: the indexes of each
+	 * parent are enumerated in order, and merged.
+	 */
+	private class RangeIterator implements Iterator<WModelIndex> {
+		private final Group[] groups;
+		private final long[] positions;
+		private final WModelIndex[] next;
+		private int expectedModCount;
+		private WModelIndex last;
+
+		RangeIterator() {
+			List<Group> gs = getGroups();
+			groups = gs.toArray(new Group[gs.size()]);
+			positions = new long[groups.length];
+			next = new WModelIndex[groups.length];
+			for (int i = 0; i < groups.length; ++i) {
+				positions[i] = groups[i].first();
+				next[i] = groups[i].index(positions[i]);
+			}
+			expectedModCount = modCount_;
+			last = null;
+		}
+
+		public boolean hasNext() {
+			for (int i = 0; i < next.length; ++i)
+				if (next[i] != null)
+					return true;
+			return false;
+		}
+
+		public WModelIndex next() {
+			if (modCount_ != expectedModCount)
+				throw new ConcurrentModificationException();
+
+			int best = -1;
+			for (int i = 0; i < next.length; ++i)
+				if (next[i] != null && (best == -1 || next[i].compareTo(next[best]) < 0))
+					best = i;
+
+			if (best == -1)
+				throw new NoSuchElementException();
+
+			last = next[best];
+			long p = positions[best];
+			positions[best] = groups[best].next(Group.row(p), Group.column(p), false);
+			next[best] = positions[best] != -1 ? groups[best].index(positions[best]) : null;
+
+			return last;
+		}
+
+		public void remove() {
+			if (last == null)
+				throw new IllegalStateException();
+			if (modCount_ != expectedModCount)
+				throw new ConcurrentModificationException();
+
+			ModelIndexRangeSet.this.remove(last);
+			expectedModCount = modCount_;
+			last = null;
+		}
+	}
+
+	/*
+	 * The indexes with the same model and internal pointer.
+	 */
+	static class Group {
+		final WAbstractItemModel model;
+		final Object ptr;
+		Group nextGroup;
+		int[] columns;
+		Ranges[] rows;
+		int columnCount;
+		int size;
+
+		Group(WAbstractItemModel aModel, Object aPtr) {
+			model = aModel;
+			ptr = aPtr;
+			nextGroup = null;
+			columns = new int[1];
+			rows = new Ranges[1];
+			columnCount = 0;
+			size = 0;
+		}
+
+		static int row(long position) {
+			return (int) (position >>> 32);
+		}
+
+		static int column(long position) {
+			return (int) position;
+		}
+
+		static long position(int row, int column) {
+			return ((long) row << 32) | (column & 0xFFFFFFFFL);
+		}
+
+		WModelIndex index(long position) {
+			return new WModelIndex(row(position), column(position), model, ptr);
+		}
+
+		WModelIndex getParent() {
+			return index(first()).getParent();
+		}
+
+		boolean contains(int row, int column) {
+			int c = findColumn(column);
+			return c >= 0 && rows[c].contains(row);
+		}
+
+		boolean containsRow(int row) {
+			for (int c = 0; c < columnCount; ++c)
+				if (rows[c].contains(row))
+					return true;
+			return false;
+		}
+
+		int add(int firstRow, int lastRow, int column) {
+			int c = findColumn(column);
+			if (c < 0) {
+				c = -1 - c;
+				if (columnCount == columns.length) {
+					int[] cs = new int[columnCount * 2];
+					Ranges[] rs = new Ranges[columnCount * 2];
+					System.arraycopy(columns, 0, cs, 0, columnCount);
+					System.arraycopy(rows, 0, rs, 0, columnCount);
+					columns = cs;
+					rows = rs;
+				}
+				System.arraycopy(columns, c, columns, c + 1, columnCount - c);
+				System.arraycopy(rows, c, rows, c + 1, columnCount - c);
+				columns[c] = column;
+				rows[c] = new Ranges();
+				++columnCount;
+			}
+			int added = rows[c].add(firstRow, lastRow);
+			size += added;
+			return added;
+		}
+
+		int remove(int firstRow, int lastRow, int column) {
+			int c = findColumn(column);
+			if (c < 0)
+				return 0;
+
+			int removed = rows[c].remove(firstRow, lastRow);
+			size -= removed;
+			if (rows[c].size == 0)
+				removeColumn(c);
+			return removed;
+		}
+
+		int shiftRows(int start, int count) {
+			int removed = 0;
+			for (int c = columnCount - 1; c >= 0; --c) {
+				int r = rows[c].shift(start, count);
+				size -= r;
+				removed += r;
+				if (rows[c].size == 0)
+					removeColumn(c);
+			}
+			return removed;
+		}
+
+		boolean shiftColumns(int start, int count) {
+			boolean result = false;
+			for (int c = columnCount - 1; c >= 0; --c) {
+				if (columns[c] >= start) {
+					result = true;
+					if (count < 0 && columns[c] < start - count) {
+						size -= rows[c].size;
+						removeColumn(c);
+					} else
+						columns[c] += count;
+				}
+			}
+			return result;
+		}
+
+		long first() {
+			return next(0, 0, true);
+		}
+
+		long last() {
+			int row = -1;
+			for (int c = 0; c < columnCount; ++c)
+				row = Math.max(row, rows[c].last());
+
+			if (row == -1)
+				return -1;
+
+			for (int c = columnCount - 1; c >= 0; --c)
+				if (rows[c].contains(row))
+					return position(row, columns[c]);
+
+			return -1;
+		}
+
+		/*
+		 * Returns the first position at (if inclusive) or after a row and
+		 * column, in row-major order, or -1.
+		 */
+		long next(int row, int column, boolean inclusive) {
+			long best = -1;
+			for (int c = 0; c < columnCount; ++c) {
+				int r;
+				if (columns[c] > column || (inclusive && columns[c] == column))
+					r = rows[c].ceiling(row);
+				else
+					r = row == Integer.MAX_VALUE ? -1 : rows[c].ceiling(row + 1);
+				if (r != -1) {
+					long p = position(r, columns[c]);
+					if (best == -1 || p < best)
+						best = p;
+				}
+			}
+			return best;
+		}
+
+		private int findColumn(int column) {
+			int low = 0;
+			int high = columnCount - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (columns[mid] < column)
+					low = mid + 1;
+				else if (columns[mid] > column)
+					high = mid - 1;
+				else
+					return mid;
+			}
+			return -1 - low;
+		}
+
+		private void removeColumn(int c) {
+			System.arraycopy(columns, c + 1, columns, c, columnCount - c - 1);
+			System.arraycopy(rows, c + 1, rows, c, columnCount - c - 1);
+			--columnCount;
+			rows[columnCount] = null;
+		}
+	}
+
+	/*
+	 * A set of rows, as sorted, disjoint and non-adjacent ranges.
+	 */
+	static class Ranges {
+		int[] starts;
+		int[] ends;
+		int count;
+		int size;
+
+		Ranges() {
+			starts = new int[2];
+			ends = new int[2];
+			count = 0;
+			size = 0;
+		}
+
+		boolean contains(int row) {
+			int i = floor(row);
+			return i >= 0 && ends[i] >= row;
+		}
+
+		int last() {
+			return count > 0 ? ends[count - 1] : -1;
+		}
+
+		/*
+		 * Returns the first row at or after row, or -1.
+		 */
+		int ceiling(int row) {
+			int i = floor(row);
+			if (i >= 0 && ends[i] >= row)
+				return row;
+			return i + 1 < count ? starts[i + 1] : -1;
+		}
+
+		int add(int first, int last) {
+			int before = size;
+
+			/* the ranges from i to j (exclusive) overlap or adjoin first..last */
+			int i = floor(first);
+			if (i < 0 || ends[i] < first - 1)
+				++i;
+			int j = i;
+			while (j < count && starts[j] <= last + 1) {
+				first = Math.min(first, starts[j]);
+				last = Math.max(last, ends[j]);
+				size -= ends[j] - starts[j] + 1;
+				++j;
+			}
+
+			replace(i, j, 1);
+			starts[i] = first;
+			ends[i] = last;
+			size += last - first + 1;
+
+			return size - before;
+		}
+
+		int remove(int first, int last) {
+			int before = size;
+
+			int i = floor(first);
+			if (i < 0 || ends[i] < first)
+				++i;
+			int j = i;
+			while (j < count && starts[j] <= last)
+				++j;
+
+			if (i == j)
+				return 0;
+
+			int headStart = starts[i];
+			int tailEnd = ends[j - 1];
+			for (int k = i; k < j; ++k)
+				size -= ends[k] - starts[k] + 1;
+
+			boolean head = headStart < first;
+			boolean tail = tailEnd > last;
+			replace(i, j, (head ? 1 : 0) + (tail ? 1 : 0));
+			if (head) {
+				starts[i] = headStart;
+				ends[i] = first - 1;
+				size += first - headStart;
+				++i;
+			}
+			if (tail) {
+				starts[i] = last + 1;
+				ends[i] = tailEnd;
+				size += tailEnd - last;
+			}
+
+			return before - size;
+		}
+
+		/*
+		 * Shifts the rows at or after start by count; when count < 0, the
+		 * rows start to start - count - 1 are removed first. Returns the
+		 * number of removed rows.
+		 */
+		int shift(int start, int count) {
+			int removed = 0;
+			if (count < 0)
+				removed = remove(start, start - count - 1);
+			else {
+				/* split a range which contains start */
+				int i = floor(start);
+				if (i >= 0 && starts[i] < start && ends[i] >= start) {
+					int end = ends[i];
+					replace(i, i + 1, 2);
+					ends[i] = start - 1;
+					starts[i + 1] = start;
+					ends[i + 1] = end;
+				}
+			}
+
+			for (int i = this.count - 1; i >= 0 && starts[i] >= start; --i) {
+				starts[i] += count;
+				ends[i] += count;
+			}
+
+			/* ranges which adjoin after removing rows are merged */
+			if (count < 0) {
+				int i = floor(start - 1);
+				if (i >= 0 && i + 1 < this.count && ends[i] + 1 == starts[i + 1]) {
+					int end = ends[i + 1];
+					replace(i + 1, i + 2, 0);
+					ends[i] = end;
+				}
+			}
+
+			return removed;
+		}
+
+		/*
+		 * Returns the index of the last range which starts at or before row,
+		 * or -1.
+		 */
+		private int floor(int row) {
+			int low = 0;
+			int high = count - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (starts[mid] <= row)
+					low = mid + 1;
+				else
+					high = mid - 1;
+			}
+			return low - 1;
+		}
+
+		/*
+		 * Replaces the ranges i to j (exclusive) with n ranges, whose values
+		 * are to be set by the caller.
+		 */
+		private void replace(int i, int j, int n) {
+			int newCount = count - (j - i) + n;
+			if (newCount > starts.length) {
+				int capacity = Math.max(newCount, starts.length * 2);
+				int[] s = new int[capacity];
+				int[] e = new int[capacity];
+				System.arraycopy(starts, 0, s, 0, count);
+				System.arraycopy(ends, 0, e, 0, count);
+				starts = s;
+				ends = e;
+			}
+			System.arraycopy(starts, j, starts, i + n, count - j);
+			System.arraycopy(ends, j, ends, i + n, count - j);
+			count = newCount;
+		}
+	}
+
+	/*
+	 * A view on the indexes from fromElement (inclusive) to toElement
+	 * (exclusive).
+	 */
+	private class SubSet extends AbstractSet<WModelIndex> implements SortedSet<WModelIndex> {
+		private final WModelIndex from;
+		private final WModelIndex to;
+
+		SubSet(WModelIndex aFrom, WModelIndex aTo) {
+			from = aFrom;
+			to = aTo;
+		}
+
+		private boolean inRange(WModelIndex index) {
+			return (from == null || index.compareTo(from) >= 0) && (to == null || index.compareTo(to) < 0);
+		}
+
+		private void checkRange(WModelIndex index) {
+			if (!inRange(index))
+				throw new IllegalArgumentException("index out of range");
+		}
+
+		@Override
+		public Iterator<WModelIndex> iterator() {
+			final Iterator<WModelIndex> it = ModelIndexRangeSet.this.iterator();
+			return new Iterator<WModelIndex>() {
+				private WModelIndex next = advance();
+
+				private WModelIndex advance() {
+					while (it.hasNext()) {
+						WModelIndex i = it.next();
+						if (to != null && i.compareTo(to) >= 0)
+							return null;
+						if (from == null || i.compareTo(from) >= 0)
+							return i;
+					}
+					return null;
+				}
+
+				public boolean hasNext() {
+					return next != null;
+				}
+
+				public WModelIndex next() {
+					if (next == null)
+						throw new NoSuchElementException();
+					WModelIndex result = next;
+					next = advance();
+					return result;
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			int result = 0;
+			for (Iterator<WModelIndex> i = iterator(); i.hasNext(); i.next())
+				++result;
+			return result;
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return !iterator().hasNext();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return o instanceof WModelIndex && inRange((WModelIndex) o) && ModelIndexRangeSet.this.contains(o);
+		}
+
+		@Override
+		public boolean add(WModelIndex index) {
+			checkRange(index);
+			return ModelIndexRangeSet.this.add(index);
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			return o instanceof WModelIndex && inRange((WModelIndex) o) && ModelIndexRangeSet.this.remove(o);
+		}
+
+		public Comparator<? super WModelIndex> comparator() {
+			return null;
+		}
+
+		public WModelIndex first() {
+			Iterator<WModelIndex> i = iterator();
+			if (!i.hasNext())
+				throw new NoSuchElementException();
+			return i.next();
+		}
+
+		public WModelIndex last() {
+			WModelIndex result = null;
+			for (Iterator<WModelIndex> i = iterator(); i.hasNext();)
+				result = i.next();
+			if (result == null)
+				throw new NoSuchElementException();
+			return result;
+		}
+
+		public SortedSet<WModelIndex> subSet(WModelIndex fromElement, WModelIndex toElement) {
+			checkRange(fromElement);
+			checkRange(toElement);
+			return new SubSet(fromElement, toElement);
+		}
+
+		public SortedSet<WModelIndex> headSet(WModelIndex toElement) {
+			checkRange(toElement);
+			return new SubSet(from, toElement);
+		}
+
+		public SortedSet<WModelIndex> tailSet(WModelIndex fromElement) {
+			checkRange(fromElement);
+			return new SubSet(fromElement, to);
+		}
+	}
+}
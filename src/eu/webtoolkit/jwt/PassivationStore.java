@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.webtoolkit.jwt.utils.StreamUtils;
+
+/*
+ * Holds the serialized state of passivated sessions, either in files in a
+ * directory or in off-heap buffers.
+ *
+ * See Configuration.setPassivationIdleTime().
+ */
+abstract class PassivationStore {
+	private final AtomicLong size_ = new AtomicLong();
+	private final ConcurrentHashMap<String, Integer> sizes_ = new ConcurrentHashMap<String, Integer>();
+
+	static PassivationStore create(Configuration configuration) {
+		String directory = configuration.getPassivationDirectory();
+		if (directory != null)
+			return new DirectoryStore(new File(directory));
+		else
+			return new OffHeapStore();
+	}
+
+	void put(String sessionId, Serializable state) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(state);
+		out.close();
+
+		byte[] data = bytes.toByteArray();
+		write(sessionId, data);
+
+		Integer previous = sizes_.put(sessionId, data.length);
+		size_.addAndGet(data.length - (previous != null ? previous : 0));
+	}
+
+	/*
+	 * Removes and returns the state of a session, or null if there is none.
+	 */
+	Serializable remove(String sessionId) throws IOException, ClassNotFoundException {
+		Integer size = sizes_.remove(sessionId);
+		if (size == null)
+			return null;
+
+		size_.addAndGet(-size);
+		byte[] data = read(sessionId);
+		if (data == null)
+			return null;
+
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data)) {
+			@Override
+			protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+				ClassLoader loader = Thread.currentThread().getContextClassLoader();
+				if (loader != null) {
+					try {
+						return Class.forName(desc.getName(), false, loader);
+					} catch (ClassNotFoundException e) {
+					}
+				}
+				return super.resolveClass(desc);
+			}
+		};
+		try {
+			return (Serializable) in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+	void discard(String sessionId) {
+		Integer size = sizes_.remove(sessionId);
+		if (size != null) {
+			size_.addAndGet(-size);
+			try {
+				read(sessionId);
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	int getCount() {
+		return sizes_.size();
+	}
+
+	long getSize() {
+		return size_.get();
+	}
+
+	protected abstract void write(String sessionId, byte[] data) throws IOException;
+
+	/*
+	 * Reads and removes the data.
+	 */
+	protected abstract byte[] read(String sessionId) throws IOException;
+
+	static class DirectoryStore extends PassivationStore {
+		private final File directory_;
+
+		DirectoryStore(File directory) {
+			this.directory_ = directory;
+			directory.mkdirs();
+		}
+
+		@Override
+		protected void write(String sessionId, byte[] data) throws IOException {
+			OutputStream out = new FileOutputStream(getFile(sessionId));
+			try {
+				out.write(data);
+			} finally {
+				out.close();
+			}
+		}
+
+		@Override
+		protected byte[] read(String sessionId) throws IOException {
+			File f = getFile(sessionId);
+			if (!f.exists())
+				return null;
+
+			InputStream in = new FileInputStream(f);
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) f.length());
+				StreamUtils.copy(in, bytes);
+				return bytes.toByteArray();
+			} finally {
+				StreamUtils.closeQuietly(in);
+				f.delete();
+			}
+		}
+
+		private File getFile(String sessionId) {
+			return new File(directory_, sessionId.replaceAll("[^A-Za-z0-9_-]", "_") + ".session");
+		}
+	}
+
+	static class OffHeapStore extends PassivationStore {
+		private final ConcurrentHashMap<String, ByteBuffer> buffers_ = new ConcurrentHashMap<String, ByteBuffer>();
+
+		@Override
+		protected void write(String sessionId, byte[] data) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+			buffer.put(data);
+			buffer.flip();
+			buffers_.put(sessionId, buffer);
+		}
+
+		@Override
+		protected byte[] read(String sessionId) {
+			ByteBuffer buffer = buffers_.remove(sessionId);
+			if (buffer == null)
+				return null;
+
+			byte[] data = new byte[buffer.remaining()];
+			buffer.get(data);
+			return data;
+		}
+	}
+}
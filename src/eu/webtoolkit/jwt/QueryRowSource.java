@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt;
+
+import java.util.List;
+
+/**
+ * A source of rows for a {@link WQueryModel}.
+ * <p>
+ * A row source provides the rows of a query result, in blocks. The model
+ * calls the methods of the source from background threads, and possibly from
+ * more than one thread at the same time. A source must therefore not use
+ * resources which are bound to a session or a thread, such as a JPA
+ * <code>EntityManager</code> or a JDBC <code>Connection</code>: it should
+ * obtain them from a factory (or pool) for each call.
+ * <p>
+ * JWt provides {@link JdbcRowSource} for a plain SQL query, and
+ * {@link eu.webtoolkit.jwt.jpa.JpaRowSource} for a JPQL query.
+ * <p>
+ * Errors may be reported by throwing a {@link RuntimeException}, which is
+ * logged by the model.
+ */
+public interface QueryRowSource<T> {
+	/**
+	 * Returns rows of the query result.
+	 * <p>
+	 * Returns at most <code>count</code> rows, starting at row
+	 * <code>offset</code>. Fewer rows are only returned at the end of the
+	 * result.
+	 */
+	public List<T> getRows(int offset, int count);
+
+	/**
+	 * Returns the number of rows of the query result.
+	 * <p>
+	 * Returns -1 when the number of rows is not known, or too expensive to
+	 * compute. The model then uses an estimate, which grows as rows are
+	 * fetched.
+	 */
+	public int getRowCount();
+}
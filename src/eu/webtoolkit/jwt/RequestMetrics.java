@@ -0,0 +1,450 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rendering metrics of the requests handled for an application class.
+ * <p>
+ * When metrics are enabled in the configuration (see
+ * {@link Configuration#setMetricsEnabled(boolean)}), the time spent in each
+ * phase of handling a session request is measured, together with the size of
+ * the response and the number of DOM elements created and widgets updated.
+ * These are summed per application class.
+ * <p>
+ * The metrics of each application class are registered as an MBean with the
+ * platform MBean server, with object name
+ * <code>eu.webtoolkit.jwt:type=RequestMetrics,application=&lt;class&gt;</code>,
+ * and can be served in the Prometheus text format by a {@link MetricsResource}.
+ * They are unregistered when the servlets that measured them are destroyed.
+ * <p>
+ * Requests which are handled before an application is created (e.g. for the
+ * bootstrap page) are accounted to the servlet class instead.
+ */
+public class RequestMetrics implements RequestMetricsMBean {
+	private static Logger logger = LoggerFactory.getLogger(RequestMetrics.class);
+
+	/**
+	 * Enumeration for the phases of handling a request.
+	 * <p>
+	 * The phases nest, and a phase does not include the time spent in phases
+	 * which nest within it.
+	 */
+	public enum Phase {
+		/**
+		 * Waiting for the session lock.
+		 */
+		LockWait,
+		/**
+		 * Decoding events and form values.
+		 */
+		EventDecoding,
+		/**
+		 * Dispatching signals to event handlers.
+		 */
+		SignalDispatch,
+		/**
+		 * Collecting the changes of updated widgets.
+		 */
+		CollectChanges,
+		/**
+		 * Serializing the response.
+		 */
+		Serialization,
+		/**
+		 * Writing the response.
+		 */
+		ResponseWrite;
+	}
+
+	private static final int NOT_RECORDING = -2;
+	private static final int NO_PHASE = -1;
+
+	private static volatile boolean enabled_ = false;
+	private static final ConcurrentHashMap<String, RequestMetrics> metrics_ = new ConcurrentHashMap<String, RequestMetrics>();
+	private static final ThreadLocal<Recording> recording_ = new ThreadLocal<Recording>();
+
+	private final String applicationClass_;
+	private final ObjectName objectName_;
+	private final AtomicLong requestCount_ = new AtomicLong();
+	private final AtomicLong totalTime_ = new AtomicLong();
+	private final AtomicLong maxTime_ = new AtomicLong();
+	private final AtomicLong previousMaxTime_ = new AtomicLong();
+	private volatile long maxTimeWindowStart_ = System.nanoTime();
+	private final AtomicLongArray phaseTimes_ = new AtomicLongArray(Phase.values().length);
+	private final AtomicLong charsRendered_ = new AtomicLong();
+	private final AtomicLong domElementsCreated_ = new AtomicLong();
+	private final AtomicLong widgetsUpdated_ = new AtomicLong();
+	private final Set<WtServlet> servlets_ = Collections.newSetFromMap(new ConcurrentHashMap<WtServlet, Boolean>());
+
+	/*
+	 * The slowest request is tracked over a window of this length: the
+	 * maximum covers the current and the previous window.
+	 */
+	static final long MAX_TIME_WINDOW = 60L * 1000 * 1000 * 1000;
+
+	private RequestMetrics(String applicationClass) {
+		this.applicationClass_ = applicationClass;
+
+		ObjectName objectName = null;
+		try {
+			objectName = new ObjectName("eu.webtoolkit.jwt:type=RequestMetrics,application="
+					+ ObjectName.quote(applicationClass));
+		} catch (JMException e) {
+			logger.warn("Invalid MBean name for {}: {}", applicationClass, e.getMessage());
+		}
+		this.objectName_ = objectName;
+	}
+
+	/**
+	 * Returns the metrics of all application classes.
+	 */
+	public static Collection<RequestMetrics> getAll() {
+		return new ArrayList<RequestMetrics>(metrics_.values());
+	}
+
+	/**
+	 * Returns the metrics of an application class.
+	 * <p>
+	 * Returns <code>null</code> if no request has been measured for the class.
+	 */
+	public static RequestMetrics get(Class<?> applicationClass) {
+		return metrics_.get(applicationClass.getName());
+	}
+
+	public String getApplicationClass() {
+		return applicationClass_;
+	}
+
+	public long getRequestCount() {
+		return requestCount_.get();
+	}
+
+	/**
+	 * Returns the total time spent in handling requests (in nanoseconds).
+	 */
+	public long getTotalTime() {
+		return totalTime_.get();
+	}
+
+	/**
+	 * Returns the time spent in handling the slowest recent request (in
+	 * nanoseconds).
+	 * <p>
+	 * This is the slowest request of the last one to two minutes, so that
+	 * the value recovers after a slow request.
+	 */
+	public long getMaxTime() {
+		return getMaxTime(System.nanoTime());
+	}
+
+	long getMaxTime(long now) {
+		rotateMaxTime(now);
+		return Math.max(maxTime_.get(), previousMaxTime_.get());
+	}
+
+	/**
+	 * Returns the time spent in a phase (in nanoseconds).
+	 */
+	public long getPhaseTime(Phase phase) {
+		return phaseTimes_.get(phase.ordinal());
+	}
+
+	public double getTotalTimeMillis() {
+		return toMillis(getTotalTime());
+	}
+
+	public double getMaxTimeMillis() {
+		return toMillis(getMaxTime());
+	}
+
+	public double getLockWaitTimeMillis() {
+		return toMillis(getPhaseTime(Phase.LockWait));
+	}
+
+	public double getEventDecodingTimeMillis() {
+		return toMillis(getPhaseTime(Phase.EventDecoding));
+	}
+
+	public double getSignalDispatchTimeMillis() {
+		return toMillis(getPhaseTime(Phase.SignalDispatch));
+	}
+
+	public double getCollectChangesTimeMillis() {
+		return toMillis(getPhaseTime(Phase.CollectChanges));
+	}
+
+	public double getSerializationTimeMillis() {
+		return toMillis(getPhaseTime(Phase.Serialization));
+	}
+
+	public double getResponseWriteTimeMillis() {
+		return toMillis(getPhaseTime(Phase.ResponseWrite));
+	}
+
+	/**
+	 * Returns the size of the rendered responses, in characters.
+	 * <p>
+	 * This is the number of characters of JavaScript, HTML and CSS written by
+	 * the renderer, and does not include resources.
+	 */
+	public long getCharsRendered() {
+		return charsRendered_.get();
+	}
+
+	public long getDomElementsCreated() {
+		return domElementsCreated_.get();
+	}
+
+	public long getWidgetsUpdated() {
+		return widgetsUpdated_.get();
+	}
+
+	public void reset() {
+		requestCount_.set(0);
+		totalTime_.set(0);
+		maxTime_.set(0);
+		previousMaxTime_.set(0);
+		for (int i = 0; i < phaseTimes_.length(); ++i)
+			phaseTimes_.set(i, 0);
+		charsRendered_.set(0);
+		domElementsCreated_.set(0);
+		widgetsUpdated_.set(0);
+	}
+
+	private static double toMillis(long nanos) {
+		return nanos / 1E6;
+	}
+
+	/*
+	 * Starts a new window for the slowest request when the current one has
+	 * passed.
+	 */
+	private void rotateMaxTime(long now) {
+		long start = maxTimeWindowStart_;
+		if (now - start < MAX_TIME_WINDOW)
+			return;
+
+		synchronized (this) {
+			if (maxTimeWindowStart_ != start)
+				return;
+
+			long max = maxTime_.getAndSet(0);
+			previousMaxTime_.set(now - start < 2 * MAX_TIME_WINDOW ? max : 0);
+			maxTimeWindowStart_ = now;
+		}
+	}
+
+	void add(Recording r, long time, long now) {
+		requestCount_.incrementAndGet();
+		totalTime_.addAndGet(time);
+		rotateMaxTime(now);
+		for (;;) {
+			long max = maxTime_.get();
+			if (time <= max || maxTime_.compareAndSet(max, time))
+				break;
+		}
+		for (int i = 0; i < r.phaseTimes.length; ++i)
+			if (r.phaseTimes[i] != 0)
+				phaseTimes_.addAndGet(i, r.phaseTimes[i]);
+		charsRendered_.addAndGet(r.charsRendered);
+		domElementsCreated_.addAndGet(r.domElementsCreated);
+		widgetsUpdated_.addAndGet(r.widgetsUpdated);
+	}
+
+	static RequestMetrics forClass(String applicationClass) {
+		RequestMetrics result = metrics_.get(applicationClass);
+		if (result == null) {
+			result = new RequestMetrics(applicationClass);
+			RequestMetrics previous = metrics_.putIfAbsent(applicationClass, result);
+			if (previous != null)
+				result = previous;
+			else
+				result.register();
+		}
+		return result;
+	}
+
+	private void register() {
+		if (objectName_ == null)
+			return;
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (!server.isRegistered(objectName_))
+				server.registerMBean(this, objectName_);
+		} catch (JMException e) {
+			logger.warn("Could not register MBean {}: {}", objectName_, e.getMessage());
+		} catch (SecurityException e) {
+			logger.warn("Could not register MBean {}: {}", objectName_, e.getMessage());
+		}
+	}
+
+	private void unregister() {
+		if (objectName_ == null)
+			return;
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName_))
+				server.unregisterMBean(objectName_);
+		} catch (JMException e) {
+			logger.warn("Could not unregister MBean {}: {}", objectName_, e.getMessage());
+		} catch (SecurityException e) {
+			logger.warn("Could not unregister MBean {}: {}", objectName_, e.getMessage());
+		}
+	}
+
+	/*
+	 * Unregisters the MBeans and discards the metrics which were only
+	 * measured by a servlet, when it is destroyed.
+	 */
+	static void unregister(WtServlet servlet) {
+		for (RequestMetrics m : metrics_.values()) {
+			m.servlets_.remove(servlet);
+			if (m.servlets_.isEmpty() && metrics_.remove(m.applicationClass_, m))
+				m.unregister();
+		}
+	}
+
+	/*
+	 * The measurements of the request that is being handled by the current
+	 * thread. It is only attached to the thread while the request is being
+	 * handled.
+	 */
+	static class Recording {
+		long start;
+		int phase;
+		long phaseStart;
+		final long[] phaseTimes = new long[Phase.values().length];
+		long charsRendered;
+		int domElementsCreated;
+		int widgetsUpdated;
+
+		Recording() {
+			start = System.nanoTime();
+			phase = NO_PHASE;
+			phaseStart = start;
+		}
+
+		int switchTo(int newPhase) {
+			long now = System.nanoTime();
+			if (phase != NO_PHASE)
+				phaseTimes[phase] += now - phaseStart;
+			int result = phase;
+			phase = newPhase;
+			phaseStart = now;
+			return result;
+		}
+	}
+
+	/*
+	 * Starts measuring a request handled by the current thread, if metrics
+	 * are enabled. Returns whether a measurement was started: a request
+	 * which is handled while handling another request is included in the
+	 * latter.
+	 */
+	static boolean begin(Configuration configuration) {
+		if (!configuration.isMetricsEnabled())
+			return false;
+
+		enabled_ = true;
+		if (recording_.get() != null)
+			return false;
+
+		recording_.set(new Recording());
+		return true;
+	}
+
+	/*
+	 * Ends the measurement of the current request, and adds it to the metrics
+	 * of the session's application class.
+	 */
+	static void end(WebSession session) {
+		Recording r = recording_.get();
+		if (r == null)
+			return;
+
+		recording_.remove();
+		r.switchTo(NO_PHASE);
+		long now = System.nanoTime();
+
+		WtServlet servlet = session.getController();
+		Class<?> c = session.getApp() != null ? session.getApp().getClass() : servlet.getClass();
+		RequestMetrics m = forClass(c.getName());
+		m.servlets_.add(servlet);
+		m.add(r, now - r.start, now);
+	}
+
+	/*
+	 * Enters a phase, and returns the current phase which is to be passed to
+	 * leave().
+	 */
+	static int enter(Phase phase) {
+		if (!enabled_)
+			return NOT_RECORDING;
+
+		Recording r = recording_.get();
+		if (r == null)
+			return NOT_RECORDING;
+
+		return r.switchTo(phase.ordinal());
+	}
+
+	/*
+	 * Leaves a phase, returning to the phase that was returned by enter().
+	 */
+	static void leave(int previous) {
+		if (previous == NOT_RECORDING)
+			return;
+
+		Recording r = recording_.get();
+		if (r != null)
+			r.switchTo(previous);
+	}
+
+	static void addCharsRendered(int count) {
+		if (!enabled_)
+			return;
+
+		Recording r = recording_.get();
+		if (r != null)
+			r.charsRendered += count;
+	}
+
+	static void domElementCreated() {
+		if (!enabled_)
+			return;
+
+		Recording r = recording_.get();
+		if (r != null)
+			++r.domElementsCreated;
+	}
+
+	static void widgetUpdated() {
+		if (!enabled_)
+			return;
+
+		Recording r = recording_.get();
+		if (r != null)
+			++r.widgetsUpdated;
+	}
+}
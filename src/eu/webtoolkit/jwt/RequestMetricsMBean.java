@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt;
+
+/**
+ * The management interface of {@link RequestMetrics}.
+ * <p>
+ * Times are reported in milliseconds, summed over all requests.
+ */
+public interface RequestMetricsMBean {
+	/**
+	 * Returns the name of the application class.
+	 */
+	public String getApplicationClass();
+
+	/**
+	 * Returns the number of requests.
+	 */
+	public long getRequestCount();
+
+	/**
+	 * Returns the total time spent in handling requests.
+	 */
+	public double getTotalTimeMillis();
+
+	/**
+	 * Returns the time spent in handling the slowest recent request.
+	 */
+	public double getMaxTimeMillis();
+
+	/**
+	 * Returns the time spent waiting for the session lock.
+	 */
+	public double getLockWaitTimeMillis();
+
+	/**
+	 * Returns the time spent in decoding events and form values.
+	 */
+	public double getEventDecodingTimeMillis();
+
+	/**
+	 * Returns the time spent in dispatching signals to event handlers.
+	 */
+	public double getSignalDispatchTimeMillis();
+
+	/**
+	 * Returns the time spent in collecting the changes of updated widgets.
+	 */
+	public double getCollectChangesTimeMillis();
+
+	/**
+	 * Returns the time spent in serializing the response.
+	 */
+	public double getSerializationTimeMillis();
+
+	/**
+	 * Returns the time spent in writing the response.
+	 */
+	public double getResponseWriteTimeMillis();
+
+	/**
+	 * Returns the size of the rendered responses, in characters.
+	 */
+	public long getCharsRendered();
+
+	/**
+	 * Returns the number of DOM elements created.
+	 */
+	public long getDomElementsCreated();
+
+	/**
+	 * Returns the number of widgets updated.
+	 */
+	public long getWidgetsUpdated();
+
+	/**
+	 * Resets all counters.
+	 */
+	public void reset();
+}
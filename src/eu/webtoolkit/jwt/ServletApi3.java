@@ -11,6 +11,8 @@ import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.servlet.AsyncContext;
 import javax.servlet.DispatcherType;
@@ -85,15 +87,31 @@ class ServletApi3 extends ServletApi{
 	@Override
 	public void doHandleRequest(final WtServlet servlet, final WebRequest request, final WebResponse response) {
 		if (request.isAsyncSupported()) {
-			request.startAsync();
+			AsyncContext context = request.startAsync();
 			
-			request.getAsyncContext().setTimeout(90000);
-			request.getAsyncContext().start(new Runnable() {
+			context.setTimeout(servlet.getConfiguration().getAsyncTimeout() * 1000L);
+			Runnable task = new Runnable() {
 				@Override
 				public void run() {
 					handleRequest(servlet, request, response);
 				}
-			});
+			};
+
+			Executor executor = servlet.getRequestExecutor();
+			if (executor != null) {
+				try {
+					executor.execute(task);
+				} catch (RejectedExecutionException e) {
+					logger.warn("Request executor rejected request, responding with 503");
+					try {
+						response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+					} catch (IOException ioe) {
+						logger.info("could not send error response: " + ioe.getMessage());
+					}
+					context.complete();
+				}
+			} else
+				context.start(task);
 		} else
 			handleRequest(servlet, request, response);
 	}
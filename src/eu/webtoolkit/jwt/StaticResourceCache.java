@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.webtoolkit.jwt.utils.HttpUtils;
+import eu.webtoolkit.jwt.utils.StreamUtils;
+
+/*
+ * Serves the files below the resources URL (wt-resources), keeping an
+ * in-memory copy of each file together with precompressed variants and
+ * validators.
+ *
+ * The total size of the cached files is bounded: when a file does not fit,
+ * the least recently served files are evicted.
+ */
+class StaticResourceCache {
+	private static Logger logger = LoggerFactory.getLogger(StaticResourceCache.class);
+
+	private static final Map<String, String> mimeTypes = new HashMap<String, String>();
+
+	static {
+		String[][] types = {
+				{ "css", "text/css" },
+				{ "gif", "image/gif" },
+				{ "htm", "text/html" },
+				{ "html", "text/html" },
+				{ "jpg", "image/jpeg" },
+				{ "jpeg", "image/jpeg" },
+				{ "png", "image/png" },
+				{ "ico", "image/x-icon" },
+				{ "svg", "image/svg+xml" },
+				{ "js", "text/javascript" },
+				{ "json", "application/json" },
+				{ "txt", "text/plain" },
+				{ "xml", "text/xml" },
+				{ "eot", "application/vnd.ms-fontobject" },
+				{ "otf", "font/opentype" },
+				{ "ttf", "application/x-font-ttf" },
+				{ "woff", "application/font-woff" },
+				{ "woff2", "font/woff2" },
+				{ "swf", "application/x-shockwave-flash" }
+			};
+
+		for (String[] s : types)
+			mimeTypes.put(s[0], s[1]);
+	}
+
+	private static final int MIN_COMPRESS_SIZE = 256;
+
+	static class Entry {
+		final String mimeType;
+		final long lastModified;
+		final byte[] data;
+		final String etag;
+		final byte[] gzipData;
+		final byte[] deflateData;
+		volatile long lastUsed;
+
+		Entry(String mimeType, long lastModified, byte[] data) {
+			this.mimeType = mimeType;
+			this.lastModified = lastModified;
+			this.data = data;
+			this.etag = HttpUtils.computeETag(data);
+
+			if (isCompressibleType(mimeType) && data.length >= MIN_COMPRESS_SIZE) {
+				this.gzipData = smallerThan(compress(data, true), data);
+				this.deflateData = smallerThan(compress(data, false), data);
+			} else {
+				this.gzipData = null;
+				this.deflateData = null;
+			}
+		}
+
+		long getSize() {
+			return data.length
+				+ (gzipData != null ? gzipData.length : 0)
+				+ (deflateData != null ? deflateData.length : 0);
+		}
+
+		boolean isCompressible() {
+			return gzipData != null || deflateData != null;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Entry> entries_ = new ConcurrentHashMap<String, Entry>();
+	private long cachedSize_ = 0; // guarded by entries_
+	private final long startTime_ = System.currentTimeMillis();
+
+	/*
+	 * Serves a file, fileName being relative to the JWt resources root,
+	 * e.g. "wt-resources/form.css".
+	 */
+	void serve(String fileName, HttpServletRequest request, HttpServletResponse response,
+			Configuration configuration) throws IOException {
+		if (fileName.contains("..")) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		Entry entry = entries_.get(fileName);
+
+		if (entry == null) {
+			URLConnection connection;
+			try {
+				URL url = FileUtils.getResource("/eu/webtoolkit/jwt/" + fileName);
+				connection = url.openConnection();
+				connection.connect();
+			} catch (FileNotFoundException e) {
+				response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+				return;
+			}
+
+			long lastModified = connection.getLastModified();
+			if (lastModified <= 0)
+				lastModified = startTime_;
+
+			InputStream s = connection.getInputStream();
+			try {
+				long length = connection.getContentLength();
+				if (length > configuration.getStaticResourceCacheMaxFileSize()
+						|| length > configuration.getStaticResourceCacheSize()) {
+					serveUncached(fileName, s, length, lastModified, request, response, configuration);
+					return;
+				}
+
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream(length > 0 ? (int) length : 4096);
+				StreamUtils.copy(s, bytes);
+				entry = new Entry(getMimeType(fileName), lastModified, bytes.toByteArray());
+			} finally {
+				StreamUtils.closeQuietly(s);
+			}
+
+			entry = add(fileName, entry, configuration.getStaticResourceCacheSize());
+		}
+
+		entry.lastUsed = System.nanoTime();
+		serveEntry(entry, request, response, configuration);
+	}
+
+	/*
+	 * Discards all cached files.
+	 */
+	void clear() {
+		synchronized (entries_) {
+			entries_.clear();
+			cachedSize_ = 0;
+		}
+	}
+
+	/*
+	 * Returns the total size of the cached files.
+	 */
+	long getCachedSize() {
+		synchronized (entries_) {
+			return cachedSize_;
+		}
+	}
+
+	/*
+	 * Adds a file to the cache, evicting the least recently served files to
+	 * stay within maxSize. Returns the entry to be served, which is an
+	 * existing entry when another thread cached the same file meanwhile.
+	 */
+	Entry add(String fileName, Entry entry, long maxSize) {
+		long size = entry.getSize();
+		if (size > maxSize)
+			return entry;
+
+		synchronized (entries_) {
+			Entry existing = entries_.get(fileName);
+			if (existing != null)
+				return existing;
+
+			while (cachedSize_ + size > maxSize && !entries_.isEmpty()) {
+				String eldest = null;
+				long eldestUsed = Long.MAX_VALUE;
+				for (Map.Entry<String, Entry> e : entries_.entrySet()) {
+					if (eldest == null || e.getValue().lastUsed - eldestUsed < 0) {
+						eldest = e.getKey();
+						eldestUsed = e.getValue().lastUsed;
+					}
+				}
+				Entry evicted = entries_.remove(eldest);
+				cachedSize_ -= evicted.getSize();
+				logger.debug("evicted static file: " + eldest);
+			}
+
+			entry.lastUsed = System.nanoTime();
+			entries_.put(fileName, entry);
+			cachedSize_ += size;
+			logger.debug("cached static file: " + fileName + " (" + entry.data.length + " bytes)");
+		}
+
+		return entry;
+	}
+
+	/*
+	 * Returns whether a file is cached.
+	 */
+	boolean isCached(String fileName) {
+		return entries_.containsKey(fileName);
+	}
+
+	private void serveEntry(Entry entry, HttpServletRequest request, HttpServletResponse response,
+			Configuration configuration) throws IOException {
+		byte[] body = entry.data;
+		String etag = entry.etag;
+		String encoding = null;
+
+		if (entry.gzipData != null && HttpUtils.acceptsEncoding(request, "gzip")) {
+			body = entry.gzipData;
+			encoding = "gzip";
+		} else if (entry.deflateData != null && HttpUtils.acceptsEncoding(request, "deflate")) {
+			body = entry.deflateData;
+			encoding = "deflate";
+		}
+
+		if (encoding != null)
+			etag = HttpUtils.getEncodedETag(etag, encoding);
+
+		setCacheHeaders(response, entry.lastModified, configuration);
+		response.setHeader("ETag", etag);
+		if (entry.isCompressible())
+			response.setHeader("Vary", "Accept-Encoding");
+
+		if (HttpUtils.isNotModified(request, etag, entry.lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		response.setContentType(entry.mimeType);
+
+		if (encoding == null) {
+			response.setHeader("Accept-Ranges", "bytes");
+
+			List<HttpUtils.ByteRange> ranges
+				= HttpUtils.parseRange(request, body.length, etag, entry.lastModified);
+			if (ranges != null) {
+				serveRanges(body, entry.mimeType, ranges, response);
+				return;
+			}
+		} else
+			response.setHeader("Content-Encoding", encoding);
+
+		response.setContentLength(body.length);
+		OutputStream out = response.getOutputStream();
+		out.write(body);
+		out.flush();
+	}
+
+	private static void serveRanges(byte[] body, String mimeType, List<HttpUtils.ByteRange> ranges,
+			HttpServletResponse response) throws IOException {
+		if (ranges.isEmpty()) {
+			response.setHeader("Content-Range", "bytes */" + body.length);
+			response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return;
+		}
+
+		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		OutputStream out = response.getOutputStream();
+
+		if (ranges.size() == 1) {
+			HttpUtils.ByteRange range = ranges.get(0);
+			response.setHeader("Content-Range", range.toContentRange(body.length));
+			response.setContentLength((int) range.getLength());
+			out.write(body, (int) range.getFirst(), (int) range.getLength());
+		} else {
+			String boundary = HttpUtils.createMultipartBoundary();
+			response.setContentType("multipart/byteranges; boundary=" + boundary);
+			for (HttpUtils.ByteRange range : ranges) {
+				out.write(HttpUtils.multipartRangeHeader(boundary, mimeType, range, body.length));
+				out.write(body, (int) range.getFirst(), (int) range.getLength());
+			}
+			out.write(HttpUtils.multipartTrailer(boundary));
+		}
+
+		out.flush();
+	}
+
+	private void serveUncached(String fileName, InputStream s, long length, long lastModified,
+			HttpServletRequest request, HttpServletResponse response, Configuration configuration)
+			throws IOException {
+		setCacheHeaders(response, lastModified, configuration);
+
+		if (HttpUtils.isNotModified(request, null, lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		response.setContentType(getMimeType(fileName));
+		if (length >= 0 && length <= Integer.MAX_VALUE)
+			response.setContentLength((int) length);
+
+		OutputStream out = response.getOutputStream();
+		StreamUtils.copy(s, out);
+		out.flush();
+	}
+
+	private static void setCacheHeaders(HttpServletResponse response, long lastModified,
+			Configuration configuration) {
+		response.setDateHeader("Last-Modified", lastModified);
+		response.setHeader("Cache-Control", "public, max-age=" + configuration.getStaticResourceMaxAge());
+	}
+
+	static String getMimeType(String fileName) {
+		String suffix = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase();
+		String mimeType = mimeTypes.get(suffix);
+		if (mimeType != null)
+			return mimeType;
+		else
+			return "application/octet-stream";
+	}
+
+	private static boolean isCompressibleType(String mimeType) {
+		return mimeType.startsWith("text/")
+			|| mimeType.equals("application/json")
+			|| mimeType.equals("image/svg+xml")
+			|| mimeType.equals("image/x-icon")
+			|| mimeType.equals("application/vnd.ms-fontobject")
+			|| mimeType.equals("application/x-font-ttf")
+			|| mimeType.equals("font/opentype");
+	}
+
+	private static byte[] compress(byte[] data, boolean gzip) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2);
+			DeflaterOutputStream out;
+			if (gzip)
+				out = new GZIPOutputStream(bytes) {
+					{
+						def.setLevel(Deflater.BEST_COMPRESSION);
+					}
+				};
+			else
+				out = new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_COMPRESSION)) {
+					@Override
+					public void close() throws IOException {
+						super.close();
+						def.end();
+					}
+				};
+			out.write(data);
+			out.close();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static byte[] smallerThan(byte[] compressed, byte[] data) {
+		if (compressed != null && compressed.length < data.length * 9 / 10)
+			return compressed;
+		else
+			return null;
+	}
+}
@@ -1,15 +1,70 @@
 package eu.webtoolkit.jwt;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.ServletContext;
+
 class TestController extends WtServlet {
 	private static final long serialVersionUID = 1L;
 
 	TestController(Configuration configuration) {
 		setConfiguration(configuration);
 	}
-	
+
 	@Override
 	public WApplication createApplication(WEnvironment env) {
 		return null;
 	}
 
+	/*
+	 * The test controller is not deployed: it has a context of a servlet 3.0
+	 * container at the root path, so that applications can be rendered.
+	 * Other methods return a default value for their return type.
+	 */
+	private static final ServletContext servletContext = (ServletContext) Proxy.newProxyInstance(
+			TestController.class.getClassLoader(), new Class<?>[] { ServletContext.class }, new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					String name = method.getName();
+					if (name.equals("getMajorVersion") || name.equals("getEffectiveMajorVersion"))
+						return 3;
+					else if (name.equals("getContextPath"))
+						return "";
+					else if (name.equals("equals"))
+						return proxy == args[0];
+					else if (name.equals("hashCode"))
+						return System.identityHashCode(proxy);
+					else if (name.equals("toString"))
+						return "TestController servlet context";
+					else
+						return defaultValue(method.getReturnType());
+				}
+			});
+
+	private static Object defaultValue(Class<?> type) {
+		if (type == Boolean.TYPE)
+			return false;
+		else if (type == Integer.TYPE)
+			return 0;
+		else if (type == Long.TYPE)
+			return 0L;
+		else if (type == Enumeration.class)
+			return Collections.enumeration(Collections.emptyList());
+		else if (type == Set.class)
+			return Collections.emptySet();
+		else if (type == Map.class)
+			return Collections.emptyMap();
+		else
+			return null;
+	}
+
+	@Override
+	public ServletContext getServletContext() {
+		return servletContext;
+	}
 }
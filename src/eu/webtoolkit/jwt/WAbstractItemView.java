@@ -794,7 +794,9 @@ public abstract class WAbstractItemView extends WCompositeWidget {
 		final SortedSet<WModelIndex> nodes = this.selectionModel_.selection_;
 		while (!nodes.isEmpty()) {
 			WModelIndex i = nodes.iterator().next();
-			this.internalSelect(i, SelectionFlag.Deselect);
+			if (!this.internalSelect(i, SelectionFlag.Deselect)) {
+				nodes.remove(i);
+			}
 		}
 	}
 
@@ -182,6 +182,11 @@ public class WApplication extends WObject {
 		this.exposedResources_ = new WeakValueMap<String, WResource>();
 		this.encodedObjects_ = new HashMap<String, WObject>();
 		this.justRemovedSignals_ = new HashSet<String>();
+		this.sharedHandlers_ = new HashMap<String, WApplication.SharedHandler>();
+		this.sharedHandlerBindings_ = new HashMap<String, Map<String, WApplication.SharedHandler>>();
+		this.sharedHandlerBindingCount_ = 0;
+		this.nextSharedHandlerId_ = 0;
+		this.sharedHandlersJS_ = new StringBuilder();
 		this.exposeSignals_ = true;
 		this.afterLoadJavaScript_ = "";
 		this.beforeLoadJavaScript_ = "";
@@ -947,6 +952,7 @@ public class WApplication extends WObject {
 	public void refresh() {
 		if (this.localizedStrings_ != null) {
 			this.localizedStrings_.refresh();
+			this.localizedStrings_.valuesChanged();
 		}
 		if (this.domRoot2_ != null) {
 			this.domRoot2_.refresh();
@@ -2176,6 +2182,37 @@ public class WApplication extends WObject {
 	public void destroy() {
 	}
 
+	/**
+	 * Returns a snapshot of the application state, for passivation.
+	 * <p>
+	 * When passivation is enabled (see
+	 * {@link Configuration#setPassivationIdleTime(int)}), this is called for an
+	 * idle session. When a snapshot is returned, it is serialized and stored,
+	 * and the application is destroyed (see {@link WApplication#destroy()
+	 * destroy()}). When the user returns, a new application is created and
+	 * {@link WApplication#activate(java.io.Serializable) activate()} is called
+	 * with the snapshot.
+	 * <p>
+	 * The default implementation returns <code>null</code>: the session is
+	 * not passivated.
+	 */
+	protected java.io.Serializable passivate() {
+		return null;
+	}
+
+	/**
+	 * Restores the application state from a snapshot.
+	 * <p>
+	 * This is called right after the application has been created for a
+	 * session that was passivated, with the snapshot returned by
+	 * {@link WApplication#passivate() passivate()}. The internal path is
+	 * already restored.
+	 * <p>
+	 * The default implementation does nothing.
+	 */
+	protected void activate(java.io.Serializable state) {
+	}
+
 	/**
 	 * Changes the threshold for two-phase rendering.
 	 * <p>
@@ -3079,6 +3116,11 @@ public class WApplication extends WObject {
 	private WeakValueMap<String, WResource> exposedResources_;
 	private Map<String, WObject> encodedObjects_;
 	private Set<String> justRemovedSignals_;
+	private Map<String, WApplication.SharedHandler> sharedHandlers_;
+	private Map<String, Map<String, WApplication.SharedHandler>> sharedHandlerBindings_;
+	private int sharedHandlerBindingCount_;
+	private int nextSharedHandlerId_;
+	private StringBuilder sharedHandlersJS_;
 	private boolean exposeSignals_;
 	String afterLoadJavaScript_;
 	String beforeLoadJavaScript_;
@@ -3143,6 +3185,154 @@ public class WApplication extends WObject {
 		return this.justRemovedSignals_;
 	}
 
+	static class SharedHandler {
+		private static Logger logger = LoggerFactory
+				.getLogger(SharedHandler.class);
+
+		public int id;
+		public String jsCode;
+		public int refCount;
+
+		public SharedHandler(int id, String jsCode) {
+			this.id = id;
+			this.jsCode = jsCode;
+			this.refCount = 0;
+		}
+	}
+
+	static final int MAX_SHARED_HANDLERS = 1024;
+	static final int MAX_SHARED_HANDLER_BINDINGS = 16 * MAX_SHARED_HANDLERS;
+
+	/*
+	 * Binds an event handler of an element to a function in the client-side
+	 * table of shared event handlers (see DomElement), and returns a
+	 * reference to that function, or null if the handler should be rendered
+	 * in full.
+	 *
+	 * A function is declared once per page, and is reference counted by the
+	 * element events bound to it. When the last element using it is removed,
+	 * the function is deleted from the table and its id is not used again.
+	 * Declarations and deletions are sent with the next response (see
+	 * streamSharedHandlers()).
+	 */
+	String bindSharedHandler(final String elementId, final String eventName,
+			final String jsCode) {
+		Map<String, WApplication.SharedHandler> events = this.sharedHandlerBindings_
+				.get(elementId);
+		WApplication.SharedHandler old = events != null ? events
+				.get(eventName) : null;
+		if (old != null && old.jsCode.equals(jsCode)) {
+			return this.getSharedHandlerRef(old);
+		}
+		WApplication.SharedHandler handler = this.sharedHandlers_.get(jsCode);
+		if (handler == null
+				&& this.sharedHandlers_.size() >= MAX_SHARED_HANDLERS
+				|| old == null
+				&& this.sharedHandlerBindingCount_ >= MAX_SHARED_HANDLER_BINDINGS) {
+			this.unbindSharedHandler(elementId, eventName);
+			return null;
+		}
+		if (handler == null) {
+			handler = new WApplication.SharedHandler(
+					this.nextSharedHandlerId_++, jsCode);
+			this.sharedHandlers_.put(jsCode, handler);
+			this.declareSharedHandler(this.sharedHandlersJS_, handler);
+		}
+		++handler.refCount;
+		if (events == null) {
+			events = new HashMap<String, WApplication.SharedHandler>();
+			this.sharedHandlerBindings_.put(elementId, events);
+		}
+		events.put(eventName, handler);
+		if (old != null) {
+			this.releaseSharedHandler(old);
+		} else {
+			++this.sharedHandlerBindingCount_;
+		}
+		return this.getSharedHandlerRef(handler);
+	}
+
+	/*
+	 * Removes the binding of an event handler of an element to a shared
+	 * event handler, when the handler is rendered in full.
+	 */
+	void unbindSharedHandler(final String elementId, final String eventName) {
+		Map<String, WApplication.SharedHandler> events = this.sharedHandlerBindings_
+				.get(elementId);
+		if (events != null) {
+			WApplication.SharedHandler handler = events.remove(eventName);
+			if (handler != null) {
+				--this.sharedHandlerBindingCount_;
+				this.releaseSharedHandler(handler);
+				if (events.isEmpty()) {
+					this.sharedHandlerBindings_.remove(elementId);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Removes all bindings of an element to shared event handlers, when it
+	 * is removed.
+	 */
+	void releaseSharedHandlers(final String elementId) {
+		if (this.sharedHandlerBindings_.isEmpty()) {
+			return;
+		}
+		Map<String, WApplication.SharedHandler> events = this.sharedHandlerBindings_
+				.remove(elementId);
+		if (events != null) {
+			this.sharedHandlerBindingCount_ -= events.size();
+			for (WApplication.SharedHandler handler : events.values()) {
+				this.releaseSharedHandler(handler);
+			}
+		}
+	}
+
+	/*
+	 * Declares all shared event handlers again, for a new page.
+	 */
+	void redeclareSharedHandlers() {
+		this.sharedHandlersJS_.setLength(0);
+		for (WApplication.SharedHandler handler : this.sharedHandlers_
+				.values()) {
+			this.declareSharedHandler(this.sharedHandlersJS_, handler);
+		}
+	}
+
+	/*
+	 * Streams the declarations and deletions of shared event handlers since
+	 * the last call. These have to be executed before the JavaScript that
+	 * was rendered since then.
+	 */
+	void streamSharedHandlers(final StringBuilder out) {
+		out.append(this.sharedHandlersJS_);
+		this.sharedHandlersJS_.setLength(0);
+	}
+
+	private String getSharedHandlerRef(WApplication.SharedHandler handler) {
+		return this.javaScriptClass_ + ".$h[" + handler.id + "]";
+	}
+
+	private void declareSharedHandler(final StringBuilder out,
+			WApplication.SharedHandler handler) {
+		String table = this.javaScriptClass_ + ".$h";
+		out.append("(").append(table).append("||(").append(table)
+				.append("={}))[").append(handler.id)
+				.append("]=function(event){").append(handler.jsCode)
+				.append("};\n");
+	}
+
+	private void releaseSharedHandler(WApplication.SharedHandler handler) {
+		if (--handler.refCount == 0) {
+			this.sharedHandlers_.remove(handler.jsCode);
+			String table = this.javaScriptClass_ + ".$h";
+			this.sharedHandlersJS_.append("if(").append(table)
+					.append(")delete ").append(table).append("[")
+					.append(handler.id).append("];\n");
+		}
+	}
+
 	private String resourceMapKey(WResource resource) {
 		return resource.getInternalPath().length() == 0 ? resource.getId()
 				: "/path/" + resource.getInternalPath();
@@ -0,0 +1,869 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A table model which stores its data per column, in primitive arrays.
+ * <p>
+ *
+ * Unlike {@link WStandardItemModel}, which stores every cell as a
+ * {@link WStandardItem}, this model stores the values of each column in a
+ * single array of a primitive type: <code>int</code>, <code>long</code> or
+ * <code>double</code>. A string column stores each distinct string only once
+ * (in a dictionary), and the index of the string for each row. This allows
+ * the model to hold millions of rows, for use with a {@link WTableView}, a
+ * {@link WSortFilterProxyModel} or a chart.
+ * <p>
+ * A model holds at most {@link WColumnarTableModel#MAX_ROWS MAX_ROWS} rows,
+ * since a column of 8 byte values is held in a single buffer.
+ * <p>
+ * The arrays may be allocated outside of the Java heap (see
+ * {@link WColumnarTableModel#WColumnarTableModel(boolean offHeap, WObject parent)
+ * WColumnarTableModel()}).
+ * <p>
+ * The columns are defined using
+ * {@link WColumnarTableModel#addColumn(WColumnarTableModel.ColumnType type, CharSequence header)
+ * addColumn()}, and the data is added in bulk using
+ * {@link WColumnarTableModel#appendRows(Object[] columnValues) appendRows()}
+ * and {@link WColumnarTableModel#setRows(int row, Object[] columnValues)
+ * setRows()}, which emit a single signal for all rows. The values of a cell
+ * are also available without boxing, using e.g.
+ * {@link WColumnarTableModel#getDouble(int row, int column) getDouble()}.
+ * <p>
+ * The value of a column is its data for the {@link ItemDataRole#DisplayRole
+ * DisplayRole} (and {@link ItemDataRole#EditRole EditRole}). The data for
+ * another role may be taken from another column, using
+ * {@link WColumnarTableModel#setRoleColumn(int column, int role, int valueColumn)
+ * setRoleColumn()}.
+ * <p>
+ * Usage example:
+ * <p>
+ *
+ * <pre>
+ * {@code
+ *  WColumnarTableModel model = new WColumnarTableModel(this);
+ *  model.addColumn(WColumnarTableModel.ColumnType.StringType, "Name");
+ *  model.addColumn(WColumnarTableModel.ColumnType.DoubleType, "Price");
+ *
+ *  model.appendRows(new String[] { "Apple", "Pear" }, new double[] { 0.5, 0.6 });
+ * }
+ * </pre>
+ */
+public class WColumnarTableModel extends WAbstractTableModel {
+	private static Logger logger = LoggerFactory
+			.getLogger(WColumnarTableModel.class);
+
+	/**
+	 * Enumeration for the type of a column.
+	 */
+	public enum ColumnType {
+		/**
+		 * <code>int</code> values.
+		 */
+		IntType,
+		/**
+		 * <code>long</code> values.
+		 */
+		LongType,
+		/**
+		 * <code>double</code> values.
+		 */
+		DoubleType,
+		/**
+		 * String values, which may be <code>null</code>.
+		 */
+		StringType;
+	}
+
+	/**
+	 * The maximum number of rows.
+	 */
+	public static final int MAX_ROWS = Integer.MAX_VALUE / 8;
+
+	/**
+	 * Creates a new model.
+	 * <p>
+	 * When <code>offHeap</code> is <code>true</code>, the column arrays are
+	 * allocated as direct buffers, outside of the Java heap. The strings of a
+	 * string column are always stored on the heap.
+	 */
+	public WColumnarTableModel(boolean offHeap, WObject parent) {
+		super(parent);
+		this.offHeap_ = offHeap;
+		this.columns_ = new ArrayList<WColumnarTableModel.Column>();
+		this.rowCount_ = 0;
+		this.capacity_ = 0;
+	}
+
+	/**
+	 * Creates a new model.
+	 * <p>
+	 * Calls {@link #WColumnarTableModel(boolean offHeap, WObject parent)
+	 * this(false, parent)}
+	 */
+	public WColumnarTableModel(WObject parent) {
+		this(false, parent);
+	}
+
+	/**
+	 * Creates a new model.
+	 * <p>
+	 * Calls {@link #WColumnarTableModel(boolean offHeap, WObject parent)
+	 * this(false, (WObject)null)}
+	 */
+	public WColumnarTableModel() {
+		this(false, (WObject) null);
+	}
+
+	/**
+	 * Adds a column.
+	 * <p>
+	 * The column is added after the current columns, and holds the default
+	 * value (0 or <code>null</code>) for the current rows. Returns the index
+	 * of the new column.
+	 */
+	public int addColumn(ColumnType type, final CharSequence header) {
+		int column = this.columns_.size();
+		this.beginInsertColumns(null, column, column);
+		WColumnarTableModel.Column c = new WColumnarTableModel.Column(type,
+				WString.toWString(header));
+		c.allocate(this.capacity_, this.offHeap_);
+		this.columns_.add(c);
+		this.endInsertColumns();
+		return column;
+	}
+
+	/**
+	 * Returns the type of a column.
+	 */
+	public ColumnType getColumnType(int column) {
+		return this.columns_.get(column).type;
+	}
+
+	/**
+	 * Takes the data for a role from another column.
+	 * <p>
+	 * The data of <code>column</code> for <code>role</code> is the value of
+	 * <code>valueColumn</code> in the same row. You may want to hide the value
+	 * column in the view (see {@link WAbstractItemView#setColumnHidden(int
+	 * column, boolean hidden) WAbstractItemView#setColumnHidden()}). A
+	 * <code>valueColumn</code> of -1 removes the mapping.
+	 */
+	public void setRoleColumn(int column, int role, int valueColumn) {
+		WColumnarTableModel.Column c = this.columns_.get(column);
+		if (valueColumn == -1) {
+			if (c.roleColumns != null) {
+				c.roleColumns.remove(role);
+			}
+		} else {
+			if (c.roleColumns == null) {
+				c.roleColumns = new TreeMap<Integer, Integer>();
+			}
+			c.roleColumns.put(role, valueColumn);
+		}
+		if (this.rowCount_ > 0) {
+			this.dataChanged().trigger(this.getIndex(0, column),
+					this.getIndex(this.rowCount_ - 1, column));
+		}
+	}
+
+	/**
+	 * Returns the column which holds the data for a role.
+	 * <p>
+	 * Returns -1 if no column was set.
+	 * <p>
+	 *
+	 * @see WColumnarTableModel#setRoleColumn(int column, int role, int
+	 *      valueColumn)
+	 */
+	public int getRoleColumn(int column, int role) {
+		WColumnarTableModel.Column c = this.columns_.get(column);
+		if (c.roleColumns != null) {
+			Integer result = c.roleColumns.get(role);
+			if (result != null) {
+				return result;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Sets the flags for the items of a column.
+	 * <p>
+	 * The default flags are {@link ItemFlag#ItemIsSelectable
+	 * ItemIsSelectable}.
+	 */
+	public void setColumnFlags(int column, EnumSet<ItemFlag> flags) {
+		this.columns_.get(column).flags = EnumSet.copyOf(flags);
+		if (this.rowCount_ > 0) {
+			this.dataChanged().trigger(this.getIndex(0, column),
+					this.getIndex(this.rowCount_ - 1, column));
+		}
+	}
+
+	/**
+	 * Sets the flags for the items of a column.
+	 * <p>
+	 * Calls {@link #setColumnFlags(int column, EnumSet flags)
+	 * setColumnFlags(column, EnumSet.of(flag, flags))}
+	 */
+	public final void setColumnFlags(int column, ItemFlag flag,
+			ItemFlag... flags) {
+		setColumnFlags(column, EnumSet.of(flag, flags));
+	}
+
+	/**
+	 * Appends rows.
+	 * <p>
+	 * The values are given per column, as an array of the column&apos;s type:
+	 * <code>int[]</code>, <code>long[]</code>, <code>double[]</code> or an
+	 * array of {@link CharSequence} (e.g. <code>String[]</code>). All arrays
+	 * must have the same length, which is the number of rows that is
+	 * appended.
+	 * <p>
+	 * The rows are inserted with a single
+	 * {@link WAbstractItemModel#rowsInserted() WAbstractItemModel#rowsInserted()}
+	 * signal.
+	 */
+	public void appendRows(Object... columnValues) {
+		this.setRows(this.rowCount_, columnValues);
+	}
+
+	/**
+	 * Sets the values of a range of rows.
+	 * <p>
+	 * The values of the rows starting at <code>row</code> are replaced, and
+	 * rows are appended when the values extend beyond the last row. The
+	 * values are given as for
+	 * {@link WColumnarTableModel#appendRows(Object[] columnValues)
+	 * appendRows()}.
+	 * <p>
+	 * The change is signaled using a single
+	 * {@link WAbstractItemModel#dataChanged() WAbstractItemModel#dataChanged()}
+	 * signal for the replaced rows, and a single
+	 * {@link WAbstractItemModel#rowsInserted() WAbstractItemModel#rowsInserted()}
+	 * signal for the appended rows.
+	 */
+	public void setRows(int row, Object... columnValues) {
+		if (columnValues.length != this.columns_.size()) {
+			throw new WException("WColumnarTableModel: expected values for "
+					+ this.columns_.size() + " columns, got "
+					+ columnValues.length);
+		}
+		if (row < 0 || row > this.rowCount_) {
+			throw new WException("WColumnarTableModel: invalid row " + row);
+		}
+		int count = -1;
+		for (int i = 0; i < columnValues.length; ++i) {
+			int length = this.columns_.get(i).getLength(columnValues[i]);
+			if (length == -1) {
+				throw new WException("WColumnarTableModel: invalid values for "
+						+ this.columns_.get(i).type + " column " + i);
+			}
+			if (count == -1) {
+				count = length;
+			} else {
+				if (length != count) {
+					throw new WException(
+							"WColumnarTableModel: values of column " + i
+									+ " have length " + length
+									+ ", expected " + count);
+				}
+			}
+		}
+		if (count <= 0) {
+			return;
+		}
+		int replaced = Math.min(count, this.rowCount_ - row);
+		int appended = count - replaced;
+		checkRowCount((long) this.rowCount_ + appended);
+		if (appended > 0) {
+			this.beginInsertRows(null, this.rowCount_, this.rowCount_
+					+ appended - 1);
+			this.reserve(this.rowCount_ + appended);
+		}
+		for (int i = 0; i < this.columns_.size(); ++i) {
+			this.columns_.get(i).put(row, columnValues[i], count);
+		}
+		if (appended > 0) {
+			this.rowCount_ += appended;
+			this.endInsertRows();
+		}
+		if (replaced > 0) {
+			this.dataChanged().trigger(this.getIndex(row, 0),
+					this.getIndex(row + replaced - 1, this.columns_.size() - 1));
+		}
+	}
+
+	/**
+	 * Reserves space for a number of rows.
+	 * <p>
+	 * This avoids growing the column arrays repeatedly when appending many
+	 * rows in smaller batches.
+	 * <p>
+	 * Throws a {@link WException} when <code>rows</code> exceeds
+	 * {@link WColumnarTableModel#MAX_ROWS MAX_ROWS}.
+	 */
+	public void reserve(int rows) {
+		checkRowCount(rows);
+		if (rows > this.capacity_) {
+			int capacity = (int) Math.min(MAX_ROWS, Math.max(rows,
+					this.capacity_ + (this.capacity_ >> 1) + 16L));
+			for (int i = 0; i < this.columns_.size(); ++i) {
+				this.columns_.get(i).grow(this.rowCount_, capacity,
+						this.offHeap_);
+			}
+			this.capacity_ = capacity;
+		}
+	}
+
+	/**
+	 * Returns a value as an <code>int</code>.
+	 * <p>
+	 *
+	 * @see WColumnarTableModel#getDouble(int row, int column)
+	 */
+	public int getInt(int row, int column) {
+		WColumnarTableModel.Column c = this.getColumn(row, column);
+		switch (c.type) {
+		case IntType:
+			return c.data.getInt(row * 4);
+		case LongType:
+			return (int) c.data.getLong(row * 8);
+		default:
+			return (int) this.getDouble(row, column);
+		}
+	}
+
+	/**
+	 * Returns a value as a <code>long</code>.
+	 * <p>
+	 *
+	 * @see WColumnarTableModel#getDouble(int row, int column)
+	 */
+	public long getLong(int row, int column) {
+		WColumnarTableModel.Column c = this.getColumn(row, column);
+		switch (c.type) {
+		case IntType:
+			return c.data.getInt(row * 4);
+		case LongType:
+			return c.data.getLong(row * 8);
+		default:
+			return (long) this.getDouble(row, column);
+		}
+	}
+
+	/**
+	 * Returns a value as a <code>double</code>.
+	 * <p>
+	 * The value of a string column is converted using
+	 * {@link StringUtils#asNumber(Object data) StringUtils#asNumber()}.
+	 */
+	public double getDouble(int row, int column) {
+		WColumnarTableModel.Column c = this.getColumn(row, column);
+		switch (c.type) {
+		case IntType:
+			return c.data.getInt(row * 4);
+		case LongType:
+			return c.data.getLong(row * 8);
+		case DoubleType:
+			return c.data.getDouble(row * 8);
+		default:
+			return StringUtils.asNumber(c.getString(row));
+		}
+	}
+
+	/**
+	 * Returns a value as a string.
+	 * <p>
+	 * The value of a numeric column is converted using
+	 * {@link StringUtils#asString(Object data) StringUtils#asString()}.
+	 */
+	public String getString(int row, int column) {
+		WColumnarTableModel.Column c = this.getColumn(row, column);
+		if (c.type == ColumnType.StringType) {
+			return c.getString(row);
+		} else {
+			return StringUtils.asString(c.getValue(row)).toString();
+		}
+	}
+
+	/**
+	 * Sets a value of an <code>int</code> column.
+	 */
+	public void setInt(int row, int column, int value) {
+		this.getColumn(row, column, ColumnType.IntType).data.putInt(row * 4,
+				value);
+		this.cellChanged(row, column);
+	}
+
+	/**
+	 * Sets a value of a <code>long</code> column.
+	 */
+	public void setLong(int row, int column, long value) {
+		this.getColumn(row, column, ColumnType.LongType).data.putLong(
+				row * 8, value);
+		this.cellChanged(row, column);
+	}
+
+	/**
+	 * Sets a value of a <code>double</code> column.
+	 */
+	public void setDouble(int row, int column, double value) {
+		this.getColumn(row, column, ColumnType.DoubleType).data.putDouble(
+				row * 8, value);
+		this.cellChanged(row, column);
+	}
+
+	/**
+	 * Sets a value of a string column.
+	 */
+	public void setString(int row, int column, final CharSequence value) {
+		this.getColumn(row, column, ColumnType.StringType).setString(row,
+				value);
+		this.cellChanged(row, column);
+	}
+
+	public int getColumnCount(final WModelIndex parent) {
+		return (parent != null) ? 0 : this.columns_.size();
+	}
+
+	public int getRowCount(final WModelIndex parent) {
+		return (parent != null) ? 0 : this.rowCount_;
+	}
+
+	public Object getData(final WModelIndex index, int role) {
+		int column = index.getColumn();
+		if (role != ItemDataRole.DisplayRole && role != ItemDataRole.EditRole) {
+			column = this.getRoleColumn(column, role);
+			if (column == -1) {
+				return null;
+			}
+		}
+		return this.getColumn(index.getRow(), column).getValue(index.getRow());
+	}
+
+	public boolean setData(final WModelIndex index, final Object value, int role) {
+		int column = index.getColumn();
+		if (role != ItemDataRole.DisplayRole && role != ItemDataRole.EditRole) {
+			column = this.getRoleColumn(column, role);
+			if (column == -1) {
+				return false;
+			}
+		}
+		this.getColumn(index.getRow(), column).setValue(index.getRow(), value);
+		this.cellChanged(index.getRow(), column);
+		if (column != index.getColumn()) {
+			this.dataChanged().trigger(index, index);
+		}
+		return true;
+	}
+
+	public EnumSet<ItemFlag> getFlags(final WModelIndex index) {
+		return EnumSet.copyOf(this.columns_.get(index.getColumn()).flags);
+	}
+
+	public Object getHeaderData(int section, Orientation orientation, int role) {
+		if (orientation == Orientation.Horizontal
+				&& (role == ItemDataRole.DisplayRole || role == ItemDataRole.EditRole)) {
+			return this.columns_.get(section).header;
+		} else {
+			return super.getHeaderData(section, orientation, role);
+		}
+	}
+
+	public boolean setHeaderData(int section, Orientation orientation,
+			final Object value, int role) {
+		if (orientation == Orientation.Horizontal
+				&& (role == ItemDataRole.DisplayRole || role == ItemDataRole.EditRole)) {
+			this.columns_.get(section).header = StringUtils.asString(value);
+			this.headerDataChanged().trigger(orientation, section, section);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * Inserts rows.
+	 * <p>
+	 * The new rows hold the default value (0 or <code>null</code>) in each
+	 * column.
+	 */
+	public boolean insertRows(int row, int count, final WModelIndex parent) {
+		if ((parent != null) || count <= 0 || row < 0 || row > this.rowCount_) {
+			return false;
+		}
+		checkRowCount((long) this.rowCount_ + count);
+		this.beginInsertRows(parent, row, row + count - 1);
+		this.reserve(this.rowCount_ + count);
+		for (int i = 0; i < this.columns_.size(); ++i) {
+			this.columns_.get(i).insert(row, count, this.rowCount_);
+		}
+		this.rowCount_ += count;
+		this.endInsertRows();
+		return true;
+	}
+
+	public boolean removeRows(int row, int count, final WModelIndex parent) {
+		if ((parent != null) || count <= 0 || row < 0
+				|| row + count > this.rowCount_) {
+			return false;
+		}
+		this.beginRemoveRows(parent, row, row + count - 1);
+		for (int i = 0; i < this.columns_.size(); ++i) {
+			this.columns_.get(i).remove(row, count, this.rowCount_);
+		}
+		this.rowCount_ -= count;
+		this.endRemoveRows();
+		return true;
+	}
+
+	/**
+	 * Sorts the model on the values of a column.
+	 * <p>
+	 * The rows are compared on their primitive values, without reading them
+	 * as objects. A string column sorts <code>null</code> values first.
+	 */
+	public void sort(int column, SortOrder order) {
+		final WColumnarTableModel.Column c = this.columns_.get(column);
+		final int factor = order == SortOrder.AscendingOrder ? 1 : -1;
+		int[] permutation = new int[this.rowCount_];
+		for (int i = 0; i < permutation.length; ++i) {
+			permutation[i] = i;
+		}
+		this.layoutAboutToBeChanged().trigger();
+		IntArrayList.sort(permutation, 0, permutation.length,
+				new IntArrayList.IntComparator() {
+					public int compare(int row1, int row2) {
+						return factor * c.compare(row1, row2);
+					}
+				});
+		for (int i = 0; i < this.columns_.size(); ++i) {
+			this.columns_.get(i).permute(permutation, this.capacity_,
+					this.offHeap_);
+		}
+		this.layoutChanged().trigger();
+	}
+
+	private boolean offHeap_;
+	private List<WColumnarTableModel.Column> columns_;
+	private int rowCount_;
+	private int capacity_;
+
+	private WColumnarTableModel.Column getColumn(int row, int column) {
+		if (row < 0 || row >= this.rowCount_) {
+			throw new IndexOutOfBoundsException("Row: " + row + ", Rows: "
+					+ this.rowCount_);
+		}
+		return this.columns_.get(column);
+	}
+
+	private WColumnarTableModel.Column getColumn(int row, int column,
+			ColumnType type) {
+		WColumnarTableModel.Column c = this.getColumn(row, column);
+		if (c.type != type) {
+			throw new WException("WColumnarTableModel: column " + column
+					+ " is a " + c.type + " column");
+		}
+		return c;
+	}
+
+	/*
+	 * All row offsets in the column buffers are computed as int: this holds
+	 * as long as the capacity is at most MAX_ROWS.
+	 */
+	private static void checkRowCount(long rows) {
+		if (rows > MAX_ROWS) {
+			throw new WException("WColumnarTableModel: " + rows
+					+ " rows exceeds the maximum of " + MAX_ROWS);
+		}
+	}
+
+	private void cellChanged(int row, int column) {
+		WModelIndex index = this.getIndex(row, column);
+		this.dataChanged().trigger(index, index);
+	}
+
+	/*
+	 * The values of a column, in a buffer with a fixed size per value. A
+	 * string column stores the index of its string in the dictionary, or -1
+	 * for null. The dictionary counts the rows that use each string: a
+	 * string that is no longer used is dropped, and its index is reused.
+	 */
+	static class Column {
+		private static Logger logger = LoggerFactory.getLogger(Column.class);
+
+		public ColumnType type;
+		public WString header;
+		public EnumSet<ItemFlag> flags;
+		public Map<Integer, Integer> roleColumns;
+		public ByteBuffer data;
+		public int width;
+		public List<String> dictionary;
+		public Map<String, Integer> codes;
+		public IntArrayList useCounts;
+		public IntArrayList freeCodes;
+
+		public Column(ColumnType aType, WString aHeader) {
+			this.type = aType;
+			this.header = aHeader;
+			this.flags = EnumSet.of(ItemFlag.ItemIsSelectable);
+			this.roleColumns = null;
+			this.width = aType == ColumnType.IntType
+					|| aType == ColumnType.StringType ? 4 : 8;
+			if (aType == ColumnType.StringType) {
+				this.dictionary = new ArrayList<String>();
+				this.codes = new HashMap<String, Integer>();
+				this.useCounts = new IntArrayList();
+				this.freeCodes = new IntArrayList();
+			}
+		}
+
+		public void allocate(int capacity, boolean offHeap) {
+			this.data = offHeap ? ByteBuffer.allocateDirect(capacity
+					* this.width) : ByteBuffer.allocate(capacity * this.width);
+			this.data.order(ByteOrder.nativeOrder());
+			if (this.type == ColumnType.StringType) {
+				this.fill(0, capacity);
+			}
+		}
+
+		public void grow(int size, int capacity, boolean offHeap) {
+			ByteBuffer old = this.data;
+			this.allocate(capacity, offHeap);
+			copy(old, 0, this.data, 0, size * this.width);
+		}
+
+		public void insert(int row, int count, int size) {
+			copy(this.data, row * this.width, this.data, (row + count)
+					* this.width, (size - row) * this.width);
+			this.fill(row, row + count);
+		}
+
+		public void remove(int row, int count, int size) {
+			if (this.type == ColumnType.StringType) {
+				for (int i = row; i < row + count; ++i) {
+					this.release(this.data.getInt(i * 4));
+				}
+			}
+			copy(this.data, (row + count) * this.width, this.data, row
+					* this.width, (size - row - count) * this.width);
+			this.fill(size - count, size);
+		}
+
+		public void permute(int[] permutation, int capacity, boolean offHeap) {
+			ByteBuffer old = this.data;
+			this.allocate(capacity, offHeap);
+			if (this.width == 4) {
+				for (int i = 0; i < permutation.length; ++i) {
+					this.data.putInt(i * 4, old.getInt(permutation[i] * 4));
+				}
+			} else {
+				for (int i = 0; i < permutation.length; ++i) {
+					this.data.putLong(i * 8, old.getLong(permutation[i] * 8));
+				}
+			}
+		}
+
+		public int compare(int row1, int row2) {
+			switch (this.type) {
+			case IntType: {
+				int v1 = this.data.getInt(row1 * 4);
+				int v2 = this.data.getInt(row2 * 4);
+				return v1 < v2 ? -1 : v1 == v2 ? 0 : 1;
+			}
+			case LongType: {
+				long v1 = this.data.getLong(row1 * 8);
+				long v2 = this.data.getLong(row2 * 8);
+				return v1 < v2 ? -1 : v1 == v2 ? 0 : 1;
+			}
+			case DoubleType:
+				return Double.compare(this.data.getDouble(row1 * 8), this.data
+						.getDouble(row2 * 8));
+			default: {
+				String v1 = this.getString(row1);
+				String v2 = this.getString(row2);
+				if (v1 == null) {
+					return v2 == null ? 0 : -1;
+				} else if (v2 == null) {
+					return 1;
+				} else {
+					return v1.compareTo(v2);
+				}
+			}
+			}
+		}
+
+		public Object getValue(int row) {
+			switch (this.type) {
+			case IntType:
+				return this.data.getInt(row * 4);
+			case LongType:
+				return this.data.getLong(row * 8);
+			case DoubleType:
+				return this.data.getDouble(row * 8);
+			default:
+				return this.getString(row);
+			}
+		}
+
+		public void setValue(int row, final Object value) {
+			switch (this.type) {
+			case IntType:
+				this.data.putInt(row * 4, value instanceof Number ? ((Number) value)
+						.intValue() : (int) StringUtils.asNumber(value));
+				break;
+			case LongType:
+				this.data.putLong(row * 8,
+						value instanceof Number ? ((Number) value).longValue()
+								: (long) StringUtils.asNumber(value));
+				break;
+			case DoubleType:
+				this.data.putDouble(row * 8, StringUtils.asNumber(value));
+				break;
+			default:
+				this.setString(row, value == null ? null : StringUtils
+						.asString(value));
+			}
+		}
+
+		public String getString(int row) {
+			int code = this.data.getInt(row * 4);
+			return code == -1 ? null : this.dictionary.get(code);
+		}
+
+		public void setString(int row, final CharSequence value) {
+			int code = this.encode(value);
+			this.release(this.data.getInt(row * 4));
+			this.data.putInt(row * 4, code);
+		}
+
+		/*
+		 * Returns the number of values in an array of values for this column,
+		 * or -1 if the array is not of the right type.
+		 */
+		public int getLength(final Object values) {
+			switch (this.type) {
+			case IntType:
+				return values instanceof int[] ? ((int[]) values).length : -1;
+			case LongType:
+				return values instanceof long[] ? ((long[]) values).length : -1;
+			case DoubleType:
+				return values instanceof double[] ? ((double[]) values).length
+						: -1;
+			default:
+				return values instanceof CharSequence[] ? ((CharSequence[]) values).length
+						: -1;
+			}
+		}
+
+		public void put(int row, final Object values, int count) {
+			ByteBuffer b = this.data.duplicate();
+			b.order(ByteOrder.nativeOrder());
+			b.position(row * this.width);
+			switch (this.type) {
+			case IntType:
+				b.asIntBuffer().put((int[]) values, 0, count);
+				break;
+			case LongType:
+				b.asLongBuffer().put((long[]) values, 0, count);
+				break;
+			case DoubleType:
+				b.asDoubleBuffer().put((double[]) values, 0, count);
+				break;
+			default:
+				CharSequence[] strings = (CharSequence[]) values;
+				for (int i = 0; i < count; ++i) {
+					this.setString(row + i, strings[i]);
+				}
+			}
+		}
+
+		private int encode(final CharSequence value) {
+			if (value == null) {
+				return -1;
+			}
+			String s = value.toString();
+			Integer code = this.codes.get(s);
+			if (code == null) {
+				if (this.freeCodes.isEmpty()) {
+					code = this.dictionary.size();
+					this.dictionary.add(s);
+					this.useCounts.add(0);
+				} else {
+					code = this.freeCodes.remove(this.freeCodes.size() - 1);
+					this.dictionary.set(code, s);
+				}
+				this.codes.put(s, code);
+			}
+			this.useCounts.set(code, this.useCounts.get(code) + 1);
+			return code;
+		}
+
+		private void release(int code) {
+			if (code == -1) {
+				return;
+			}
+			int count = this.useCounts.get(code) - 1;
+			this.useCounts.set(code, count);
+			if (count == 0) {
+				this.codes.remove(this.dictionary.get(code));
+				this.dictionary.set(code, null);
+				this.freeCodes.add(code);
+			}
+		}
+
+		private void fill(int from, int to) {
+			int value = this.type == ColumnType.StringType ? -1 : 0;
+			if (this.width == 4) {
+				for (int i = from; i < to; ++i) {
+					this.data.putInt(i * 4, value);
+				}
+			} else {
+				for (int i = from; i < to; ++i) {
+					this.data.putLong(i * 8, 0);
+				}
+			}
+		}
+
+		private static void copy(ByteBuffer src, int srcPos, ByteBuffer dest,
+				int destPos, int length) {
+			if (length <= 0) {
+				return;
+			}
+			if (src.hasArray() && dest.hasArray()) {
+				System.arraycopy(src.array(), src.arrayOffset() + srcPos, dest
+						.array(), dest.arrayOffset() + destPos, length);
+			} else {
+				ByteBuffer s = src.duplicate();
+				s.limit(srcPos + length);
+				s.position(srcPos);
+				if (src == dest) {
+					ByteBuffer t = ByteBuffer.allocate(length);
+					t.put(s);
+					t.flip();
+					s = t;
+				}
+				ByteBuffer d = dest.duplicate();
+				d.position(destPos);
+				d.put(s);
+			}
+		}
+	}
+}
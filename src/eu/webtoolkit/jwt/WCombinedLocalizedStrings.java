@@ -54,6 +54,7 @@ public class WCombinedLocalizedStrings extends WLocalizedStrings {
 	 */
 	public void add(WLocalizedStrings resolver) {
 		this.localizedStrings_.add(resolver);
+		valuesChanged();
 	}
 
 	/**
@@ -64,6 +65,7 @@ public class WCombinedLocalizedStrings extends WLocalizedStrings {
 	 */
 	public void insert(int index, WLocalizedStrings resolver) {
 		this.localizedStrings_.add(0 + index, resolver);
+		valuesChanged();
 	}
 
 	/**
@@ -74,6 +76,7 @@ public class WCombinedLocalizedStrings extends WLocalizedStrings {
 	 */
 	public void remove(WLocalizedStrings resolver) {
 		this.localizedStrings_.remove(resolver);
+		valuesChanged();
 	}
 
 	/**
@@ -91,6 +94,7 @@ public class WCombinedLocalizedStrings extends WLocalizedStrings {
 		for (int i = 0; i < this.localizedStrings_.size(); ++i) {
 			this.localizedStrings_.get(i).refresh();
 		}
+		valuesChanged();
 	}
 
 	public void hibernate() {
@@ -99,6 +103,18 @@ public class WCombinedLocalizedStrings extends WLocalizedStrings {
 		}
 	}
 
+	int getGeneration() {
+		int children = 0;
+		for (int i = 0; i < this.localizedStrings_.size(); ++i) {
+			children += this.localizedStrings_.get(i).getGeneration();
+		}
+		if (children != this.childGeneration_) {
+			this.childGeneration_ = children;
+			valuesChanged();
+		}
+		return super.getGeneration();
+	}
+
 	public String resolveKey(final String key) {
 		String result = null;
 		for (int i = 0; i < this.localizedStrings_.size(); ++i) {
@@ -111,4 +127,5 @@ public class WCombinedLocalizedStrings extends WLocalizedStrings {
 	}
 
 	private List<WLocalizedStrings> localizedStrings_;
+	private int childGeneration_;
 }
@@ -10,6 +10,8 @@ import java.util.regex.*;
 import java.io.*;
 import java.lang.ref.*;
 import java.util.concurrent.locks.ReentrantLock;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import javax.servlet.http.*;
 import javax.servlet.*;
 import eu.webtoolkit.jwt.*;
@@ -31,6 +33,10 @@ import org.slf4j.LoggerFactory;
  * {@link WFileDropWidget#getCurrentIndex() getCurrentIndex()} have either
  * finished, failed or have been cancelled.
  * <p>
+ * Large files may be uploaded in chunks (see
+ * {@link WFileDropWidget#setChunkSize(long chunkSize) setChunkSize()}), which
+ * allows an upload to resume after a network failure.
+ * <p>
  * The widget has the default style-class &apos;Wt-filedropzone&apos;. An
  * additional style class is applied when files are hovered over the widget.
  * This can be configured using the method
@@ -185,6 +191,11 @@ public class WFileDropWidget extends WContainerWidget {
 		this.tooLarge_ = new Signal2<WFileDropWidget.File, Long>();
 		this.uploadFailed_ = new Signal1<WFileDropWidget.File>();
 		this.uploads_ = new ArrayList<WFileDropWidget.File>();
+		this.uploadConsumer_ = null;
+		this.chunkSize_ = 0;
+		this.parallelChunks_ = 3;
+		this.maximumFileSize_ = -1;
+		this.chunkedUpload_ = null;
 		WApplication app = WApplication.getInstance();
 		if (!app.getEnvironment().hasAjax()) {
 			return;
@@ -324,6 +335,122 @@ public class WFileDropWidget extends WContainerWidget {
 		return this.uploadFailed_;
 	}
 
+	/**
+	 * Sets the chunk size for uploads.
+	 * <p>
+	 * When the chunk size is not 0, each file is sent in chunks of this size,
+	 * each with a separate request, and several chunks at the same time (see
+	 * {@link WFileDropWidget#setParallelChunks(int count) setParallelChunks()}
+	 * ). The chunks are written directly to a single spool file.
+	 * <p>
+	 * A chunk that could not be sent, e.g. because the network connection was
+	 * lost, is sent again after a delay, so that the upload resumes where it
+	 * was interrupted. Progress is reported for each chunk received, with the
+	 * {@link WFileDropWidget.File#dataReceived() File#dataReceived()} signal.
+	 * <p>
+	 * Files may then be larger than the maximum request size, up to
+	 * {@link WFileDropWidget#getMaximumFileSize() getMaximumFileSize()}. The
+	 * chunk size itself must be smaller than the maximum request size. Chunks
+	 * are not passed to an {@link WFileDropWidget#getUploadConsumer() upload
+	 * consumer}.
+	 * <p>
+	 * The default value is 0: each file is sent with a single request.
+	 */
+	public void setChunkSize(long chunkSize) {
+		this.chunkSize_ = chunkSize;
+	}
+
+	/**
+	 * Returns the chunk size for uploads.
+	 * <p>
+	 * 
+	 * @see WFileDropWidget#setChunkSize(long chunkSize)
+	 */
+	public long getChunkSize() {
+		return this.chunkSize_;
+	}
+
+	/**
+	 * Sets the number of chunks that are sent at the same time.
+	 * <p>
+	 * The default value is 3.
+	 * <p>
+	 * 
+	 * @see WFileDropWidget#setChunkSize(long chunkSize)
+	 */
+	public void setParallelChunks(int count) {
+		this.parallelChunks_ = Math.max(1, count);
+	}
+
+	/**
+	 * Returns the number of chunks that are sent at the same time.
+	 * <p>
+	 * 
+	 * @see WFileDropWidget#setParallelChunks(int count)
+	 */
+	public int getParallelChunks() {
+		return this.parallelChunks_;
+	}
+
+	/**
+	 * Sets the maximum size of a file uploaded in chunks.
+	 * <p>
+	 * Larger files are not uploaded, and the
+	 * {@link WFileDropWidget#tooLarge() tooLarge()} signal is triggered. When
+	 * uploads are not chunked, the maximum file size is the maximum request
+	 * size.
+	 * <p>
+	 * The default value is -1, which does not limit the file size.
+	 * <p>
+	 * 
+	 * @see WFileDropWidget#setChunkSize(long chunkSize)
+	 */
+	public void setMaximumFileSize(long size) {
+		this.maximumFileSize_ = size;
+	}
+
+	/**
+	 * Returns the maximum size of a file uploaded in chunks.
+	 * <p>
+	 * 
+	 * @see WFileDropWidget#setMaximumFileSize(long size)
+	 */
+	public long getMaximumFileSize() {
+		return this.maximumFileSize_;
+	}
+
+	public void remove() {
+		this.discardChunkedUpload();
+		super.remove();
+	}
+
+	/**
+	 * Sets a consumer for the uploaded data.
+	 * <p>
+	 * The consumer receives the contents of each file while it is being
+	 * uploaded, from the thread which receives the request and without holding
+	 * the session lock. Depending on the return value of
+	 * {@link WebRequest.UploadConsumer#begin(String, String, String) begin()},
+	 * the file is also stored and available as
+	 * {@link WFileDropWidget.File#getUploadedFile() File#getUploadedFile()}.
+	 * <p>
+	 * The default value is <code>null</code>.
+	 */
+	public void setUploadConsumer(WebRequest.UploadConsumer consumer) {
+		this.uploadConsumer_ = consumer;
+	}
+
+	/**
+	 * Returns the consumer for the uploaded data.
+	 * <p>
+	 * 
+	 * @see WFileDropWidget#setUploadConsumer(WebRequest.UploadConsumer
+	 *      consumer)
+	 */
+	public WebRequest.UploadConsumer getUploadConsumer() {
+		return this.uploadConsumer_;
+	}
+
 	protected void enableAjax() {
 		this.setup();
 	}
@@ -348,12 +475,24 @@ public class WFileDropWidget extends WContainerWidget {
 				response.setStatus(404);
 				return;
 			}
+			if (request.getParameter("chunk") != null) {
+				this.parent_.handleChunk(request, response);
+				lock.release();
+				return;
+			}
 			int id = Integer.parseInt(fileId);
 			boolean validId = this.parent_.incomingIdCheck(id);
 			if (!validId) {
 				response.setStatus(404);
 				return;
 			}
+			if (request.getPostDataExceeded() != 0) {
+				this.parent_.handleTooLarge(request.getPostDataExceeded());
+				WApplication.getInstance().triggerUpdate();
+				response.setStatus(413);
+				lock.release();
+				return;
+			}
 			List<UploadedFile> files = new ArrayList<UploadedFile>();
 			CollectionUtils.findInMultimap(request.getUploadedFiles(), "data",
 					files);
@@ -369,11 +508,162 @@ public class WFileDropWidget extends WContainerWidget {
 			this.currentFile_ = file;
 		}
 
+		WebRequest.UploadConsumer getUploadConsumer(final WebRequest request) {
+			String chunkE = request.getParameter("chunk");
+			if (chunkE != null) {
+				WFileDropWidget.ChunkedUpload upload = this.parent_.chunkedUpload_;
+				try {
+					return upload != null ? upload.getChunkConsumer(Integer
+							.parseInt(chunkE)) : null;
+				} catch (final NumberFormatException e) {
+					return null;
+				}
+			}
+			return this.parent_.getUploadConsumer();
+		}
+
 		private WFileDropWidget parent_;
 		private WApplication app_;
 		private WFileDropWidget.File currentFile_;
 	}
 
+	/*
+	 * The state of a file which is uploaded in chunks. Chunks are written to
+	 * the spool file while their request is received, outside of the session
+	 * lock, and possibly concurrently.
+	 */
+	static class ChunkedUpload {
+		private static Logger logger = LoggerFactory
+				.getLogger(ChunkedUpload.class);
+
+		public ChunkedUpload(WFileDropWidget.File file, long chunkSize) {
+			this.file_ = file;
+			this.chunkSize_ = chunkSize;
+			this.chunkCount_ = (int) Math.max(1, (file.getSize()
+					+ chunkSize - 1)
+					/ chunkSize);
+			this.written_ = new BitSet(this.chunkCount_);
+			this.bytesWritten_ = 0;
+			this.spoolFile_ = null;
+			this.channel_ = null;
+			this.closed_ = false;
+		}
+
+		public WFileDropWidget.File getFile() {
+			return this.file_;
+		}
+
+		public synchronized boolean isWritten(int chunk) {
+			return chunk >= 0 && chunk < this.chunkCount_
+					&& this.written_.get(chunk);
+		}
+
+		public synchronized boolean isComplete() {
+			return this.written_.cardinality() == this.chunkCount_;
+		}
+
+		public synchronized long getBytesWritten() {
+			return this.bytesWritten_;
+		}
+
+		public WebRequest.UploadConsumer getChunkConsumer(final int chunk) {
+			if (chunk < 0 || chunk >= this.chunkCount_) {
+				return null;
+			}
+			final long offset = chunk * this.chunkSize_;
+			final long length = Math.min(this.chunkSize_, this.file_.getSize()
+					- offset);
+			return new WebRequest.UploadConsumer() {
+				private long received = 0;
+				private boolean failed = false;
+
+				public boolean begin(String fieldName, String clientFileName,
+						String contentType) {
+					return false;
+				}
+
+				public void data(byte[] buffer, int off, int len)
+						throws IOException {
+					if (this.failed) {
+						return;
+					}
+					if (this.received + len > length) {
+						this.failed = true;
+						return;
+					}
+					ByteBuffer b = ByteBuffer.wrap(buffer, off, len);
+					long position = offset + this.received;
+					FileChannel channel = ChunkedUpload.this.getChannel();
+					while (b.hasRemaining()) {
+						position += channel.write(b, position);
+					}
+					this.received += len;
+				}
+
+				public void end(boolean complete) {
+					if (complete && !this.failed && this.received == length) {
+						ChunkedUpload.this.setWritten(chunk, length);
+					}
+				}
+			};
+		}
+
+		public synchronized UploadedFile finish() throws IOException {
+			this.getChannel().close();
+			this.channel_ = null;
+			this.closed_ = true;
+			UploadedFile result = new UploadedFile(
+					this.spoolFile_.getAbsolutePath(),
+					this.file_.getClientFileName(), this.file_.getMimeType());
+			this.spoolFile_ = null;
+			return result;
+		}
+
+		public synchronized void discard() {
+			this.closed_ = true;
+			try {
+				if (this.channel_ != null) {
+					this.channel_.close();
+				}
+			} catch (final IOException e) {
+				logger.info("Could not close spool file: " + e.getMessage());
+			}
+			this.channel_ = null;
+			if (this.spoolFile_ != null) {
+				this.spoolFile_.delete();
+				this.spoolFile_ = null;
+			}
+		}
+
+		private synchronized FileChannel getChannel() throws IOException {
+			if (this.channel_ == null) {
+				if (this.closed_) {
+					throw new IOException("Chunked upload was closed");
+				}
+				this.spoolFile_ = java.io.File.createTempFile("jwt", "jwt");
+				this.channel_ = new RandomAccessFile(this.spoolFile_, "rw")
+						.getChannel();
+			}
+			return this.channel_;
+		}
+
+		private synchronized void setWritten(int chunk, long length) {
+			if (!this.written_.get(chunk)) {
+				this.written_.set(chunk);
+				this.bytesWritten_ += length;
+			}
+		}
+
+		private WFileDropWidget.File file_;
+		private long chunkSize_;
+		private int chunkCount_;
+		private BitSet written_;
+		private long bytesWritten_;
+		private java.io.File spoolFile_;
+		private FileChannel channel_;
+		private boolean closed_;
+	}
+
 	private void setup() {
 		WApplication app = WApplication.getInstance();
 		app.loadJavaScript("js/WFileDropWidget.js", wtjs1());
@@ -470,6 +760,7 @@ public class WFileDropWidget extends WContainerWidget {
 				fileFound = true;
 				this.currentFileIdx_ = i;
 				;
+				this.discardChunkedUpload();
 				this.resource_ = new WFileDropWidget.WFileDropUploadResource(
 						this);
 				this.resource_.dataReceived().addListener(this,
@@ -484,8 +775,18 @@ public class WFileDropWidget extends WContainerWidget {
 								WFileDropWidget.this.onDataExceeded(e1);
 							}
 						});
+				long maxFileSize = WApplication.getInstance()
+						.getMaximumRequestSize();
+				if (this.chunkSize_ > 0) {
+					this.chunkedUpload_ = new WFileDropWidget.ChunkedUpload(
+							this.uploads_.get(i), this.chunkSize_);
+					maxFileSize = this.maximumFileSize_;
+				}
 				this.doJavaScript(this.getJsRef() + ".send('"
-						+ this.resource_.getUrl() + "');");
+						+ this.resource_.getUrl() + "',"
+						+ String.valueOf(maxFileSize) + ","
+						+ String.valueOf(this.chunkSize_) + ","
+						+ String.valueOf(this.parallelChunks_) + ");");
 				this.uploadStart_.trigger(this.uploads_
 						.get(this.currentFileIdx_));
 				break;
@@ -514,6 +815,7 @@ public class WFileDropWidget extends WContainerWidget {
 	}
 
 	private void stopReceiving() {
+		this.discardChunkedUpload();
 		if (this.currentFileIdx_ < this.uploads_.size()) {
 			for (int i = this.currentFileIdx_; i < this.uploads_.size(); i++) {
 				if (!this.uploads_.get(i).isCancelled()) {
@@ -526,7 +828,8 @@ public class WFileDropWidget extends WContainerWidget {
 	}
 
 	private void onData(long current, long total) {
-		if (this.currentFileIdx_ >= this.uploads_.size()) {
+		if (this.currentFileIdx_ >= this.uploads_.size()
+				|| this.chunkedUpload_ != null) {
 			return;
 		}
 		WFileDropWidget.File file = this.uploads_.get(this.currentFileIdx_);
@@ -544,6 +847,64 @@ public class WFileDropWidget extends WContainerWidget {
 		app.triggerUpdate();
 	}
 
+	private void handleChunk(final WebRequest request,
+			final WebResponse response) {
+		String fileId = request.getParameter("file-id");
+		WFileDropWidget.ChunkedUpload upload = this.chunkedUpload_;
+		if (upload == null
+				|| !String.valueOf(upload.getFile().getUploadId()).equals(
+						fileId)) {
+			for (int i = 0; i < this.currentFileIdx_ && i < this.uploads_.size(); i++) {
+				WFileDropWidget.File f = this.uploads_.get(i);
+				if (f.isUploadFinished()
+						&& String.valueOf(f.getUploadId()).equals(fileId)) {
+					return;
+				}
+			}
+			response.setStatus(404);
+			return;
+		}
+		if (this.maximumFileSize_ >= 0
+				&& upload.getFile().getSize() > this.maximumFileSize_) {
+			this.discardChunkedUpload();
+			this.handleTooLarge(upload.getFile().getSize());
+			WApplication.getInstance().triggerUpdate();
+			response.setStatus(413);
+			return;
+		}
+		int chunk = -1;
+		try {
+			chunk = Integer.parseInt(request.getParameter("chunk"));
+		} catch (final NumberFormatException e) {
+		}
+		if (!upload.isWritten(chunk)) {
+			response.setStatus(500);
+			return;
+		}
+		upload.getFile().dataReceived()
+				.trigger(upload.getBytesWritten(), upload.getFile().getSize());
+		if (upload.isComplete()) {
+			this.chunkedUpload_ = null;
+			try {
+				this.setUploadedFile(upload.finish());
+			} catch (final IOException e) {
+				logger.error(new StringWriter()
+						.append("Could not complete chunked upload: ")
+						.append(e.getMessage()).toString());
+				upload.discard();
+				response.setStatus(500);
+			}
+		}
+		WApplication.getInstance().triggerUpdate();
+	}
+
+	private void discardChunkedUpload() {
+		if (this.chunkedUpload_ != null) {
+			this.chunkedUpload_.discard();
+			this.chunkedUpload_ = null;
+		}
+	}
+
 	private void setUploadedFile(UploadedFile file) {
 		if (this.currentFileIdx_ >= this.uploads_.size()) {
 			return;
@@ -580,12 +941,17 @@ public class WFileDropWidget extends WContainerWidget {
 	private Signal2<WFileDropWidget.File, Long> tooLarge_;
 	private Signal1<WFileDropWidget.File> uploadFailed_;
 	private List<WFileDropWidget.File> uploads_;
+	private WebRequest.UploadConsumer uploadConsumer_;
+	private long chunkSize_;
+	private int parallelChunks_;
+	private long maximumFileSize_;
+	private WFileDropWidget.ChunkedUpload chunkedUpload_;
 
 	static WJavaScriptPreamble wtjs1() {
 		return new WJavaScriptPreamble(
 				JavaScriptScope.WtClassScope,
 				JavaScriptObjectType.JavaScriptConstructor,
 				"WFileDropWidget",
-				"function(h,d,m){jQuery.data(d,\"lobj\",this);var f=this,k=\"Wt-filedropzone-hover\",c=[],l=false,j=true;this.eventContainsFile=function(a){var b=a.dataTransfer.types!=null&&a.dataTransfer.types.length>0&&a.dataTransfer.types[0]==\"Files\";return a.dataTransfer.items!=null&&a.dataTransfer.items.length>0&&a.dataTransfer.items[0].kind==\"file\"||b};this.validFileCheck=function(a,b,g){var e=new FileReader;e.onload=function(){b(true,g)};e.onerror= function(){b(false,g)};e.readAsText(a)};d.setAcceptDrops=function(a){j=a};d.ondragenter=function(a){j&&f.eventContainsFile(a)&&f.setHoverStyle(true)};d.ondragleave=function(){j&&f.setHoverStyle(false)};d.ondragover=function(a){a.preventDefault()};d.ondrop=function(a){a.preventDefault();if(j){f.setHoverStyle(false);if(!(window.FormData===undefined||a.dataTransfer.files==null||a.dataTransfer.files.length==0)){Math.floor(Math.random()*32768);for(var b=[],g=0;g<a.dataTransfer.files.length;g++){var e= new XMLHttpRequest;e.id=Math.floor(Math.random()*Math.pow(2,31));e.file=a.dataTransfer.files[g];c.push(e);var i={};i.id=e.id;i.filename=e.file.name;i.type=e.file.type;i.size=e.file.size;b.push(i)}console.log(b);h.emit(d,\"dropsignal\",JSON.stringify(b))}}};d.markForSending=function(a){for(var b=0;b<a.length;b++)for(var g=a[b].id,e=0;e<c.length;e++)if(c[e].id==g){c[e].ready=true;break}l||c[0].ready&&f.requestSend()};this.requestSend=function(){if(c[0].skip)f.uploadFinished(null);else{l=true;h.emit(d, \"requestsend\",c[0].id)}};d.send=function(a){console.log(\"sending file\");xhr=c[0];if(xhr.file.size>m){h.emit(d,\"filetoolarge\",xhr.file.size);f.uploadFinished(null)}else f.validFileCheck(xhr.file,f.actualSend,a)};this.actualSend=function(a,b){if(a){xhr=c[0];xhr.addEventListener(\"load\",f.uploadFinished);xhr.addEventListener(\"error\",f.uploadFinished);xhr.addEventListener(\"abort\",f.uploadFinished);xhr.addEventListener(\"timeout\",f.uploadFinished);xhr.open(\"POST\",b);a=new FormData;a.append(\"file-id\",xhr.id); a.append(\"data\",xhr.file);xhr.send(a)}else f.uploadFinished(null)};this.uploadFinished=function(a){console.log(\"finished sending (type = \"+a+\")\");a!=null&&a.type==\"load\"&&a.currentTarget.status==200&&h.emit(d,\"uploadfinished\",c[0].id);c.splice(0,1);if(c[0]&&c[0].ready)f.requestSend();else{l=false;h.emit(d,\"donesending\")}};d.cancelUpload=function(a){if(c[0].id==a)c[0].abort();else for(var b=1;b<c.length;b++)if(c[b].id==a)c[b].skip=true};this.setHoverStyle=function(a){a?$(d).addClass(k):$(d).removeClass(k)}; d.configureHoverClass=function(a){k=a}}");
+				"function(h,d,m){jQuery.data(d,\"lobj\",this);var f=this,k=\"Wt-filedropzone-hover\",c=[],l=false,j=true;this.eventContainsFile=function(a){var b=a.dataTransfer.types!=null&&a.dataTransfer.types.length>0&&a.dataTransfer.types[0]==\"Files\";return a.dataTransfer.items!=null&&a.dataTransfer.items.length>0&&a.dataTransfer.items[0].kind==\"file\"||b};this.validFileCheck=function(a,b,g){var e=new FileReader;e.onload=function(){b(true,g)};e.onerror=function(){b(false,g)};e.readAsText(a.slice(0,1))};d.setAcceptDrops=function(a){j=a};d.ondragenter=function(a){j&&f.eventContainsFile(a)&&f.setHoverStyle(true)};d.ondragleave=function(){j&&f.setHoverStyle(false)};d.ondragover=function(a){a.preventDefault()};d.ondrop=function(a){a.preventDefault();if(j){f.setHoverStyle(false);if(!(window.FormData===undefined||a.dataTransfer.files==null||a.dataTransfer.files.length==0)){Math.floor(Math.random()*32768);for(var b=[],g=0;g<a.dataTransfer.files.length;g++){var e=new XMLHttpRequest;e.id=Math.floor(Math.random()*Math.pow(2,31));e.file=a.dataTransfer.files[g];c.push(e);var i={};i.id=e.id;i.filename=e.file.name;i.type=e.file.type;i.size=e.file.size;b.push(i)}console.log(b);h.emit(d,\"dropsignal\",JSON.stringify(b))}}};window.addEventListener&&window.addEventListener(\"online\",function(){c[0]&&c[0].chunks&&f.sendChunks(c[0])});d.markForSending=function(a){for(var b=0;b<a.length;b++)for(var g=a[b].id,e=0;e<c.length;e++)if(c[e].id==g){c[e].ready=true;break}l||c[0].ready&&f.requestSend()};this.requestSend=function(){if(c[0].skip)f.uploadFinished(null);else{l=true;h.emit(d,\"requestsend\",c[0].id)}};d.send=function(a,b,g,e){console.log(\"sending file\");xhr=c[0];if(b===undefined)b=m;if(b>=0&&xhr.file.size>b){h.emit(d,\"filetoolarge\",xhr.file.size);f.uploadFinished(null)}else{xhr.chunkSize=g||0;xhr.parallel=e||1;f.validFileCheck(xhr.file,f.actualSend,a)}};this.actualSend=function(a,b){if(a){xhr=c[0];if(xhr.chunkSize>0){xhr.url=b;xhr.chunks=[];xhr.active=[];xhr.acked=0;xhr.retries=0;xhr.chunkCount=Math.max(1,Math.ceil(xhr.file.size/xhr.chunkSize));for(a=0;a<xhr.chunkCount;a++)xhr.chunks.push(a);f.sendChunks(xhr)}else{xhr.addEventListener(\"load\",f.uploadFinished);xhr.addEventListener(\"error\",f.uploadFinished);xhr.addEventListener(\"abort\",f.uploadFinished);xhr.addEventListener(\"timeout\",f.uploadFinished);xhr.open(\"POST\",b);a=new FormData;a.append(\"file-id\",xhr.id);a.append(\"data\",xhr.file);xhr.send(a)}}else f.uploadFinished(null)};this.sendChunks=function(a){for(clearTimeout(a.timer);!a.cancelled&&a.active.length<a.parallel&&a.chunks.length>0;)f.sendChunk(a,a.chunks.shift())};this.sendChunk=function(a,b){var g=new XMLHttpRequest,e=b*a.chunkSize,i=new FormData;a.active.push(g);g.addEventListener(\"loadend\",function(){f.chunkSent(a,g,b)});g.open(\"POST\",a.url);i.append(\"file-id\",a.id);i.append(\"chunk\",b);i.append(\"data\",a.file.slice(e,Math.min(e+a.chunkSize,a.file.size)));g.send(i)};this.chunkSent=function(a,b,g){var e=a.active.indexOf(b);e!=-1&&a.active.splice(e,1);if(a.cancelled)f.chunksFinished(a,false);else if(b.status==200){a.retries=0;if(++a.acked==a.chunkCount)f.chunksFinished(a,true);else f.sendChunks(a)}else if(b.status==0||b.status>=500){a.chunks.unshift(g);if(++a.retries>20)f.cancelChunks(a);else{clearTimeout(a.timer);a.timer=setTimeout(function(){f.sendChunks(a)},Math.min(1E3*Math.pow(2,a.retries-1),3E4))}}else f.cancelChunks(a)};this.cancelChunks=function(a){a.cancelled=true;clearTimeout(a.timer);for(var b=a.active.slice(0),g=0;g<b.length;g++)b[g].abort();f.chunksFinished(a,false)};this.chunksFinished=function(a,b){if(!a.finished&&a.active.length==0){a.finished=true;f.uploadFinished(b)}};this.uploadFinished=function(a){console.log(\"finished sending (type = \"+a+\")\");(a===true||a!=null&&a.type==\"load\"&&a.currentTarget.status==200)&&h.emit(d,\"uploadfinished\",c[0].id);c.splice(0,1);if(c[0]&&c[0].ready)f.requestSend();else{l=false;h.emit(d,\"donesending\")}};d.cancelUpload=function(a){if(c[0].id==a)c[0].chunks?f.cancelChunks(c[0]):c[0].abort();else for(var b=1;b<c.length;b++)if(c[b].id==a)c[b].skip=true};this.setHoverStyle=function(a){a?$(d).addClass(k):$(d).removeClass(k)};d.configureHoverClass=function(a){k=a}}");
 	}
 }
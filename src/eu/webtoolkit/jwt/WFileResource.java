@@ -9,9 +9,23 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import eu.webtoolkit.jwt.servlet.WebRequest;
 import eu.webtoolkit.jwt.servlet.WebResponse;
+import eu.webtoolkit.jwt.utils.HttpUtils;
 import eu.webtoolkit.jwt.utils.StreamUtils;
 
 /**
@@ -20,8 +34,35 @@ import eu.webtoolkit.jwt.utils.StreamUtils;
  * To update the resource, either use setFileName() to point it to a
  * new file, or trigger the {@link #dataChanged()} signal when only the
  * file contents has changed, but not the filename.
+ * <p>
+ * The file is served with validators derived from its size and
+ * modification time, so that browsers can revalidate it with a conditional
+ * request, and byte range requests are supported (for example, to seek in
+ * media played with {@link WMediaPlayer}). Small files are kept in a cache
+ * shared by all resources.
  */
 public class WFileResource extends WResource {
+	private static Logger logger = LoggerFactory.getLogger(WFileResource.class);
+
+	private static final int HOT_FILE_MAX_SIZE = 64 * 1024;
+	private static final long HOT_FILES_MAX_SIZE = 4 * 1024 * 1024;
+	private static final int COPY_BUFFER_SIZE = 32 * 1024;
+
+	private static class HotFile {
+		final long length;
+		final long lastModified;
+		final byte[] data;
+
+		HotFile(long length, long lastModified, byte[] data) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.data = data;
+		}
+	}
+
+	private static final Map<String, HotFile> hotFiles = new LinkedHashMap<String, HotFile>(16, 0.75f, true);
+	private static long hotFilesSize = 0;
+
 	/**
 	 * Creates a new resource with given mime-type for a file.
 	 * 
@@ -97,24 +138,184 @@ public class WFileResource extends WResource {
 	private String mimeType_;
 	private String fileName_;
 
+	/*
+	 * The size and modification time of the file, looked up once per request.
+	 */
+	private static class FileInfo {
+		final File file;
+		final boolean isFile;
+		final long length;
+		final long lastModified;
+
+		FileInfo(File file) {
+			this.file = file;
+			this.isFile = file.isFile();
+			this.length = isFile ? file.length() : 0;
+			this.lastModified = isFile ? file.lastModified() : -1;
+		}
+	}
+
+	private static final String FILE_INFO_ATTRIBUTE = WFileResource.class.getName() + ".fileInfo";
+
+	private FileInfo getFileInfo(WebRequest request) {
+		String fileName = fileName_;
+		Object o = request.getAttribute(FILE_INFO_ATTRIBUTE);
+		if (o instanceof FileInfo && ((FileInfo) o).file.getPath().equals(fileName))
+			return (FileInfo) o;
+
+		FileInfo info = new FileInfo(new File(fileName));
+		request.setAttribute(FILE_INFO_ATTRIBUTE, info);
+		return info;
+	}
+
+	@Override
+	protected String getETag(WebRequest request) {
+		FileInfo info = getFileInfo(request);
+		if (info.isFile)
+			return HttpUtils.computeETag(info.length, info.lastModified);
+		else
+			return null;
+	}
+
+	@Override
+	protected long getLastModified(WebRequest request) {
+		return getFileInfo(request).lastModified;
+	}
+
 	@Override
 	public void handleRequest(WebRequest request, WebResponse response) {
+		FileInfo info = getFileInfo(request);
+		File f = info.file;
+		long length = info.length;
+		long lastModified = info.lastModified;
+
+		if (!info.isFile) {
+			logger.info("Could not find file: " + fileName_);
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		/* validators and conditional requests are handled by WResource */
+		String etag = HttpUtils.computeETag(length, lastModified);
+		response.setHeader("Accept-Ranges", "bytes");
+
 		response.setContentType(mimeType_);
 
+		FileInputStream fis = null;
 		try {
-			File f = new File(fileName_);
-			FileInputStream fis = new FileInputStream(f);
-			try {
-				StreamUtils.copy(fis, response.getOutputStream());
-				response.getOutputStream().flush();
-			} catch (IOException e) {
-				e.printStackTrace();
-			} finally {
-				StreamUtils.closeQuietly(fis);
+			byte[] data = getHotFile(f, length, lastModified);
+			FileChannel channel = null;
+			if (data == null) {
+				fis = new FileInputStream(f);
+				channel = fis.getChannel();
 			}
+
+			List<HttpUtils.ByteRange> ranges = HttpUtils.parseRange(request, length, etag, lastModified);
+			if (ranges == null) {
+				response.setHeader("Content-Length", String.valueOf(length));
+				write(response.getOutputStream(), data, channel, 0, length);
+			} else if (ranges.isEmpty()) {
+				response.setHeader("Content-Range", "bytes */" + length);
+				response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			} else {
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				OutputStream out = response.getOutputStream();
+				if (ranges.size() == 1) {
+					HttpUtils.ByteRange range = ranges.get(0);
+					response.setHeader("Content-Range", range.toContentRange(length));
+					response.setHeader("Content-Length", String.valueOf(range.getLength()));
+					write(out, data, channel, range.getFirst(), range.getLength());
+				} else {
+					String boundary = HttpUtils.createMultipartBoundary();
+					response.setContentType("multipart/byteranges; boundary=" + boundary);
+					for (HttpUtils.ByteRange range : ranges) {
+						out.write(HttpUtils.multipartRangeHeader(boundary, mimeType_, range, length));
+						write(out, data, channel, range.getFirst(), range.getLength());
+					}
+					out.write(HttpUtils.multipartTrailer(boundary));
+				}
+			}
+
+			response.getOutputStream().flush();
 		} catch (FileNotFoundException e) {
-			System.err.println("Could not find file: " + fileName_);
-			response.setStatus(404);
+			logger.info("Could not find file: " + fileName_);
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+		} catch (IOException e) {
+			logger.info("Error serving file: " + fileName_ + ": " + e.getMessage());
+		} finally {
+			StreamUtils.closeQuietly(fis);
 		}
 	}
+
+	/*
+	 * Writes a part of the file, either from its cached contents or from the
+	 * file channel.
+	 */
+	private static void write(OutputStream out, byte[] data, FileChannel channel, long first, long length)
+			throws IOException {
+		if (data != null) {
+			out.write(data, (int) first, (int) length);
+			return;
+		}
+
+		byte[] buffer = new byte[(int) Math.min(length, COPY_BUFFER_SIZE)];
+		ByteBuffer b = ByteBuffer.wrap(buffer);
+		long position = first;
+		long remaining = length;
+		while (remaining > 0) {
+			b.clear();
+			if (remaining < buffer.length)
+				b.limit((int) remaining);
+			int n = channel.read(b, position);
+			if (n <= 0)
+				throw new IOException("File was truncated");
+			out.write(buffer, 0, n);
+			position += n;
+			remaining -= n;
+		}
+	}
+
+	/*
+	 * Returns the contents of a small file from the cache, reading it if
+	 * needed, or null for a large file.
+	 */
+	private static byte[] getHotFile(File f, long length, long lastModified) throws IOException {
+		if (length > HOT_FILE_MAX_SIZE)
+			return null;
+
+		String key = f.getAbsolutePath();
+		synchronized (hotFiles) {
+			HotFile h = hotFiles.get(key);
+			if (h != null && h.length == length && h.lastModified == lastModified)
+				return h.data;
+		}
+
+		byte[] data = new byte[(int) length];
+		InputStream in = new FileInputStream(f);
+		try {
+			int count = 0;
+			while (count < data.length) {
+				int n = in.read(data, count, data.length - count);
+				if (n == -1)
+					return null;
+				count += n;
+			}
+			if (in.read() != -1)
+				return null;
+		} finally {
+			StreamUtils.closeQuietly(in);
+		}
+
+		synchronized (hotFiles) {
+			HotFile old = hotFiles.put(key, new HotFile(length, lastModified, data));
+			hotFilesSize += length - (old != null ? old.data.length : 0);
+			for (Iterator<HotFile> i = hotFiles.values().iterator(); hotFilesSize > HOT_FILES_MAX_SIZE && i.hasNext();) {
+				hotFilesSize -= i.next().data.length;
+				i.remove();
+			}
+		}
+
+		return data;
+	}
 }
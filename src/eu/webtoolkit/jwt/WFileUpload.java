@@ -91,6 +91,7 @@ public class WFileUpload extends WWebWidget {
 		this.dataReceived_ = new Signal2<Long, Long>(this);
 		this.progressBar_ = null;
 		this.acceptAttributes_ = "";
+		this.uploadConsumer_ = null;
 		this.setInline(true);
 		this.create();
 	}
@@ -246,6 +247,32 @@ public class WFileUpload extends WWebWidget {
 		return this.uploadedFiles_;
 	}
 
+	/**
+	 * Sets a consumer for the uploaded data.
+	 * <p>
+	 * The consumer receives the contents of the files while they are being
+	 * uploaded, from the thread which receives the request and without holding
+	 * the session lock. Depending on the return value of
+	 * {@link WebRequest.UploadConsumer#begin(String, String, String) begin()},
+	 * the files are also stored and available as
+	 * {@link WFileUpload#getUploadedFiles() getUploadedFiles()}.
+	 * <p>
+	 * The default value is <code>null</code>.
+	 */
+	public void setUploadConsumer(WebRequest.UploadConsumer consumer) {
+		this.uploadConsumer_ = consumer;
+	}
+
+	/**
+	 * Returns the consumer for the uploaded data.
+	 * <p>
+	 * 
+	 * @see WFileUpload#setUploadConsumer(WebRequest.UploadConsumer consumer)
+	 */
+	public WebRequest.UploadConsumer getUploadConsumer() {
+		return this.uploadConsumer_;
+	}
+
 	/**
 	 * Returns whether {@link WFileUpload#upload() upload()} will start a new
 	 * file upload.
@@ -428,6 +455,7 @@ public class WFileUpload extends WWebWidget {
 	private WResource fileUploadTarget_;
 	private WProgressBar progressBar_;
 	private String acceptAttributes_;
+	private WebRequest.UploadConsumer uploadConsumer_;
 
 	private void create() {
 		boolean methodIframe = WApplication.getInstance().getEnvironment()
@@ -34,7 +34,7 @@ class WFileUploadResource extends WResource {
 		List<UploadedFile> files = new ArrayList<UploadedFile>();
 		CollectionUtils.findInMultimap(request.getUploadedFiles(), "data",
 				files);
-		if (!(0 != 0)) {
+		if (!(request.getPostDataExceeded() != 0)) {
 			if (!files.isEmpty() || request.getParameter("data") != null) {
 				triggerUpdate = true;
 			}
@@ -44,7 +44,7 @@ class WFileUploadResource extends WResource {
 		response.addHeader("Cache-Control", "max-age=315360000");
 		Writer o = response.out();
 		o.append("<!DOCTYPE html><html>\n<head><script type=\"text/javascript\">\nfunction load() { ");
-		if (triggerUpdate || 0 != 0) {
+		if (triggerUpdate || request.getPostDataExceeded() != 0) {
 			WEnvironment.UserAgent agent = WApplication.getInstance()
 					.getEnvironment().getAgent();
 			if (triggerUpdate) {
@@ -68,11 +68,11 @@ class WFileUploadResource extends WResource {
 							.append("',type: 'upload'").append("}), '*');");
 				}
 			} else {
-				if (0 != 0) {
+				if (request.getPostDataExceeded() != 0) {
 					logger.debug(new StringWriter()
 							.append("Resource handleRequest(): signaling file-too-large")
 							.toString());
-					String s = String.valueOf(0);
+					String s = String.valueOf(request.getPostDataExceeded());
 					if (agent == WEnvironment.UserAgent.IE6
 							|| agent == WEnvironment.UserAgent.IE7) {
 						o.append(this.fileUpload_.fileTooLarge().createCall(s));
@@ -90,11 +90,15 @@ class WFileUploadResource extends WResource {
 					"Resource handleRequest(): no signal").toString());
 		}
 		o.append("}\n</script></head><body onload=\"load();\"></body></html>");
-		if (!(0 != 0) && !files.isEmpty()) {
+		if (!(request.getPostDataExceeded() != 0) && !files.isEmpty()) {
 			this.fileUpload_.setFiles(files);
 		}
 	}
 
+	WebRequest.UploadConsumer getUploadConsumer(final WebRequest request) {
+		return this.fileUpload_.getUploadConsumer();
+	}
+
 	private WFileUpload fileUpload_;
 	private static UploadedFile uploaded;
 }
@@ -81,18 +81,7 @@ public class WItemSelectionModel extends WObject {
 	 */
 	public boolean isSelected(final WModelIndex index) {
 		if (this.selectionBehavior_ == SelectionBehavior.SelectRows) {
-			for (Iterator<WModelIndex> it_it = this.selection_.iterator(); it_it
-					.hasNext();) {
-				WModelIndex it = it_it.next();
-				WModelIndex mi = it;
-				if (mi.getRow() == index.getRow()
-						&& (mi.getParent() == index.getParent() || (mi
-								.getParent() != null && mi.getParent().equals(
-								index.getParent())))) {
-					return true;
-				}
-			}
-			return false;
+			return this.selection_.isRowSelected(index);
 		} else {
 			return this.selection_.contains(index) != false;
 		}
@@ -167,15 +156,17 @@ public class WItemSelectionModel extends WObject {
 		}
 	}
 
-	SortedSet<WModelIndex> selection_;
+	ModelIndexRangeSet selection_;
 	private WAbstractItemModel model_;
 	private SelectionBehavior selectionBehavior_;
+	private List<WModelIndex> layoutIndexes_;
 
 	WItemSelectionModel(WAbstractItemModel model, WObject parent) {
 		super(parent);
-		this.selection_ = new TreeSet<WModelIndex>();
+		this.selection_ = new ModelIndexRangeSet();
 		this.model_ = model;
 		this.selectionBehavior_ = SelectionBehavior.SelectRows;
+		this.layoutIndexes_ = null;
 	}
 
 	WItemSelectionModel(WAbstractItemModel model) {
@@ -183,10 +174,23 @@ public class WItemSelectionModel extends WObject {
 	}
 
 	void modelLayoutAboutToBeChanged() {
-		WModelIndex.encodeAsRawIndexes(this.selection_);
+		this.layoutIndexes_ = new ArrayList<WModelIndex>(this.selection_);
+		for (WModelIndex i : this.layoutIndexes_) {
+			i.encodeAsRawIndex();
+		}
 	}
 
 	void modelLayoutChanged() {
-		this.selection_ = WModelIndex.decodeFromRawIndexes(this.selection_);
+		if (this.layoutIndexes_ == null) {
+			return;
+		}
+		this.selection_.clear();
+		for (WModelIndex i : this.layoutIndexes_) {
+			WModelIndex n = i.decodeFromRawIndex();
+			if (n != null) {
+				this.selection_.add(n);
+			}
+		}
+		this.layoutIndexes_ = null;
 	}
 }
@@ -39,9 +39,16 @@ public abstract class WLocalizedStrings {
 	 * <p>
 	 * Purge any cached key/values, if applicable.
 	 * <p>
+	 * An implementation in which values may change should call
+	 * {@link WLocalizedStrings#valuesChanged() valuesChanged()} (or this
+	 * implementation), so that {@link WString} resolves them again. When the
+	 * application is refreshed (see {@link WApplication#refresh()}), this is
+	 * done in any case.
+	 * <p>
 	 * The default implementation does nothing.
 	 */
 	public void refresh() {
+		valuesChanged();
 	}
 
 	/**
@@ -70,4 +77,24 @@ public abstract class WLocalizedStrings {
 	 * @see WString#tr(String key)
 	 */
 	public abstract String resolveKey(final String key);
+
+	/**
+	 * Signals that resolved values may have changed.
+	 * <p>
+	 * {@link WString} caches the values it resolves with these localized
+	 * strings. An implementation should call this method whenever the value
+	 * for a key may change, e.g. when resources are added or reread.
+	 */
+	protected void valuesChanged() {
+		this.generation_.incrementAndGet();
+	}
+
+	/*
+	 * Returns a number which changes whenever values may have changed.
+	 */
+	int getGeneration() {
+		return this.generation_.get();
+	}
+
+	private java.util.concurrent.atomic.AtomicInteger generation_ = new java.util.concurrent.atomic.AtomicInteger();
 }
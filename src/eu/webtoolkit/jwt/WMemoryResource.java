@@ -9,6 +9,7 @@ import java.io.IOException;
 
 import eu.webtoolkit.jwt.servlet.WebRequest;
 import eu.webtoolkit.jwt.servlet.WebResponse;
+import eu.webtoolkit.jwt.utils.HttpUtils;
 
 /**
  * A resource which streams data from memory.
@@ -20,6 +21,9 @@ import eu.webtoolkit.jwt.servlet.WebResponse;
  * post-pone until the resource is served, then you may want to
  * directly reimplement {@link WResource} instead and compute the data on the
  * fly while streaming.
+ * <p>
+ * The resource is served with an entity tag computed from its data, so that
+ * browsers can revalidate it with a conditional request.
  */
 public class WMemoryResource extends WResource {
 	/**
@@ -57,6 +61,7 @@ public class WMemoryResource extends WResource {
 	 */
 	public void setData(byte[] data) {
 		this.data_ = data;
+		this.etag_ = null;
 		setChanged();
 	}
 
@@ -64,6 +69,7 @@ public class WMemoryResource extends WResource {
 		this.data_ = new byte[data.length];
 		for (int i = 0; i < data.length; ++i)
 			data_[i] = (byte) data[i];
+		this.etag_ = null;
 	}
 	
 	/**
@@ -89,6 +95,7 @@ public class WMemoryResource extends WResource {
 
 	private String mimeType_;
 	private byte[] data_;
+	private volatile String etag_;
 
 	/**
 	 * Returns the data.
@@ -99,6 +106,18 @@ public class WMemoryResource extends WResource {
 		return data_;
 	}
 
+	@Override
+	protected String getETag(WebRequest request) {
+		byte[] data = data_;
+		if (data == null)
+			return null;
+
+		String etag = etag_;
+		if (etag == null)
+			etag_ = etag = HttpUtils.computeETag(data);
+		return etag;
+	}
+
 	@Override
 	protected void handleRequest(WebRequest request, WebResponse response) throws IOException {
 		response.setContentType(mimeType_);
@@ -5,7 +5,6 @@
  */
 package eu.webtoolkit.jwt;
 
-import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -165,43 +164,43 @@ public class WModelIndex implements Comparable<WModelIndex> {
 
 		if (i1.equals(i2))
 			return 0;
-		else {
-			ArrayList<WModelIndex> ancestors1 = i1.getAncestors();
-			ArrayList<WModelIndex> ancestors2 = i2.getAncestors();
-
-			int e = Math.min(ancestors1.size(), ancestors2.size());
-
-			for (int i = 0; i < e; ++i) {
-				WModelIndex a1 = ancestors1.get(i);
-				WModelIndex a2 = ancestors2.get(i);
-
-				if (!a1.equals(a2)) {
-					if (a1.getRow() < a2.getRow())
-						return -1;
-					else if (a1.getRow() > a2.getRow())
-						return 1;
-					else if (a1.getColumn() < a2.getColumn())
-						return -1;
-					else
-						return 1;
-				}
-			}
-
-			return ancestors1.size() - ancestors2.size();
-		}
-	}
 
-	private ArrayList<WModelIndex> getAncestors() {
-		ArrayList<WModelIndex> result;
+		int depth1 = i1.getDepth();
+		int depth2 = i2.getDepth();
+
+		WModelIndex a1 = i1;
+		WModelIndex a2 = i2;
+		for (int d = depth1; d > depth2; --d)
+			a1 = a1.getParent();
+		for (int d = depth2; d > depth1; --d)
+			a2 = a2.getParent();
+
+		if (a1.equals(a2))
+			return depth1 - depth2;
+
+		for (;;) {
+			WModelIndex p1 = a1.getParent();
+			WModelIndex p2 = a2.getParent();
+			if (p1 == null ? p2 == null : p1.equals(p2))
+				break;
+			a1 = p1;
+			a2 = p2;
+		}
 
-		WModelIndex parent = getParent();
-		if (parent != null)
-			result = parent.getAncestors();
+		if (a1.getRow() < a2.getRow())
+			return -1;
+		else if (a1.getRow() > a2.getRow())
+			return 1;
+		else if (a1.getColumn() < a2.getColumn())
+			return -1;
 		else
-			result = new ArrayList<WModelIndex>();
-
-		result.add(this);
+			return 1;
+	}
 
+	private int getDepth() {
+		int result = 0;
+		for (WModelIndex p = getParent(); p != null; p = p.getParent())
+			++result;
 		return result;
 	}
 
@@ -0,0 +1,643 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A table model which shows the result of a database query.
+ * <p>
+ *
+ * The rows are provided by a {@link QueryRowSource}, e.g. a
+ * {@link JdbcRowSource} for an SQL query or a
+ * {@link eu.webtoolkit.jwt.jpa.JpaRowSource} for a JPQL query. The model fetches the rows in blocks (see
+ * {@link WQueryModel#setBlockSize(int size) setBlockSize()}), and keeps the
+ * most recently used blocks in a cache (see
+ * {@link WQueryModel#setCacheSize(int blocks) setCacheSize()}).
+ * <p>
+ * The source is never queried while rendering. Instead, a block is fetched
+ * by a background thread (see {@link WQueryModel#setExecutor(Executor executor)
+ * setExecutor()}) and then posted to the session (using
+ * {@link WtServlet#post(WApplication app, Runnable function, Runnable fallBackFunction)
+ * WtServlet#post()}), where it is added to the cache, and the
+ * {@link WAbstractItemModel#dataChanged() dataChanged()} signal is emitted.
+ * Until then, the rows of the block have no data. While rows are being
+ * fetched, the model enables server-initiated updates (see
+ * {@link WApplication#enableUpdates(boolean enabled)
+ * WApplication#enableUpdates()}), so that the rows are shown as soon as they
+ * have been fetched.
+ * <p>
+ * When a block cannot be fetched, the
+ * {@link WAbstractItemModel#dataChanged() dataChanged()} signal is emitted for
+ * its rows, so that a view asks for them, and the block is fetched again. After
+ * three failed attempts, the block is only fetched again when a view renders
+ * its rows anew, or after {@link WQueryModel#reload() reload()}.
+ * <p>
+ * A {@link WTableView} tells the model which rows it renders, and the model
+ * then also fetches the blocks before and after these rows (see
+ * {@link WQueryModel#setPrefetchBlocks(int blocks) setPrefetchBlocks()}).
+ * When the view has scrolled further by the time the block is to be fetched,
+ * the fetch is skipped.
+ * <p>
+ * The number of rows is counted in the background too. Until it is known, the
+ * model uses an estimate (see
+ * {@link WQueryModel#setEstimatedRowCount(int count) setEstimatedRowCount()}),
+ * which grows as rows are fetched.
+ * <p>
+ * The columns are defined using
+ * {@link WQueryModel#addColumn(CharSequence header) addColumn()}. The value of
+ * a column is by default the corresponding element of a row which is an
+ * <code>Object[]</code>, e.g. a row of a {@link JdbcRowSource}. For other
+ * results, such as entities, override
+ * {@link WQueryModel#getValue(Object row, int column, int role) getValue()}.
+ * <p>
+ * Usage example:
+ * <p>
+ *
+ * <pre>
+ * {@code
+ *  JdbcRowSource source = new JdbcRowSource(dataSource,
+ *      "select name, price from product order by name",
+ *      "select count(*) from product");
+ *  WQueryModel<Object[]> model = new WQueryModel<Object[]>(source, this);
+ *  model.addColumn("Name");
+ *  model.addColumn("Price");
+ *
+ *  WTableView view = new WTableView(this);
+ *  view.setModel(model);
+ * }
+ * </pre>
+ */
+public class WQueryModel<T> extends WAbstractTableModel {
+	private static Logger logger = LoggerFactory.getLogger(WQueryModel.class);
+
+	/**
+	 * Creates a new model.
+	 */
+	public WQueryModel(QueryRowSource<T> source, WObject parent) {
+		super(parent);
+		this.source_ = source;
+		this.headers_ = new ArrayList<Object>();
+		this.blockSize_ = 100;
+		this.cacheSize_ = 50;
+		this.prefetchBlocks_ = 2;
+		this.executor_ = null;
+		this.rowCount_ = 0;
+		this.rowCountExact_ = false;
+		this.rowCountRequested_ = false;
+		this.rowCountPending_ = false;
+		this.generation_ = 0;
+		this.cache_ = new LinkedHashMap<Integer, List<T>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, List<T>> eldest) {
+				return this.size() > WQueryModel.this.cacheSize_;
+			}
+		};
+		this.pending_ = new HashSet<Integer>();
+		this.failures_ = new HashMap<Integer, Integer>();
+		this.renderedFirstRow_ = -1;
+		this.renderedLastRow_ = -1;
+		this.updatesEnabled_ = false;
+		this.app_ = null;
+	}
+
+	/**
+	 * Creates a new model.
+	 * <p>
+	 * Calls {@link #WQueryModel(QueryRowSource source, WObject parent)
+	 * this(source, (WObject)null)}
+	 */
+	public WQueryModel(QueryRowSource<T> source) {
+		this(source, (WObject) null);
+	}
+
+	/**
+	 * Sets the row source.
+	 * <p>
+	 * This discards all fetched rows, and resets the model.
+	 */
+	public void setRowSource(QueryRowSource<T> source) {
+		this.source_ = source;
+		this.reload();
+	}
+
+	/**
+	 * Returns the row source.
+	 */
+	public QueryRowSource<T> getRowSource() {
+		return this.source_;
+	}
+
+	/**
+	 * Discards all fetched rows.
+	 * <p>
+	 * Use this method when the query result has changed. The rows are fetched
+	 * and counted again, and the model is reset.
+	 */
+	public void reload() {
+		++this.generation_;
+		this.cache_.clear();
+		this.pending_.clear();
+		this.failures_.clear();
+		this.rowCountExact_ = false;
+		this.rowCountRequested_ = false;
+		this.rowCountPending_ = false;
+		this.releaseUpdates();
+		this.reset();
+	}
+
+	/**
+	 * Adds a column.
+	 * <p>
+	 * Returns the index of the new column.
+	 */
+	public int addColumn(final CharSequence header) {
+		int column = this.headers_.size();
+		this.beginInsertColumns(null, column, column);
+		this.headers_.add(header);
+		this.endInsertColumns();
+		return column;
+	}
+
+	/**
+	 * Sets the number of rows that are fetched at once.
+	 * <p>
+	 * The default block size is 100. Changing the block size discards all
+	 * fetched rows.
+	 */
+	public void setBlockSize(int size) {
+		if (size < 1) {
+			throw new WException("WQueryModel: invalid block size " + size);
+		}
+		if (size != this.blockSize_) {
+			this.blockSize_ = size;
+			this.reload();
+		}
+	}
+
+	/**
+	 * Returns the number of rows that are fetched at once.
+	 * <p>
+	 *
+	 * @see WQueryModel#setBlockSize(int size)
+	 */
+	public int getBlockSize() {
+		return this.blockSize_;
+	}
+
+	/**
+	 * Sets the number of blocks that are cached.
+	 * <p>
+	 * The cache should hold at least the blocks of the rows rendered by a
+	 * view, and the blocks that are prefetched. The default cache size is 50
+	 * blocks.
+	 */
+	public void setCacheSize(int blocks) {
+		this.cacheSize_ = Math.max(1, blocks);
+	}
+
+	/**
+	 * Returns the number of blocks that are cached.
+	 * <p>
+	 *
+	 * @see WQueryModel#setCacheSize(int blocks)
+	 */
+	public int getCacheSize() {
+		return this.cacheSize_;
+	}
+
+	/**
+	 * Sets the number of blocks that are prefetched.
+	 * <p>
+	 * This number of blocks is fetched before and after the rows rendered by a
+	 * view. The default is 2 blocks.
+	 */
+	public void setPrefetchBlocks(int blocks) {
+		this.prefetchBlocks_ = Math.max(0, blocks);
+	}
+
+	/**
+	 * Returns the number of blocks that are prefetched.
+	 * <p>
+	 *
+	 * @see WQueryModel#setPrefetchBlocks(int blocks)
+	 */
+	public int getPrefetchBlocks() {
+		return this.prefetchBlocks_;
+	}
+
+	/**
+	 * Sets the executor which fetches the rows.
+	 * <p>
+	 * By default (or when <code>executor</code> is <code>null</code>), rows
+	 * are fetched by a small pool of threads of the {@link WtServlet}, which
+	 * is shared by all query models of its sessions, and which is shut down
+	 * when the servlet is destroyed. An executor which is set is not shut down
+	 * by JWt. A fetch which is rejected by the executor is retried when its
+	 * rows are needed again.
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor_ = executor;
+	}
+
+	/**
+	 * Returns the executor which fetches the rows.
+	 * <p>
+	 * Returns <code>null</code> if the default executor is used.
+	 * <p>
+	 *
+	 * @see WQueryModel#setExecutor(Executor executor)
+	 */
+	public Executor getExecutor() {
+		return this.executor_;
+	}
+
+	/**
+	 * Sets the estimated number of rows.
+	 * <p>
+	 * The estimate is used until the number of rows has been counted.
+	 */
+	public void setEstimatedRowCount(int count) {
+		if (!this.rowCountExact_) {
+			this.setRowCount(count);
+		}
+	}
+
+	/**
+	 * Returns whether the row count is exact.
+	 * <p>
+	 * This returns <code>false</code> while the model uses an estimate.
+	 */
+	public boolean isRowCountExact() {
+		return this.rowCountExact_;
+	}
+
+	public int getRowCount(final WModelIndex parent) {
+		if (parent != null) {
+			return 0;
+		}
+		if (!this.rowCountRequested_) {
+			this.requestRowCount();
+		}
+		return this.rowCount_;
+	}
+
+	public int getColumnCount(final WModelIndex parent) {
+		return parent == null ? this.headers_.size() : 0;
+	}
+
+	public Object getData(final WModelIndex index, int role) {
+		T row = this.getResultRow(index.getRow());
+		if (row == null) {
+			return null;
+		}
+		return this.getValue(row, index.getColumn(), role);
+	}
+
+	public Object getHeaderData(int section, Orientation orientation, int role) {
+		if (orientation == Orientation.Horizontal
+				&& (role == ItemDataRole.DisplayRole || role == ItemDataRole.EditRole)) {
+			return this.headers_.get(section);
+		} else {
+			return super.getHeaderData(section, orientation, role);
+		}
+	}
+
+	public boolean setHeaderData(int section, Orientation orientation,
+			final Object value, int role) {
+		if (orientation == Orientation.Horizontal
+				&& (role == ItemDataRole.DisplayRole || role == ItemDataRole.EditRole)) {
+			this.headers_.set(section, value);
+			this.headerDataChanged().trigger(orientation, section, section);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns a row of the query result.
+	 * <p>
+	 * Returns <code>null</code> if the row has not yet been fetched, in which
+	 * case it is fetched in the background.
+	 */
+	public T getResultRow(int row) {
+		int block = row / this.blockSize_;
+		List<T> rows = this.cache_.get(block);
+		if (rows == null) {
+			this.fetchBlock(block);
+			return null;
+		}
+		int i = row - block * this.blockSize_;
+		return i < rows.size() ? rows.get(i) : null;
+	}
+
+	/**
+	 * Fetches the rows rendered by a view.
+	 * <p>
+	 * This is called by {@link WTableView} with the range of rows it renders.
+	 * The blocks of these rows are fetched, followed by the blocks around
+	 * them (see {@link WQueryModel#setPrefetchBlocks(int blocks)
+	 * setPrefetchBlocks()}). Blocks which have not yet been fetched when the
+	 * view renders other rows, and which are no longer needed, are skipped.
+	 */
+	public void prefetch(int firstRow, int lastRow) {
+		if (lastRow < firstRow) {
+			return;
+		}
+		this.renderedFirstRow_ = firstRow;
+		this.renderedLastRow_ = lastRow;
+		int firstBlock = firstRow / this.blockSize_;
+		int lastBlock = lastRow / this.blockSize_;
+		for (int b = firstBlock; b <= lastBlock; ++b) {
+			if (this.cache_.get(b) == null) {
+				this.fetchBlock(b);
+			}
+		}
+		int lastRowBlock = this.rowCount_ > 0 ? (this.rowCount_ - 1)
+				/ this.blockSize_ : 0;
+		for (int i = 1; i <= this.prefetchBlocks_; ++i) {
+			if (lastBlock + i <= lastRowBlock || !this.rowCountExact_
+					&& lastBlock + i == lastRowBlock + 1) {
+				if (this.cache_.get(lastBlock + i) == null) {
+					this.fetchBlock(lastBlock + i);
+				}
+			}
+			if (firstBlock - i >= 0) {
+				if (this.cache_.get(firstBlock - i) == null) {
+					this.fetchBlock(firstBlock - i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the value of a column of a row.
+	 * <p>
+	 * The default implementation returns, for the
+	 * {@link ItemDataRole#DisplayRole DisplayRole} and
+	 * {@link ItemDataRole#EditRole EditRole}, the element
+	 * <code>column</code> of a row which is an <code>Object[]</code>, or the
+	 * row itself for column 0 of another row.
+	 */
+	protected Object getValue(T row, int column, int role) {
+		if (role != ItemDataRole.DisplayRole && role != ItemDataRole.EditRole) {
+			return null;
+		}
+		if (row instanceof Object[]) {
+			Object[] values = (Object[]) row;
+			return column < values.length ? values[column] : null;
+		} else {
+			return column == 0 ? row : null;
+		}
+	}
+
+	private QueryRowSource<T> source_;
+	private List<Object> headers_;
+	private int blockSize_;
+	private int cacheSize_;
+	private int prefetchBlocks_;
+	private Executor executor_;
+	private int rowCount_;
+	private boolean rowCountExact_;
+	private boolean rowCountRequested_;
+	private boolean rowCountPending_;
+	private int generation_;
+	private LinkedHashMap<Integer, List<T>> cache_;
+	private Set<Integer> pending_;
+	private Map<Integer, Integer> failures_;
+	private volatile int renderedFirstRow_;
+	private volatile int renderedLastRow_;
+	private boolean updatesEnabled_;
+	private volatile WApplication app_;
+
+	private static final int MAX_FETCH_ATTEMPTS = 3;
+
+	private void requestRowCount() {
+		this.rowCountRequested_ = true;
+		this.rowCountPending_ = true;
+		final int generation = this.generation_;
+		final QueryRowSource<T> source = this.source_;
+		boolean queued = this.runInBackground(new Runnable() {
+			public void run() {
+				int count = -1;
+				try {
+					count = source.getRowCount();
+				} catch (RuntimeException e) {
+					logger.error("WQueryModel: could not count rows", e);
+				}
+				final int result = count;
+				WQueryModel.this.postResult(new Runnable() {
+					public void run() {
+						WQueryModel.this.rowCountFetched(generation, result);
+					}
+				});
+			}
+		});
+		if (!queued) {
+			this.rowCountRequested_ = false;
+			this.rowCountPending_ = false;
+			this.releaseUpdates();
+		}
+		this.fetchBlock(0);
+	}
+
+	private void fetchBlock(final int block) {
+		if (this.pending_.contains(block)) {
+			return;
+		}
+		this.pending_.add(block);
+		final int generation = this.generation_;
+		final QueryRowSource<T> source = this.source_;
+		final int blockSize = this.blockSize_;
+		final int margin = this.prefetchBlocks_;
+		boolean queued = this.runInBackground(new Runnable() {
+			public void run() {
+				List<T> rows = null;
+				boolean failed = false;
+				if (WQueryModel.this.isNeeded(block, blockSize, margin)) {
+					try {
+						rows = source.getRows(block * blockSize, blockSize);
+					} catch (RuntimeException e) {
+						logger.error("WQueryModel: could not fetch rows "
+								+ block * blockSize + " to "
+								+ ((block + 1) * blockSize - 1), e);
+					}
+					failed = rows == null;
+				}
+				final List<T> result = rows;
+				final boolean resultFailed = failed;
+				WQueryModel.this.postResult(new Runnable() {
+					public void run() {
+						WQueryModel.this.blockFetched(generation, block, result,
+								resultFailed);
+					}
+				});
+			}
+		});
+		if (!queued) {
+			this.pending_.remove(block);
+			this.releaseUpdates();
+		}
+	}
+
+	/*
+	 * Called from a background thread: whether a block is still needed by
+	 * the view, when it has scrolled on in the meantime. The block size and
+	 * prefetch margin are those of when the fetch was queued.
+	 */
+	private boolean isNeeded(int block, int blockSize, int margin) {
+		int firstRow = this.renderedFirstRow_;
+		int lastRow = this.renderedLastRow_;
+		if (firstRow == -1) {
+			return true;
+		}
+		return block >= firstRow / blockSize - margin
+				&& block <= lastRow / blockSize + margin;
+	}
+
+	private void rowCountFetched(int generation, int count) {
+		if (generation != this.generation_) {
+			return;
+		}
+		this.rowCountPending_ = false;
+		if (count < 0) {
+			return;
+		}
+		this.rowCountExact_ = true;
+		this.setRowCount(count);
+	}
+
+	private void blockFetched(int generation, int block, List<T> rows,
+			boolean failed) {
+		if (generation != this.generation_) {
+			return;
+		}
+		this.pending_.remove(block);
+		int firstRow = block * this.blockSize_;
+		if (failed) {
+			Integer failures = this.failures_.get(block);
+			int attempts = (failures != null ? failures : 0) + 1;
+			this.failures_.put(block, attempts);
+			int lastRow = Math.min(firstRow + this.blockSize_, this.rowCount_) - 1;
+			if (attempts < MAX_FETCH_ATTEMPTS && lastRow >= firstRow
+					&& !this.headers_.isEmpty()) {
+				this.dataChanged().trigger(this.getIndex(firstRow, 0),
+						this.getIndex(lastRow, this.headers_.size() - 1));
+			}
+			return;
+		}
+		if (rows == null) {
+			return;
+		}
+		this.failures_.remove(block);
+		this.cache_.put(block, rows);
+		int endRow = firstRow + rows.size();
+		if (!this.rowCountExact_) {
+			if (rows.size() < this.blockSize_ && (rows.size() > 0 || block == 0)) {
+				this.rowCountExact_ = true;
+				this.setRowCount(endRow);
+			} else {
+				if (endRow > this.rowCount_) {
+					this.setRowCount(endRow);
+				}
+			}
+		}
+		int lastRow = Math.min(endRow, this.rowCount_) - 1;
+		if (lastRow >= firstRow && !this.headers_.isEmpty()) {
+			this.dataChanged().trigger(this.getIndex(firstRow, 0),
+					this.getIndex(lastRow, this.headers_.size() - 1));
+		}
+	}
+
+	private void setRowCount(int count) {
+		if (count > this.rowCount_) {
+			this.beginInsertRows(null, this.rowCount_, count - 1);
+			this.rowCount_ = count;
+			this.endInsertRows();
+		} else {
+			if (count < this.rowCount_) {
+				this.beginRemoveRows(null, count, this.rowCount_ - 1);
+				this.rowCount_ = count;
+				this.endRemoveRows();
+			}
+		}
+	}
+
+	/*
+	 * Runs a task in the background, or, outside of a session, right away.
+	 * Returns false when the task was rejected.
+	 */
+	private boolean runInBackground(Runnable task) {
+		WApplication app = WApplication.getInstance();
+		WtServlet server = app != null ? app.getEnvironment().getServer() : null;
+		if (server == null) {
+			task.run();
+			return true;
+		}
+		if (!this.updatesEnabled_
+				&& (app.isUpdatesEnabled() || WebSession.Handler.getInstance()
+						.getRequest() != null)) {
+			app.enableUpdates(true);
+			this.updatesEnabled_ = true;
+		}
+		this.app_ = app;
+		Executor executor = this.executor_ != null ? this.executor_ : server
+				.getQueryExecutor();
+		try {
+			executor.execute(task);
+			return true;
+		} catch (RejectedExecutionException e) {
+			logger.warn("WQueryModel: fetch rejected by the executor, the rows are fetched when needed again");
+			return false;
+		}
+	}
+
+	/*
+	 * Disables server-initiated updates when no fetch is outstanding.
+	 */
+	private void releaseUpdates() {
+		if (this.updatesEnabled_ && this.pending_.isEmpty()
+				&& !this.rowCountPending_) {
+			this.updatesEnabled_ = false;
+			this.app_.enableUpdates(false);
+		}
+	}
+
+	/*
+	 * Runs the result of a background task within the session.
+	 */
+	private void postResult(final Runnable result) {
+		final WApplication app = this.app_;
+		if (app == null || WApplication.getInstance() == app) {
+			result.run();
+			this.releaseUpdates();
+			return;
+		}
+		app.getEnvironment().getServer().post(app, new Runnable() {
+			public void run() {
+				result.run();
+				if (app.isUpdatesEnabled()) {
+					app.triggerUpdate();
+				}
+				WQueryModel.this.releaseUpdates();
+			}
+		}, null);
+	}
+}
@@ -5,15 +5,27 @@
  */
 package eu.webtoolkit.jwt;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 
 import eu.webtoolkit.jwt.servlet.UploadedFile;
 import eu.webtoolkit.jwt.servlet.WebRequest;
 import eu.webtoolkit.jwt.servlet.WebResponse;
+import eu.webtoolkit.jwt.utils.HttpUtils;
 
 /**
  * An object which can be rendered in the HTTP protocol.
@@ -36,6 +48,18 @@ import eu.webtoolkit.jwt.servlet.WebResponse;
  * To serve resources that you create on the fly, you need to specialize this
  * class and reimplement {@link #handleRequest(WebRequest, WebResponse)}.
  * 
+ * <h3>Caching</h3>
+ * 
+ * A resource may provide validators for its current version, by reimplementing
+ * {@link #getETag(WebRequest)} and/or {@link #getLastModified(WebRequest)}.
+ * A conditional GET request for an unmodified resource is then answered with
+ * <tt>304 Not Modified</tt>, without calling
+ * {@link #handleRequest(WebRequest, WebResponse)}. How long browsers may reuse
+ * the resource is configured with {@link #setCacheControl(String)}. When
+ * generating the resource is expensive while its output only changes with
+ * {@link #setChanged()}, the response can also be cached in the server, see
+ * {@link #setServerCacheEnabled(boolean)}.
+ * 
  * <h3>Concurrency issues</h3>
  * 
  * Because of the nature of the web, a resource may be requested one time or
@@ -75,6 +99,12 @@ public abstract class WResource extends WObject {
 	private String internalPath_;
 	private boolean trackUploadProgress_;
 	private DispositionType dispositionType_;
+	private String cacheControl_;
+	private boolean serverCacheEnabled_;
+	private final Map<String, CachedResponse> cachedResponses_ = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true);
+	private long cachedResponsesSize_;
+
+	private static final int SERVER_CACHE_MAX_SIZE = 1024 * 1024;
 
 	protected WResource(WObject parent) {
 		super(parent);
@@ -195,10 +225,445 @@ public abstract class WResource extends WObject {
 			}
 		}
 
+		if (cacheControl_ != null)
+			response.setHeader("Cache-Control", cacheControl_);
+
+		boolean get = "GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod());
+		if (get) {
+			String key = serverCacheEnabled_ ? getServerCacheKey(request) : null;
+			CachedResponse cached = key != null ? getCachedResponse(key) : null;
+
+			String etag = getETag(request);
+			long lastModified = getLastModified(request);
+
+			if (cached != null && etag != null && !etag.equals(cached.version))
+				cached = null;
+			if (cached != null && etag == null)
+				etag = cached.etag;
+
+			if (etag != null)
+				response.setHeader("ETag", etag);
+			if (lastModified != -1)
+				response.setDateHeader("Last-Modified", lastModified);
+
+			if ((etag != null || lastModified != -1) && HttpUtils.isNotModified(request, etag, lastModified)) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				response.flush();
+				return;
+			}
+
+			if (cached != null && request.getHeader("Range") == null) {
+				cached.write(response);
+				response.flush();
+				return;
+			}
+
+			/* the response to a HEAD request has no body to cache */
+			if (serverCacheEnabled_ && "GET".equals(request.getMethod())) {
+				/*
+				 * The capture writes to response, and thus through its
+				 * compression, while keeping the uncompressed body: a cached
+				 * response is compressed again for each client that accepts it.
+				 */
+				CapturingResponse capture = new CapturingResponse(response);
+				WebResponse captureResponse = new WebResponse(capture, request);
+				handleRequest(request, captureResponse);
+				captureResponse.out().flush();
+
+				CachedResponse result = capture.finish(etag);
+				if (result != null)
+					putCachedResponse(key, result);
+
+				response.flush();
+				return;
+			}
+		}
+
 		handleRequest(request, response);
 		response.flush();
 	}
 
+	/**
+	 * Returns the entity tag for the current version of the resource.
+	 * <p>
+	 * When not <code>null</code>, the entity tag is sent with the response, and
+	 * a GET request which has a matching <tt>If-None-Match</tt> header is
+	 * answered with <tt>304 Not Modified</tt>. The value must be a quoted
+	 * entity tag, see e.g. {@link HttpUtils#computeETag(byte[])}.
+	 * <p>
+	 * This is called for every request, concurrently, and should therefore be
+	 * cheap to compute. The default implementation returns <code>null</code>.
+	 * 
+	 * @see #getLastModified(WebRequest)
+	 */
+	protected String getETag(WebRequest request) {
+		return null;
+	}
+
+	/**
+	 * Returns the modification time of the current version of the resource.
+	 * <p>
+	 * When not -1, the time (in milliseconds since the epoch) is sent with the
+	 * response in a <tt>Last-Modified</tt> header, and a GET request with a
+	 * <tt>If-Modified-Since</tt> header that is not older is answered with
+	 * <tt>304 Not Modified</tt>.
+	 * <p>
+	 * The default implementation returns -1.
+	 * 
+	 * @see #getETag(WebRequest)
+	 */
+	protected long getLastModified(WebRequest request) {
+		return -1;
+	}
+
+	/**
+	 * Sets the <tt>Cache-Control</tt> header for the resource.
+	 * <p>
+	 * For example, <code>"private, max-age=3600"</code> allows the browser to
+	 * reuse the resource for an hour, while <code>"no-cache"</code> lets it
+	 * revalidate the resource for each use (see
+	 * {@link #getETag(WebRequest)}).
+	 * <p>
+	 * The default value is <code>null</code>, for which no header is sent.
+	 */
+	public void setCacheControl(String cacheControl) {
+		cacheControl_ = cacheControl;
+	}
+
+	/**
+	 * Returns the <tt>Cache-Control</tt> header for the resource.
+	 * 
+	 * @see #setCacheControl(String)
+	 */
+	public String getCacheControl() {
+		return cacheControl_;
+	}
+
+	/**
+	 * Configures whether the response is cached in the server.
+	 * <p>
+	 * This may be enabled for a resource which always generates the same
+	 * response, until {@link #setChanged()} is called or until its entity tag
+	 * (see {@link #getETag(WebRequest)}) changes. The first successful response
+	 * to a GET request is then kept in memory, and used for later requests with
+	 * the same parameters without calling
+	 * {@link #handleRequest(WebRequest, WebResponse)}. At most 1 MB is kept per
+	 * resource. Unless the resource provides its own entity tag, one is
+	 * computed from the cached response.
+	 * <p>
+	 * The default value is <code>false</code>.
+	 */
+	public void setServerCacheEnabled(boolean enabled) {
+		serverCacheEnabled_ = enabled;
+		if (!enabled)
+			clearCachedResponses();
+	}
+
+	/**
+	 * Returns whether the response is cached in the server.
+	 * 
+	 * @see #setServerCacheEnabled(boolean)
+	 */
+	public boolean isServerCacheEnabled() {
+		return serverCacheEnabled_;
+	}
+
+	/*
+	 * A resource may generate a different response depending on its request
+	 * parameters: those are part of the cache key, except for the ones in the
+	 * resource URL that only identify the session and the version.
+	 */
+	private static String getServerCacheKey(WebRequest request) {
+		StringBuilder key = new StringBuilder();
+		if (request.getPathInfo() != null)
+			key.append(request.getPathInfo());
+
+		Map<String, String[]> parameters = new TreeMap<String, String[]>(request.getParameterMap());
+		for (Map.Entry<String, String[]> e : parameters.entrySet()) {
+			String name = e.getKey();
+			if (name.equals("wtd") || name.equals("request") || name.equals("resource") || name.equals("rand"))
+				continue;
+			for (String value : e.getValue())
+				key.append('&').append(name).append('=').append(value);
+		}
+
+		return key.toString();
+	}
+
+	private CachedResponse getCachedResponse(String key) {
+		synchronized (cachedResponses_) {
+			return cachedResponses_.get(key);
+		}
+	}
+
+	private void putCachedResponse(String key, CachedResponse response) {
+		synchronized (cachedResponses_) {
+			CachedResponse old = cachedResponses_.put(key, response);
+			cachedResponsesSize_ += response.body.length - (old != null ? old.body.length : 0);
+			for (Iterator<CachedResponse> i = cachedResponses_.values().iterator(); cachedResponsesSize_ > SERVER_CACHE_MAX_SIZE
+					&& i.hasNext();) {
+				cachedResponsesSize_ -= i.next().body.length;
+				i.remove();
+			}
+		}
+	}
+
+	private void clearCachedResponses() {
+		synchronized (cachedResponses_) {
+			cachedResponses_.clear();
+			cachedResponsesSize_ = 0;
+		}
+	}
+
+	/*
+	 * A response kept by the server cache.
+	 */
+	private static class CachedResponse {
+		final String version;
+		final String etag;
+		final int status;
+		final String contentType;
+		final List<String[]> headers;
+		final byte[] body;
+
+		CachedResponse(String version, int status, String contentType, List<String[]> headers, byte[] body) {
+			this.version = version;
+			this.etag = version != null ? version : HttpUtils.computeETag(body);
+			this.status = status;
+			this.contentType = contentType;
+			this.headers = headers;
+			this.body = body;
+		}
+
+		void write(WebResponse response) throws IOException {
+			response.setStatus(status);
+			if (contentType != null)
+				response.setContentType(contentType);
+			for (String[] header : headers)
+				response.addHeader(header[0], header[1]);
+			response.setContentLength(body.length);
+			response.getOutputStream().write(body);
+		}
+	}
+
+	/*
+	 * Passes a response on, while keeping a copy of its status, headers and
+	 * body for the server cache. The body is held back until it is complete,
+	 * so that an entity tag computed from it is still sent with it.
+	 */
+	private static class CapturingResponse extends HttpServletResponseWrapper {
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		private final List<String[]> headers = new ArrayList<String[]>();
+		private int status = HttpServletResponse.SC_OK;
+		private String contentType;
+		private boolean cacheable = true;
+		private boolean buffering = true;
+		private ServletOutputStream out;
+		private ServletOutputStream stream;
+		private PrintWriter writer;
+
+		CapturingResponse(HttpServletResponse response) {
+			super(response);
+		}
+
+		/*
+		 * Sends the held back body, and returns the response to be cached, if
+		 * any.
+		 */
+		CachedResponse finish(String version) throws IOException {
+			if (writer != null)
+				writer.flush();
+
+			if (!buffering)
+				return null;
+			buffering = false;
+
+			CachedResponse result = null;
+			if (cacheable && status == HttpServletResponse.SC_OK) {
+				result = new CachedResponse(version, status, contentType, headers, body.toByteArray());
+				if (version == null)
+					super.setHeader("ETag", result.etag);
+				super.setContentLength(result.body.length);
+			}
+
+			body.writeTo(getOut());
+			return result;
+		}
+
+		private ServletOutputStream getOut() throws IOException {
+			if (out == null)
+				out = super.getOutputStream();
+			return out;
+		}
+
+		private void write(byte[] b, int off, int len) throws IOException {
+			if (buffering) {
+				if (body.size() + len <= SERVER_CACHE_MAX_SIZE) {
+					body.write(b, off, len);
+					return;
+				}
+				passOn();
+			}
+
+			getOut().write(b, off, len);
+		}
+
+		/*
+		 * Gives up on caching, sending what was held back.
+		 */
+		private void passOn() throws IOException {
+			cacheable = false;
+			if (buffering) {
+				buffering = false;
+				body.writeTo(getOut());
+				body.reset();
+			}
+		}
+
+		/*
+		 * Gives up on caching, dropping what was held back.
+		 */
+		private void discard() {
+			cacheable = false;
+			buffering = false;
+			body.reset();
+		}
+
+		private void recordHeader(String name, String value, boolean replace) {
+			if (name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("ETag")
+					|| name.equalsIgnoreCase("Last-Modified") || name.equalsIgnoreCase("Cache-Control"))
+				return;
+
+			if (replace)
+				for (Iterator<String[]> i = headers.iterator(); i.hasNext();)
+					if (i.next()[0].equalsIgnoreCase(name))
+						i.remove();
+			headers.add(new String[] { name, value });
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			if (stream == null) {
+				stream = new ServletOutputStream() {
+					@Override
+					public void write(int b) throws IOException {
+						CapturingResponse.this.write(new byte[] { (byte) b }, 0, 1);
+					}
+
+					@Override
+					public void write(byte[] b, int off, int len) throws IOException {
+						CapturingResponse.this.write(b, off, len);
+					}
+
+					@Override
+					public void flush() throws IOException {
+						if (!buffering)
+							getOut().flush();
+					}
+				};
+			}
+			return stream;
+		}
+
+		@Override
+		public void flushBuffer() throws IOException {
+			passOn();
+			super.flushBuffer();
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			if (writer == null)
+				writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+			return writer;
+		}
+
+		@Override
+		public void setStatus(int sc) {
+			status = sc;
+			super.setStatus(sc);
+		}
+
+		@Override
+		@SuppressWarnings("deprecation")
+		public void setStatus(int sc, String sm) {
+			status = sc;
+			super.setStatus(sc, sm);
+		}
+
+		@Override
+		public void sendError(int sc) throws IOException {
+			discard();
+			super.sendError(sc);
+		}
+
+		@Override
+		public void sendError(int sc, String msg) throws IOException {
+			discard();
+			super.sendError(sc, msg);
+		}
+
+		@Override
+		public void sendRedirect(String location) throws IOException {
+			discard();
+			super.sendRedirect(location);
+		}
+
+		@Override
+		public void reset() {
+			discard();
+			super.reset();
+		}
+
+		@Override
+		public void resetBuffer() {
+			discard();
+			super.resetBuffer();
+		}
+
+		@Override
+		public void setContentType(String type) {
+			contentType = type;
+			super.setContentType(type);
+		}
+
+		@Override
+		public void setHeader(String name, String value) {
+			recordHeader(name, value, true);
+			super.setHeader(name, value);
+		}
+
+		@Override
+		public void addHeader(String name, String value) {
+			recordHeader(name, value, false);
+			super.addHeader(name, value);
+		}
+
+		@Override
+		public void setIntHeader(String name, int value) {
+			recordHeader(name, String.valueOf(value), true);
+			super.setIntHeader(name, value);
+		}
+
+		@Override
+		public void addIntHeader(String name, int value) {
+			recordHeader(name, String.valueOf(value), false);
+			super.addIntHeader(name, value);
+		}
+
+		@Override
+		public void setDateHeader(String name, long date) {
+			recordHeader(name, HttpUtils.formatHttpDate(date), true);
+			super.setDateHeader(name, date);
+		}
+
+		@Override
+		public void addDateHeader(String name, long date) {
+			recordHeader(name, HttpUtils.formatHttpDate(date), false);
+			super.addDateHeader(name, date);
+		}
+	}
+
 	/**
 	 * Signal triggered when the data presented in this resource has changed.
 	 * <p>
@@ -306,6 +771,8 @@ public abstract class WResource extends WObject {
 	 * Generates a new URL for this resource and emits the changed signal
 	 */
 	public void setChanged() {
+		clearCachedResponses();
+
 		generateUrl();
 
 		dataChanged_.trigger();
@@ -420,4 +887,13 @@ public abstract class WResource extends WObject {
 	}
 
 	private Signal1<Long> dataExceeded_ = new Signal1<Long>();
+
+	/*
+	 * Returns the consumer for files uploaded to this resource, see
+	 * WebRequest.UploadConsumer. This is called while holding the session
+	 * lock, before the files of the request are received.
+	 */
+	WebRequest.UploadConsumer getUploadConsumer(WebRequest request) {
+		return null;
+	}
 }
@@ -103,6 +103,10 @@ public class WSortFilterProxyModel extends WAbstractProxyModel {
 		this.modelConnections_ = new ArrayList<AbstractSignal.Connection>();
 		this.mappedIndexes_ = new TreeMap<WModelIndex, WAbstractProxyModel.BaseItem>();
 		this.mappedRootItem_ = null;
+		this.defaultFilter_ = !isOverridden(this.getClass(), "filterAcceptRow",
+				int.class, WModelIndex.class);
+		this.defaultCompare_ = !isOverridden(this.getClass(), "compare",
+				WModelIndex.class, WModelIndex.class);
 	}
 
 	/**
@@ -328,17 +332,27 @@ public class WSortFilterProxyModel extends WAbstractProxyModel {
 	 * <p>
 	 * The default value is an empty expression, which disables filtering.
 	 * <p>
+	 * When the new expression only accepts rows which were accepted by the
+	 * previous expression (e.g. when changing &quot;.*ab.*&quot; into
+	 * &quot;.*abc.*&quot;), only the currently accepted rows are filtered again,
+	 * and their order is kept.
+	 * <p>
 	 * 
 	 * @see WSortFilterProxyModel#setFilterKeyColumn(int column)
 	 * @see WSortFilterProxyModel#setFilterRole(int role)
 	 */
 	public void setFilterRegExp(final String pattern) {
+		Pattern previous = this.regex_;
 		if (!(this.regex_ != null)) {
 			this.regex_ = Pattern.compile(pattern);
 		} else {
 			this.regex_ = Pattern.compile(pattern, this.regex_.flags());
 		}
-		this.invalidate();
+		if (this.defaultFilter_ && isNarrowing(previous, this.regex_)) {
+			this.refilterAccepted();
+		} else {
+			this.invalidate();
+		}
 	}
 
 	/**
@@ -638,17 +652,17 @@ public class WSortFilterProxyModel extends WAbstractProxyModel {
 	static class Item extends WAbstractProxyModel.BaseItem {
 		private static Logger logger = LoggerFactory.getLogger(Item.class);
 
-		public List<Integer> sourceRowMap_;
-		public List<Integer> proxyRowMap_;
+		public IntArrayList sourceRowMap_;
+		public IntArrayList proxyRowMap_;
 
 		public Item(final WModelIndex sourceIndex) {
 			super(sourceIndex);
-			this.sourceRowMap_ = new ArrayList<Integer>();
-			this.proxyRowMap_ = new ArrayList<Integer>();
+			this.sourceRowMap_ = new IntArrayList();
+			this.proxyRowMap_ = new IntArrayList();
 		}
 	}
 
-	static class Compare implements Comparator<Integer> {
+	static class Compare implements IntArrayList.IntComparator {
 		private static Logger logger = LoggerFactory.getLogger(Compare.class);
 
 		public Compare(WSortFilterProxyModel aModel,
@@ -658,7 +672,7 @@ public class WSortFilterProxyModel extends WAbstractProxyModel {
 			this.item = anItem;
 		}
 
-		public int compare(Integer sourceRow1, Integer sourceRow2) {
+		public int compare(int sourceRow1, int sourceRow2) {
 			int factor = this.model.sortOrder_ == SortOrder.AscendingOrder ? 1
 					: -1;
 			if (this.model.sortKeyColumn_ == -1) {
@@ -675,6 +689,26 @@ public class WSortFilterProxyModel extends WAbstractProxyModel {
 		public WSortFilterProxyModel.Item item;
 	}
 
+	/*
+	 * Compares source rows on their sort keys, which were extracted from the
+	 * source model before sorting (see sortRows()).
+	 */
+	static class KeyCompare implements IntArrayList.IntComparator {
+		private Object[] keys;
+		private int factor;
+
+		public KeyCompare(Object[] someKeys, SortOrder order) {
+			this.keys = someKeys;
+			this.factor = order == SortOrder.AscendingOrder ? 1 : -1;
+		}
+
+		public int compare(int sourceRow1, int sourceRow2) {
+			return this.factor
+					* ObjectUtils.compare(this.keys[sourceRow1],
+							this.keys[sourceRow2]);
+		}
+	}
+
 	private Pattern regex_;
 	private int filterKeyColumn_;
 	private int filterRole_;
@@ -686,6 +720,9 @@ public class WSortFilterProxyModel extends WAbstractProxyModel {
 	private List<AbstractSignal.Connection> modelConnections_;
 	private SortedMap<WModelIndex, WAbstractProxyModel.BaseItem> mappedIndexes_;
 	private WSortFilterProxyModel.Item mappedRootItem_;
+	private boolean defaultFilter_;
+	private boolean defaultCompare_;
+	private static final int PARALLEL_SORT_THRESHOLD = 100000;
 
 	private void sourceColumnsAboutToBeInserted(final WModelIndex parent,
 			int start, int end) {
@@ -736,12 +773,7 @@ public class WSortFilterProxyModel extends WAbstractProxyModel {
 				item.proxyRowMap_.set(i, item.proxyRowMap_.get(i) + count);
 			}
 		}
-		{
-			int insertPos = 0 + start;
-			for (int ii = 0; ii < (count); ++ii)
-				item.sourceRowMap_.add(insertPos + ii, -1);
-		}
-		;
+		item.sourceRowMap_.insert(start, count, -1);
 		if (!this.dynamic_) {
 			return;
 		}
@@ -749,8 +781,7 @@ public class WSortFilterProxyModel extends WAbstractProxyModel {
 			int newMappedRow = this.mappedInsertionPoint(row, item);
 			if (newMappedRow != -1) {
 				this.beginInsertRows(pparent, newMappedRow, newMappedRow);
-				item.proxyRowMap_.add(0 + newMappedRow, row);
-				this.rebuildSourceRowMap(item);
+				this.insertProxyRow(item, newMappedRow, row);
 				this.endInsertRows();
 			} else {
 				item.sourceRowMap_.set(row, -1);
@@ -769,8 +800,7 @@ public class WSortFilterProxyModel extends WAbstractProxyModel {
 			int mappedRow = item.sourceRowMap_.get(row);
 			if (mappedRow != -1) {
 				this.beginRemoveRows(pparent, mappedRow, mappedRow);
-				item.proxyRowMap_.remove(0 + mappedRow);
-				this.rebuildSourceRowMap(item);
+				this.removeProxyRow(item, mappedRow);
 				this.endRemoveRows();
 			}
 		}
@@ -791,9 +821,7 @@ public class WSortFilterProxyModel extends WAbstractProxyModel {
 				item.proxyRowMap_.set(i, item.proxyRowMap_.get(i) - count);
 			}
 		}
-		for (int ii = 0; ii < (0 + start + count) - (0 + start); ++ii)
-			item.sourceRowMap_.remove(0 + start);
-		;
+		item.sourceRowMap_.removeRange(start, count);
 	}
 
 	private void sourceDataChanged(final WModelIndex topLeft,
@@ -826,14 +854,12 @@ public class WSortFilterProxyModel extends WAbstractProxyModel {
 				if (newMappedRow != oldMappedRow) {
 					if (oldMappedRow != -1) {
 						this.beginRemoveRows(parent, oldMappedRow, oldMappedRow);
-						item.proxyRowMap_.remove(0 + oldMappedRow);
-						this.rebuildSourceRowMap(item);
+						this.removeProxyRow(item, oldMappedRow);
 						this.endRemoveRows();
 					}
 					if (newMappedRow != -1) {
 						this.beginInsertRows(parent, newMappedRow, newMappedRow);
-						item.proxyRowMap_.add(0 + newMappedRow, row);
-						this.rebuildSourceRowMap(item);
+						this.insertProxyRow(item, newMappedRow, row);
 						this.endInsertRows();
 					}
 					propagateDataChange = false;
@@ -937,7 +963,7 @@ public class WSortFilterProxyModel extends WAbstractProxyModel {
 	private void updateItem(WSortFilterProxyModel.Item item) {
 		int sourceRowCount = this.getSourceModel().getRowCount(
 				item.sourceIndex_);
-		CollectionUtils.resize(item.sourceRowMap_, sourceRowCount);
+		item.sourceRowMap_.resize(sourceRowCount, -1);
 		item.proxyRowMap_.clear();
 		for (int i = 0; i < sourceRowCount; ++i) {
 			if (this.filterAcceptRow(i, item.sourceIndex_)) {
@@ -948,29 +974,266 @@ public class WSortFilterProxyModel extends WAbstractProxyModel {
 			}
 		}
 		if (this.sortKeyColumn_ != -1) {
-			Collections.sort(item.proxyRowMap_,
-					new WSortFilterProxyModel.Compare(this, item));
+			this.sortRows(item);
 			this.rebuildSourceRowMap(item);
 		}
 	}
 
-	private void rebuildSourceRowMap(WSortFilterProxyModel.Item item) {
-		for (int i = 0; i < item.sourceRowMap_.size(); ++i) {
-			item.sourceRowMap_.set(i, -1);
+	/*
+	 * Sorts the accepted rows of an item. Unless compare() is reimplemented,
+	 * the sort key of each row is read from the source model once, and the
+	 * rows are sorted on these keys. A large number of rows whose keys are
+	 * all of the same immutable type is sorted using several threads.
+	 */
+	private void sortRows(WSortFilterProxyModel.Item item) {
+		int[] rows = item.proxyRowMap_.getData();
+		int count = item.proxyRowMap_.size();
+		if (!this.defaultCompare_) {
+			IntArrayList.sort(rows, 0, count, new WSortFilterProxyModel.Compare(
+					this, item));
+			return;
 		}
+		Object[] keys = new Object[item.sourceRowMap_.size()];
+		Class<?> keyClass = null;
+		boolean sameClass = true;
+		for (int i = 0; i < count; ++i) {
+			int row = rows[i];
+			Object key = this.getSourceModel().getIndex(row,
+					this.sortKeyColumn_, item.sourceIndex_).getData(
+					this.sortRole_);
+			if (key instanceof WString) {
+				key = ((WString) key).getValue();
+			}
+			keys[row] = key;
+			if (key == null) {
+				sameClass = false;
+			} else if (keyClass == null) {
+				keyClass = key.getClass();
+			} else if (keyClass != key.getClass()) {
+				sameClass = false;
+			}
+		}
+		IntArrayList.IntComparator c = new WSortFilterProxyModel.KeyCompare(
+				keys, this.sortOrder_);
+		int threads = getSortThreads();
+		if (count >= PARALLEL_SORT_THRESHOLD && threads > 1 && sameClass
+				&& isImmutableKey(keyClass)) {
+			IntArrayList.parallelSort(rows, 0, count, c, threads);
+		} else {
+			IntArrayList.sort(rows, 0, count, c);
+		}
+	}
+
+	private void rebuildSourceRowMap(WSortFilterProxyModel.Item item) {
+		item.sourceRowMap_.fill(-1);
 		for (int i = 0; i < item.proxyRowMap_.size(); ++i) {
 			item.sourceRowMap_.set(item.proxyRowMap_.get(i), i);
 		}
 	}
 
+	private void insertProxyRow(WSortFilterProxyModel.Item item, int proxyRow,
+			int sourceRow) {
+		item.proxyRowMap_.add(proxyRow, sourceRow);
+		for (int i = proxyRow; i < item.proxyRowMap_.size(); ++i) {
+			item.sourceRowMap_.set(item.proxyRowMap_.get(i), i);
+		}
+	}
+
+	private void removeProxyRow(WSortFilterProxyModel.Item item, int proxyRow) {
+		int sourceRow = item.proxyRowMap_.remove(proxyRow);
+		item.sourceRowMap_.set(sourceRow, -1);
+		for (int i = proxyRow; i < item.proxyRowMap_.size(); ++i) {
+			item.sourceRowMap_.set(item.proxyRowMap_.get(i), i);
+		}
+	}
+
+	/*
+	 * Filters the currently accepted rows of the mapped items again, after
+	 * the filter has been narrowed. The rows which are no longer accepted are
+	 * removed, a range of consecutive rows at a time.
+	 */
+	private void refilterAccepted() {
+		if (this.getSourceModel() == null) {
+			return;
+		}
+		if (this.mappedRootItem_ != null) {
+			this.refilterAccepted(this.mappedRootItem_);
+		}
+		List<WAbstractProxyModel.BaseItem> items = new ArrayList<WAbstractProxyModel.BaseItem>(
+				this.mappedIndexes_.values());
+		for (WAbstractProxyModel.BaseItem i : items) {
+			this.refilterAccepted((WSortFilterProxyModel.Item) i);
+		}
+	}
+
+	private void refilterAccepted(WSortFilterProxyModel.Item item) {
+		WModelIndex parent = this.mapFromSource(item.sourceIndex_);
+		boolean visible = !(item.sourceIndex_ != null) || (parent != null);
+		int count = item.proxyRowMap_.size();
+		boolean[] accepted = new boolean[count];
+		for (int i = 0; i < count; ++i) {
+			accepted[i] = this.filterAcceptRow(item.proxyRowMap_.get(i),
+					item.sourceIndex_);
+		}
+		for (int end = count - 1; end >= 0;) {
+			if (accepted[end]) {
+				--end;
+				continue;
+			}
+			int start = end;
+			while (start > 0 && !accepted[start - 1]) {
+				--start;
+			}
+			if (visible) {
+				this.beginRemoveRows(parent, start, end);
+			}
+			for (int i = start; i <= end; ++i) {
+				item.sourceRowMap_.set(item.proxyRowMap_.get(i), -1);
+			}
+			item.proxyRowMap_.removeRange(start, end - start + 1);
+			for (int i = start; i < item.proxyRowMap_.size(); ++i) {
+				item.sourceRowMap_.set(item.proxyRowMap_.get(i), i);
+			}
+			if (visible) {
+				this.endRemoveRows();
+			}
+			end = start - 1;
+		}
+	}
+
 	private int mappedInsertionPoint(int sourceRow,
 			WSortFilterProxyModel.Item item) {
 		boolean acceptRow = this.filterAcceptRow(sourceRow, item.sourceIndex_);
 		if (!acceptRow) {
 			return -1;
 		} else {
-			return CollectionUtils.insertionPoint(item.proxyRowMap_, sourceRow,
+			return item.proxyRowMap_.insertionPoint(sourceRow,
 					new WSortFilterProxyModel.Compare(this, item));
 		}
 	}
+
+	private static int getSortThreads() {
+		int processors = Math.min(Runtime.getRuntime().availableProcessors(), 8);
+		return Integer.highestOneBit(Math.max(processors, 1));
+	}
+
+	/*
+	 * Keys of these types may be compared from several threads.
+	 */
+	private static boolean isImmutableKey(Class<?> c) {
+		return c == String.class || c == Integer.class || c == Long.class
+				|| c == Short.class || c == Byte.class || c == Double.class
+				|| c == Float.class || c == Boolean.class
+				|| c == Character.class || c == java.math.BigInteger.class
+				|| c == java.math.BigDecimal.class;
+	}
+
+	private static boolean isOverridden(Class<?> c, String name,
+			Class<?>... parameterTypes) {
+		for (; c != WSortFilterProxyModel.class; c = c.getSuperclass()) {
+			try {
+				c.getDeclaredMethod(name, parameterTypes);
+				return true;
+			} catch (NoSuchMethodException e) {
+			} catch (SecurityException e) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Returns whether a pattern only accepts values which are also accepted by
+	 * a previous pattern: both patterns must have the same flags, and be of the
+	 * same form ".*literal.*", "literal.*" or
+	 * ".*literal", with the literal of the pattern containing the
+	 * literal of the previous pattern (at the start or end respectively).
+	 */
+	static boolean isNarrowing(Pattern previous, Pattern pattern) {
+		if (previous == null) {
+			return true;
+		}
+		int unsupported = Pattern.COMMENTS | Pattern.LITERAL | Pattern.CANON_EQ;
+		if (previous.flags() != pattern.flags()
+				|| (pattern.flags() & unsupported) != 0) {
+			return false;
+		}
+		String p = previous.pattern();
+		String q = pattern.pattern();
+		boolean anyPrefix = p.startsWith(".*");
+		if (anyPrefix != q.startsWith(".*")) {
+			return false;
+		}
+		int start = anyPrefix ? 2 : 0;
+		StringBuilder pl = new StringBuilder();
+		StringBuilder ql = new StringBuilder();
+		int pEnd = parseLiteral(p, start, pl);
+		int qEnd = parseLiteral(q, start, ql);
+		if (pEnd == -1 || qEnd == -1) {
+			return false;
+		}
+		String previousLiteral = pl.toString();
+		String literal = ql.toString();
+		boolean anySuffix = pEnd < p.length()
+				|| (anyPrefix && previousLiteral.length() == 0);
+		if (anySuffix != (qEnd < q.length() || (anyPrefix && literal
+				.length() == 0))) {
+			return false;
+		}
+		for (int i = 0; i < literal.length(); ++i) {
+			if ("\n\r\u0085\u2028\u2029".indexOf(literal.charAt(i)) != -1) {
+				return false;
+			}
+		}
+		if (anyPrefix && anySuffix) {
+			return literal.indexOf(previousLiteral) != -1;
+		} else if (anySuffix) {
+			return literal.startsWith(previousLiteral);
+		} else if (anyPrefix) {
+			return literal.endsWith(previousLiteral);
+		} else {
+			return literal.equals(previousLiteral);
+		}
+	}
+
+	/*
+	 * Parses the literal text of a pattern from an index, up to the end or up
+	 * to a final ".*", and returns where it ends, or -1 if the
+	 * pattern is not of this form.
+	 */
+	private static int parseLiteral(String pattern, int start, StringBuilder literal) {
+		final String special = "\\^$.|?*+()[]{}";
+		int i = start;
+		while (i < pattern.length()) {
+			char c = pattern.charAt(i);
+			if (c == '.' && i == pattern.length() - 2
+					&& pattern.charAt(i + 1) == '*') {
+				return i;
+			} else if (c == '\\') {
+				if (i + 1 == pattern.length()) {
+					return -1;
+				}
+				char e = pattern.charAt(i + 1);
+				if (e == 'Q') {
+					int end = pattern.indexOf("\\E", i + 2);
+					if (end == -1) {
+						end = pattern.length();
+					}
+					literal.append(pattern, i + 2, end);
+					i = Math.min(end + 2, pattern.length());
+				} else if (Character.isLetterOrDigit(e)) {
+					return -1;
+				} else {
+					literal.append(e);
+					i += 2;
+				}
+			} else if (special.indexOf(c) != -1) {
+				return -1;
+			} else {
+				literal.append(c);
+				++i;
+			}
+		}
+		return i;
+	}
 }
@@ -59,7 +59,9 @@ public class WStandardItem {
 		this.parent_ = null;
 		this.row_ = -1;
 		this.column_ = -1;
-		this.data_ = new TreeMap<Integer, Object>();
+		this.displayData_ = null;
+		this.roles_ = null;
+		this.values_ = null;
 		this.flags_ = EnumSet.of(ItemFlag.ItemIsSelectable);
 		this.columns_ = null;
 	}
@@ -75,7 +77,9 @@ public class WStandardItem {
 		this.parent_ = null;
 		this.row_ = -1;
 		this.column_ = -1;
-		this.data_ = new TreeMap<Integer, Object>();
+		this.displayData_ = null;
+		this.roles_ = null;
+		this.values_ = null;
 		this.flags_ = EnumSet.of(ItemFlag.ItemIsSelectable);
 		this.columns_ = null;
 		this.setText(text);
@@ -93,7 +97,9 @@ public class WStandardItem {
 		this.parent_ = null;
 		this.row_ = -1;
 		this.column_ = -1;
-		this.data_ = new TreeMap<Integer, Object>();
+		this.displayData_ = null;
+		this.roles_ = null;
+		this.values_ = null;
 		this.flags_ = EnumSet.of(ItemFlag.ItemIsSelectable);
 		this.columns_ = null;
 		this.setText(text);
@@ -112,7 +118,9 @@ public class WStandardItem {
 		this.parent_ = null;
 		this.row_ = -1;
 		this.column_ = -1;
-		this.data_ = new TreeMap<Integer, Object>();
+		this.displayData_ = null;
+		this.roles_ = null;
+		this.values_ = null;
 		this.flags_ = EnumSet.of(ItemFlag.ItemIsSelectable);
 		this.columns_ = null;
 		if (rows > 0) {
@@ -568,7 +576,11 @@ public class WStandardItem {
 		if (role == ItemDataRole.EditRole) {
 			role = ItemDataRole.DisplayRole;
 		}
-		this.data_.put(role, d);
+		if (role == ItemDataRole.DisplayRole) {
+			this.displayData_ = d;
+		} else {
+			this.putData(role, d);
+		}
 		if (this.model_ != null) {
 			WModelIndex self = this.getIndex();
 			this.model_.dataChanged().trigger(self, self);
@@ -595,7 +607,8 @@ public class WStandardItem {
 	 * @see WStandardItem#getData(int role)
 	 */
 	public Object getData(int role) {
-		Object i = this.data_.get(role);
+		Object i = role == ItemDataRole.DisplayRole ? this.displayData_ : this
+				.findData(role);
 		if (i != null) {
 			return i;
 		} else {
@@ -1321,7 +1334,11 @@ public class WStandardItem {
 	 */
 	public WStandardItem clone() {
 		WStandardItem result = new WStandardItem();
-		result.data_ = new TreeMap<Integer, Object>(this.data_);
+		result.displayData_ = this.displayData_;
+		if (this.roles_ != null) {
+			result.roles_ = this.roles_.clone();
+			result.values_ = this.values_.clone();
+		}
 		result.flags_ = EnumSet.copyOf(this.flags_);
 		return result;
 	}
@@ -1399,10 +1416,69 @@ public class WStandardItem {
 	private WStandardItem parent_;
 	private int row_;
 	private int column_;
-	private SortedMap<Integer, Object> data_;
+	private Object displayData_;
+	private int[] roles_;
+	private Object[] values_;
 	private EnumSet<ItemFlag> flags_;
 	private List<List<WStandardItem>> columns_;
 
+	/*
+	 * The data for roles other than DisplayRole is kept in roles_ (sorted)
+	 * and values_; a role whose data is null is not stored.
+	 */
+	private Object findData(int role) {
+		if (this.roles_ != null) {
+			int i = Arrays.binarySearch(this.roles_, role);
+			if (i >= 0) {
+				return this.values_[i];
+			}
+		}
+		return null;
+	}
+
+	private void putData(int role, final Object d) {
+		int i = this.roles_ != null ? Arrays.binarySearch(this.roles_, role)
+				: -1;
+		if (i >= 0) {
+			if (d != null) {
+				this.values_[i] = d;
+			} else {
+				if (this.roles_.length == 1) {
+					this.roles_ = null;
+					this.values_ = null;
+				} else {
+					int[] roles = new int[this.roles_.length - 1];
+					Object[] values = new Object[roles.length];
+					System.arraycopy(this.roles_, 0, roles, 0, i);
+					System.arraycopy(this.values_, 0, values, 0, i);
+					System.arraycopy(this.roles_, i + 1, roles, i, roles.length
+							- i);
+					System.arraycopy(this.values_, i + 1, values, i,
+							roles.length - i);
+					this.roles_ = roles;
+					this.values_ = values;
+				}
+			}
+		} else {
+			if (d != null) {
+				i = -1 - i;
+				int length = this.roles_ != null ? this.roles_.length : 0;
+				int[] roles = new int[length + 1];
+				Object[] values = new Object[length + 1];
+				if (length > 0) {
+					System.arraycopy(this.roles_, 0, roles, 0, i);
+					System.arraycopy(this.values_, 0, values, 0, i);
+					System.arraycopy(this.roles_, i, roles, i + 1, length - i);
+					System.arraycopy(this.values_, i, values, i + 1, length - i);
+				}
+				roles[i] = role;
+				values[i] = d;
+				this.roles_ = roles;
+				this.values_ = values;
+			}
+		}
+	}
+
 	private void signalModelDataChange() {
 		if (this.model_ != null) {
 			WModelIndex self = this.getIndex();
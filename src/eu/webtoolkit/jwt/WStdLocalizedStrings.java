@@ -54,6 +54,7 @@ public class WStdLocalizedStrings extends WLocalizedStrings {
 		bundleNames.add(bundleName);
 		bundles.add(loadResourceBundle(bundleName, WApplication.getInstance().getLocale()));
 		defaultBundles.add(loadResourceBundle(bundleName, new Locale("")));
+		valuesChanged();
 	}
 
 	@Override
@@ -65,6 +66,7 @@ public class WStdLocalizedStrings extends WLocalizedStrings {
 			bundles.add(loadResourceBundle(bundleName, WApplication.getInstance().getLocale()));
 			defaultBundles.add(loadResourceBundle(bundleName, new Locale("")));
 		}
+		valuesChanged();
 	}
 	
 	private ResourceBundle loadResourceBundle(String bundleName, Locale l) {
@@ -7,6 +7,8 @@ package eu.webtoolkit.jwt;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A localized string class.
@@ -34,6 +36,108 @@ public class WString implements Comparable<WString>, CharSequence {
 	private String key;
 	private String value;
 	private ArrayList<WString> arguments;
+	private Resolved resolved;
+
+	/*
+	 * A memoized value, valid for the localized strings and generation (see
+	 * WLocalizedStrings.valuesChanged()) it was resolved with.
+	 */
+	private static class Resolved {
+		final String value;
+		final WLocalizedStrings strings;
+		final int generation;
+
+		Resolved(String value, WLocalizedStrings strings, int generation) {
+			this.value = value;
+			this.strings = strings;
+			this.generation = generation;
+		}
+	}
+
+	/*
+	 * A string compiled into literal text and place holders.
+	 */
+	private static class Template {
+		private static final int MAX_CACHED = 4096;
+		private static final Map<String, Template> cache = new ConcurrentHashMap<String, Template>();
+
+		/* text segments; a null entry is a place holder */
+		private final String[] texts;
+		private final int[] args;
+		private final int length;
+
+		private Template(List<String> texts, List<Integer> args, int length) {
+			this.texts = texts.toArray(new String[texts.size()]);
+			this.args = new int[args.size()];
+			for (int i = 0; i < this.args.length; ++i)
+				this.args[i] = args.get(i);
+			this.length = length;
+		}
+
+		static Template get(String s) {
+			Template result = cache.get(s);
+			if (result == null) {
+				result = compile(s);
+				if (cache.size() >= MAX_CACHED)
+					cache.clear();
+				cache.put(s, result);
+			}
+			return result;
+		}
+
+		private static Template compile(String s) {
+			List<String> texts = new ArrayList<String>();
+			List<Integer> args = new ArrayList<Integer>();
+
+			int start = 0;
+			int literalLength = 0;
+			for (int i = s.indexOf('{'); i != -1; i = s.indexOf('{', i + 1)) {
+				int j = i + 1;
+				while (j < s.length() && s.charAt(j) >= '0' && s.charAt(j) <= '9')
+					++j;
+				if (j == i + 1 || j == s.length() || s.charAt(j) != '}' || j - i > 10
+						|| s.charAt(i + 1) == '0')
+					continue;
+
+				int n = Integer.parseInt(s.substring(i + 1, j));
+				if (i > start) {
+					texts.add(s.substring(start, i));
+					args.add(0);
+					literalLength += i - start;
+				}
+				texts.add(null);
+				args.add(n);
+				start = j + 1;
+				i = j;
+			}
+
+			if (start < s.length()) {
+				texts.add(s.substring(start));
+				args.add(0);
+				literalLength += s.length() - start;
+			}
+
+			return new Template(texts, args, literalLength);
+		}
+
+		/*
+		 * Substitutes the arguments. Place holders for which there is no
+		 * argument are kept.
+		 */
+		String apply(List<WString> arguments) {
+			StringBuilder result = new StringBuilder(length + 16 * arguments.size());
+			for (int i = 0; i < texts.length; ++i) {
+				if (texts[i] != null)
+					result.append(texts[i]);
+				else if (args[i] <= arguments.size()) {
+					WString arg = arguments.get(args[i] - 1);
+					result.append(arg != null ? arg.toString() : "null");
+				} else
+					result.append('{').append(args[i]).append('}');
+			}
+			return result.toString();
+		}
+	}
 
 	/**
 	 * Creates an empty string.
@@ -58,6 +162,7 @@ public class WString implements Comparable<WString>, CharSequence {
 		this.value = s;
 		this.key = null;
 		this.arguments = null;
+		this.resolved = null;
 	}
 
 	/**
@@ -102,6 +207,7 @@ public class WString implements Comparable<WString>, CharSequence {
 	public WString append(String other) {
 		makeLiteral();
 		value += other;
+		resolved = null;
 		return this;
 	}
 
@@ -129,28 +235,46 @@ public class WString implements Comparable<WString>, CharSequence {
 	 * A localized string is resolved using the {@link WApplication#getLocalizedStrings()}.
 	 * <p>
 	 * Arguments place holders are substituted with actual arguments. 
+	 * <p>
+	 * The value is cached until the arguments or the localized strings
+	 * change.
 	 * 
 	 * @return the value.
 	 */
 	public String getValue() {
+		if (key == null && arguments == null)
+			return value;
+
+		WLocalizedStrings strings = null;
+		int generation = 0;
+		if (isLocalized()) {
+			strings = WApplication.getInstance().localizedStrings_;
+			generation = strings != null ? strings.getGeneration() : 0;
+		}
+
+		Resolved r = resolved;
+		if (r != null && r.strings == strings && r.generation == generation)
+			return r.value;
+
 		String result = value;
 
 		if (key != null)
-			result = resolveKey(key);
+			result = resolveKey(strings, key);
 
-		if (arguments != null) {
-			for (int i = 0; i < arguments.size(); ++i) {
-				String key = '{' + String.valueOf(i + 1) + '}';
-				WString arg = arguments.get(i);
-				result = result.replace(key, arg != null ? arg.toString() : "null");
-			}
-		}
+		if (arguments != null && result.indexOf('{') != -1)
+			result = Template.get(result).apply(arguments);
+
+		resolved = new Resolved(result, strings, generation);
 
 		return result;
 	}
 
 	private static String resolveKey(String key) {
-		String result = WApplication.getInstance().localizedStrings_.resolveKey(key);
+		return resolveKey(WApplication.getInstance().localizedStrings_, key);
+	}
+
+	private static String resolveKey(WLocalizedStrings strings, String key) {
+		String result = strings.resolveKey(key);
 		if (result == null)
 			result = "??" + key + "??";
 		return result;
@@ -207,6 +331,7 @@ public class WString implements Comparable<WString>, CharSequence {
 		if (arguments == null)
 			arguments = new ArrayList<WString>();
 		arguments.add(value == null ? WString.Empty : new WString(value.toString()));
+		resolved = null;
 
 		return this;
 	}
@@ -225,6 +350,7 @@ public class WString implements Comparable<WString>, CharSequence {
 		if (arguments == null)
 			arguments = new ArrayList<WString>();
 		arguments.add(new WString(String.valueOf(value)));
+		resolved = null;
 
 		return this;
 	}
@@ -243,6 +369,7 @@ public class WString implements Comparable<WString>, CharSequence {
 		if (arguments == null)
 			arguments = new ArrayList<WString>();
 		arguments.add(new WString(String.valueOf(value)));
+		resolved = null;
 
 		return this;
 	}
@@ -264,12 +391,26 @@ public class WString implements Comparable<WString>, CharSequence {
 	 * @return whether the string is (potentially) changed.
 	 */
 	public boolean refresh() {
+		resolved = null;
 		if (isLiteral())
 			return false;
 		else
 			return true;
 	}
 
+	/*
+	 * Returns whether the value depends on the localized strings.
+	 */
+	private boolean isLocalized() {
+		if (key != null)
+			return true;
+		if (arguments != null)
+			for (int i = 0; i < arguments.size(); ++i)
+				if (arguments.get(i).isLocalized())
+					return true;
+		return false;
+	}
+
 	/**
 	 * Utility method which returns the value as a JavaScript string literal.
 	 * <p>
@@ -297,6 +438,7 @@ public class WString implements Comparable<WString>, CharSequence {
 		if (key != null) {
 			value = resolveKey(key);
 			key = null;
+			resolved = null;
 		}
 	}
 
@@ -305,6 +447,7 @@ public class WString implements Comparable<WString>, CharSequence {
 	 */
 	public void changeArg(int argIndex, String value) {
 		arguments.set(argIndex, new WString(value));
+		resolved = null;
 	}
 
 	/**
@@ -1097,6 +1097,7 @@ public class WTableView extends WAbstractItemView {
 	private void renderTable(final int fr, final int lr, final int fc,
 			final int lc) {
 		assert this.isAjaxMode();
+		this.prefetchRows(fr, lr);
 		if (fr > this.getLastRow() || this.getFirstRow() > lr
 				|| fc > this.getLastColumn() || this.getFirstColumn() > lc) {
 			this.reset();
@@ -1542,6 +1543,13 @@ public class WTableView extends WAbstractItemView {
 		}
 	}
 
+	private void prefetchRows(int firstRow, int lastRow) {
+		if (this.getModel() instanceof WQueryModel
+				&& (this.getRootIndex() == null)) {
+			((WQueryModel<?>) this.getModel()).prefetch(firstRow, lastRow);
+		}
+	}
+
 	private void rerenderData() {
 		if (this.isAjaxMode()) {
 			this.reset();
@@ -1549,6 +1557,7 @@ public class WTableView extends WAbstractItemView {
 					this.renderedFirstColumn_, this.renderedLastColumn_);
 		} else {
 			this.pageChanged().trigger();
+			this.prefetchRows(this.getFirstRow(), this.getLastRow());
 			while (this.plainTable_.getRowCount() > 1) {
 				this.plainTable_.deleteRow(this.plainTable_.getRowCount() - 1);
 			}
@@ -1877,76 +1886,102 @@ public class WTableView extends WAbstractItemView {
 	}
 
 	void selectRange(final WModelIndex first, final WModelIndex last) {
-		for (int c = first.getColumn(); c <= last.getColumn(); ++c) {
+		if (this.getSelectionMode() != SelectionMode.ExtendedSelection) {
+			for (int c = first.getColumn(); c <= last.getColumn(); ++c) {
+				for (int r = first.getRow(); r <= last.getRow(); ++r) {
+					this.internalSelect(this.getModel().getIndex(r, c,
+							this.getRootIndex()), SelectionFlag.Select);
+				}
+			}
+			return;
+		}
+		final ModelIndexRangeSet set = this.getSelectionModel().selection_;
+		int firstColumn = first.getColumn();
+		int lastColumn = last.getColumn();
+		if (this.getSelectionBehavior() == SelectionBehavior.SelectRows) {
+			firstColumn = lastColumn = 0;
+		}
+		for (int c = firstColumn; c <= lastColumn; ++c) {
+			WModelIndex runStart = null;
 			for (int r = first.getRow(); r <= last.getRow(); ++r) {
-				this.internalSelect(
-						this.getModel().getIndex(r, c, this.getRootIndex()),
-						SelectionFlag.Select);
+				WModelIndex index = this.getModel().getIndex(r, c,
+						this.getRootIndex());
+				if (index.getFlags().contains(ItemFlag.ItemIsSelectable)) {
+					if (runStart == null) {
+						runStart = index;
+					}
+				} else {
+					if (runStart != null) {
+						set.addRange(runStart, r - 1);
+						runStart = null;
+					}
+				}
+			}
+			if (runStart != null) {
+				set.addRange(runStart, last.getRow());
 			}
 		}
-	}
-
-	private void shiftModelIndexRows(int start, int count) {
-		final SortedSet<WModelIndex> set = this.getSelectionModel().selection_;
-		List<WModelIndex> toShift = new ArrayList<WModelIndex>();
-		List<WModelIndex> toErase = new ArrayList<WModelIndex>();
-		for (Iterator<WModelIndex> it_it = set.tailSet(
-				this.getModel().getIndex(start, 0, this.getRootIndex()))
-				.iterator(); it_it.hasNext();) {
-			WModelIndex it = it_it.next();
-			if (count < 0) {
-				if (it.getRow() < start - count) {
-					toErase.add(it);
-					continue;
+		int row1 = Math.max(first.getRow(), this.getFirstRow());
+		int row2 = Math.min(last.getRow(), this.getLastRow());
+		for (int c = firstColumn; c <= lastColumn; ++c) {
+			for (int r = row1; r <= row2; ++r) {
+				WModelIndex index = this.getModel().getIndex(r, c,
+						this.getRootIndex());
+				if (set.contains(index)) {
+					this.renderSelected(true, index);
 				}
 			}
-			toShift.add(it);
-			toErase.add(it);
 		}
-		for (int i = 0; i < toErase.size(); ++i) {
-			set.remove(toErase.get(i));
+	}
+
+	/**
+	 * Clears the selection.
+	 * <p>
+	 * Only the rows that are currently rendered are updated in the browser;
+	 * the selection itself is cleared at once, regardless of the number of
+	 * selected indexes. As in {@link WAbstractItemView#clearSelection()}, no
+	 * {@link WAbstractItemView#selectionChanged() selectionChanged()} signal
+	 * is emitted.
+	 * <p>
+	 * 
+	 * @see WAbstractItemView#setSelectedIndexes(java.util.SortedSet indexes)
+	 */
+	public void clearSelection() {
+		final ModelIndexRangeSet set = this.getSelectionModel().selection_;
+		if (set.isEmpty()) {
+			return;
 		}
-		for (int i = 0; i < toShift.size(); ++i) {
-			WModelIndex newIndex = this.getModel().getIndex(
-					toShift.get(i).getRow() + count,
-					toShift.get(i).getColumn(), toShift.get(i).getParent());
-			set.add(newIndex);
+		if (this.getModel() != null) {
+			int lastColumn = this.getSelectionBehavior() == SelectionBehavior.SelectRows ? 0
+					: this.getColumnCount() - 1;
+			for (int r = this.getFirstRow(); r <= this.getLastRow(); ++r) {
+				for (int c = 0; c <= lastColumn; ++c) {
+					WModelIndex index = this.getModel().getIndex(r, c,
+							this.getRootIndex());
+					if (set.contains(index)) {
+						this.renderSelected(false, index);
+					}
+				}
+			}
 		}
+		set.clear();
+	}
+
+	private void shiftModelIndexRows(int start, int count) {
+		final ModelIndexRangeSet set = this.getSelectionModel().selection_;
+		boolean changed = set.hasRowsFrom(this.getRootIndex(), start);
+		set.shiftRows(this.getRootIndex(), start, count);
 		this.shiftEditorRows(this.getRootIndex(), start, count, true);
-		if (!toErase.isEmpty()) {
+		if (changed) {
 			this.selectionChanged().trigger();
 		}
 	}
 
 	private void shiftModelIndexColumns(int start, int count) {
-		final SortedSet<WModelIndex> set = this.getSelectionModel().selection_;
-		List<WModelIndex> toShift = new ArrayList<WModelIndex>();
-		List<WModelIndex> toErase = new ArrayList<WModelIndex>();
-		for (Iterator<WModelIndex> it_it = set.iterator(); it_it.hasNext();) {
-			WModelIndex it = it_it.next();
-			if (count < 0) {
-				if (it.getColumn() < start - count) {
-					toErase.add(it);
-					continue;
-				}
-			}
-			if (it.getColumn() >= start) {
-				toShift.add(it);
-				toErase.add(it);
-			}
-		}
-		for (int i = 0; i < toErase.size(); ++i) {
-			set.remove(toErase.get(i));
-		}
-		for (int i = 0; i < toShift.size(); ++i) {
-			WModelIndex newIndex = this.getModel().getIndex(
-					toShift.get(i).getRow(),
-					toShift.get(i).getColumn() + count,
-					toShift.get(i).getParent());
-			set.add(newIndex);
-		}
+		final ModelIndexRangeSet set = this.getSelectionModel().selection_;
+		boolean changed = set.shiftColumns(this.getRootIndex(), start, count);
 		this.shiftEditorColumns(this.getRootIndex(), start, count, true);
-		if (!toShift.isEmpty() || !toErase.isEmpty()) {
+		if (changed) {
 			this.selectionChanged().trigger();
 		}
 	}
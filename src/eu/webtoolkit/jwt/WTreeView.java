@@ -1535,8 +1535,8 @@ public class WTreeView extends WAbstractItemView {
 			int count) {
 		shiftModelIndexes(parent, start, count, this.getModel(),
 				this.expandedSet_);
-		int removed = shiftModelIndexes(parent, start, count, this.getModel(),
-				this.getSelectionModel().selection_);
+		int removed = this.getSelectionModel().selection_.shiftRows(parent,
+				start, count);
 		this.shiftEditorRows(parent, start, count, false);
 		if (removed != 0) {
 			this.selectionChanged().trigger();
@@ -79,6 +79,10 @@ public abstract class WWebWidget extends WWidget {
 			}
 			;
 		}
+		WApplication app = WApplication.getInstance();
+		if (app != null) {
+			app.releaseSharedHandlers(this.getId());
+		}
 		;
 		;
 		;
@@ -980,8 +984,13 @@ public abstract class WWebWidget extends WWidget {
 	 * The <code>delimiter</code> may be a single or double quote.
 	 */
 	public static String jsStringLiteral(final String value, char delimiter) {
-		StringBuilder result = new StringBuilder();
-		DomElement.jsStringLiteral(result, value, delimiter);
+		EscapeOStream.RuleSet rules = delimiter == '\'' ? EscapeOStream.RuleSet.JsStringLiteralSQuote
+				: EscapeOStream.RuleSet.JsStringLiteralDQuote;
+		StringBuilder result = new StringBuilder(EscapeOStream.escapedLength(
+				value, rules) + 2);
+		result.append(delimiter);
+		EscapeOStream.escape(result, value, rules);
+		result.append(delimiter);
 		return result.toString();
 	}
 
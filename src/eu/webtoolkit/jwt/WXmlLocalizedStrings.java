@@ -10,11 +10,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -38,14 +41,62 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import eu.webtoolkit.jwt.utils.StreamUtils;
+
 /**
  * WXmlLocalizedStrings is a {@link WLocalizedStrings} implementation which uses an XML file as input resource.
+ * <p>
+ * Parsed message bundles are cached, per servlet context, bundle and locale,
+ * and shared by all sessions. Use {@link #invalidateCache()} to have them read
+ * again. When JavaScript errors are not reported (see
+ * {@link Configuration#setErrorReporting(Configuration.ErrorReporting)}),
+ * which is the development setting, bundles read from a file are read again
+ * when the file has been modified.
  */
 public class WXmlLocalizedStrings extends WLocalizedStrings {
 	private static Logger logger = LoggerFactory.getLogger(WXmlLocalizedStrings.class);
 
+	/*
+	 * The key/values of a bundle file, which are never modified.
+	 */
+	private static class Bundle {
+		final String path;
+		final Map<String, String> keyValues;
+		final File file;
+		final long lastModified;
+
+		Bundle(String path, Map<String, String> keyValues, File file) {
+			this.path = path;
+			this.keyValues = keyValues;
+			this.file = file;
+			this.lastModified = file != null ? file.lastModified() : 0;
+		}
+
+		boolean isModified() {
+			return file != null && file.lastModified() != lastModified;
+		}
+	}
+
+	/*
+	 * The bundles of a servlet context: resources are resolved using the
+	 * context.
+	 */
+	private static class BundleCache {
+		/* (bundle name, locale) -> bundle */
+		final Map<String, Bundle> resolved = new ConcurrentHashMap<String, Bundle>();
+		/* path -> bundle, shared by the locales which use the same file */
+		final Map<String, Bundle> bundles = new ConcurrentHashMap<String, Bundle>();
+	}
+
+	private static final Bundle MISSING = new Bundle(null, Collections.<String, String>emptyMap(), null);
+	private static final Bundle INVALID = new Bundle(null, Collections.<String, String>emptyMap(), null);
+
+	/* servlet context -> bundles; NO_CONTEXT outside of a servlet */
+	private static final Map<Object, BundleCache> caches = new WeakHashMap<Object, BundleCache>();
+	private static final Object NO_CONTEXT = new Object();
+
 	private List<String> bundleNames = new ArrayList<String>();
-	private Map<String, String> keyValues = new HashMap<String, String>();
+	private List<Map<String, String>> keyValues = new ArrayList<Map<String, String>>();
 
 	/**
 	 * Constructor.
@@ -62,6 +113,7 @@ public class WXmlLocalizedStrings extends WLocalizedStrings {
 	public void use(String bundleName) {
 		this.bundleNames.add(bundleName);
 		readXmlResource(bundleName);
+		valuesChanged();
 	}
 
 	public void refresh() {
@@ -69,25 +121,113 @@ public class WXmlLocalizedStrings extends WLocalizedStrings {
 		
 		for (String bundleName : bundleNames) 
 			readXmlResource(bundleName);
+		valuesChanged();
+	}
+
+	/**
+	 * Discards all cached message bundles.
+	 * <p>
+	 * Bundles are read again when they are next used, e.g. by a new session
+	 * or when a session calls {@link #refresh()}.
+	 */
+	public static void invalidateCache() {
+		synchronized (caches) {
+			caches.clear();
+		}
+	}
+
+	/**
+	 * Discards the cached message bundles for a bundle name (in all
+	 * locales).
+	 * 
+	 * @see #invalidateCache()
+	 */
+	public static void invalidateCache(String bundleName) {
+		String prefix = bundleName + '\0';
+		synchronized (caches) {
+			for (BundleCache cache : caches.values())
+				for (Map.Entry<String, Bundle> e : cache.resolved.entrySet())
+					if (e.getKey().startsWith(prefix)) {
+						if (e.getValue().path != null)
+							cache.bundles.remove(e.getValue().path);
+						cache.resolved.remove(e.getKey());
+					}
+		}
+	}
+
+	private static BundleCache getCache(WtServlet server) {
+		Object context = server != null ? server.getServletContext() : null;
+		if (context == null)
+			context = NO_CONTEXT;
+
+		synchronized (caches) {
+			BundleCache result = caches.get(context);
+			if (result == null) {
+				result = new BundleCache();
+				caches.put(context, result);
+			}
+			return result;
+		}
 	}
 	
 	private void readXmlResource(String bundleName) {
 		WApplication app = WApplication.getInstance();
+		String locale = app.getLocale().toString();
+		WtServlet server = app.getEnvironment().getServer();
+		boolean checkModified = server != null
+			&& server.getConfiguration().getErrorReporting() == Configuration.ErrorReporting.NoErrors;
 
-		InputStream stream = null;
-		for (String path : StringUtils.expandLocales(bundleName, app.getLocale().toString())) {
-			try {
-				stream = FileUtils.getResourceAsStream(path + ".xml");
-			} catch (IOException e) {
+		BundleCache cache = getCache(server);
+		String cacheKey = bundleName + '\0' + locale;
+		Bundle bundle = cache.resolved.get(cacheKey);
+
+		if (bundle == null || (checkModified && (bundle == MISSING || bundle.isModified()))) {
+			bundle = null;
+			for (String p : StringUtils.expandLocales(bundleName, locale)) {
+				String path = p + ".xml";
+				bundle = cache.bundles.get(path);
+				if (bundle != null && !(checkModified && bundle.isModified()))
+					break;
+
+				bundle = readBundle(path);
+				if (bundle == INVALID)
+					return; /* not cached: read again when used next */
+				else if (bundle != null) {
+					cache.bundles.put(path, bundle);
+					break;
+				}
+			}
+
+			if (bundle == null) {
+				logger.warn("Could not find resource \"" + bundleName + "\"");
+				bundle = MISSING;
 			}
-			if (stream != null)
-				break;
+
+			cache.resolved.put(cacheKey, bundle);
 		}
-		
-		if (stream == null) {
-			logger.warn("Could not find resource \"" + bundleName + "\"");
-			return;
+
+		if (bundle != MISSING)
+			keyValues.add(bundle.keyValues);
+	}
+
+	/*
+	 * Returns null if the file does not exist, or INVALID if it could not
+	 * be parsed.
+	 */
+	private static Bundle readBundle(String path) {
+		InputStream stream = null;
+		File file = null;
+		try {
+			URL url = FileUtils.getResource(path);
+			stream = url.openStream();
+			if ("file".equals(url.getProtocol()))
+				file = new File(url.toURI());
+		} catch (IOException e) {
+		} catch (URISyntaxException e) {
 		}
+
+		if (stream == null)
+			return null;
 		
 		try {
 			XmlMessageParser xmlParser = new XmlMessageParser();
@@ -97,28 +237,36 @@ public class WXmlLocalizedStrings extends WLocalizedStrings {
 			IXMLReader reader = new StdXMLReader(stream);
 			parser.setReader(reader);
 			parser.parse();
-			keyValues.putAll(xmlParser.getKeyValues());
+			return new Bundle(path, Collections.unmodifiableMap(xmlParser.getKeyValues()), file);
 		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
+			logger.error("Could not read \"" + path + "\"", e);
 		} catch (InstantiationException e) {
-			e.printStackTrace();
+			logger.error("Could not read \"" + path + "\"", e);
 		} catch (IllegalAccessException e) {
-			e.printStackTrace();
+			logger.error("Could not read \"" + path + "\"", e);
 		} catch (IOException e) {
-			e.printStackTrace();
+			logger.error("Could not read \"" + path + "\"", e);
 		} catch (XMLException e) {
-			e.printStackTrace();
+			logger.error("Could not parse \"" + path + "\"", e);
+		} finally {
+			StreamUtils.closeQuietly(stream);
 		}
+
+		return INVALID;
 	}
 
 	public String resolveKey(String key) {
-		if (keyValues != null && keyValues.get(key) != null)
-			return keyValues.get(key);
-		else
-			return null;
+		/* Bundles that are used later take precedence */
+		for (int i = keyValues.size() - 1; i >= 0; --i) {
+			String value = keyValues.get(i).get(key);
+			if (value != null)
+				return value;
+		}
+
+		return null;
 	}
 
 	public void useBuiltin(String bundle) {
 		use(bundle);
 	}
-}
\ No newline at end of file
+}
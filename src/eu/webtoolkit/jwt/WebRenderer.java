@@ -9,6 +9,7 @@ import java.util.*;
 import java.util.regex.*;
 import java.io.*;
 import java.lang.ref.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 import javax.servlet.http.*;
 import javax.servlet.*;
@@ -51,6 +52,7 @@ class WebRenderer implements SlotLearnerInterface {
 		this.beforeLoadJS_ = new StringBuilder();
 		this.updateMap_ = new HashSet<WWidget>();
 		this.learning_ = false;
+		this.learningSlot_ = false;
 	}
 
 	public void setTwoPhaseThreshold(int bytes) {
@@ -71,16 +73,14 @@ class WebRenderer implements SlotLearnerInterface {
 
 	public void setRendered(boolean how) {
 		if (this.rendered_ != how) {
-			logger.debug(new StringWriter().append("setRendered: ")
-					.append(String.valueOf(how)).toString());
+			logger.debug("setRendered: {}", how);
 			this.rendered_ = how;
 		}
 	}
 
 	public void needUpdate(WWidget w, boolean laterOnly) {
-		logger.debug(new StringWriter().append("needUpdate: ")
-				.append(w.getId()).append(" (").append("(fixme)").append(")")
-				.toString());
+		if (logger.isDebugEnabled())
+			logger.debug("needUpdate: {} ((fixme))", w.getId());
 		this.updateMap_.add(w);
 		if (!laterOnly) {
 			this.moreUpdates_ = true;
@@ -88,9 +88,8 @@ class WebRenderer implements SlotLearnerInterface {
 	}
 
 	public void doneUpdate(WWidget w) {
-		logger.debug(new StringWriter().append("doneUpdate: ")
-				.append(w.getId()).append(" (").append("(fixme)").append(")")
-				.toString());
+		if (logger.isDebugEnabled())
+			logger.debug("doneUpdate: {} ((fixme))", w.getId());
 		this.updateMap_.remove(w);
 	}
 
@@ -169,28 +168,37 @@ class WebRenderer implements SlotLearnerInterface {
 	}
 
 	public void serveResponse(final WebResponse response) throws IOException {
-		this.session_.setTriggerUpdate(false);
-		switch (response.getResponseType()) {
-		case Update:
-			this.serveJavaScriptUpdate(response);
-			break;
-		case Page:
-			this.initialStyleRendered_ = false;
-			++this.pageId_;
-			if (this.session_.getApp() != null) {
-				this.serveMainpage(response);
-			} else {
-				this.serveBootstrap(response);
-			}
-			break;
-		case Script:
-			boolean hybridPage = this.session_.isProgressiveBoot()
-					|| this.session_.getEnv().hasAjax();
-			if (!hybridPage) {
-				this.setRendered(false);
+		int phase = RequestMetrics.enter(RequestMetrics.Phase.Serialization);
+		try {
+			this.session_.setTriggerUpdate(false);
+			switch (response.getResponseType()) {
+			case Update:
+				this.serveJavaScriptUpdate(response);
+				break;
+			case Page:
+				this.initialStyleRendered_ = false;
+				++this.pageId_;
+				if (this.session_.getApp() != null) {
+					this.session_.getApp().redeclareSharedHandlers();
+					this.serveMainpage(response);
+				} else {
+					this.serveBootstrap(response);
+				}
+				break;
+			case Script:
+				boolean hybridPage = this.session_.isProgressiveBoot()
+						|| this.session_.getEnv().hasAjax();
+				if (!hybridPage) {
+					this.setRendered(false);
+				}
+				if (this.session_.getApp() != null) {
+					this.session_.getApp().redeclareSharedHandlers();
+				}
+				this.serveMainscript(response);
+				break;
 			}
-			this.serveMainscript(response);
-			break;
+		} finally {
+			RequestMetrics.leave(phase);
 		}
 	}
 
@@ -216,6 +224,10 @@ class WebRenderer implements SlotLearnerInterface {
 		}
 	}
 
+	boolean isInitialStyleRendered() {
+		return this.initialStyleRendered_;
+	}
+
 	public void serveLinkedCss(final WebResponse response) throws IOException {
 		response.setContentType("text/css");
 		if (!this.initialStyleRendered_) {
@@ -230,7 +242,7 @@ class WebRenderer implements SlotLearnerInterface {
 			app.styleSheetsAdded_ = 0;
 			this.initialStyleRendered_ = true;
 			this.linkedCssCount_ = app.styleSheets_.size();
-			response.out().append(out.toString());
+			this.write(out, response.out());
 		} else {
 			if (this.linkedCssCount_ > -1) {
 				WApplication app = this.session_.getApp();
@@ -243,7 +255,7 @@ class WebRenderer implements SlotLearnerInterface {
 				for (int i = 0; i < count; ++i) {
 					app.styleSheets_.get(i).cssText(out, true);
 				}
-				response.out().append(out.toString());
+				this.write(out, response.out());
 			}
 		}
 	}
@@ -259,6 +271,15 @@ class WebRenderer implements SlotLearnerInterface {
 		return this.learning_;
 	}
 
+	/*
+	 * Returns whether event handlers may be rendered as references to shared
+	 * functions (see DomElement): not while the JavaScript of a stateless
+	 * slot is being learned.
+	 */
+	boolean isSharingHandlers() {
+		return !this.learningSlot_;
+	}
+
 	public void learningIncomplete() {
 		this.learningIncomplete_ = true;
 	}
@@ -279,13 +300,10 @@ class WebRenderer implements SlotLearnerInterface {
 	}
 
 	public WebRenderer.AckState ackUpdate(int updateId) {
-		logger.debug(new StringWriter().append("ackUpdate: expecting ")
-				.append(String.valueOf(this.expectedAckId_))
-				.append(", received ").append(String.valueOf(updateId))
-				.toString());
+		logger.debug("ackUpdate: expecting {}, received {}",
+				this.expectedAckId_, updateId);
 		if (updateId == this.expectedAckId_) {
-			logger.debug(new StringWriter().append(
-					"jsSynced(false) after ackUpdate okay").toString());
+			logger.debug("jsSynced(false) after ackUpdate okay");
 			this.setJSSynced(false);
 			this.ackErrs_ = 0;
 			return WebRenderer.AckState.CorrectAck;
@@ -372,12 +390,11 @@ class WebRenderer implements SlotLearnerInterface {
 	}
 
 	public void setJSSynced(boolean invisibleToo) {
-		logger.debug(new StringWriter().append("setJSSynced: ")
-				.append(String.valueOf(invisibleToo)).toString());
+		logger.debug("setJSSynced: {}", invisibleToo);
 		this.collectedJS1_.setLength(0);
 		this.collectedJS2_.setLength(0);
 		if (!invisibleToo) {
-			this.collectedJS1_.append(this.invisibleJS_.toString());
+			this.collectedJS1_.append(this.invisibleJS_);
 		}
 		this.invisibleJS_.setLength(0);
 	}
@@ -505,6 +522,17 @@ class WebRenderer implements SlotLearnerInterface {
 		}
 	}
 
+	private void write(final StringBuilder out, final Writer w)
+			throws IOException {
+		int phase = RequestMetrics.enter(RequestMetrics.Phase.ResponseWrite);
+		try {
+			RequestMetrics.addCharsRendered(out.length());
+			StreamUtils.write(out, w);
+		} finally {
+			RequestMetrics.leave(phase);
+		}
+	}
+
 	private void serveJavaScriptUpdate(final WebResponse response)
 			throws IOException {
 		this.setCaching(response, false);
@@ -517,27 +545,27 @@ class WebRenderer implements SlotLearnerInterface {
 					.append(");");
 		}
 		StringBuilder out = new StringBuilder();
+		Writer w = response.out();
 		if (!this.rendered_) {
 			this.serveMainAjax(out);
+			this.write(out, w);
 		} else {
 			this.collectJavaScript();
 			this.addResponseAckPuzzle(out);
 			this.renderSetServerPush(out);
-			logger.debug(new StringWriter().append("js: ")
-					.append(this.collectedJS1_.toString())
-					.append(this.collectedJS2_.toString()).toString());
-			out.append(this.collectedJS1_.toString()).append(
-					this.collectedJS2_.toString());
+			logger.debug("js: {}{}", this.collectedJS1_, this.collectedJS2_);
+			this.write(out, w);
+			this.write(this.collectedJS1_, w);
+			this.write(this.collectedJS2_, w);
 			if (response.isWebSocketMessage()) {
+				out.setLength(0);
 				this.renderMultiSessionCookieUpdate(out);
 				this.renderWsRequestsDone(out);
-				logger.debug(new StringWriter().append(
-						"jsSynced(false) after rendering websocket message")
-						.toString());
+				this.write(out, w);
+				logger.debug("jsSynced(false) after rendering websocket message");
 				this.setJSSynced(false);
 			}
 		}
-		response.out().append(out.toString());
 	}
 
 	private void serveMainscript(final WebResponse response) throws IOException {
@@ -555,7 +583,7 @@ class WebRenderer implements SlotLearnerInterface {
 			String redirect = this.session_.getRedirect();
 			if (redirect.length() != 0) {
 				this.streamRedirectJS(out, redirect);
-				response.out().append(out.toString());
+				this.write(out, response.out());
 				return;
 			}
 		} else {
@@ -563,38 +591,11 @@ class WebRenderer implements SlotLearnerInterface {
 			this.ackErrs_ = 0;
 		}
 		WApplication app = this.session_.getApp();
-		final boolean innerHtml = true;
 		if (serveSkeletons) {
-			boolean haveJQuery = app.isCustomJQuery();
-			if (!haveJQuery) {
-				out.append("if (typeof window.$ === 'undefined') {");
-				out.append(WtServlet.JQuery_js);
-				out.append('}');
-			}
-			List<String> parts = new ArrayList<String>();
-			String Wt_js_combined = "";
-			if (parts.size() > 1) {
-				for (int i = 0; i < parts.size(); ++i) {
-					Wt_js_combined += parts.get(i);
-				}
-			}
-			FileServe script = new FileServe(parts.size() > 1 ? Wt_js_combined
-					: WtServlet.Wt_js);
-			script.setCondition(
-					"CATCH_ERROR",
-					conf.getErrorReporting() != Configuration.ErrorReporting.NoErrors);
-			script.setCondition(
-					"SHOW_ERROR",
-					conf.getErrorReporting() == Configuration.ErrorReporting.ErrorMessage);
+			FileServe script = new FileServe(getMainScriptTemplate(conf, app,
+					!app.isCustomJQuery()));
 			script.setCondition("UGLY_INTERNAL_PATHS",
 					this.session_.isUseUglyInternalPaths());
-			script.setCondition("DYNAMIC_JS", false);
-			script.setVar("WT_CLASS", "Wt3_3_8");
-			script.setVar("APP_CLASS", app.getJavaScriptClass());
-			script.setCondition("STRICTLY_SERIALIZED_EVENTS",
-					conf.serializedEvents());
-			script.setCondition("WEB_SOCKETS", conf.webSockets());
-			script.setVar("INNER_HTML", innerHtml);
 			script.setVar("ACK_UPDATE_ID", this.expectedAckId_);
 			script.setVar("SESSION_URL",
 					WWebWidget.jsStringLiteral(this.getSessionUrl()));
@@ -606,18 +607,6 @@ class WebRenderer implements SlotLearnerInterface {
 				deployPath = this.session_.getDeploymentPath();
 			}
 			script.setVar("DEPLOY_PATH", WWebWidget.jsStringLiteral(deployPath));
-			script.setVar(
-					"WS_PATH",
-					WWebWidget.jsStringLiteral(this.session_.getController()
-							.getContextPath() + "/ws"));
-			script.setVar("WS_ID",
-					WWebWidget.jsStringLiteral(String.valueOf(this.session_
-							.getController().getIdForWebSocket())));
-			script.setVar("KEEP_ALIVE", String.valueOf(conf.getKeepAlive()));
-			script.setVar("INDICATOR_TIMEOUT", conf.getIndicatorTimeout());
-			script.setVar("SERVER_PUSH_TIMEOUT",
-					conf.getServerPushTimeout() * 1000);
-			script.setVar("CLOSE_CONNECTION", false);
 			String params = "";
 			if (this.session_.getType() == EntryPointType.WidgetSet) {
 				Map<String, String[]> m = this.session_.getEnv()
@@ -639,10 +628,10 @@ class WebRenderer implements SlotLearnerInterface {
 				}
 			}
 			script.setVar("PARAMS", params);
-			script.stream(out);
+			script.stream(response);
 		}
 		if (!serveRest) {
-			response.out().append(out.toString());
+			this.write(out, response.out());
 			return;
 		}
 		out.append(app.getJavaScriptClass()).append("._p_.setPage(")
@@ -660,7 +649,7 @@ class WebRenderer implements SlotLearnerInterface {
 				if (app.enableAjax_) {
 					this.collectedJS1_
 							.append("var form = Wt3_3_8.getElement('Wt-form'); if (form) {")
-							.append(this.beforeLoadJS_.toString());
+							.append(this.beforeLoadJS_);
 					this.beforeLoadJS_.setLength(0);
 					this.collectedJS1_.append("var domRoot=")
 							.append(app.domRoot_.getJsRef()).append(';')
@@ -695,10 +684,8 @@ class WebRenderer implements SlotLearnerInterface {
 				this.collectJavaScript();
 				this.updateLoadIndicator(this.collectedJS1_, app, true);
 				this.clearStubbedWidgets();
-				logger.debug(new StringWriter().append("js: ")
-						.append(this.collectedJS1_.toString())
-						.append(this.collectedJS2_.toString()).toString());
-				out.append(this.collectedJS1_.toString());
+				logger.debug("js: {}{}", this.collectedJS1_, this.collectedJS2_);
+				out.append(this.collectedJS1_);
 				this.addResponseAckPuzzle(out);
 				out.append(app.getJavaScriptClass())
 						.append("._p_.setHash(")
@@ -710,7 +697,7 @@ class WebRenderer implements SlotLearnerInterface {
 				}
 				out.append(app.getJavaScriptClass())
 						.append("._p_.update(null, 'load', null, false);")
-						.append(this.collectedJS2_.toString()).append("};");
+						.append(this.collectedJS2_).append("};");
 				this.session_.getApp().serverPushChanged_ = true;
 				this.renderSetServerPush(out);
 				if (enabledAjax) {
@@ -726,7 +713,57 @@ class WebRenderer implements SlotLearnerInterface {
 						.append("._p_.load(true);});\n");
 			}
 		}
-		response.out().append(out.toString());
+		this.write(out, response.out());
+	}
+
+	private static Map<String, FileServe.Template> mainScriptTemplates_ = new ConcurrentHashMap<String, FileServe.Template>();
+
+	/*
+	 * Returns the session-invariant part of the main script: jQuery (unless
+	 * a custom jQuery is used) and Wt.js with all configuration dependent
+	 * conditions and variables applied. These templates are shared by all
+	 * sessions which have the same configuration.
+	 */
+	private FileServe.Template getMainScriptTemplate(
+			final Configuration conf, WApplication app, boolean withJQuery) {
+		Map<String, Boolean> conditions = new TreeMap<String, Boolean>();
+		conditions.put("CATCH_ERROR",
+				conf.getErrorReporting() != Configuration.ErrorReporting.NoErrors);
+		conditions.put("SHOW_ERROR",
+				conf.getErrorReporting() == Configuration.ErrorReporting.ErrorMessage);
+		conditions.put("DYNAMIC_JS", false);
+		conditions.put("STRICTLY_SERIALIZED_EVENTS", conf.serializedEvents());
+		conditions.put("WEB_SOCKETS", conf.webSockets());
+		Map<String, String> vars = new TreeMap<String, String>();
+		vars.put("WT_CLASS", "Wt3_3_8");
+		vars.put("APP_CLASS", app.getJavaScriptClass());
+		vars.put("INNER_HTML", "true");
+		vars.put("WS_PATH", WWebWidget.jsStringLiteral(this.session_
+				.getController().getContextPath() + "/ws"));
+		vars.put("WS_ID", WWebWidget.jsStringLiteral(String
+				.valueOf(this.session_.getController().getIdForWebSocket())));
+		vars.put("KEEP_ALIVE", String.valueOf(conf.getKeepAlive()));
+		vars.put("INDICATOR_TIMEOUT",
+				String.valueOf(conf.getIndicatorTimeout()));
+		vars.put("SERVER_PUSH_TIMEOUT",
+				String.valueOf(conf.getServerPushTimeout() * 1000));
+		vars.put("CLOSE_CONNECTION", "false");
+		String key = withJQuery + conditions.toString() + vars.toString();
+		FileServe.Template result = mainScriptTemplates_.get(key);
+		if (result == null) {
+			result = FileServe.Template.compile(WtServlet.Wt_js).bind(
+					conditions, vars);
+			if (withJQuery) {
+				result = result.prepend("if (typeof window.$ === 'undefined') {"
+						+ WtServlet.JQuery_js + '}');
+			}
+			result.encode();
+			if (mainScriptTemplates_.size() > 32) {
+				mainScriptTemplates_.clear();
+			}
+			mainScriptTemplates_.put(key, result);
+		}
+		return result;
 	}
 
 	private void serveBootstrap(final WebResponse response) throws IOException {
@@ -762,7 +799,7 @@ class WebRenderer implements SlotLearnerInterface {
 		this.streamBootContent(response, boot, false);
 		boot.stream(out);
 		this.setRendered(false);
-		response.out().append(out.toString());
+		this.write(out, response.out());
 	}
 
 	private void serveMainpage(final WebResponse response) throws IOException {
@@ -885,7 +922,7 @@ class WebRenderer implements SlotLearnerInterface {
 		page.setVar("REFRESH", String.valueOf(refresh));
 		page.stream(out);
 		app.internalPathIsChanged_ = false;
-		response.out().append(out.toString());
+		this.write(out, response.out());
 	}
 
 	private void serveMainAjax(final StringBuilder out) {
@@ -895,6 +932,7 @@ class WebRenderer implements SlotLearnerInterface {
 		WApplication app = this.session_.getApp();
 		WWebWidget mainWebWidget = app.domRoot_;
 		this.visibleOnly_ = true;
+		app.redeclareSharedHandlers();
 		app.loadingIndicatorWidget_.show();
 		DomElement mainElement = mainWebWidget.createSDomElement(app);
 		app.loadingIndicatorWidget_.hide();
@@ -953,9 +991,9 @@ class WebRenderer implements SlotLearnerInterface {
 		if (widgetset) {
 			app.domRoot2_.rootAsJavaScript(app, s, true);
 		}
-		logger.debug(new StringWriter().append("js: ").append(s.toString())
-				.toString());
-		out.append(s.toString());
+		logger.debug("js: {}", s);
+		app.streamSharedHandlers(out);
+		out.append(s);
 		this.currentFormObjectsList_ = this.createFormObjectsList(app);
 		out.append(app.getJavaScriptClass()).append("._p_.setFormObjects([")
 				.append(this.currentFormObjectsList_).append("]);\n");
@@ -963,9 +1001,9 @@ class WebRenderer implements SlotLearnerInterface {
 		this.setRendered(true);
 		this.setJSSynced(true);
 		this.preLearnStateless(app, this.collectedJS1_);
-		logger.debug(new StringWriter().append("js: ")
-				.append(this.collectedJS1_.toString()).toString());
-		out.append(this.collectedJS1_.toString());
+		logger.debug("js: {}", this.collectedJS1_);
+		app.streamSharedHandlers(out);
+		out.append(this.collectedJS1_);
 		this.collectedJS1_.setLength(0);
 		this.updateLoadIndicator(out, app, true);
 		if (widgetset) {
@@ -998,9 +1036,8 @@ class WebRenderer implements SlotLearnerInterface {
 		WApplication app = this.session_.getApp();
 		final Configuration conf = this.session_.getController()
 				.getConfiguration();
-		logger.debug(new StringWriter().append("Rendering invisible: ")
-				.append(this.invisibleJS_.toString()).toString());
-		this.collectedJS1_.append(this.invisibleJS_.toString());
+		logger.debug("Rendering invisible: {}", this.invisibleJS_);
+		this.collectedJS1_.append(this.invisibleJS_);
 		this.invisibleJS_.setLength(0);
 		if (app.bodyHtmlClassChanged_) {
 			boolean widgetset = this.session_.getType() == EntryPointType.WidgetSet;
@@ -1032,7 +1069,7 @@ class WebRenderer implements SlotLearnerInterface {
 					this.visibleOnly_ = false;
 					this.collectJavaScriptUpdate(this.invisibleJS_);
 					if (this.invisibleJS_.length() < (int) this.twoPhaseThreshold_) {
-						this.collectedJS1_.append(this.invisibleJS_.toString());
+						this.collectedJS1_.append(this.invisibleJS_);
 						this.invisibleJS_.setLength(0);
 						needFetchInvisible = false;
 					}
@@ -1064,58 +1101,65 @@ class WebRenderer implements SlotLearnerInterface {
 		if (redirect.length() != 0) {
 			this.streamRedirectJS(this.collectedJS1_, redirect);
 		}
+		StringBuilder sharedHandlers = new StringBuilder();
+		app.streamSharedHandlers(sharedHandlers);
+		this.collectedJS1_.insert(0, sharedHandlers);
 	}
 
 	private void collectChanges(final List<DomElement> changes) {
-		WApplication app = this.session_.getApp();
-		do {
-			this.moreUpdates_ = false;
-			OrderedMultiMap<Integer, WWidget> depthOrder = new OrderedMultiMap<Integer, WWidget>();
-			for (Iterator<WWidget> i_it = this.updateMap_.iterator(); i_it
-					.hasNext();) {
-				WWidget i = i_it.next();
-				int depth = 1;
-				WWidget ww = i;
-				WWidget w = ww;
-				for (; w.getParent() != null; ++depth) {
-					w = w.getParent();
-				}
-				if (w != app.domRoot_ && w != app.domRoot2_) {
-					logger.debug(new StringWriter().append("ignoring: ")
-							.append(ww.getId()).append(" (").append("(fixme)")
-							.append(") ").append(w.getId()).append(" (")
-							.append("(fixme)").append(")").toString());
-					depth = 0;
-				}
-				depthOrder.put(depth, ww);
-			}
-			for (Iterator<Map.Entry<Integer, WWidget>> i_it = depthOrder
-					.entrySet().iterator(); i_it.hasNext();) {
-				Map.Entry<Integer, WWidget> i = i_it.next();
-				boolean j = this.updateMap_.contains(i.getValue());
-				if (j != false) {
-					WWidget w = i.getValue();
-					if (i.getKey() == 0) {
-						w.getWebWidget().propagateRenderOk();
-						continue;
+		int phase = RequestMetrics.enter(RequestMetrics.Phase.CollectChanges);
+		try {
+			WApplication app = this.session_.getApp();
+			do {
+				this.moreUpdates_ = false;
+				OrderedMultiMap<Integer, WWidget> depthOrder = new OrderedMultiMap<Integer, WWidget>();
+				for (Iterator<WWidget> i_it = this.updateMap_.iterator(); i_it
+						.hasNext();) {
+					WWidget i = i_it.next();
+					int depth = 1;
+					WWidget ww = i;
+					WWidget w = ww;
+					for (; w.getParent() != null; ++depth) {
+						w = w.getParent();
 					}
-					logger.debug(new StringWriter().append("updating: ")
-							.append(w.getId()).append(" (").append("(fixme)")
-							.append(")").toString());
-					if (!this.learning_ && this.visibleOnly_) {
-						if (w.isRendered()) {
-							w.getSDomChanges(changes, app);
+					if (w != app.domRoot_ && w != app.domRoot2_) {
+						if (logger.isDebugEnabled())
+							logger.debug("ignoring: {} ((fixme)) {} ((fixme))",
+									ww.getId(), w.getId());
+						depth = 0;
+					}
+					depthOrder.put(depth, ww);
+				}
+				for (Iterator<Map.Entry<Integer, WWidget>> i_it = depthOrder
+						.entrySet().iterator(); i_it.hasNext();) {
+					Map.Entry<Integer, WWidget> i = i_it.next();
+					boolean j = this.updateMap_.contains(i.getValue());
+					if (j != false) {
+						WWidget w = i.getValue();
+						if (i.getKey() == 0) {
+							w.getWebWidget().propagateRenderOk();
+							continue;
+						}
+						if (logger.isDebugEnabled())
+							logger.debug("updating: {} ((fixme))", w.getId());
+						if (!this.learning_ && this.visibleOnly_) {
+							if (w.isRendered()) {
+								RequestMetrics.widgetUpdated();
+								w.getSDomChanges(changes, app);
+							} else {
+								if (logger.isDebugEnabled())
+									logger.debug("Ignoring: {}", w.getId());
+							}
 						} else {
-							logger.debug(new StringWriter()
-									.append("Ignoring: ").append(w.getId())
-									.toString());
+							RequestMetrics.widgetUpdated();
+							w.getSDomChanges(changes, app);
 						}
-					} else {
-						w.getSDomChanges(changes, app);
 					}
 				}
-			}
-		} while (!this.learning_ && this.moreUpdates_);
+			} while (!this.learning_ && this.moreUpdates_);
+		} finally {
+			RequestMetrics.leave(phase);
+		}
 	}
 
 	private void collectJavaScriptUpdate(final StringBuilder out) {
@@ -1305,7 +1349,7 @@ class WebRenderer implements SlotLearnerInterface {
 				}
 			}
 		}
-		out.append(this.statelessJS_.toString());
+		out.append(this.statelessJS_);
 		this.statelessJS_.setLength(0);
 	}
 
@@ -1459,7 +1503,7 @@ class WebRenderer implements SlotLearnerInterface {
 		bootJs.setVar("INTERNAL_PATH", this.safeJsStringLiteral(internalPath));
 		boot.streamUntil(out, "BOOT_JS");
 		bootJs.stream(out);
-		response.out().append(out.toString());
+		this.write(out, response.out());
 	}
 
 	private void addResponseAckPuzzle(final StringBuilder out) {
@@ -1492,9 +1536,8 @@ class WebRenderer implements SlotLearnerInterface {
 			}
 		}
 		++this.expectedAckId_;
-		logger.debug(new StringWriter()
-				.append("addResponseAckPuzzle: incremented expectedAckId to ")
-				.append(String.valueOf(this.expectedAckId_)).toString());
+		logger.debug("addResponseAckPuzzle: incremented expectedAckId to {}",
+				this.expectedAckId_);
 		out.append(this.session_.getApp().getJavaScriptClass())
 				.append("._p_.response(").append(this.expectedAckId_);
 		if (puzzle.length() != 0) {
@@ -1673,6 +1716,7 @@ class WebRenderer implements SlotLearnerInterface {
 
 	private Set<WWidget> updateMap_;
 	private boolean learning_;
+	private boolean learningSlot_;
 	private boolean learningIncomplete_;
 	private boolean moreUpdates_;
 
@@ -1733,28 +1777,33 @@ class WebRenderer implements SlotLearnerInterface {
 		}
 		this.learningIncomplete_ = false;
 		this.currentStatelessSlotIsActuallyStateless_ = true;
-		slot.trigger();
-		StringBuilder js = new StringBuilder();
-		this.collectJS(js);
-		String result = js.toString();
-		logger.debug(new StringWriter().append("learned: ").append(result)
-				.toString());
-		if (slot.getType() == SlotType.PreLearnStateless) {
-			slot.undoTrigger();
-			this.collectJS((StringBuilder) null);
-			this.learning_ = false;
-		} else {
-			this.statelessJS_.append(result);
-		}
-		if (this.currentStatelessSlotIsActuallyStateless_
-				&& !this.learningIncomplete_) {
-			slot.setJavaScript(result);
-		} else {
-			if (!this.currentStatelessSlotIsActuallyStateless_) {
-				slot.invalidate();
+		String result;
+		this.learningSlot_ = true;
+		try {
+			slot.trigger();
+			StringBuilder js = new StringBuilder();
+			this.collectJS(js);
+			result = js.toString();
+			logger.debug("learned: {}", result);
+			if (slot.getType() == SlotType.PreLearnStateless) {
+				slot.undoTrigger();
+				this.collectJS((StringBuilder) null);
+				this.learning_ = false;
+			} else {
+				this.statelessJS_.append(result);
+			}
+			if (this.currentStatelessSlotIsActuallyStateless_
+					&& !this.learningIncomplete_) {
+				slot.setJavaScript(result);
+			} else {
+				if (!this.currentStatelessSlotIsActuallyStateless_) {
+					slot.invalidate();
+				}
 			}
+			this.collectJS(this.statelessJS_);
+		} finally {
+			this.learningSlot_ = false;
 		}
-		this.collectJS(this.statelessJS_);
 		return result;
 	}
 
@@ -73,6 +73,11 @@ class WebSession {
 		this.newRecursiveEvent_ = null;
 		this.updatesPendingEvent_ = this.mutex_.newCondition();
 		this.updatesPending_ = false;
+		this.applicationCreated_ = this.mutex_.newCondition();
+		this.linkedCssServed_ = this.mutex_.newCondition();
+		this.linkedCssRequests_ = new java.util.concurrent.atomic.AtomicInteger();
+		this.passivated_ = false;
+		this.lastActivity_ = System.currentTimeMillis();
 		this.triggerUpdate_ = false;
 		this.embeddedEnv_ = new WEnvironment(this);
 		this.app_ = null;
@@ -121,6 +126,10 @@ class WebSession {
 		}
 		this.mutex_.lock();
 		this.updatesPendingEvent_.signal();
+		if (this.passivated_) {
+			this.controller_.getPassivationStore().discard(this.sessionId_);
+			this.passivated_ = false;
+		}
 		this.mutex_.unlock();
 		this.flushBootStyleResponse();
 	}
@@ -374,8 +383,9 @@ class WebSession {
 				this.render(handler);
 			} else {
 				try {
-					if (0L != 0) {
-						this.app_.requestTooLarge().trigger(0L);
+					if (request.getPostDataExceeded() != 0) {
+						this.app_.requestTooLarge().trigger(
+								request.getPostDataExceeded());
 					}
 				} catch (final RuntimeException e) {
 					logger.error(new StringWriter()
@@ -664,6 +674,19 @@ class WebSession {
 		this.triggerUpdate_ = update;
 	}
 
+	/*
+	 * Forgets a web socket which has been closed, so that updates are no
+	 * longer held back for it. Must be called with the session lock held.
+	 */
+	void webSocketClosed(WebResponse webSocket) {
+		if (this.webSocket_ == webSocket) {
+			this.webSocket_ = null;
+			this.webSocketConnected_ = false;
+			this.canWriteWebSocket_ = false;
+			this.triggerUpdate_ = true;
+		}
+	}
+
 	public void expire() {
 		this.kill();
 	}
@@ -1146,7 +1169,20 @@ class WebSession {
 			this.request_ = request;
 			this.response_ = response;
 			this.killed_ = false;
-			session.getMutex().lock();
+			this.measured_ = request != null
+					&& RequestMetrics.begin(session.getController()
+							.getConfiguration());
+			this.linkedCss_ = request != null
+					&& "style".equals(request.getParameter("request"));
+			if (this.linkedCss_) {
+				session.linkedCssRequests_.incrementAndGet();
+			}
+			int phase = RequestMetrics.enter(RequestMetrics.Phase.LockWait);
+			try {
+				session.getMutex().lock();
+			} finally {
+				RequestMetrics.leave(phase);
+			}
 			this.init();
 		}
 
@@ -1185,20 +1221,42 @@ class WebSession {
 		}
 
 		public void release() {
-			if (this.isHaveLock()) {
-				this.session_.processQueuedEvents(this);
-				if (this.session_.triggerUpdate_) {
-					this.session_.pushUpdates();
+			try {
+				this.linkedCssServed();
+				if (this.isHaveLock()) {
+					this.session_.processQueuedEvents(this);
+					if (this.session_.triggerUpdate_) {
+						this.session_.pushUpdates();
+					}
+					this.session_.getMutex().unlock();
+				}
+				attachThreadToHandler(this.prevHandler_);
+			} finally {
+				if (this.measured_) {
+					RequestMetrics.end(this.session_);
 				}
-				this.session_.getMutex().unlock();
 			}
-			attachThreadToHandler(this.prevHandler_);
 		}
 
 		public static WebSession.Handler getInstance() {
 			return threadHandler_.get();
 		}
 
+		/*
+		 * A stylesheet request is registered as pending before it waits for
+		 * the session lock, so that a script response which holds the lock
+		 * can yield to it (see awaitLinkedCss()).
+		 */
+		void linkedCssServed() {
+			if (this.linkedCss_) {
+				this.linkedCss_ = false;
+				this.session_.linkedCssRequests_.decrementAndGet();
+				if (this.isHaveLock()) {
+					this.session_.linkedCssServed_.signalAll();
+				}
+			}
+		}
+
 		public boolean isHaveLock() {
 			return this.session_.getMutex().isHeldByCurrentThread();
 		}
@@ -1208,7 +1266,13 @@ class WebSession {
 
 		public void flushResponse() {
 			if (this.response_ != null) {
-				this.response_.flush();
+				int phase = RequestMetrics
+						.enter(RequestMetrics.Phase.ResponseWrite);
+				try {
+					this.response_.flush();
+				} finally {
+					RequestMetrics.leave(phase);
+				}
 				this.setRequest((WebRequest) null, (WebResponse) null);
 			}
 		}
@@ -1269,6 +1333,8 @@ class WebSession {
 		private WebRequest request_;
 		private WebResponse response_;
 		private boolean killed_;
+		private boolean measured_;
+		private boolean linkedCss_;
 	}
 
 	public void handleRequest(final WebSession.Handler handler)
@@ -1334,6 +1400,7 @@ class WebSession {
 				}
 			}
 			String requestE = request.getParameter("request");
+			this.updateLastActivity(request);
 			if (requestE != null && requestE.equals("ws")
 					&& !request.isWebSocketRequest()) {
 				logger.error(new StringWriter().append(
@@ -1508,6 +1575,11 @@ class WebSession {
 					}
 					case ExpectLoad:
 					case Loaded: {
+						if (this.passivated_
+								&& !this.handlePassivatedRequest(handler,
+										requestE)) {
+							break;
+						}
 						if (conf.getSessionTracking() == Configuration.SessionTracking.Combined) {
 							String signalE = handler.getRequest().getParameter(
 									"signal");
@@ -1564,23 +1636,26 @@ class WebSession {
 														.valueOf(this.renderer_
 																.getPageId()));
 										if (!bootStyle) {
+											handler.linkedCssServed();
 											handler.getResponse()
 													.setContentType("text/css");
 											handler.flushResponse();
 										} else {
-											int i = 0;
-											final int MAX_TRIES = 1000;
-											while (!(this.app_ != null)
-													&& i < MAX_TRIES) {
-												this.mutex_.unlock();
-												Thread.sleep(5);
-												this.mutex_.lock();
-												++i;
-											}
-											if (i < MAX_TRIES) {
-												this.renderer_
-														.serveLinkedCss(handler
-																.getResponse());
+											try {
+												long nanos = java.util.concurrent.TimeUnit.MILLISECONDS
+														.toNanos(APPLICATION_CREATED_TIMEOUT);
+												while (!(this.app_ != null)
+														&& nanos > 0) {
+													nanos = this.applicationCreated_
+															.awaitNanos(nanos);
+												}
+												if (this.app_ != null) {
+													this.renderer_
+															.serveLinkedCss(handler
+																	.getResponse());
+												}
+											} finally {
+												handler.linkedCssServed();
 											}
 											handler.flushResponse();
 										}
@@ -1743,6 +1818,15 @@ class WebSession {
 		this.eventQueueMutex_.unlock();
 	}
 
+	int getQueuedEventCount() {
+		this.eventQueueMutex_.lock();
+		try {
+			return this.eventQueue_.size();
+		} finally {
+			this.eventQueueMutex_.unlock();
+		}
+	}
+
 	public void handleWebSocketMessage(final WebSession.Handler handler)
 			throws IOException {
 		WebRequest message = handler.getRequest();
@@ -1800,6 +1884,113 @@ class WebSession {
 		}
 	}
 
+	private void updateLastActivity(final WebRequest request) {
+		String signalE = request.getParameter("signal");
+		if (!(signalE != null && (signalE.equals("keepAlive") || signalE
+				.equals("poll")))) {
+			this.lastActivity_ = System.currentTimeMillis();
+		}
+	}
+
+	long getLastActivity() {
+		return this.lastActivity_;
+	}
+
+	boolean isPassivated() {
+		return this.passivated_;
+	}
+
+	/*
+	 * Passivates the session, if it is idle and the application provides a
+	 * snapshot. The session lock must be held.
+	 */
+	boolean passivate(final PassivationStore store, long idleSince) {
+		if (this.passivated_ || !(this.app_ != null)
+				|| this.state_ != WebSession.State.Loaded
+				|| this.lastActivity_ > idleSince
+				|| this.app_.isUpdatesEnabled()
+				|| this.asyncResponse_ != null
+				|| this.deferredResponse_ != null
+				|| this.webSocket_ != null
+				|| this.bootStyleResponse_ != null) {
+			return false;
+		}
+		java.io.Serializable state = this.app_.passivate();
+		if (!(state != null)) {
+			return false;
+		}
+		try {
+			store.put(this.sessionId_, state);
+		} catch (final IOException e) {
+			logger.warn(new StringWriter()
+					.append("could not passivate session: ")
+					.append(e.toString()).toString());
+			store.discard(this.sessionId_);
+			return false;
+		}
+		this.env_.setInternalPath(this.app_.getInternalPath());
+		this.app_.destroy();
+		this.app_ = null;
+		this.renderer_ = new WebRenderer(this);
+		this.passivated_ = true;
+		logger.info(new StringWriter().append("Session passivated: ")
+				.append(this.sessionId_).toString());
+		return true;
+	}
+
+	/*
+	 * Handles a request to a passivated session. A page request reactivates
+	 * the session and is then handled as usual; other requests let the
+	 * browser reload the page, except for keep-alive requests.
+	 *
+	 * Returns whether the request still needs to be handled.
+	 */
+	private boolean handlePassivatedRequest(final WebSession.Handler handler,
+			final String requestE) throws IOException {
+		WebResponse response = handler.getResponse();
+		if (!(requestE != null)) {
+			this.activate(response);
+			return true;
+		} else {
+			if (requestE.equals("jsupdate") || requestE.equals("jserror")
+					|| requestE.equals("script")) {
+				response.setResponseType(WebRequest.ResponseType.Update);
+				String signalE = handler.getRequest().getParameter("signal");
+				if (signalE != null && signalE.equals("keepAlive")) {
+					response.setContentType("text/javascript; charset=UTF-8");
+				} else {
+					this.renderer_.letReloadJS(response, false);
+				}
+			} else {
+				response.setContentType("text/html");
+				response.out().append(
+						"<html><head></head><body></body></html>");
+			}
+			return false;
+		}
+	}
+
+	private void activate(final WebResponse response) {
+		java.io.Serializable state = null;
+		try {
+			state = this.controller_.getPassivationStore().remove(
+					this.sessionId_);
+		} catch (final Exception e) {
+			logger.error(new StringWriter()
+					.append("could not restore passivated session: ")
+					.append(e.toString()).toString());
+		}
+		this.passivated_ = false;
+		if (!this.start(response)) {
+			throw new WException("Could not start application.");
+		}
+		if (state != null) {
+			this.app_.activate(state);
+		}
+		logger.info(new StringWriter().append("Session activated: ")
+				.append(this.sessionId_).toString());
+	}
+
 	private void hibernate() {
 		if (this.app_ != null && this.app_.localizedStrings_ != null) {
 			this.app_.localizedStrings_.hibernate();
@@ -1845,6 +2036,13 @@ class WebSession {
 	private WEvent.Impl newRecursiveEvent_;
 	private java.util.concurrent.locks.Condition updatesPendingEvent_;
 	private boolean updatesPending_;
+	private java.util.concurrent.locks.Condition applicationCreated_;
+	private java.util.concurrent.locks.Condition linkedCssServed_;
+	private java.util.concurrent.atomic.AtomicInteger linkedCssRequests_;
+	private boolean passivated_;
+	private volatile long lastActivity_;
+	private static final long APPLICATION_CREATED_TIMEOUT = 5000;
+	private static final long LINKED_CSS_TIMEOUT = 1000;
 	private boolean triggerUpdate_;
 	private WEnvironment embeddedEnv_;
 	private WEnvironment env_;
@@ -1981,18 +2179,33 @@ class WebSession {
 		if (!handler.getRequest().isWebSocketMessage()) {
 			if (handler.getResponse().getResponseType() == WebRequest.ResponseType.Script
 					&& !(handler.getRequest().getParameter("skeleton") != null)) {
-				this.mutex_.unlock();
-				try {
-					Thread.sleep(1);
-				} catch (final InterruptedException e) {
-				}
-				this.mutex_.lock();
+				this.awaitLinkedCss();
 			}
 			this.renderer_.serveResponse(handler.getResponse());
 		}
 		handler.flushResponse();
 	}
 
+	/*
+	 * With a boot-style request pending, lets it serve the linked stylesheet
+	 * first, so that the script response does not need to include it.
+	 */
+	private void awaitLinkedCss() {
+		if (this.renderer_.isInitialStyleRendered()) {
+			return;
+		}
+		long nanos = java.util.concurrent.TimeUnit.MILLISECONDS
+				.toNanos(LINKED_CSS_TIMEOUT);
+		try {
+			while (this.linkedCssRequests_.get() > 0 && nanos > 0
+					&& !this.renderer_.isInitialStyleRendered()) {
+				nanos = this.linkedCssServed_.awaitNanos(nanos);
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
 	enum SignalKind {
 		LearnedStateless(0), StubbedStateless(1), AutoLearnStateless(2), Dynamic(
 				3);
@@ -2070,8 +2283,14 @@ class WebSession {
 	private void notifySignal(final WEvent e) throws IOException {
 		final WebSession.Handler handler = e.impl_.handler;
 		if (handler.nextSignal == -1) {
-			Utils.copyList(this.getSignalProcessingOrder(e),
-					handler.signalOrder);
+			int phase = RequestMetrics
+					.enter(RequestMetrics.Phase.EventDecoding);
+			try {
+				Utils.copyList(this.getSignalProcessingOrder(e),
+						handler.signalOrder);
+			} finally {
+				RequestMetrics.leave(phase);
+			}
 			handler.nextSignal = 0;
 		}
 		for (int i = handler.nextSignal; i < handler.signalOrder.size(); ++i) {
@@ -2104,7 +2323,13 @@ class WebSession {
 				if (signalE.equals("keepAlive")) {
 				} else {
 					if (!signalE.equals("poll")) {
-						this.propagateFormValues(e, se);
+						int phase = RequestMetrics
+								.enter(RequestMetrics.Phase.EventDecoding);
+						try {
+							this.propagateFormValues(e, se);
+						} finally {
+							RequestMetrics.leave(phase);
+						}
 						boolean discardStateless = !request
 								.isWebSocketMessage() && i == 0;
 						if (discardStateless) {
@@ -2131,7 +2356,7 @@ class WebSession {
 								WebSession.SignalKind kind = WebSession.SignalKind
 										.values()[k];
 								if (kind == WebSession.SignalKind.AutoLearnStateless
-										&& 0L != 0) {
+										&& request.getPostDataExceeded() != 0) {
 									break;
 								}
 								AbstractEventSignal s;
@@ -2147,8 +2372,14 @@ class WebSession {
 								} else {
 									s = this.decodeSignal(signalE, k == 0);
 								}
-								this.processSignal(s, se, request, kind,
-										checkWasStubbed);
+								int dispatchPhase = RequestMetrics
+										.enter(RequestMetrics.Phase.SignalDispatch);
+								try {
+									this.processSignal(s, se, request, kind,
+											checkWasStubbed);
+								} finally {
+									RequestMetrics.leave(dispatchPhase);
+								}
 								if (kind == WebSession.SignalKind.LearnedStateless
 										&& discardStateless) {
 									this.renderer_.discardChanges();
@@ -2192,14 +2423,14 @@ class WebSession {
 			Map.Entry<String, WObject> i = i_it.next();
 			String formName = i.getKey();
 			WObject obj = i.getValue();
-			if (!(0L != 0)) {
+			if (!(request.getPostDataExceeded() != 0)) {
 				WWidget w = ((obj) instanceof WWidget ? (WWidget) (obj) : null);
 				if (w != null && !w.isEnabled()) {
 					continue;
 				}
 				obj.setFormData(getFormData(request, se + formName));
 			} else {
-				obj.setRequestTooLarge(0L);
+				obj.setRequestTooLarge(request.getPostDataExceeded());
 			}
 		}
 	}
@@ -2279,6 +2510,12 @@ class WebSession {
 	private boolean start(WebResponse response) {
 		try {
 			this.app_ = this.controller_.doCreateApplication(this);
+			this.mutex_.lock();
+			try {
+				this.applicationCreated_.signalAll();
+			} finally {
+				this.mutex_.unlock();
+			}
 			if (!this.app_.internalPathValid_) {
 				if (response.getResponseType() == WebRequest.ResponseType.Page) {
 					response.setStatus(404);
@@ -2321,7 +2558,7 @@ class WebSession {
 		for (;;) {
 			ApplicationEvent event = this.getPopQueuedEvent();
 			if (!event.isEmpty()) {
-				if (!this.isDead()) {
+				if (!this.isDead() && !this.passivated_) {
 					this.externalNotify(new WEvent.Impl(handler, event.function));
 					if (this.getApp() != null && this.getApp().isQuited()) {
 						this.kill();
@@ -4,25 +4,47 @@
 package eu.webtoolkit.jwt;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import javax.websocket.CloseReason;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
 import javax.websocket.Session;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import eu.webtoolkit.jwt.servlet.WebResponse;
 
 /**
  * A connection for a web socket, to generate responses
+ * 
+ * Messages are sent asynchronously, one at a time. While a message is being
+ * sent, {@link #isWebSocketMessagePending()} makes the session hold back
+ * updates, which are then pushed as a single message once the send completes.
  * @author raf
  */
 class WebSocketConnection extends WebResponse {
-	private Writer outWriter;
+	private static Logger logger = LoggerFactory.getLogger(WebSocketConnection.class);
+
+	private StringWriter outWriter;
 	private Session socketSession;
 	private Map<String, List<String>> headers;
 	private WebSession webSession;
+
+	private final LinkedList<String> sendQueue = new LinkedList<String>();
+	private boolean sending = false;
+	private boolean updateDeferred = false;
+	private boolean closed = false;
+	private int sendingBytes = 0;
+	private long sendStart = 0;
+	private long queuedBytes = 0;
 	
 	public WebSocketConnection(final Session socketSession, Map<String, List<String>> headers) throws IOException {
 		super();
@@ -67,19 +89,230 @@ class WebSocketConnection extends WebResponse {
 	}
 	
 	/**
-	 * Flush the buffer of the output stream, close it and forget about it
+	 * Send the buffered message and forget about it
 	 * @see javax.servlet.ServletResponseWrapper#flushBuffer()
 	 */
 	@Override
 	public void flushBuffer() {
 		if (this.outWriter != null) {
-			try {
-				this.outWriter.close();
-				this.outWriter = null;
-			} catch (IOException e) {
-				e.printStackTrace();
+			String message = this.outWriter.toString();
+			this.outWriter = null;
+			if (message.length() > 0)
+				send(message);
+		}
+	}
+
+	/**
+	 * Returns whether a message is still being sent: updates are then
+	 * held back until it has been sent.
+	 */
+	@Override
+	public synchronized boolean isWebSocketMessagePending() {
+		if (sending) {
+			updateDeferred = true;
+			return true;
+		} else
+			return false;
+	}
+
+	/**
+	 * Returns the size of the messages that are queued or being sent.
+	 */
+	synchronized long getQueuedBytes() {
+		return queuedBytes;
+	}
+
+	private void send(String message) {
+		int bytes = utf8Length(message);
+		WtServlet controller = webSession != null ? webSession.getController() : null;
+		CloseReason closeReason = null;
+
+		synchronized (this) {
+			if (closed)
+				return;
+
+			if (sending) {
+				int limit = controller != null ? controller.getConfiguration().getWebSocketSendQueueLimit() : Integer.MAX_VALUE;
+				if (queuedBytes + bytes > limit) {
+					logger.info("Web socket " + socketSession.getId() + ": send queue overflow, closing");
+					if (controller != null)
+						controller.webSocketOverflow();
+					closeReason = new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "send queue overflow");
+					close();
+				} else {
+					sendQueue.addLast(message);
+					queuedBytes += bytes;
+					if (controller != null)
+						controller.webSocketMessageQueued(bytes);
+					return;
+				}
+			} else {
+				queuedBytes += bytes;
+				if (controller != null)
+					controller.webSocketMessageQueued(bytes);
+				sending = true;
+				sendingBytes = bytes;
+				sendStart = System.nanoTime();
 			}
 		}
+
+		if (closeReason != null)
+			closeSocket(closeReason);
+		else
+			startSend(message);
+	}
+
+	/*
+	 * Must be called without holding the lock on this connection: a container
+	 * may complete the send synchronously, calling sent() from within
+	 * sendText().
+	 */
+	private void startSend(String message) {
+		try {
+			socketSession.getAsyncRemote().sendText(message, new SendHandler() {
+				@Override
+				public void onResult(SendResult result) {
+					sent(result);
+				}
+			});
+		} catch (RuntimeException e) {
+			logger.info("Web socket " + socketSession.getId() + ": send failed: " + e.getMessage());
+			synchronized (this) {
+				close();
+			}
+			closeSocket(new CloseReason(CloseReason.CloseCodes.UNEXPECTED_CONDITION, "send failed"));
+		}
+	}
+
+	private void sent(SendResult result) {
+		WtServlet controller = webSession != null ? webSession.getController() : null;
+		boolean pushUpdates = false;
+		String next = null;
+		CloseReason closeReason = null;
+
+		synchronized (this) {
+			if (closed)
+				return;
+
+			queuedBytes -= sendingBytes;
+			if (controller != null)
+				controller.webSocketMessageSent(sendingBytes, System.nanoTime() - sendStart);
+
+			if (!result.isOK()) {
+				logger.info("Web socket " + socketSession.getId() + ": send failed: " + result.getException());
+				closeReason = new CloseReason(CloseReason.CloseCodes.UNEXPECTED_CONDITION, "send failed");
+				close();
+			} else if (!sendQueue.isEmpty()) {
+				next = sendQueue.removeFirst();
+				sendingBytes = utf8Length(next);
+				sendStart = System.nanoTime();
+			} else {
+				sending = false;
+				pushUpdates = updateDeferred;
+				updateDeferred = false;
+			}
+		}
+
+		if (closeReason != null)
+			closeSocket(closeReason);
+		else if (next != null)
+			startSend(next);
+		else if (pushUpdates)
+			triggerUpdate();
+	}
+
+	/**
+	 * Called when the web socket has been closed, by the client or because
+	 * of an error.
+	 * <p>
+	 * Messages which are queued are dropped, and the session no longer holds
+	 * back updates for this connection.
+	 */
+	void closed() {
+		synchronized (this) {
+			if (closed)
+				return;
+			close();
+		}
+
+		detach();
+	}
+
+	/*
+	 * Must be called while holding the lock on this connection.
+	 */
+	private void close() {
+		WtServlet controller = webSession != null ? webSession.getController() : null;
+		if (controller != null)
+			controller.webSocketMessagesDropped(queuedBytes);
+
+		closed = true;
+		sending = false;
+		updateDeferred = false;
+		sendQueue.clear();
+		queuedBytes = 0;
+	}
+
+	/*
+	 * Closes the socket after close(), without holding the lock on this
+	 * connection.
+	 */
+	private void closeSocket(CloseReason reason) {
+		try {
+			socketSession.close(reason);
+		} catch (IOException e) {
+			logger.debug("Web socket " + socketSession.getId() + ": error closing: " + e.getMessage());
+		}
+
+		detach();
+	}
+
+	/*
+	 * Lets the session forget this connection, from within the thread which
+	 * holds (or can take) the session lock.
+	 */
+	private void detach() {
+		final WebSession session = webSession;
+		if (session == null)
+			return;
+
+		session.queueEvent(new ApplicationEvent(session.getSessionId(), new Runnable() {
+			public void run() {
+				session.webSocketClosed(WebSocketConnection.this);
+			}
+		}));
+		WebSession.Handler handler = new WebSession.Handler(session, WebSession.Handler.LockOption.TryLock);
+		handler.release();
+	}
+
+	/*
+	 * Lets the session push the updates that were held back, from within the
+	 * thread which holds (or can take) the session lock.
+	 */
+	private void triggerUpdate() {
+		final WebSession session = webSession;
+		session.queueEvent(new ApplicationEvent(session.getSessionId(), new Runnable() {
+			public void run() {
+				session.setTriggerUpdate(true);
+			}
+		}));
+		WebSession.Handler handler = new WebSession.Handler(session, WebSession.Handler.LockOption.TryLock);
+		handler.release();
+	}
+
+	private static int utf8Length(String s) {
+		int result = s.length();
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			if (Character.isHighSurrogate(c)) {
+				++i; /* 4 bytes for 2 chars */
+				result += 2;
+			} else if (c >= 0x800)
+				result += 2;
+			else if (c >= 0x80)
+				result += 1;
+		}
+		return result;
 	}
 	
 	@Override
@@ -97,13 +330,8 @@ class WebSocketConnection extends WebResponse {
 	
 	@Override
 	public Writer out() {
-		if (this.outWriter == null) {
-			try {
-				this.outWriter = this.socketSession.getBasicRemote().getSendWriter();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
+		if (this.outWriter == null)
+			this.outWriter = new StringWriter();
 		return this.outWriter;
 	}
 	
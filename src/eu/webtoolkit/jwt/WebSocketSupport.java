@@ -106,14 +106,21 @@ public class WebSocketSupport {
     @OnClose
     public void onClose(Session session, CloseReason closeReason) {
         logger.info(String.format("Web socket session %s closed because of %s", session.getId(), closeReason));
+        WebSocketConnection connection = WebSocketConnection.getWebSocketConnection(session);
+        if (connection != null)
+            connection.closed();
     }
 	
 	/**
 	 * Is called when a socket exception occurs
+	 * @param session holds all state for this web session
 	 * @param t the generated exception
 	 */
 	@OnError
-	public void onError(Throwable t) {
+	public void onError(Session session, Throwable t) {
 		logger.error("WebSocket error", t);
+		WebSocketConnection connection = WebSocketConnection.getWebSocketConnection(session);
+		if (connection != null)
+			connection.closed();
 	}
 }
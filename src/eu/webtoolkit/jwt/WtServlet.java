@@ -6,18 +6,27 @@
 package eu.webtoolkit.jwt;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -35,9 +44,11 @@ import org.slf4j.LoggerFactory;
 
 import eu.webtoolkit.jwt.servlet.WebRequest;
 import eu.webtoolkit.jwt.servlet.WebRequest.ProgressListener;
+import eu.webtoolkit.jwt.servlet.WebRequest.UploadConsumer;
+import eu.webtoolkit.jwt.servlet.WebRequest.UploadConsumerFactory;
 import eu.webtoolkit.jwt.servlet.WebResponse;
+import eu.webtoolkit.jwt.utils.HttpUtils;
 import eu.webtoolkit.jwt.utils.MathUtils;
-import eu.webtoolkit.jwt.utils.StreamUtils;
 
 /**
  * The abstract JWt servlet class.
@@ -83,16 +94,26 @@ public abstract class WtServlet extends HttpServlet {
 
 	private Configuration configuration;
 	private ProgressListener progressListener;
+	private UploadConsumerFactory uploadConsumerFactory;
 	private Set<String> uploadProgressUrls_ = new HashSet<String>();
-	private int ajaxSessions = 0;
-	private Map<String,WebSession> sessions = new HashMap<String,WebSession>();
+	private AtomicInteger ajaxSessions = new AtomicInteger();
+	private ConcurrentMap<String,WebSession> sessions = new ConcurrentHashMap<String,WebSession>();
+	private ThreadPoolExecutor postAllExecutor;
+	private ThreadPoolExecutor queryExecutor;
+	private volatile ExecutorService requestExecutor;
+	private PassivationStore passivationStore;
+	private volatile ScheduledExecutorService passivationScheduler;
+	private AtomicLong webSocketQueuedBytes = new AtomicLong();
+	private AtomicLong webSocketMessagesSent = new AtomicLong();
+	private AtomicLong webSocketSendTime = new AtomicLong();
+	private AtomicLong webSocketOverflows = new AtomicLong();
 
 	private String redirectSecret_;
 
 	private static final String WT_WEBSESSION_ID = "wt-websession";
-	private static final Map<String, String> mimeTypes = new HashMap<String, String>();
 	
 	private List<WResource> staticResources = new ArrayList<WResource>();
+	private StaticResourceCache staticResourceCache = new StaticResourceCache();
 
 	private int idForWebSocket = -1;
 
@@ -119,19 +140,6 @@ public abstract class WtServlet extends HttpServlet {
 		Boot_js = readFile("/eu/webtoolkit/jwt/skeletons/Boot.min.js");
 		JQuery_js = readFile("/eu/webtoolkit/jwt/skeletons/jquery.min.js");
 
-		String[][] mimeTypes = {
-				{ "css", "text/css" },
-				{ "gif", "image/gif" },
-				{ "htm", "text/html" },
-				{ "html", "text/html" },
-				{ "jpg", "image/jpeg" },
-				{ "png", "image/png" },
-				{ "js", "text/javascript" } 
-			};
-
-		for (String[] s : mimeTypes)
-			WtServlet.mimeTypes.put(s[0], s[1]);
-		
 		WObject.seedId(MathUtils.randomInt());
 	}
 
@@ -157,6 +165,12 @@ public abstract class WtServlet extends HttpServlet {
 				requestDataReceived(request, pBytesRead, pContentLength);
 			}
 		};
+
+		this.uploadConsumerFactory = new UploadConsumerFactory() {
+			public UploadConsumer getUploadConsumer(WebRequest request) {
+				return WtServlet.this.getUploadConsumer(request);
+			}
+		};
 		
 		this.configuration = new Configuration();
 		
@@ -211,7 +225,7 @@ public abstract class WtServlet extends HttpServlet {
 				if (requestPath.equals(staticResourcePath)) {
 					try {
 						WebRequest webRequest = new WebRequest(request, progressListener, configuration);
-						WebResponse webResponse = new WebResponse(response, webRequest);
+						WebResponse webResponse = createResponse(response, webRequest);
 						staticResource.handle(webRequest, webResponse);
 					} catch (IOException e) {
 						e.printStackTrace();
@@ -234,36 +248,40 @@ public abstract class WtServlet extends HttpServlet {
 
 			fileName += pathInfo;
 			try {
-				InputStream s = getResourceStream(fileName);
-				if (s != null) {
-					String suffix = fileName.substring(fileName.lastIndexOf('.') + 1);
-					String mimeType = mimeTypes.get(suffix);
-					if (mimeType != null)
-						response.setContentType(mimeType);
-					else
-						response.setContentType("application/octet-stream");
-					StreamUtils.copy(s, response.getOutputStream());
-					response.getOutputStream().flush();
-				} else {
-					response.setStatus(404);
-				}
-			} catch (FileNotFoundException e) {
-				response.setStatus(404);
-				e.printStackTrace();
+				staticResourceCache.serve(fileName, request, response, configuration);
 			} catch (IOException e) {
-				response.setStatus(500);
-				e.printStackTrace();
+				logger.info("error serving static file: " + fileName + ": " + e.getMessage());
+				if (!response.isCommitted())
+					response.setStatus(500);
 			}
 
 			return;
 		}
 
-		WebRequest webRequest = new WebRequest(request, progressListener, configuration);
-		WebResponse webResponse = new WebResponse(response, webRequest);
+		WebRequest webRequest = new WebRequest(request, progressListener, uploadConsumerFactory, configuration);
+		WebResponse webResponse = createResponse(response, webRequest);
 
 		servletApi.doHandleRequest(this, webRequest, webResponse);
 	}
 
+	private WebResponse createResponse(HttpServletResponse response, WebRequest request) {
+		WebResponse webResponse = new WebResponse(response, request);
+
+		if (configuration.isResponseCompression() && !request.isWebSocketRequest()) {
+			String encoding = null;
+			if (HttpUtils.acceptsEncoding(request, "gzip"))
+				encoding = "gzip";
+			else if (HttpUtils.acceptsEncoding(request, "deflate"))
+				encoding = "deflate";
+
+			if (encoding != null)
+				webResponse.enableCompression(encoding, configuration.getCompressionThreshold(),
+						configuration.getCompressionLevel());
+		}
+
+		return webResponse;
+	}
+
 	/**
 	 * Implement the GET request.
 	 */
@@ -315,24 +333,97 @@ public abstract class WtServlet extends HttpServlet {
 	 */
 	public abstract WApplication createApplication(WEnvironment env);
 
-	synchronized int addSession(WebSession session) {
+	int addSession(WebSession session) {
 		sessions.put(session.getSessionId(), session);
+		if (passivationScheduler == null && configuration.getPassivationIdleTime() > 0)
+			startPassivation();
 		return sessions.size();
 	}
 
-	synchronized void newAjaxSession() {
-		++ajaxSessions;
+	synchronized PassivationStore getPassivationStore() {
+		if (passivationStore == null)
+			passivationStore = PassivationStore.create(configuration);
+		return passivationStore;
 	}
 
-	synchronized int removeSession(WebSession session) {
-		if (session.getEnv().hasAjax())
-			--ajaxSessions;
-		sessions.remove(session.getSessionId());
+	/*
+	 * Starts the passivation scheduler. This is only called (and only
+	 * synchronizes) until the scheduler has been published.
+	 */
+	private synchronized void startPassivation() {
+		if (passivationScheduler != null)
+			return;
+
+		long interval = Math.max(1, Math.min(60, configuration.getPassivationIdleTime() / 4));
+		ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "jwt-passivation");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					passivateIdleSessions();
+				} catch (RuntimeException e) {
+					logger.error("Error passivating sessions", e);
+				}
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+		passivationScheduler = scheduler;
+	}
+
+	private void passivateIdleSessions() {
+		long idleSince = System.currentTimeMillis() - configuration.getPassivationIdleTime() * 1000L;
+		PassivationStore store = getPassivationStore();
+
+		for (WebSession session : sessions.values()) {
+			if (session.isPassivated() || session.getLastActivity() > idleSince)
+				continue;
+
+			WebSession.Handler handler = new WebSession.Handler(session, WebSession.Handler.LockOption.TryLock);
+			try {
+				if (handler.isHaveLock() && !session.isDead())
+					session.passivate(store, idleSince);
+			} catch (RuntimeException e) {
+				logger.error("Error passivating session " + session.getSessionId(), e);
+			} finally {
+				handler.release();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of passivated sessions.
+	 * 
+	 * @see Configuration#setPassivationIdleTime(int)
+	 */
+	public int getPassivatedSessionCount() {
+		return getPassivationStore().getCount();
+	}
+
+	/**
+	 * Returns the size (in bytes) of the state of passivated sessions.
+	 * 
+	 * @see Configuration#setPassivationIdleTime(int)
+	 */
+	public long getPassivatedSessionSize() {
+		return getPassivationStore().getSize();
+	}
+
+	void newAjaxSession() {
+		ajaxSessions.incrementAndGet();
+	}
+
+	int removeSession(WebSession session) {
+		if (sessions.remove(session.getSessionId(), session) && session.getEnv().hasAjax())
+			ajaxSessions.decrementAndGet();
 		return sessions.size();
 	}
 	
 
-	synchronized void removeSession(String sessionId) {
+	void removeSession(String sessionId) {
 		WebSession session = sessions.get(sessionId);
 		if (session != null)
 			removeSession(session);
@@ -430,26 +521,11 @@ public abstract class WtServlet extends HttpServlet {
 				try {
 					handler = new WebSession.Handler(wsession, null, null);
 
-					if (!wsession.isDead() && wsession.getApp() != null) {
-						String requestE = request.getParameter("request");
-
-						WResource resource = null;
-						if (requestE == null && request.getPathInfo().length() != 0)
-							resource = wsession.getApp().
-								decodeExposedResource("/path/" + request.getPathInfo());
-
-						if (resource == null) {
-							String resourceE = request.getParameter("resource");
-							resource = wsession.getApp().
-								decodeExposedResource(resourceE);
-						}
-
-						if (resource != null) {
-							// FIXME, we should do this within app.notify()
-							resource.dataReceived().trigger(current, total);
-						}
+					WResource resource = getRequestedResource(wsession, request);
+					if (resource != null) {
+						// FIXME, we should do this within app.notify()
+						resource.dataReceived().trigger(current, total);
 					}
-					
 				} finally {
 					handler.release();
 				}
@@ -459,6 +535,51 @@ public abstract class WtServlet extends HttpServlet {
 		return true;
 	}
 
+	UploadConsumer getUploadConsumer(WebRequest request) {
+		HttpSession jsession = request.getSession(false);
+		if (jsession == null)
+			return null;
+
+		BoundSession bsession = (BoundSession) jsession.getAttribute(WtServlet.WT_WEBSESSION_ID);
+		WebSession wsession = bsession != null ? bsession.getSession() : null;
+		if (wsession == null)
+			return null;
+
+		WebSession.Handler handler = null;
+		try {
+			handler = new WebSession.Handler(wsession, null, null);
+
+			WResource resource = getRequestedResource(wsession, request);
+			return resource != null ? resource.getUploadConsumer(request) : null;
+		} finally {
+			handler.release();
+		}
+	}
+
+	/*
+	 * Returns the resource targeted by a request, while holding the session
+	 * lock.
+	 */
+	private static WResource getRequestedResource(WebSession wsession, WebRequest request) {
+		if (wsession.isDead() || wsession.getApp() == null)
+			return null;
+
+		String requestE = request.getParameter("request");
+
+		WResource resource = null;
+		if (requestE == null && request.getPathInfo().length() != 0)
+			resource = wsession.getApp().
+				decodeExposedResource("/path/" + request.getPathInfo());
+
+		if (resource == null) {
+			String resourceE = request.getParameter("resource");
+			resource = wsession.getApp().
+				decodeExposedResource(resourceE);
+		}
+
+		return resource;
+	}
+
 	/**
 	 * Returns whether asynchronous I/O is supported.
 	 * 
@@ -504,20 +625,283 @@ public abstract class WtServlet extends HttpServlet {
 
 	/**
 	 * Posts a task to be run within the scope of all currently active sessions.
+	 * <p>
+	 * The task is queued to every session before this method returns, so that
+	 * tasks posted to a single session are still run in order. When
+	 * {@link Configuration#setPostAllThreads(int)} is configured, the sessions
+	 * are then processed asynchronously by a pool of threads rather than by the
+	 * calling thread.
 	 *
 	 * @see post()
 	 * @param function the task to be run
 	 */
 	public void postAll(Runnable function) {
+		final List<WebSession> targets = new ArrayList<WebSession>(sessions.size());
 		for (WebSession session : sessions.values()) {
 			session.queueEvent(new ApplicationEvent(session.getSessionId(), function));
+			targets.add(session);
+		}
+
+		ThreadPoolExecutor executor = getPostAllExecutor();
+		if (executor == null || targets.size() < 2) {
+			processQueuedEvents(targets, 0, targets.size());
+			return;
+		}
+
+		int threads = executor.getMaximumPoolSize();
+		int batchSize = Math.max(POST_ALL_MIN_BATCH, (targets.size() + threads - 1) / threads);
+		for (int i = 0; i < targets.size(); i += batchSize) {
+			final int begin = i;
+			final int end = Math.min(i + batchSize, targets.size());
+			executor.execute(new Runnable() {
+				public void run() {
+					processQueuedEvents(targets, begin, end);
+				}
+			});
+		}
+	}
+
+	private static final int POST_ALL_MIN_BATCH = 16;
+
+	private static void processQueuedEvents(List<WebSession> sessions, int begin, int end) {
+		for (int i = begin; i < end; ++i) {
 			WebSession.Handler handler = null;
 			try {
-				handler = new WebSession.Handler(session, WebSession.Handler.LockOption.TryLock);
+				handler = new WebSession.Handler(sessions.get(i), WebSession.Handler.LockOption.TryLock);
+			} catch (RuntimeException e) {
+				logger.error("postAll(): error processing session " + sessions.get(i).getSessionId(), e);
 			} finally {
-				handler.release();
+				if (handler != null)
+					handler.release();
+			}
+		}
+	}
+
+	private synchronized ThreadPoolExecutor getPostAllExecutor() {
+		int threads = configuration.getPostAllThreads();
+		if (threads == 0)
+			return null;
+
+		if (postAllExecutor == null) {
+			/*
+			 * A bounded queue: when it is full, the calling thread processes the
+			 * batch itself, which throttles a producer that posts faster than
+			 * sessions can keep up with.
+			 */
+			postAllExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(threads * 4), new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "jwt-postAll-" + count.incrementAndGet());
+							t.setDaemon(true);
+							return t;
+						}
+					}, new ThreadPoolExecutor.CallerRunsPolicy());
+			postAllExecutor.allowCoreThreadTimeOut(true);
+		}
+
+		return postAllExecutor;
+	}
+
+	private static final int QUERY_THREADS = 4;
+	private static final int QUERY_QUEUE_SIZE = 256;
+
+	/*
+	 * The default executor of WQueryModel, which fetches rows from a
+	 * database. Its queue is bounded: a fetch which is rejected is retried
+	 * by the model when the rows are needed again.
+	 */
+	synchronized Executor getQueryExecutor() {
+		if (queryExecutor == null) {
+			queryExecutor = new ThreadPoolExecutor(QUERY_THREADS, QUERY_THREADS, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(QUERY_QUEUE_SIZE), new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "jwt-query-" + count.incrementAndGet());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+			queryExecutor.allowCoreThreadTimeOut(true);
+		}
+
+		return queryExecutor;
+	}
+
+	/**
+	 * Returns the number of active sessions.
+	 */
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	/**
+	 * Returns the number of active sessions that use Ajax.
+	 */
+	public int getAjaxSessionCount() {
+		return ajaxSessions.get();
+	}
+
+	/**
+	 * Returns the number of events that have been posted to sessions but have
+	 * not yet been run.
+	 * 
+	 * @see #post(WApplication, Runnable, Runnable)
+	 * @see #postAll(Runnable)
+	 */
+	public int getQueuedEventCount() {
+		int result = 0;
+		for (WebSession session : sessions.values())
+			result += session.getQueuedEventCount();
+		return result;
+	}
+
+	void webSocketMessageQueued(long bytes) {
+		webSocketQueuedBytes.addAndGet(bytes);
+	}
+
+	void webSocketMessageSent(long bytes, long nanos) {
+		webSocketQueuedBytes.addAndGet(-bytes);
+		webSocketMessagesSent.incrementAndGet();
+		webSocketSendTime.addAndGet(nanos);
+	}
+
+	void webSocketMessagesDropped(long bytes) {
+		webSocketQueuedBytes.addAndGet(-bytes);
+	}
+
+	void webSocketOverflow() {
+		webSocketOverflows.incrementAndGet();
+	}
+
+	/**
+	 * Returns the size (in bytes) of the messages which are queued for, or
+	 * being sent over, web sockets.
+	 * 
+	 * @see Configuration#setWebSocketSendQueueLimit(int)
+	 */
+	public long getWebSocketQueuedBytes() {
+		return webSocketQueuedBytes.get();
+	}
+
+	/**
+	 * Returns the number of messages that have been sent over web sockets.
+	 */
+	public long getWebSocketMessagesSent() {
+		return webSocketMessagesSent.get();
+	}
+
+	/**
+	 * Returns the total time (in nanoseconds) spent sending messages over
+	 * web sockets.
+	 * <p>
+	 * This is measured from the start of a send until its completion, and
+	 * divided by {@link #getWebSocketMessagesSent()} gives the average send
+	 * latency.
+	 */
+	public long getWebSocketSendTime() {
+		return webSocketSendTime.get();
+	}
+
+	/**
+	 * Returns the number of web sockets that have been closed because their
+	 * send queue overflowed.
+	 * 
+	 * @see Configuration#setWebSocketSendQueueLimit(int)
+	 */
+	public long getWebSocketOverflowCount() {
+		return webSocketOverflows.get();
+	}
+
+	/*
+	 * Returns the executor which runs asynchronous requests, or null when the
+	 * container's thread pool should be used.
+	 *
+	 * This is called for every request: the executor is created once, and
+	 * then read without locking.
+	 */
+	Executor getRequestExecutor() {
+		switch (configuration.getRequestExecution()) {
+		case Executor:
+			if (configuration.getRequestExecutor() != null)
+				return configuration.getRequestExecutor();
+			break;
+		case VirtualThreads:
+			break;
+		default:
+			return null;
+		}
+
+		ExecutorService result = requestExecutor;
+		if (result == null)
+			result = createRequestExecutor();
+		return result;
+	}
+
+	private synchronized ExecutorService createRequestExecutor() {
+		switch (configuration.getRequestExecution()) {
+		case Executor:
+			if (requestExecutor == null) {
+				int threads = configuration.getRequestExecutorThreads();
+				ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+						new LinkedBlockingQueue<Runnable>(configuration.getRequestExecutorQueueSize()),
+						new ThreadFactory() {
+							private final AtomicInteger count = new AtomicInteger();
+
+							public Thread newThread(Runnable r) {
+								Thread t = new Thread(r, "jwt-request-" + count.incrementAndGet());
+								t.setDaemon(true);
+								return t;
+							}
+						});
+				pool.allowCoreThreadTimeOut(true);
+				requestExecutor = pool;
+			}
+			return requestExecutor;
+		case VirtualThreads:
+			if (requestExecutor == null) {
+				try {
+					requestExecutor = (ExecutorService) java.util.concurrent.Executors.class
+						.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+				} catch (Exception e) {
+					logger.warn("Virtual threads are not supported by this JVM, using the container's thread pool");
+					configuration.setRequestExecution(Configuration.RequestExecution.ContainerPool);
+					return null;
+				}
+			}
+			return requestExecutor;
+		default:
+			return null;
+		}
+	}
+
+	@Override
+	public void destroy() {
+		synchronized (this) {
+			if (postAllExecutor != null) {
+				postAllExecutor.shutdown();
+				postAllExecutor = null;
+			}
+			if (queryExecutor != null) {
+				queryExecutor.shutdown();
+				queryExecutor = null;
+			}
+			if (requestExecutor != null) {
+				requestExecutor.shutdown();
+				requestExecutor = null;
+			}
+			if (passivationScheduler != null) {
+				passivationScheduler.shutdown();
+				passivationScheduler = null;
 			}
 		}
+
+		if (configuration.isMetricsEnabled())
+			RequestMetrics.unregister(this);
+
+		super.destroy();
 	}
 
     boolean limitPlainHtmlSessions() {
@@ -532,10 +916,6 @@ public abstract class WtServlet extends HttpServlet {
 			return result;
 	}
 	
-	private InputStream getResourceStream(final String fileName) throws IOException {
-		return FileUtils.getResourceAsStream("/eu/webtoolkit/jwt/" + fileName);
-	}
-
 	private static String readFile(final String fileName) {
 		return FileUtils.resourceToString(fileName);
 	}
@@ -111,10 +111,21 @@ public class WStandardChartProxyModel extends WAbstractChartModel {
 	 * WAbstractItemModel#getData()} for the given row and column with the
 	 * {@link DisplayRole} as a double.
 	 * <p>
+	 * The values of a {@link WColumnarTableModel} are read without boxing
+	 * (see {@link WColumnarTableModel#getDouble(int row, int column)
+	 * WColumnarTableModel#getDouble()}). This is not done for a subclass,
+	 * which may reimplement
+	 * {@link WAbstractItemModel#getData(WModelIndex index, int role)
+	 * getData()}.
+	 * <p>
 	 * 
 	 * @see WAbstractItemModel#getData(WModelIndex index, int role)
 	 */
 	public double getData(int row, int column) {
+		if (this.sourceModel_.getClass() == WColumnarTableModel.class) {
+			return ((WColumnarTableModel) this.sourceModel_).getDouble(row,
+					column);
+		}
 		return StringUtils.asNumber(this.sourceModel_.getData(row, column,
 				ItemDataRole.DisplayRole));
 	}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt.jpa;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+
+import eu.webtoolkit.jwt.QueryRowSource;
+import eu.webtoolkit.jwt.WQueryModel;
+
+/**
+ * A row source for a {@link WQueryModel} which runs a JPQL query.
+ * <p>
+ * Since an <code>EntityManager</code> may not be shared between threads, an
+ * entity manager is created for each call, and closed afterwards. The
+ * returned entities are thus detached.
+ * <p>
+ * This class needs the JPA API (<code>javax.persistence</code>), which is an
+ * optional dependency of JWt.
+ * <p>
+ * Usage example:
+ * <p>
+ *
+ * <pre>
+ * {@code
+ *  JpaRowSource<Product> source = new JpaRowSource<Product>(factory,
+ *      "select p from Product p order by p.name",
+ *      "select count(p) from Product p", Product.class);
+ *  WQueryModel<Product> model = new WQueryModel<Product>(source) {
+ *    protected Object getValue(Product product, int column, int role) {
+ *      ...
+ *    }
+ *  };
+ * }
+ * </pre>
+ */
+public class JpaRowSource<T> implements QueryRowSource<T> {
+	/**
+	 * Creates a new row source.
+	 * <p>
+	 * The <code>countJpql</code> query should return the number of results
+	 * of the <code>jpql</code> query, and may be <code>null</code> if this
+	 * number is not to be computed.
+	 */
+	public JpaRowSource(EntityManagerFactory factory, String jpql, String countJpql, Class<T> resultClass) {
+		this.factory_ = factory;
+		this.jpql_ = jpql;
+		this.countJpql_ = countJpql;
+		this.resultClass_ = resultClass;
+		this.parameters_ = new LinkedHashMap<String, Object>();
+	}
+
+	/**
+	 * Sets a named parameter of the queries.
+	 * <p>
+	 * The parameter is set on both queries, and should be set before the
+	 * source is used by a model.
+	 */
+	public void setParameter(String name, Object value) {
+		this.parameters_.put(name, value);
+	}
+
+	public List<T> getRows(int offset, int count) {
+		EntityManager em = this.factory_.createEntityManager();
+		try {
+			TypedQuery<T> query = em.createQuery(this.jpql_, this.resultClass_);
+			for (Map.Entry<String, Object> p : this.parameters_.entrySet())
+				query.setParameter(p.getKey(), p.getValue());
+			query.setFirstResult(offset);
+			query.setMaxResults(count);
+			return query.getResultList();
+		} finally {
+			em.close();
+		}
+	}
+
+	public int getRowCount() {
+		if (this.countJpql_ == null)
+			return -1;
+
+		EntityManager em = this.factory_.createEntityManager();
+		try {
+			Query query = em.createQuery(this.countJpql_);
+			for (Map.Entry<String, Object> p : this.parameters_.entrySet())
+				query.setParameter(p.getKey(), p.getValue());
+			return ((Number) query.getSingleResult()).intValue();
+		} finally {
+			em.close();
+		}
+	}
+
+	private EntityManagerFactory factory_;
+	private String jpql_;
+	private String countJpql_;
+	private Class<T> resultClass_;
+	private Map<String, Object> parameters_;
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt.servlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import eu.webtoolkit.jwt.utils.HttpUtils;
+
+/*
+ * An output stream which compresses the response body on the fly.
+ *
+ * Output is buffered until the threshold is reached: smaller responses are
+ * sent uncompressed. At that point, the stream decides whether to compress
+ * based on the response status, content type and content encoding.
+ */
+class CompressingOutputStream extends ServletOutputStream {
+	private final WebResponse response;
+	private final String encoding;
+	private final int level;
+	private byte[] buffer;
+	private int count;
+	private OutputStream out;
+	private DeflaterOutputStream compressor;
+	private String contentLength;
+	private boolean finished;
+
+	CompressingOutputStream(WebResponse response, String encoding, int threshold, int level) {
+		this.response = response;
+		this.encoding = encoding;
+		this.level = level;
+		this.buffer = new byte[Math.max(threshold, 1)];
+		this.count = 0;
+	}
+
+	/*
+	 * Records a Content-Length header: it is only passed on when the
+	 * response is not compressed.
+	 */
+	boolean interceptContentLength(String value) {
+		if (out != null && compressor == null)
+			return false;
+
+		contentLength = value;
+		return true;
+	}
+
+	/*
+	 * Returns the entity tag to be sent: a strong tag set after the response
+	 * is compressed is made specific to the content coding.
+	 */
+	String interceptETag(String value) {
+		return compressor != null ? HttpUtils.getEncodedETag(value, encoding) : value;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (out == null) {
+			if (count < buffer.length) {
+				buffer[count++] = (byte) b;
+				return;
+			}
+			start(true);
+		}
+
+		out.write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (out == null) {
+			if (count + len <= buffer.length) {
+				System.arraycopy(b, off, buffer, count, len);
+				count += len;
+				return;
+			}
+			start(true);
+		}
+
+		out.write(b, off, len);
+	}
+
+	/*
+	 * Until the decision to compress has been made, the output remains
+	 * buffered: we do not want to decide on a partial response.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (out != null)
+			out.flush();
+	}
+
+	/*
+	 * Completes the response, writing the compression trailer if needed.
+	 */
+	void finish() throws IOException {
+		if (finished)
+			return;
+		finished = true;
+
+		if (out == null)
+			start(false);
+
+		if (compressor != null)
+			compressor.finish();
+
+		response.getResponse().getOutputStream().flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		finish();
+	}
+
+	private void start(boolean large) throws IOException {
+		HttpServletResponse r = (HttpServletResponse) response.getResponse();
+		OutputStream raw = r.getOutputStream();
+
+		boolean compressible = isCompressible(r);
+		if (compressible)
+			r.addHeader("Vary", "Accept-Encoding");
+
+		if (large && compressible) {
+			r.setHeader("Content-Encoding", encoding);
+			/* the compressed body must not share a strong tag with the identity body */
+			String etag = r.getHeader("ETag");
+			if (etag != null)
+				r.setHeader("ETag", HttpUtils.getEncodedETag(etag, encoding));
+			if (encoding.equals("gzip"))
+				compressor = new GZIPOutputStream(raw, 8192, true) {
+					{
+						def.setLevel(level);
+					}
+
+					@Override
+					public void finish() throws IOException {
+						super.finish();
+						def.end();
+					}
+				};
+			else
+				compressor = new DeflaterOutputStream(raw, new Deflater(level), 8192, true) {
+					@Override
+					public void finish() throws IOException {
+						super.finish();
+						def.end();
+					}
+				};
+			out = compressor;
+		} else {
+			if (contentLength != null)
+				r.setHeader("Content-Length", contentLength);
+			out = raw;
+		}
+
+		out.write(buffer, 0, count);
+		buffer = null;
+	}
+
+	private boolean isCompressible(HttpServletResponse r) {
+		if (r.getStatus() != HttpServletResponse.SC_OK || r.containsHeader("Content-Encoding"))
+			return false;
+
+		String contentType = r.getContentType();
+		if (contentType == null)
+			return false;
+
+		contentType = contentType.toLowerCase();
+		return contentType.startsWith("text/")
+			|| contentType.contains("javascript")
+			|| contentType.contains("json")
+			|| contentType.contains("xml");
+	}
+}
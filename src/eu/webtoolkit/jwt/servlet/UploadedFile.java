@@ -32,7 +32,13 @@ public class UploadedFile {
 		this.fileInfo_ = null;
 	}
 
-	UploadedFile(final String spoolName, final String clientFileName,
+	/**
+	 * Creates an uploaded file.
+	 * <p>
+	 * The spool file is deleted automatically, unless
+	 * {@link UploadedFile#stealSpoolFile() stealSpoolFile()} is called.
+	 */
+	public UploadedFile(final String spoolName, final String clientFileName,
 			final String contentType) {
 		this.fileInfo_ = null;
 		this.fileInfo_ = new UploadedFile.Impl();
@@ -42,6 +48,18 @@ public class UploadedFile {
 		this.fileInfo_.isStolen = false;
 	}
 
+	UploadedFile(final byte[] data, final String clientFileName,
+			final String contentType) {
+		this((String) null, clientFileName, contentType);
+		this.fileInfo_.data = data;
+	}
+
+	UploadedFile(long consumedSize, final String clientFileName,
+			final String contentType) {
+		this((String) null, clientFileName, contentType);
+		this.fileInfo_.consumedSize = consumedSize;
+	}
+
 	/**
 	 * Return the spool file name.
 	 * <p>
@@ -49,11 +67,36 @@ public class UploadedFile {
 	 * file is temporarily stored. Unless you call
 	 * {@link UploadedFile#stealSpoolFile() stealSpoolFile()}, this file is
 	 * deleted automatically.
+	 * <p>
+	 * Small files are kept in memory (see
+	 * {@link Configuration#setUploadMemoryThreshold(int)}), and are written to
+	 * a spool file only when this method is first called.
+	 * <p>
+	 * When the file was handled by a {@link WebRequest.UploadConsumer} and not
+	 * stored, this returns <code>null</code>.
 	 */
 	public String getSpoolFileName() {
+		this.fileInfo_.spool();
 		return this.fileInfo_.spoolFileName;
 	}
 
+	/**
+	 * Returns the size of the uploaded file.
+	 */
+	public long getSize() {
+		return this.fileInfo_.getSize();
+	}
+
+	/**
+	 * Returns a stream for reading the uploaded file.
+	 * <p>
+	 * Unlike {@link UploadedFile#getSpoolFileName() getSpoolFileName()}, this
+	 * does not spool a file which is kept in memory.
+	 */
+	public InputStream getInputStream() throws IOException {
+		return this.fileInfo_.getInputStream();
+	}
+
 	/**
 	 * Returns the client file name.
 	 * <p>
@@ -90,9 +133,49 @@ public class UploadedFile {
 		public String clientFileName;
 		public String contentType;
 		public boolean isStolen;
+		public byte[] data;
+		public long consumedSize;
+
+		synchronized void spool() {
+			if (this.spoolFileName == null && this.data != null) {
+				try {
+					File f = File.createTempFile("jwt", "jwt");
+					OutputStream out = new FileOutputStream(f);
+					try {
+						out.write(this.data);
+					} finally {
+						out.close();
+					}
+					this.spoolFileName = f.getAbsolutePath();
+					this.data = null;
+				} catch (IOException e) {
+					throw new WtException("Could not spool uploaded file", e);
+				}
+			}
+		}
+
+		synchronized long getSize() {
+			if (this.data != null) {
+				return this.data.length;
+			} else {
+				return this.spoolFileName != null ? new File(this.spoolFileName)
+						.length() : this.consumedSize;
+			}
+		}
+
+		synchronized InputStream getInputStream() throws IOException {
+			if (this.data != null) {
+				return new ByteArrayInputStream(this.data);
+			} else {
+				if (this.spoolFileName == null) {
+					throw new IOException("Uploaded file was not stored");
+				}
+				return new FileInputStream(this.spoolFileName);
+			}
+		}
 
 		public void finalize() {
-			if (!this.isStolen) {
+			if (!this.isStolen && this.spoolFileName != null) {
 				new File(this.spoolFileName).delete();
 			}
 		}
@@ -6,28 +6,34 @@
 package eu.webtoolkit.jwt.servlet;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 
-import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
 import org.apache.commons.fileupload.FileUploadBase;
 import org.apache.commons.fileupload.FileUploadException;
-import org.apache.commons.fileupload.disk.DiskFileItemFactory;
+import org.apache.commons.fileupload.ParameterParser;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.fileupload.util.Streams;
 
 import eu.webtoolkit.jwt.Configuration;
 import eu.webtoolkit.jwt.WResource;
 import eu.webtoolkit.jwt.WtServlet;
 import eu.webtoolkit.jwt.Utils;
+import eu.webtoolkit.jwt.utils.StreamUtils;
 
 /**
  * A WebRequest which wraps the HttpServletRequest to add support for file uploads and
@@ -78,9 +84,55 @@ public class WebRequest extends HttpServletRequestWrapper {
 		 */
 		public void update(WebRequest request, long pBytesRead, long pContentLength);
 	}
-	
+
+	/**
+	 * Upload consumer interface.
+	 * <p>
+	 * An upload consumer receives the contents of uploaded files as they
+	 * arrive, while the request is being received. Its methods are called from
+	 * the thread which receives the request, without holding the session lock.
+	 */
+	public interface UploadConsumer {
+		/**
+		 * Starts receiving a file.
+		 * <p>
+		 * Returns whether the file should (also) be stored, to be available
+		 * as an {@link UploadedFile}.
+		 */
+		public boolean begin(String fieldName, String clientFileName, String contentType);
+
+		/**
+		 * Receives the next part of the file.
+		 * <p>
+		 * The buffer is reused after this method returns.
+		 */
+		public void data(byte[] buffer, int offset, int length) throws IOException;
+
+		/**
+		 * Ends receiving a file.
+		 * <p>
+		 * The <i>complete</i> argument is <code>false</code> when the upload was
+		 * interrupted, or exceeded the maximum request size.
+		 */
+		public void end(boolean complete);
+	}
+
+	/**
+	 * Upload consumer factory interface.
+	 */
+	public interface UploadConsumerFactory {
+		/**
+		 * Returns the consumer for files uploaded with a request, or
+		 * <code>null</code>.
+		 */
+		public UploadConsumer getUploadConsumer(WebRequest request);
+	}
+
+	private static final int UPLOAD_BUFFER_SIZE = 8 * 1024;
+
 	private Map<String, String[]> parameters_;
 	private Map<String, List<UploadedFile>> files_;
+	private long postDataExceeded_;
 	private String scriptName;
 	private String pathInfo;
 
@@ -190,13 +242,25 @@ public class WebRequest extends HttpServletRequestWrapper {
 	 * @param configuration 
 	 */
 	public WebRequest(HttpServletRequest request, ProgressListener progressListener, Configuration configuration) {
+		this(request, progressListener, null, configuration);
+	}
+
+	/**
+	 * Creates a WebRequest by wrapping an HttpServletRequest
+	 * @param request The request to be wrapped.
+	 * @param progressListener a progress listener implementation
+	 * @param uploadConsumers provides the consumer for uploaded files
+	 * @param configuration 
+	 */
+	public WebRequest(HttpServletRequest request, ProgressListener progressListener,
+			UploadConsumerFactory uploadConsumers, Configuration configuration) {
 		super(request);
 		this.httpRequest  = request;
 		
 		computePaths(configuration);
 
 		try {
-			parse(progressListener);
+			parse(progressListener, uploadConsumers, configuration);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -270,74 +334,192 @@ public class WebRequest extends HttpServletRequestWrapper {
 		return pathInfo;
 	}
 
-	@SuppressWarnings({ "unchecked", "deprecation" })
-	private void parse(final ProgressListener progressUpdate) throws IOException {
-		if (FileUploadBase.isMultipartContent(this)) {
-			try {
-				// Create a factory for disk-based file items
-				DiskFileItemFactory factory = new DiskFileItemFactory();
+	@SuppressWarnings("deprecation")
+	private void parse(final ProgressListener progressUpdate, UploadConsumerFactory uploadConsumers,
+			Configuration configuration) throws IOException {
+		if (!FileUploadBase.isMultipartContent(this)) {
+			parseParameters();
+			return;
+		}
 
-				// Create a new file upload handler
-				ServletFileUpload upload = new ServletFileUpload(factory);
+		// Parse the request as a stream: files are received only once, directly
+		// in memory or in their spool file
+		ServletFileUpload upload = new ServletFileUpload();
+		upload.setSizeMax(configuration.getMaxRequestSize());
 
-				if (progressUpdate != null) {
-					upload.setProgressListener(new org.apache.commons.fileupload.ProgressListener(){
-						public void update(long pBytesRead, long pContentLength, int pItems) {
-							progressUpdate.update(WebRequest.this, pBytesRead, pContentLength);
-						}
-					});
+		if (progressUpdate != null) {
+			upload.setProgressListener(new org.apache.commons.fileupload.ProgressListener(){
+				public void update(long pBytesRead, long pContentLength, int pItems) {
+					progressUpdate.update(WebRequest.this, pBytesRead, pContentLength);
 				}
+			});
+		}
 
-				// Parse the request
-				List items = upload.parseRequest(this);
+		UploadConsumer consumer = null;
+		boolean consumerLookedUp = false;
+		byte[] buffer = null;
 
-				parseParameters();
-				
-				Iterator itr = items.iterator();
-
-				FileItem fi;
-				File f = null;
-				while (itr.hasNext()) {
-					fi = (FileItem) itr.next();
-
-					// Check if not form field so as to only handle the file inputs
-					// else condition handles the submit button input
-					if (!fi.isFormField()) {
-						try {
-							f = File.createTempFile("jwt", "jwt");
-							fi.write(f);
-							fi.delete();
-						} catch (IOException e) {
-							e.printStackTrace();
-						} catch (Exception e) {
-							e.printStackTrace();
+		/*
+		 * The body is consumed before the container's parameters are read, as
+		 * a container may otherwise parse the multipart body itself. Until
+		 * then, e.g. for the upload consumer, only the query parameters are
+		 * available.
+		 */
+		Map<String, List<String>> fields = new HashMap<String, List<String>>();
+		parameters_ = new HashMap<String, String[]>();
+		if (getQueryString() != null)
+			Utils.parseFormUrlEncoded(getQueryString(), parameters_);
+		files_ = new HashMap<String, List<UploadedFile>>();
+
+		try {
+			FileItemIterator itr = upload.getItemIterator(this);
+			while (itr.hasNext()) {
+				FileItemStream item = itr.next();
+				InputStream in = item.openStream();
+
+				try {
+					if (item.isFormField()) {
+						List<String> v = fields.get(item.getFieldName());
+						if (v == null) {
+							v = new ArrayList<String>(1);
+							fields.put(item.getFieldName(), v);
 						}
+						v.add(Streams.asString(in, getCharset(item.getContentType())));
+					} else {
+						if (!consumerLookedUp && uploadConsumers != null) {
+							consumer = uploadConsumers.getUploadConsumer(this);
+							consumerLookedUp = true;
+						}
+
+						int threshold = configuration.getUploadMemoryThreshold();
+						if (buffer == null)
+							buffer = new byte[Math.max(threshold + 1, UPLOAD_BUFFER_SIZE)];
 
-						List<UploadedFile> files = files_.get(fi.getFieldName());
+						UploadedFile f = receiveFile(item, in, consumer, buffer, threshold);
+						List<UploadedFile> files = files_.get(item.getFieldName());
 						if (files == null) {
 							files = new ArrayList<UploadedFile>();
-							files_.put(fi.getFieldName(), files);
+							files_.put(item.getFieldName(), files);
 						}
-						files.add(new UploadedFile(f.getAbsolutePath(), fi.getName(), fi.getContentType()));
-					} else {
-						String[] v = parameters_.get(fi.getFieldName());
-						if (v == null)
-							v = new String[1];
-						else {
-							String[] newv = new String[v.length + 1];
-							for (int i = 0; i < v.length; ++i)
-								newv[i] = v[i];
-							v = newv;
-						}
-						v[v.length - 1] = fi.getString();
-						parameters_.put(fi.getFieldName(), v);
+						files.add(f);
 					}
+				} finally {
+					StreamUtils.closeQuietly(in);
 				}
-			} catch (FileUploadException e) {
-				e.printStackTrace();
 			}
+		} catch (FileUploadBase.FileUploadIOException e) {
+			handleFileUploadException((FileUploadException) e.getCause());
+		} catch (FileUploadException e) {
+			handleFileUploadException(e);
+		}
+
+		Map<String, List<UploadedFile>> files = files_;
+		parseParameters();
+		files_ = files;
+
+		for (Map.Entry<String, List<String>> field : fields.entrySet()) {
+			String[] v = parameters_.get(field.getKey());
+			int n = v == null ? 0 : v.length;
+			v = v == null ? new String[field.getValue().size()] : Arrays.copyOf(v, n + field.getValue().size());
+			for (int i = 0; i < field.getValue().size(); ++i)
+				v[n + i] = field.getValue().get(i);
+			parameters_.put(field.getKey(), v);
+		}
+	}
+
+	private void handleFileUploadException(FileUploadException e) {
+		if (e instanceof FileUploadBase.SizeLimitExceededException) {
+			postDataExceeded_ = Math.max(((FileUploadBase.SizeLimitExceededException) e).getActualSize(), 1);
+			files_.clear();
 		} else
-			parseParameters();
+			e.printStackTrace();
+	}
+
+	/*
+	 * Receives an uploaded file, passing its contents to the consumer (if
+	 * any) while storing it in memory (when not larger than the threshold)
+	 * or in a spool file.
+	 *
+	 * When the consumer does not want the file to be stored, only its size is
+	 * recorded.
+	 */
+	private static UploadedFile receiveFile(FileItemStream item, InputStream in, UploadConsumer consumer,
+			byte[] buffer, int threshold) throws IOException {
+		boolean store = true;
+		if (consumer != null)
+			store = consumer.begin(item.getFieldName(), item.getName(), item.getContentType());
+
+		long size = 0;
+		int count = 0;
+		File spoolFile = null;
+		OutputStream spool = null;
+		boolean complete = false;
+
+		try {
+			for (;;) {
+				int n = in.read(buffer, count, buffer.length - count);
+				if (n == -1)
+					break;
+
+				if (consumer != null)
+					consumer.data(buffer, count, n);
+				size += n;
+
+				if (store) {
+					count += n;
+					if (count == buffer.length) {
+						if (spool == null) {
+							spoolFile = File.createTempFile("jwt", "jwt");
+							spool = new FileOutputStream(spoolFile);
+						}
+						spool.write(buffer, 0, count);
+						count = 0;
+					}
+				}
+			}
+
+			UploadedFile result;
+			if (!store)
+				result = new UploadedFile(size, item.getName(), item.getContentType());
+			else {
+				if (spool == null && count <= threshold)
+					result = new UploadedFile(Arrays.copyOf(buffer, count), item.getName(), item.getContentType());
+				else {
+					if (spool == null) {
+						spoolFile = File.createTempFile("jwt", "jwt");
+						spool = new FileOutputStream(spoolFile);
+					}
+					spool.write(buffer, 0, count);
+					spool.close();
+					spool = null;
+					result = new UploadedFile(spoolFile.getAbsolutePath(), item.getName(), item.getContentType());
+				}
+			}
+
+			complete = true;
+			return result;
+		} finally {
+			if (!complete) {
+				StreamUtils.closeQuietly(spool);
+				if (spoolFile != null)
+					spoolFile.delete();
+			}
+
+			if (consumer != null)
+				consumer.end(complete);
+		}
+	}
+
+	private static String getCharset(String contentType) {
+		if (contentType != null) {
+			ParameterParser parser = new ParameterParser();
+			parser.setLowerCaseNames(true);
+			String charset = (String) parser.parse(contentType, ';').get("charset");
+			if (charset != null)
+				return charset;
+		}
+
+		return "ISO-8859-1";
 	}
 
 	private void parseParameters() throws IOException {
@@ -390,6 +572,17 @@ public class WebRequest extends HttpServletRequestWrapper {
 		return files_;
 	}
 
+	/**
+	 * Returns the size of a request which exceeded the maximum request size.
+	 * <p>
+	 * When the request body exceeded {@link Configuration#getMaxRequestSize()},
+	 * it is not received further, and no files are available. This then returns
+	 * the request size (or the size received so far), and 0 otherwise.
+	 */
+	public long getPostDataExceeded() {
+		return postDataExceeded_;
+	}
+
 	/**
 	 * Returns the parameter map.
 	 * <p>
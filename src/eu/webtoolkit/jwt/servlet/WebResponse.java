@@ -37,6 +37,7 @@ public class WebResponse extends HttpServletResponseWrapper {
 	private int id;
 	private ServletOutputStream outputStream;
 	private ResponseType responseType;
+	private CompressingOutputStream compressingStream;
 
 	/**
 	 * Constructor which wraps a HttpServletResponse.
@@ -102,12 +103,67 @@ public class WebResponse extends HttpServletResponseWrapper {
 	 */
 	@Override
 	public ServletOutputStream getOutputStream() throws IOException {
-		if (outputStream == null)
+		if (compressingStream != null)
+			return compressingStream;
+		else if (outputStream == null)
 			return super.getOutputStream();
 		else
 			return outputStream;
 	}
 
+	/**
+	 * Enables compression of the response body.
+	 * <p>
+	 * The response body is compressed using the given content coding
+	 * (<tt>"gzip"</tt> or <tt>"deflate"</tt>), provided that it is larger
+	 * than the <i>threshold</i> (in bytes), and that it has a textual content
+	 * type. This must be called before any output is written.
+	 * <p>
+	 * This is an internal JWt method.
+	 */
+	public void enableCompression(String encoding, int threshold, int level) {
+		compressingStream = new CompressingOutputStream(this, encoding, threshold, level);
+		try {
+			outWriter = new OutputStreamWriter(compressingStream, "UTF-8");
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void setContentLength(int len) {
+		if (compressingStream == null || !compressingStream.interceptContentLength(String.valueOf(len)))
+			super.setContentLength(len);
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		if (compressingStream != null && name.equalsIgnoreCase("ETag"))
+			value = compressingStream.interceptETag(value);
+		if (compressingStream == null || !name.equalsIgnoreCase("Content-Length")
+				|| !compressingStream.interceptContentLength(value))
+			super.setHeader(name, value);
+	}
+
+	@Override
+	public void addHeader(String name, String value) {
+		if (compressingStream != null && name.equalsIgnoreCase("ETag"))
+			value = compressingStream.interceptETag(value);
+		if (compressingStream == null || !name.equalsIgnoreCase("Content-Length")
+				|| !compressingStream.interceptContentLength(value))
+			super.addHeader(name, value);
+	}
+
+	@Override
+	public void setIntHeader(String name, int value) {
+		setHeader(name, String.valueOf(value));
+	}
+
+	@Override
+	public void addIntHeader(String name, int value) {
+		addHeader(name, String.valueOf(value));
+	}
+
 	/**
 	 * Returns a text writer.
 	 * <p>
@@ -148,7 +204,10 @@ public class WebResponse extends HttpServletResponseWrapper {
 	public void flush() {
 		try {
 			outWriter.flush();
-			getOutputStream().flush();
+			if (compressingStream != null)
+				compressingStream.finish();
+			else
+				getOutputStream().flush();
 		} catch (IOException e) {
 			e.printStackTrace();
 		} catch (Exception e) {
@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2009 Emweb bvba, Leuven, Belgium.
+ *
+ * See the LICENSE file for terms of use.
+ */
+package eu.webtoolkit.jwt.utils;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Utility functions for HTTP content negotiation and cache validation.
+ * <p>
+ * These helpers implement the parts of RFC 7232 (conditional requests) and
+ * RFC 7233 (range requests) that are used when serving static or cacheable
+ * content.
+ */
+public class HttpUtils {
+	/**
+	 * A byte range, with inclusive first and last byte positions.
+	 */
+	public static class ByteRange {
+		private final long first;
+		private final long last;
+
+		public ByteRange(long first, long last) {
+			this.first = first;
+			this.last = last;
+		}
+
+		/**
+		 * Returns the position of the first byte.
+		 */
+		public long getFirst() {
+			return first;
+		}
+
+		/**
+		 * Returns the position of the last byte (inclusive).
+		 */
+		public long getLast() {
+			return last;
+		}
+
+		/**
+		 * Returns the number of bytes in the range.
+		 */
+		public long getLength() {
+			return last - first + 1;
+		}
+
+		/**
+		 * Returns the value for a <tt>Content-Range</tt> header.
+		 */
+		public String toContentRange(long totalLength) {
+			return "bytes " + first + "-" + last + "/" + totalLength;
+		}
+	}
+
+	private static final Random random = new Random();
+
+	private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss 'GMT'";
+
+	/**
+	 * Formats a time stamp (in milliseconds since the epoch) as an HTTP date.
+	 */
+	public static String formatHttpDate(long time) {
+		SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format.format(new Date(time));
+	}
+
+	/**
+	 * Returns whether the client accepts the given content coding.
+	 * <p>
+	 * The <tt>Accept-Encoding</tt> header is parsed, taking into account
+	 * quality values (a coding with <tt>q=0</tt> is not acceptable) and the
+	 * <tt>*</tt> wildcard.
+	 */
+	public static boolean acceptsEncoding(HttpServletRequest request, String coding) {
+		String header = request.getHeader("Accept-Encoding");
+		if (header == null)
+			return false;
+
+		boolean wildcard = false;
+		for (String part : header.split(",")) {
+			String[] params = part.split(";");
+			String name = params[0].trim();
+			double q = 1.0;
+			for (int i = 1; i < params.length; ++i) {
+				String p = params[i].trim();
+				if (p.startsWith("q=")) {
+					try {
+						q = Double.parseDouble(p.substring(2).trim());
+					} catch (NumberFormatException e) {
+						q = 0;
+					}
+				}
+			}
+
+			if (name.equalsIgnoreCase(coding))
+				return q > 0;
+			else if (name.equals("*"))
+				wildcard = q > 0;
+		}
+
+		return wildcard;
+	}
+
+	/**
+	 * Returns whether the resource is unmodified according to the request's
+	 * conditional headers.
+	 * <p>
+	 * When the request has an <tt>If-None-Match</tt> header, it is compared
+	 * (using weak comparison) against the <i>etag</i>. Otherwise, the
+	 * <tt>If-Modified-Since</tt> header is compared against
+	 * <i>lastModified</i>. A value of <code>null</code> or -1 skips the
+	 * corresponding validator.
+	 *
+	 * @return whether a <tt>304 Not Modified</tt> response may be sent.
+	 */
+	public static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null)
+			return etag != null && matchesETag(ifNoneMatch, etag);
+
+		if (lastModified != -1) {
+			long ifModifiedSince;
+			try {
+				ifModifiedSince = request.getDateHeader("If-Modified-Since");
+			} catch (IllegalArgumentException e) {
+				return false;
+			}
+
+			if (ifModifiedSince != -1)
+				return lastModified / 1000 <= ifModifiedSince / 1000;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns whether a list of entity tags (as in an <tt>If-None-Match</tt>
+	 * or <tt>If-Match</tt> header) matches the given entity tag, using weak
+	 * comparison.
+	 * <p>
+	 * A tag of a compressed representation (see
+	 * {@link #getEncodedETag(String, String)}) also matches.
+	 */
+	public static boolean matchesETag(String etagList, String etag) {
+		String opaque = stripWeak(etag);
+		for (String t : etagList.split(",")) {
+			t = t.trim();
+			if (t.equals("*") || stripWeak(t).equals(opaque) || stripEncoding(stripWeak(t)).equals(opaque))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the entity tag of a representation with a content coding.
+	 * <p>
+	 * A strong entity tag must be specific to the content coding: byte ranges
+	 * of an identity body do not apply to a compressed body. The coding is
+	 * appended to a strong tag, e.g. <tt>"abc"</tt> becomes
+	 * <tt>"abc-gzip"</tt>. A weak tag is returned unchanged.
+	 */
+	public static String getEncodedETag(String etag, String encoding) {
+		if (etag.startsWith("W/") || etag.length() < 2 || !etag.endsWith("\""))
+			return etag;
+		else
+			return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+	}
+
+	private static String stripEncoding(String etag) {
+		for (String encoding : ENCODINGS) {
+			String suffix = "-" + encoding + "\"";
+			if (etag.endsWith(suffix))
+				return etag.substring(0, etag.length() - suffix.length()) + "\"";
+		}
+
+		return etag;
+	}
+
+	private static final String[] ENCODINGS = { "gzip", "deflate" };
+
+	private static String stripWeak(String etag) {
+		if (etag.startsWith("W/"))
+			return etag.substring(2);
+		else
+			return etag;
+	}
+
+	/**
+	 * Parses the <tt>Range</tt> header of a request.
+	 * <p>
+	 * Returns <code>null</code> when the request should be answered with the
+	 * full entity: there is no (valid) byte range header, or an
+	 * <tt>If-Range</tt> precondition does not match. Returns an empty list when
+	 * none of the ranges are satisfiable, in which case a <tt>416</tt> response
+	 * is appropriate. Otherwise the (clipped) ranges are returned in request
+	 * order. Overlapping ranges are coalesced.
+	 *
+	 * @param request the request
+	 * @param totalLength the length of the entity
+	 * @param etag the entity tag (or <code>null</code>)
+	 * @param lastModified the last modification time (or -1)
+	 */
+	public static List<ByteRange> parseRange(HttpServletRequest request, long totalLength, String etag, long lastModified) {
+		String header = request.getHeader("Range");
+		if (header == null)
+			return null;
+
+		String ifRange = request.getHeader("If-Range");
+		if (ifRange != null) {
+			ifRange = ifRange.trim();
+			if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+				/* If-Range requires a strong validator */
+				if (etag == null || etag.startsWith("W/") || !ifRange.equals(etag))
+					return null;
+			} else {
+				long ifRangeDate;
+				try {
+					ifRangeDate = request.getDateHeader("If-Range");
+				} catch (IllegalArgumentException e) {
+					return null;
+				}
+				if (lastModified == -1 || ifRangeDate == -1 || lastModified / 1000 != ifRangeDate / 1000)
+					return null;
+			}
+		}
+
+		header = header.trim();
+		if (!header.startsWith("bytes="))
+			return null;
+
+		List<ByteRange> result = new ArrayList<ByteRange>();
+		for (String spec : header.substring(6).split(",")) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if (dash == -1)
+				return null;
+
+			long first, last;
+			try {
+				String firstS = spec.substring(0, dash).trim();
+				String lastS = spec.substring(dash + 1).trim();
+				if (firstS.length() == 0) {
+					if (lastS.length() == 0)
+						return null;
+					long suffix = Long.parseLong(lastS);
+					if (suffix <= 0)
+						continue;
+					first = Math.max(0, totalLength - suffix);
+					last = totalLength - 1;
+				} else {
+					first = Long.parseLong(firstS);
+					if (lastS.length() == 0)
+						last = totalLength - 1;
+					else {
+						last = Long.parseLong(lastS);
+						if (last < first)
+							return null;
+						last = Math.min(last, totalLength - 1);
+					}
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+
+			if (first < 0 || first >= totalLength)
+				continue;
+
+			addRange(result, new ByteRange(first, last));
+		}
+
+		return result;
+	}
+
+	private static void addRange(List<ByteRange> ranges, ByteRange range) {
+		for (int i = 0; i < ranges.size(); ++i) {
+			ByteRange r = ranges.get(i);
+			if (range.getFirst() <= r.getLast() + 1 && r.getFirst() <= range.getLast() + 1) {
+				ranges.remove(i);
+				addRange(ranges, new ByteRange(Math.min(r.getFirst(), range.getFirst()),
+						Math.max(r.getLast(), range.getLast())));
+				return;
+			}
+		}
+
+		ranges.add(range);
+	}
+
+	/**
+	 * Creates a random boundary for a <tt>multipart/byteranges</tt> response.
+	 */
+	public static String createMultipartBoundary() {
+		return "JWT_BYTERANGES_" + Long.toHexString(random.nextLong());
+	}
+
+	/**
+	 * Returns the delimiter and part headers which precede a range in a
+	 * <tt>multipart/byteranges</tt> response.
+	 */
+	public static byte[] multipartRangeHeader(String boundary, String contentType, ByteRange range, long totalLength) {
+		return ascii("\r\n--" + boundary + "\r\n"
+				+ "Content-Type: " + contentType + "\r\n"
+				+ "Content-Range: " + range.toContentRange(totalLength) + "\r\n\r\n");
+	}
+
+	/**
+	 * Returns the closing delimiter of a <tt>multipart/byteranges</tt>
+	 * response.
+	 */
+	public static byte[] multipartTrailer(String boundary) {
+		return ascii("\r\n--" + boundary + "--\r\n");
+	}
+
+	private static byte[] ascii(String s) {
+		byte[] result = new byte[s.length()];
+		for (int i = 0; i < result.length; ++i)
+			result[i] = (byte) s.charAt(i);
+		return result;
+	}
+
+	/**
+	 * Computes a (strong) entity tag from content bytes.
+	 */
+	public static String computeETag(byte[] data) {
+		try {
+			MessageDigest d = MessageDigest.getInstance("MD5");
+			return quote(toHex(d.digest(data)));
+		} catch (NoSuchAlgorithmException e) {
+			return quote(Integer.toHexString(Arrays.hashCode(data)) + "-" + Integer.toHexString(data.length));
+		}
+	}
+
+	/**
+	 * Computes a (strong) entity tag from a size and modification time, as is
+	 * common for files.
+	 * <p>
+	 * The tag is strong, so that it can also validate a range request (see
+	 * {@link #parseRange(HttpServletRequest, long, String, long)}).
+	 */
+	public static String computeETag(long size, long lastModified) {
+		return quote(Long.toHexString(size) + "-" + Long.toHexString(lastModified));
+	}
+
+	private static String quote(String s) {
+		return "\"" + s + "\"";
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+}
@@ -11,8 +11,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 
 public class StreamUtils {
+	private static final int CHAR_BUFFER_SIZE = 8192;
+
 	public static String readFile(String fname) {
 		FileInputStream s = null;
 		try {
@@ -43,6 +46,32 @@ public class StreamUtils {
 		}
 	}
 
+	/**
+	 * Writes the contents of a string builder to a writer.
+	 * <p>
+	 * Unlike <code>writer.append(sb)</code>, this does not first copy the
+	 * contents into a new String: the characters are passed on in chunks,
+	 * through a buffer of at most 8 kB.
+	 */
+	public static void write(StringBuilder sb, Writer w) throws IOException {
+		int length = sb.length();
+		if (length == 0)
+			return;
+
+		/*
+		 * A buffer per call, i.e. per response: a buffer per thread would stay
+		 * pinned to pooled (and virtual) threads.
+		 */
+		char[] buffer = new char[Math.min(length, CHAR_BUFFER_SIZE)];
+
+		for (int start = 0; start < length;) {
+			int end = Math.min(length, start + buffer.length);
+			sb.getChars(start, end, buffer, 0);
+			w.write(buffer, 0, end - start);
+			start = end;
+		}
+	}
+
 	public static void closeQuietly(InputStream is) {
 		try {
 			if (is != null) {
@@ -52,4 +81,14 @@ public class StreamUtils {
 			// shhhht!
 		}
 	}
-}
\ No newline at end of file
+
+	public static void closeQuietly(OutputStream os) {
+		try {
+			if (os != null) {
+				os.close();
+			}
+		} catch (IOException ioe) {
+			// shhhht!
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package eu.webtoolkit.jwt;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+public class DomElementTest {
+	private static final String HANDLER = "var e=event||window.event,o=this;"
+			+ "Wt3_3_8.$('x').className='selected';Wt._p_.update(o,'s1a',e,true);";
+
+	@Test
+	public void testScopeIndependent() {
+		assertTrue(DomElement.isScopeIndependent(HANDLER, "Wt"));
+		assertTrue(DomElement.isScopeIndependent("o.value=e.keyCode;var o=this,e=event;", "Wt"));
+		assertTrue(DomElement.isScopeIndependent("var f=function g(a,b){return g(b,a)};f({value:1,form:2},[3])",
+				"Wt"));
+		assertTrue(DomElement.isScopeIndependent("try{x()}catch(err){err.form}function x(){}", "Wt"));
+		assertTrue(DomElement.isScopeIndependent("MyApp.emit(this,'value',\"form\\\"\")", "MyApp"));
+		assertTrue(DomElement.isScopeIndependent("for(var i=0;i<3;++i)if(i>=1)break;", "Wt"));
+
+		/* names that are resolved through the element, its form or the document */
+		assertFalse(DomElement.isScopeIndependent("value=1;", "Wt"));
+		assertFalse(DomElement.isScopeIndependent("o.x=form;var o=this", "Wt"));
+		assertFalse(DomElement.isScopeIndependent("var a=f(b,c);", "Wt"));
+		assertFalse(DomElement.isScopeIndependent("(function(a){})(1);a.x", "Wt"));
+		assertFalse(DomElement.isScopeIndependent("MyApp.emit(this)", "Wt"));
+		assertFalse(DomElement.isScopeIndependent("x ? y : z", "Wt"));
+
+		/* code that is not analysed */
+		assertFalse(DomElement.isScopeIndependent("var a=1/2;", "Wt"));
+		assertFalse(DomElement.isScopeIndependent("var a=1;// value", "Wt"));
+		assertFalse(DomElement.isScopeIndependent("var a=`x`;", "Wt"));
+		assertFalse(DomElement.isScopeIndependent("var f=a=>1;", "Wt"));
+		assertFalse(DomElement.isScopeIndependent("with(this)x=1;", "Wt"));
+		assertFalse(DomElement.isScopeIndependent("var a='x;", "Wt"));
+	}
+
+	private static String render(String id, String jsCode) {
+		DomElement element = DomElement.createNew(DomElementType.DomElement_DIV);
+		element.setId(id);
+		element.setEvent(WInteractWidget.CLICK_SIGNAL, jsCode);
+		EscapeOStream out = new EscapeOStream();
+		element.asHTML(out, new EscapeOStream(), new ArrayList<DomElement.TimeoutEvent>());
+		return out.toString();
+	}
+
+	private static String sharedHandlersJS(WApplication app) {
+		StringBuilder js = new StringBuilder();
+		app.streamSharedHandlers(js);
+		return js.toString();
+	}
+
+	@Test
+	public void testSharedHandlers() {
+		WTestEnvironment env = new WTestEnvironment(new Configuration());
+		env.setAjax(true);
+		WApplication app = new WApplication(env);
+		try {
+			/* shared from the first occurrence, and declared once */
+			assertTrue(render("a", HANDLER).contains(" onclick=\"return Wt.$h[0].call(this,event)\""));
+			assertTrue(render("b", HANDLER).contains(" onclick=\"return Wt.$h[0].call(this,event)\""));
+			String declarations = sharedHandlersJS(app);
+			assertEquals(declarations.indexOf("[0]=function(event){"),
+					declarations.lastIndexOf("[0]=function(event){"));
+
+			/* across responses */
+			assertTrue(render("c", HANDLER).contains("Wt.$h[0]"));
+			assertEquals("", sharedHandlersJS(app));
+
+			/* short handlers and handlers that depend on their scope */
+			assertFalse(render("d", "value=1;" + HANDLER).contains("Wt.$h"));
+			assertFalse(render("e", "x();").contains("Wt.$h"));
+
+			/* a handler is deleted when its last element is removed ... */
+			app.releaseSharedHandlers("a");
+			app.unbindSharedHandler("b", WInteractWidget.CLICK_SIGNAL);
+			assertEquals("", sharedHandlersJS(app));
+			render("c", "value=1;" + HANDLER);
+			assertEquals("if(Wt.$h)delete Wt.$h[0];\n", sharedHandlersJS(app));
+
+			/* ... and a new id is used when it is needed again */
+			WContainerWidget w = new WContainerWidget(app.getRoot());
+			assertTrue(render(w.getId(), HANDLER).contains("Wt.$h[1]"));
+			assertTrue(sharedHandlersJS(app).contains("[1]=function(event){" + HANDLER + "};"));
+
+			/* a new page declares all handlers again */
+			app.redeclareSharedHandlers();
+			assertTrue(sharedHandlersJS(app).contains("[1]=function(event){"));
+
+			w.remove();
+			assertEquals("if(Wt.$h)delete Wt.$h[1];\n", sharedHandlersJS(app));
+		} finally {
+			env.close();
+		}
+	}
+
+	private static String html(DomElement e) {
+		EscapeOStream out = new EscapeOStream();
+		EscapeOStream js = new EscapeOStream();
+		e.asHTML(out, js, new ArrayList<DomElement.TimeoutEvent>());
+		return out.toString() + "|" + js.toString();
+	}
+
+	private static String update(DomElement e) {
+		EscapeOStream out = new EscapeOStream();
+		e.asJavaScript(out, DomElement.Priority.Delete);
+		e.asJavaScript(out, DomElement.Priority.Create);
+		e.asJavaScript(out, DomElement.Priority.Update);
+		return out.toString();
+	}
+
+	private static String create(DomElement e) {
+		StringBuilder out = new StringBuilder();
+		e.asJavaScript(out);
+		return out.toString();
+	}
+
+	private static Object field(DomElement e, String name) throws Exception {
+		Field f = DomElement.class.getDeclaredField(name);
+		f.setAccessible(true);
+		return f.get(e);
+	}
+
+	private static void assertNotAllocated(DomElement e) throws Exception {
+		assertFalse(field(e, "attributes_") instanceof HashMap);
+		assertFalse(field(e, "removedAttributes_") instanceof HashSet);
+		assertFalse(field(e, "eventHandlers_") instanceof HashMap);
+		assertFalse(field(e, "childrenToAdd_") instanceof ArrayList);
+		assertFalse(field(e, "childrenToSave_") instanceof ArrayList);
+		assertFalse(field(e, "updatedChildren_") instanceof ArrayList);
+		assertFalse(field(e, "timeouts_") instanceof ArrayList);
+		assertNull(field(e, "javaScript_"));
+		assertNull(field(e, "childrenHtml_"));
+	}
+
+	private static DomElement child(String id) {
+		DomElement c = DomElement.createNew(DomElementType.DomElement_SPAN);
+		c.setId(id);
+		c.setProperty(Property.PropertyInnerHTML, "hi");
+		return c;
+	}
+
+	/*
+	 * The element collections are allocated when first written: elements
+	 * with and without properties, events and children render as before.
+	 */
+	@Test
+	public void testRender() throws Exception {
+		WTestEnvironment env = new WTestEnvironment(new Configuration());
+		new WApplication(env);
+		try {
+			DomElement e = DomElement.createNew(DomElementType.DomElement_DIV);
+			e.setId("a");
+			assertEquals("<div id=\"a\"></div>|", html(e));
+			assertNotAllocated(e);
+
+			e = DomElement.createNew(DomElementType.DomElement_DIV);
+			e.setId("b");
+			e.setProperty(Property.PropertyClass, "c1 c2");
+			e.setProperty(Property.PropertyStyleWidth, "10px");
+			e.setAttribute("title", "t<\"");
+			e.setEvent(WInteractWidget.CLICK_SIGNAL, "x();");
+			DomElement c = DomElement.createNew(DomElementType.DomElement_SPAN);
+			c.setId("c");
+			c.setProperty(Property.PropertyInnerHTML, "hi &amp; bye");
+			e.addChild(c);
+			assertEquals("<div id=\"b\" title=\"t&lt;&#34;\" onclick=\"x();\" class=\"c1 c2\" style=\"width:10px;\">"
+					+ "<span id=\"c\">hi &amp; bye</span></div>|", html(e));
+
+			e = DomElement.getForUpdate("d", DomElementType.DomElement_DIV);
+			assertEquals("", update(e));
+			assertNotAllocated(e);
+
+			e = DomElement.getForUpdate("d", DomElementType.DomElement_DIV);
+			e.setProperty(Property.PropertyClass, "c1");
+			e.setAttribute("title", "t");
+			e.removeAttribute("lang");
+			e.setEvent(WInteractWidget.CLICK_SIGNAL, "x();");
+			e.callJavaScript("y();", false);
+			e.addChild(child("e"));
+			assertEquals("var j0=Wt3_3_8.$('d');\nj0.className='c1';\nj0.setAttribute('title','t');\n"
+					+ "j0.removeAttribute('lang');\nfunction f1(event) { x();}\nj0.onclick=f1;\n"
+					+ "var j2=document.createElement('span');j0.appendChild(j2);\nj2.setAttribute('id', 'e');\n\n"
+					+ "Wt3_3_8.setHtml(j2,'hi');\ny();\n\n", update(e));
+
+			e = DomElement.createNew(DomElementType.DomElement_DIV);
+			e.setId("f");
+			assertEquals("var j3=Wt3_3_8.$('f');\nj3.setAttribute('id', 'f');\n", create(e));
+			assertNotAllocated(e);
+
+			e = DomElement.createNew(DomElementType.DomElement_DIV);
+			e.setId("g");
+			e.setProperty(Property.PropertyClass, "c1");
+			e.setAttribute("title", "t");
+			e.setEvent(WInteractWidget.CLICK_SIGNAL, "x();");
+			e.addChild(child("h"));
+			assertEquals("var j4=Wt3_3_8.$('g');\nj4.setAttribute('id', 'g');\nj4.className='c1';\n"
+					+ "j4.setAttribute('title','t');\nfunction f5(event) { x();}\nj4.onclick=f5;\n"
+					+ "Wt3_3_8.setHtml(j4,'<span id=\"h\">hi</span>');\n", create(e));
+		} finally {
+			env.close();
+		}
+	}
+}
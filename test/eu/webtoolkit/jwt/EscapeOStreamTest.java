@@ -0,0 +1,124 @@
+package eu.webtoolkit.jwt;
+
+import static org.junit.Assert.*;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import eu.webtoolkit.jwt.EscapeOStream.RuleSet;
+
+/*
+ * Compares the table based escaping and URL encoding with the
+ * implementations they replaced.
+ */
+public class EscapeOStreamTest {
+	private static final String SPECIAL = "&\"<>'\\\n\r\t $+,:;=?@#%{}|^~[]`/\u007f\u0001";
+
+	private static String randomString(Random random) {
+		StringBuilder s = new StringBuilder();
+		int length = random.nextInt(40);
+		for (int i = 0; i < length; ++i) {
+			switch (random.nextInt(7)) {
+			case 0:
+			case 1:
+				s.append(SPECIAL.charAt(random.nextInt(SPECIAL.length())));
+				break;
+			case 2:
+				s.append((char) ('a' + random.nextInt(26)));
+				break;
+			case 3:
+				/* Latin-1, and two and three byte UTF-8 sequences */
+				s.append((char) (0x80 + random.nextInt(0xD000)));
+				break;
+			case 4:
+				/* a surrogate pair */
+				s.appendCodePoint(0x10000 + random.nextInt(0xFFFFF));
+				break;
+			case 5:
+				/* an unpaired surrogate */
+				s.append((char) (0xD800 + random.nextInt(0x800)));
+				break;
+			default:
+				s.append((char) random.nextInt(128));
+			}
+		}
+		return s.toString();
+	}
+
+	private static void assertEscapes(RuleSet[] rules, String s) {
+		PreviousEscapeOStream expected = new PreviousEscapeOStream();
+		EscapeOStream actual = new EscapeOStream();
+		for (RuleSet r : rules) {
+			expected.pushEscape(r);
+			actual.pushEscape(r);
+		}
+		expected.append(s);
+		actual.append(s);
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+	@Test
+	public void testRuleSets() {
+		Random random = new Random(42);
+		RuleSet[] all = RuleSet.values();
+
+		for (int n = 0; n < 200; ++n) {
+			String s = randomString(random);
+
+			assertEscapes(new RuleSet[0], s);
+
+			for (RuleSet r : all) {
+				assertEscapes(new RuleSet[] { r }, s);
+
+				StringBuilder out = new StringBuilder();
+				EscapeOStream.escape(out, s, r);
+				EscapeOStream stream = new EscapeOStream();
+				stream.pushEscape(r);
+				stream.append(s);
+				assertEquals(stream.toString(), out.toString());
+				assertEquals(out.length(), EscapeOStream.escapedLength(s, r));
+			}
+
+			for (RuleSet r1 : all)
+				for (RuleSet r2 : all) {
+					assertEscapes(new RuleSet[] { r1, r2 }, s);
+					for (RuleSet r3 : all)
+						assertEscapes(new RuleSet[] { r1, r2, r3 }, s);
+				}
+		}
+	}
+
+	@Test
+	public void testPushPop() {
+		EscapeOStream stream = new EscapeOStream();
+		stream.pushEscape(RuleSet.HtmlAttribute);
+		stream.pushEscape(RuleSet.JsStringLiteralSQuote);
+		stream.popEscape();
+		stream.append("<'\n&");
+		assertEquals("&lt;'\n&amp;", stream.toString());
+
+		EscapeOStream pushed = stream.push();
+		pushed.pushEscape(RuleSet.JsStringLiteralDQuote);
+		pushed.append("\"");
+		assertEquals("&lt;'\n&amp;\\&#34;", stream.toString());
+	}
+
+	@Test
+	public void testUrlEncode() throws UnsupportedEncodingException {
+		Random random = new Random(42);
+		String[] allowed = { "", "/", " ", "?&=", "%", "~[]", "?" };
+
+		for (int n = 0; n < 1000; ++n) {
+			String s = randomString(random);
+			for (String a : allowed) {
+				String expected = PreviousEscapeOStream.urlEncodeS(s, a);
+				assertEquals(expected, DomElement.urlEncodeS(s, a));
+			}
+		}
+
+		String unchanged = "abc-def_123.html";
+		assertSame(unchanged, DomElement.urlEncodeS(unchanged, ""));
+	}
+}
@@ -0,0 +1,124 @@
+package eu.webtoolkit.jwt;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntArrayListTest {
+	/*
+	 * Compares values on their tens only, so that the order of equal values
+	 * shows whether a sort is stable.
+	 */
+	private static final IntArrayList.IntComparator TENS = new IntArrayList.IntComparator() {
+		public int compare(int i1, int i2) {
+			return i1 / 10 - i2 / 10;
+		}
+	};
+
+	/*
+	 * A stable insertion sort, as the expected result.
+	 */
+	private static int[] expected(int[] a, int from, int to) {
+		int[] result = a.clone();
+		for (int i = from + 1; i < to; ++i)
+			for (int j = i; j > from && TENS.compare(result[j - 1], result[j]) > 0; --j) {
+				int t = result[j];
+				result[j] = result[j - 1];
+				result[j - 1] = t;
+			}
+		return result;
+	}
+
+	private static int[] random(Random random, int size) {
+		int[] result = new int[size];
+		for (int i = 0; i < size; ++i)
+			result[i] = random.nextInt(size * 3 + 1);
+		return result;
+	}
+
+	@Test
+	public void testSort() {
+		Random random = new Random(42);
+		for (int size = 0; size < 300; size += 7) {
+			int[] a = random(random, size);
+			int from = size / 5;
+			int to = size - size / 7;
+			int[] expected = expected(a, from, to);
+			IntArrayList.sort(a, from, to, TENS);
+			assertArrayEquals(expected, a);
+		}
+	}
+
+	@Test
+	public void testMerge() {
+		int[] src = { 9, 10, 13, 20, 41, 11, 12, 21, 40, 9 };
+		int[] dest = new int[src.length];
+		IntArrayList.merge(src, dest, 1, 5, 9, TENS);
+		/* equal values of the first part come first */
+		assertArrayEquals(new int[] { 0, 10, 13, 11, 12, 20, 21, 41, 40, 0 }, dest);
+
+		IntArrayList.merge(src, dest, 1, 1, 5, TENS);
+		assertArrayEquals(new int[] { 10, 13, 20, 41 }, Arrays.copyOfRange(dest, 1, 5));
+		IntArrayList.merge(src, dest, 5, 9, 9, TENS);
+		assertArrayEquals(new int[] { 11, 12, 21, 40 }, Arrays.copyOfRange(dest, 5, 9));
+	}
+
+	@Test
+	public void testParallelSort() {
+		Random random = new Random(42);
+		int[] sizes = { 0, 1, 3, 8, 100, 1001, 50000 };
+		for (int size : sizes)
+			for (int threads = 2; threads <= 8; threads *= 2) {
+				int[] a = random(random, size);
+				int from = size / 9;
+				int to = size - size / 11;
+				int[] expected = expected(a, from, to);
+				IntArrayList.parallelSort(a, from, to, TENS, threads);
+				assertArrayEquals("size " + size + ", threads " + threads, expected, a);
+			}
+	}
+
+	@Test
+	public void testParallelSortException() {
+		int[] a = new int[1000];
+		for (int i = 0; i < a.length; ++i)
+			a[i] = a.length - i;
+		try {
+			IntArrayList.parallelSort(a, 0, a.length, new IntArrayList.IntComparator() {
+				public int compare(int i1, int i2) {
+					if (i1 == 10 || i2 == 10)
+						throw new IllegalStateException("compare");
+					return i1 - i2;
+				}
+			}, 4);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("compare", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testList() {
+		IntArrayList list = new IntArrayList(1);
+		for (int i = 0; i < 5; ++i)
+			list.add(i);
+		list.insert(2, 3, -1);
+		assertEquals(8, list.size());
+		assertEquals(-1, list.get(4));
+		assertEquals(5, list.get(5) + list.get(6));
+		list.removeRange(2, 3);
+		assertEquals(3, list.remove(3));
+		assertEquals(4, list.size());
+		assertEquals(4, list.get(3));
+		list.resize(6, 7);
+		assertEquals(7, list.get(5));
+		try {
+			list.get(6);
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+		}
+	}
+}
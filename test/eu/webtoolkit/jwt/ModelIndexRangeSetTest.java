@@ -0,0 +1,359 @@
+package eu.webtoolkit.jwt;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class ModelIndexRangeSetTest {
+	private static String toString(ModelIndexRangeSet.Ranges ranges) {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < ranges.count; ++i) {
+			if (i > 0)
+				result.append(' ');
+			result.append(ranges.starts[i]).append('-').append(ranges.ends[i]);
+		}
+		return result.toString();
+	}
+
+	@Test
+	public void testRangesAdd() {
+		ModelIndexRangeSet.Ranges r = new ModelIndexRangeSet.Ranges();
+		assertEquals(3, r.add(5, 7));
+		assertEquals(2, r.add(10, 11));
+		assertEquals("5-7 10-11", toString(r));
+
+		/* overlapping and contained ranges */
+		assertEquals(0, r.add(6, 7));
+		assertEquals(1, r.add(7, 8));
+		assertEquals("5-8 10-11", toString(r));
+
+		/* a range which adjoins the ranges on both sides merges them */
+		assertEquals(1, r.add(9, 9));
+		assertEquals("5-11", toString(r));
+		assertEquals(1, r.add(4, 4));
+		assertEquals(1, r.add(12, 12));
+		assertEquals("4-12", toString(r));
+
+		/* not adjacent */
+		r.add(14, 14);
+		r.add(0, 2);
+		assertEquals("0-2 4-12 14-14", toString(r));
+		assertEquals(13, r.size);
+
+		/* a range which spans several ranges */
+		assertEquals(3, r.add(1, 15));
+		assertEquals("0-15", toString(r));
+		assertEquals(16, r.size);
+	}
+
+	@Test
+	public void testRangesRemove() {
+		ModelIndexRangeSet.Ranges r = new ModelIndexRangeSet.Ranges();
+		r.add(0, 9);
+		r.add(20, 29);
+
+		assertEquals(0, r.remove(10, 19));
+		assertEquals(0, r.remove(30, 40));
+
+		/* splits a range */
+		assertEquals(2, r.remove(4, 5));
+		assertEquals("0-3 6-9 20-29", toString(r));
+
+		/* the first and last rows of a range */
+		assertEquals(1, r.remove(0, 0));
+		assertEquals(1, r.remove(29, 29));
+		assertEquals("1-3 6-9 20-28", toString(r));
+
+		/* several ranges, partly */
+		assertEquals(8, r.remove(3, 22));
+		assertEquals("1-2 23-28", toString(r));
+		assertEquals(8, r.size);
+
+		assertEquals(8, r.remove(0, Integer.MAX_VALUE));
+		assertEquals("", toString(r));
+		assertEquals(-1, r.last());
+	}
+
+	@Test
+	public void testRangesQueries() {
+		ModelIndexRangeSet.Ranges r = new ModelIndexRangeSet.Ranges();
+		assertFalse(r.contains(0));
+		assertEquals(-1, r.ceiling(0));
+
+		r.add(3, 5);
+		r.add(8, 8);
+		assertFalse(r.contains(2));
+		assertTrue(r.contains(3));
+		assertTrue(r.contains(5));
+		assertFalse(r.contains(6));
+		assertTrue(r.contains(8));
+		assertEquals(3, r.ceiling(0));
+		assertEquals(4, r.ceiling(4));
+		assertEquals(8, r.ceiling(6));
+		assertEquals(-1, r.ceiling(9));
+		assertEquals(8, r.last());
+	}
+
+	@Test
+	public void testRangesShift() {
+		ModelIndexRangeSet.Ranges r = new ModelIndexRangeSet.Ranges();
+		r.add(2, 5);
+		r.add(8, 9);
+
+		/* inserted rows split a range */
+		assertEquals(0, r.shift(4, 3));
+		assertEquals("2-3 7-8 11-12", toString(r));
+		assertEquals(6, r.size);
+
+		/* rows inserted at the start of a range, and after all ranges */
+		r.shift(7, 1);
+		r.shift(20, 5);
+		assertEquals("2-3 8-9 12-13", toString(r));
+
+		/* removing the rows in between merges the ranges that adjoin */
+		assertEquals(0, r.shift(4, -4));
+		assertEquals("2-5 8-9", toString(r));
+
+		/* removed rows are removed from the set */
+		assertEquals(2, r.shift(5, -4));
+		assertEquals("2-5", toString(r));
+		assertEquals(4, r.size);
+
+		assertEquals(4, r.shift(0, -10));
+		assertEquals("", toString(r));
+	}
+
+	/*
+	 * A model with 12 rows and 3 columns, of which row 2 has 6 children in 2
+	 * columns, and the first of those has 4 children in 1 column.
+	 */
+	private static WStandardItemModel createModel() {
+		WStandardItemModel model = new WStandardItemModel(12, 3);
+		WModelIndex parent = model.getIndex(2, 0);
+		model.insertColumns(0, 2, parent);
+		model.insertRows(0, 6, parent);
+		WModelIndex child = model.getIndex(0, 0, parent);
+		model.insertColumns(0, 1, child);
+		model.insertRows(0, 4, child);
+		return model;
+	}
+
+	private static List<WModelIndex> allIndexes(WAbstractItemModel model, WModelIndex parent) {
+		List<WModelIndex> result = new ArrayList<WModelIndex>();
+		for (int r = 0; r < model.getRowCount(parent); ++r)
+			for (int c = 0; c < model.getColumnCount(parent); ++c) {
+				WModelIndex index = model.getIndex(r, c, parent);
+				result.add(index);
+				result.addAll(allIndexes(model, index));
+			}
+		return result;
+	}
+
+	private static void assertSameSet(SortedSet<WModelIndex> expected, SortedSet<WModelIndex> actual) {
+		assertEquals(expected.size(), actual.size());
+		assertEquals(new ArrayList<WModelIndex>(expected), new ArrayList<WModelIndex>(actual));
+		assertEquals(expected.isEmpty(), actual.isEmpty());
+		if (!expected.isEmpty()) {
+			assertEquals(expected.first(), actual.first());
+			assertEquals(expected.last(), actual.last());
+		}
+	}
+
+	@Test
+	public void testAgainstTreeSet() {
+		WStandardItemModel model = createModel();
+		List<WModelIndex> indexes = allIndexes(model, null);
+		Random random = new Random(42);
+
+		ModelIndexRangeSet set = new ModelIndexRangeSet();
+		TreeSet<WModelIndex> expected = new TreeSet<WModelIndex>();
+		for (int i = 0; i < 2000; ++i) {
+			WModelIndex index = indexes.get(random.nextInt(indexes.size()));
+			boolean single = random.nextBoolean();
+			int rows = model.getRowCount(index.getParent());
+			int lastRow = single ? index.getRow() : Math.min(rows - 1, index.getRow() + random.nextInt(4));
+			boolean add = random.nextInt(3) != 0;
+
+			int changed = 0;
+			for (int r = index.getRow(); r <= lastRow; ++r) {
+				WModelIndex j = model.getIndex(r, index.getColumn(), index.getParent());
+				if (add ? expected.add(j) : expected.remove(j))
+					++changed;
+			}
+
+			if (single)
+				assertEquals(changed != 0, add ? set.add(index) : set.remove(index));
+			else
+				assertEquals(changed, add ? set.addRange(index, lastRow) : set.removeRange(index, lastRow));
+
+			assertSameSet(expected, set);
+			for (WModelIndex j : indexes) {
+				assertEquals(expected.contains(j), set.contains(j));
+				assertEquals(isRowSelected(expected, j), set.isRowSelected(j));
+			}
+
+			WModelIndex from = indexes.get(random.nextInt(indexes.size()));
+			WModelIndex to = indexes.get(random.nextInt(indexes.size()));
+			if (from.compareTo(to) > 0) {
+				WModelIndex t = from;
+				from = to;
+				to = t;
+			}
+			assertSameSet(expected.subSet(from, to), set.subSet(from, to));
+			assertSameSet(expected.headSet(to), set.headSet(to));
+			assertSameSet(expected.tailSet(from), set.tailSet(from));
+		}
+	}
+
+	private static boolean isRowSelected(SortedSet<WModelIndex> set, WModelIndex index) {
+		for (WModelIndex i : set)
+			if (i.getRow() == index.getRow()
+					&& (i.getParent() == null ? index.getParent() == null : i.getParent().equals(index.getParent())))
+				return true;
+		return false;
+	}
+
+	/*
+	 * Selects top level rows, given as { first row, last row, column }.
+	 */
+	private static ModelIndexRangeSet select(WAbstractItemModel model, int[][] rows) {
+		ModelIndexRangeSet set = new ModelIndexRangeSet();
+		for (int[] r : rows)
+			set.addRange(model.getIndex(r[0], r[2]), r[1]);
+		return set;
+	}
+
+	/*
+	 * The indexes as parent rows and row:column, sorted as strings.
+	 */
+	private static String sorted(ModelIndexRangeSet set) {
+		TreeSet<String> result = new TreeSet<String>();
+		for (WModelIndex index : set) {
+			StringBuilder s = new StringBuilder();
+			for (WModelIndex p = index.getParent(); p != null; p = p.getParent())
+				s.insert(0, p.getRow() + ".");
+			result.add(s.append(index.getRow()).append(':').append(index.getColumn()).toString());
+		}
+		StringBuilder out = new StringBuilder();
+		for (String s : result) {
+			if (out.length() > 0)
+				out.append(' ');
+			out.append(s);
+		}
+		return out.toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ModelIndexRangeSet.Group group(ModelIndexRangeSet set, WModelIndex index) throws Exception {
+		Field f = ModelIndexRangeSet.class.getDeclaredField("groups_");
+		f.setAccessible(true);
+		return ((Map<Object, ModelIndexRangeSet.Group>) f.get(set)).get(index.getInternalPointer());
+	}
+
+	@Test
+	public void testShiftRows() throws Exception {
+		WStandardItemModel model = createModel();
+		ModelIndexRangeSet set = select(model, new int[][] { { 1, 3, 0 }, { 6, 7, 0 }, { 3, 3, 1 } });
+		WModelIndex child = model.getIndex(2, 0);
+		set.add(model.getIndex(1, 1, child));
+		set.add(model.getIndex(2, 0, model.getIndex(0, 0, child)));
+		assertEquals(8, set.size());
+		assertTrue(set.hasRowsFrom(null, 7));
+		assertFalse(set.hasRowsFrom(null, 8));
+		assertTrue(set.hasRowsFrom(child, 1));
+		assertFalse(set.hasRowsFrom(child, 2));
+
+		/* inserted rows split the range of rows 1 to 3 */
+		model.insertRows(2, 2, null);
+		assertEquals(0, set.shiftRows(null, 2, 2));
+		assertEquals("1:0 4.0.2:0 4.1:1 4:0 5:0 5:1 8:0 9:0", sorted(set));
+
+		/* the rows of children shift on their own */
+		WModelIndex parent = model.getIndex(4, 0);
+		model.insertRows(0, 1, parent);
+		assertEquals(0, set.shiftRows(parent, 0, 1));
+		assertEquals("1:0 4.1.2:0 4.2:1 4:0 5:0 5:1 8:0 9:0", sorted(set));
+		assertEquals(8, set.size());
+
+		/* removing row 4 removes its descendants as well */
+		assertEquals(1, set.shiftRows(null, 4, -1));
+		model.removeRows(4, 1, null);
+		assertEquals("1:0 4:0 4:1 7:0 8:0", sorted(set));
+		assertEquals(5, set.size());
+
+		/* the ranges that adjoin after removing rows 2 and 3 merge */
+		assertEquals(0, set.shiftRows(null, 2, -2));
+		model.removeRows(2, 2, null);
+		assertEquals("1:0 2:0 2:1 5:0 6:0", sorted(set));
+		assertEquals("1-2 5-6", toString(group(set, model.getIndex(0, 0)).rows[0]));
+
+		assertEquals(5, set.shiftRows(null, 0, -model.getRowCount()));
+		assertTrue(set.isEmpty());
+	}
+
+	@Test
+	public void testShiftColumns() {
+		WStandardItemModel model = createModel();
+		ModelIndexRangeSet set = select(model, new int[][] { { 0, 1, 0 }, { 0, 0, 1 }, { 4, 5, 2 } });
+		WModelIndex child = model.getIndex(2, 0);
+		set.add(model.getIndex(1, 1, child));
+
+		assertFalse(set.shiftColumns(null, 3, 1));
+		assertTrue(set.shiftColumns(null, 1, 2));
+		assertEquals("0:0 0:3 1:0 2.1:1 4:4 5:4", sorted(set));
+
+		/* removed columns are removed from the set */
+		assertTrue(set.shiftColumns(null, 2, -2));
+		assertEquals("0:0 1:0 2.1:1 4:2 5:2", sorted(set));
+		assertTrue(set.shiftColumns(null, 1, -1));
+		assertEquals("0:0 1:0 2.1:1 4:1 5:1", sorted(set));
+		assertEquals(5, set.size());
+	}
+
+	@Test
+	public void testIterator() {
+		WStandardItemModel model = createModel();
+		ModelIndexRangeSet set = select(model, new int[][] { { 0, 5, 0 }, { 3, 3, 1 } });
+
+		Iterator<WModelIndex> i = set.iterator();
+		try {
+			i.remove();
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		while (i.hasNext())
+			if (i.next().getRow() % 2 == 1)
+				i.remove();
+		assertEquals("0:0 2:0 4:0", sorted(set));
+		assertEquals(3, set.size());
+
+		i = set.iterator();
+		i.next();
+		set.add(model.getIndex(1, 0));
+		try {
+			i.next();
+			fail();
+		} catch (ConcurrentModificationException e) {
+		}
+
+		/* no change, no modification */
+		i = set.iterator();
+		set.add(model.getIndex(1, 0));
+		set.remove(model.getIndex(9, 0));
+		assertEquals(model.getIndex(0, 0), i.next());
+
+		set.clear();
+		assertTrue(set.isEmpty());
+		assertFalse(set.iterator().hasNext());
+	}
+}
@@ -0,0 +1,216 @@
+package eu.webtoolkit.jwt;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.webtoolkit.jwt.servlet.WebResponse;
+
+public class PassivationTest {
+	private static class State implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final String text;
+
+		State(String text) {
+			this.text = text;
+		}
+	}
+
+	private static class PassivatingApplication extends WApplication {
+		String text = "";
+		boolean destroyed = false;
+
+		PassivatingApplication(WEnvironment env) {
+			super(env);
+		}
+
+		@Override
+		protected Serializable passivate() {
+			return text.length() > 0 ? new State(text) : null;
+		}
+
+		@Override
+		protected void activate(Serializable state) {
+			text = ((State) state).text;
+		}
+
+		@Override
+		public void destroy() {
+			destroyed = true;
+		}
+	}
+
+	private static class PassivatingController extends TestController {
+		PassivatingController(Configuration configuration) {
+			super(configuration);
+		}
+
+		@Override
+		public WApplication createApplication(WEnvironment env) {
+			return new PassivatingApplication(env);
+		}
+	}
+
+	private Object servletApi;
+
+	@Before
+	public void setUp() throws Exception {
+		/* a WebResponse for an output stream is created through the servlet API */
+		Field f = WtServlet.class.getDeclaredField("servletApi");
+		f.setAccessible(true);
+		servletApi = f.get(null);
+		f.set(null, new ServletApi3());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Field f = WtServlet.class.getDeclaredField("servletApi");
+		f.setAccessible(true);
+		f.set(null, servletApi);
+	}
+
+	private static void set(WebSession session, String field, Object value) throws Exception {
+		Field f = WebSession.class.getDeclaredField(field);
+		f.setAccessible(true);
+		f.set(session, value);
+	}
+
+	private static void activate(WebSession session) throws Exception {
+		Method m = WebSession.class.getDeclaredMethod("activate", WebResponse.class);
+		m.setAccessible(true);
+		m.invoke(session, new WebResponse(new ByteArrayOutputStream()));
+	}
+
+	private static void assertStore(PassivationStore store) throws Exception {
+		store.put("a", new State("hello"));
+		store.put("b", new State("world"));
+		assertEquals(2, store.getCount());
+		long size = store.getSize();
+		assertTrue(size > 0);
+
+		/* a session that is passivated again replaces its state */
+		store.put("a", new State("hello again"));
+		assertEquals(2, store.getCount());
+		assertTrue(store.getSize() > size);
+
+		assertEquals("hello again", ((State) store.remove("a")).text);
+		assertNull(store.remove("a"));
+		assertEquals(1, store.getCount());
+
+		store.discard("b");
+		assertNull(store.remove("b"));
+		assertEquals(0, store.getCount());
+		assertEquals(0, store.getSize());
+	}
+
+	@Test
+	public void testOffHeapStore() throws Exception {
+		assertStore(new PassivationStore.OffHeapStore());
+	}
+
+	@Test
+	public void testDirectoryStore() throws Exception {
+		File directory = File.createTempFile("jwt", "passivation");
+		directory.delete();
+		try {
+			assertStore(new PassivationStore.DirectoryStore(directory));
+			assertEquals(0, directory.list().length);
+		} finally {
+			for (File f : directory.listFiles())
+				f.delete();
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void testPassivateActivate() throws Exception {
+		WTestEnvironment env = new WTestEnvironment(new Configuration());
+		WebSession session = env.session_;
+		PassivatingController controller = new PassivatingController(new Configuration());
+		set(session, "controller_", controller);
+		PassivatingApplication app = new PassivatingApplication(env);
+		try {
+			session.setState(WebSession.State.Loaded, 0);
+			PassivationStore store = controller.getPassivationStore();
+
+			/* an application without a snapshot is not passivated */
+			assertFalse(session.passivate(store, Long.MAX_VALUE));
+			assertSame(app, session.getApp());
+
+			/* nor is a session that was active since */
+			app.text = "hello";
+			assertFalse(session.passivate(store, 0));
+
+			app.setInternalPath("/some/path");
+			assertTrue(session.passivate(store, Long.MAX_VALUE));
+			assertTrue(session.isPassivated());
+			assertNull(session.getApp());
+			assertTrue(app.destroyed);
+			assertEquals(1, store.getCount());
+			assertEquals(1, controller.getPassivatedSessionCount());
+			assertFalse(session.passivate(store, Long.MAX_VALUE));
+
+			/* a new application is created with the snapshot and internal path */
+			activate(session);
+			assertFalse(session.isPassivated());
+			PassivatingApplication activated = (PassivatingApplication) session.getApp();
+			assertNotSame(app, activated);
+			assertEquals("hello", activated.text);
+			assertEquals("/some/path", activated.getInternalPath());
+			assertEquals(0, store.getCount());
+			assertEquals(0, store.getSize());
+		} finally {
+			env.close();
+		}
+	}
+
+	@Test
+	public void testPassivateRefused() throws Exception {
+		WTestEnvironment env = new WTestEnvironment(new Configuration());
+		WebSession session = env.session_;
+		PassivatingApplication app = new PassivatingApplication(env);
+		try {
+			app.text = "hello";
+			PassivationStore store = new PassivationStore.OffHeapStore();
+
+			/* a session that is not loaded yet */
+			assertFalse(session.passivate(store, Long.MAX_VALUE));
+			session.setState(WebSession.State.Loaded, 0);
+
+			/* a session with server push */
+			app.enableUpdates(true);
+			assertFalse(session.passivate(store, Long.MAX_VALUE));
+			app.enableUpdates(false);
+
+			/* a session with a pending asynchronous response */
+			WebResponse response = new WebResponse(new ByteArrayOutputStream());
+			set(session, "asyncResponse_", response);
+			assertFalse(session.passivate(store, Long.MAX_VALUE));
+			set(session, "asyncResponse_", null);
+
+			/* a session with a web socket */
+			set(session, "webSocket_", response);
+			assertFalse(session.passivate(store, Long.MAX_VALUE));
+			set(session, "webSocket_", null);
+
+			assertEquals(0, store.getCount());
+			assertFalse(session.isPassivated());
+			assertSame(app, session.getApp());
+			assertFalse(app.destroyed);
+
+			assertTrue(session.passivate(store, Long.MAX_VALUE));
+			assertEquals(1, store.getCount());
+		} finally {
+			env.close();
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package eu.webtoolkit.jwt;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+
+import eu.webtoolkit.jwt.EscapeOStream.RuleSet;
+
+/*
+ * The previous EscapeOStream, which searched the special characters and the
+ * replacement list for each character: the reference for EscapeOStreamTest
+ * and the baseline of EscapeBenchmark.
+ */
+class PreviousEscapeOStream {
+	private static class Entry {
+		public Entry(char c_, String s_) {
+			c = c_;
+			s = s_;
+		}
+
+		public Entry clone() {
+			return new Entry(c, s);
+		}
+
+		public char c;
+		public String s = "";
+	}
+
+	private final StringBuilder sink_;
+	private ArrayList<Entry> mixed_;
+	private String special_ = "";
+	private ArrayList<RuleSet> ruleSets_ = new ArrayList<RuleSet>();
+
+	public PreviousEscapeOStream() {
+		this(new StringBuilder());
+	}
+
+	public PreviousEscapeOStream(StringBuilder sink) {
+		sink_ = sink;
+	}
+
+	public void pushEscape(RuleSet rules) {
+		ruleSets_.add(rules);
+		mixRules();
+	}
+
+	public PreviousEscapeOStream append(String s) {
+		if (special_.length() == 0)
+			sink_.append(s);
+		else
+			put(s);
+		return this;
+	}
+
+	private void mixRules() {
+		int ruleSetsSize = ruleSets_.size();
+
+		if (ruleSetsSize == 1) {
+			mixed_ = standardSets_.get(ruleSets_.get(0).ordinal());
+			special_ = standardSetsSpecial_.get(ruleSets_.get(0).ordinal());
+		} else {
+			mixed_ = new ArrayList<Entry>();
+			for (int i = ruleSetsSize - 1; i >= 0; --i) {
+				ArrayList<Entry> toMix = standardSets_.get(ruleSets_.get(i).ordinal());
+
+				for (int j = 0; j < mixed_.size(); ++j)
+					for (int k = 0; k < toMix.size(); ++k)
+						mixed_.get(j).s = mixed_.get(j).s.replace(toMix.get(k).c + "", toMix.get(k).s);
+
+				for (int j = 0; j < toMix.size(); ++j) {
+					mixed_.add(toMix.get(j).clone());
+					special_ += toMix.get(j).c;
+				}
+			}
+		}
+	}
+
+	private void put(String s) {
+		char[] sA = s.toCharArray();
+		char[] specialA = special_.toCharArray();
+
+		for (int pos = 0; pos != -1;) {
+			int lastPos = pos;
+			pos = StringUtils.strpbrk(sA, pos, specialA);
+			if (pos != -1) {
+				char f = sA[pos];
+
+				sink_.append(s.substring(lastPos, pos));
+
+				for (int i = 0; i < mixed_.size(); ++i) {
+					if (mixed_.get(i).c == f) {
+						sink_.append(mixed_.get(i).s);
+						break;
+					}
+				}
+
+				pos = pos + 1;
+			} else {
+				sink_.append(s.substring(lastPos));
+			}
+		}
+	}
+
+	public String toString() {
+		return sink_.toString();
+	}
+
+	private static ArrayList<String> standardSetsSpecial_ = new ArrayList<String>();
+	private static ArrayList<ArrayList<Entry>> standardSets_ = new ArrayList<ArrayList<Entry>>();
+
+	static {
+		ArrayList<Entry> htmlAttributeEntries = new ArrayList<Entry>();
+		ArrayList<Entry> jsStringLiteralSQuoteEntries = new ArrayList<Entry>();
+		ArrayList<Entry> jsStringLiteralDQuoteEntries = new ArrayList<Entry>();
+		ArrayList<Entry> plainTextEntries = new ArrayList<Entry>();
+		ArrayList<Entry> plainTextEntriesNewLines = new ArrayList<Entry>();
+
+		standardSetsSpecial_.add("&\"<");
+		standardSetsSpecial_.add("\\\n\r\t'");
+		standardSetsSpecial_.add("\\\n\r\t\"");
+		standardSetsSpecial_.add("&><");
+		standardSetsSpecial_.add("&><\n");
+
+		htmlAttributeEntries.add(new Entry('&', "&amp;"));
+		htmlAttributeEntries.add(new Entry('\"', "&#34;"));
+		htmlAttributeEntries.add(new Entry('<', "&lt;"));
+
+		plainTextEntries.add(new Entry('&', "&amp;"));
+		plainTextEntries.add(new Entry('>', "&gt;"));
+		plainTextEntries.add(new Entry('<', "&lt;"));
+
+		plainTextEntriesNewLines.addAll(plainTextEntries);
+		plainTextEntriesNewLines.add(new Entry('\n', "<br />"));
+
+		jsStringLiteralSQuoteEntries.add(new Entry('\\', "\\\\"));
+		jsStringLiteralSQuoteEntries.add(new Entry('\n', "\\n"));
+		jsStringLiteralSQuoteEntries.add(new Entry('\r', "\\r"));
+		jsStringLiteralSQuoteEntries.add(new Entry('\t', "\\t"));
+		jsStringLiteralSQuoteEntries.add(new Entry('\'', "\\'"));
+
+		jsStringLiteralDQuoteEntries.add(new Entry('\\', "\\\\"));
+		jsStringLiteralDQuoteEntries.add(new Entry('\n', "\\n"));
+		jsStringLiteralDQuoteEntries.add(new Entry('\r', "\\r"));
+		jsStringLiteralDQuoteEntries.add(new Entry('\t', "\\t"));
+		jsStringLiteralDQuoteEntries.add(new Entry('"', "\\\""));
+
+		standardSets_.add(htmlAttributeEntries);
+		standardSets_.add(jsStringLiteralSQuoteEntries);
+		standardSets_.add(jsStringLiteralDQuoteEntries);
+		standardSets_.add(plainTextEntries);
+		standardSets_.add(plainTextEntriesNewLines);
+	}
+
+	/*
+	 * The previous DomElement.urlEncodeS(), which encoded through a list of
+	 * bytes.
+	 */
+	static String urlEncodeS(String url, String allowed) throws UnsupportedEncodingException {
+		final String unsafeChars = " $&+,:;=?@'\"<>#%{}|\\^~[]`/";
+		StringBuilder result = new StringBuilder();
+		byte[] bytes = url.getBytes("UTF-8");
+		for (int i = 0; i < bytes.length; ++i) {
+			char c = (char) bytes[i];
+			if (c <= 31 || c >= 127 || unsafeChars.indexOf(c) != -1) {
+				if (allowed.indexOf(c) != -1) {
+					result.append(c);
+				} else {
+					result.append('%');
+					result.append(DomElement.hexLookup(c >> 4));
+					result.append(DomElement.hexLookup(c));
+				}
+			} else {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+}
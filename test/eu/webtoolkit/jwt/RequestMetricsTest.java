@@ -0,0 +1,114 @@
+package eu.webtoolkit.jwt;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class RequestMetricsTest {
+	@Test
+	public void testRecording() throws Exception {
+		Configuration configuration = new Configuration();
+		configuration.setMetricsEnabled(true);
+		WTestEnvironment env = new WTestEnvironment(configuration);
+		WApplication app = new WApplication(env);
+		try {
+			RequestMetrics metrics = RequestMetrics.forClass(WApplication.class.getName());
+			metrics.reset();
+
+			assertTrue(RequestMetrics.begin(configuration));
+			/* a nested request is part of the outer one */
+			assertFalse(RequestMetrics.begin(configuration));
+
+			int outer = RequestMetrics.enter(RequestMetrics.Phase.Serialization);
+			try {
+				int inner = RequestMetrics.enter(RequestMetrics.Phase.ResponseWrite);
+				try {
+					RequestMetrics.addCharsRendered(10);
+					Thread.sleep(2);
+					throw new IllegalStateException();
+				} finally {
+					RequestMetrics.leave(inner);
+				}
+			} catch (IllegalStateException e) {
+				Thread.sleep(2);
+			} finally {
+				RequestMetrics.leave(outer);
+			}
+			RequestMetrics.widgetUpdated();
+			RequestMetrics.end(app.getSession());
+
+			assertEquals(1, metrics.getRequestCount());
+			assertEquals(10, metrics.getCharsRendered());
+			assertEquals(1, metrics.getWidgetsUpdated());
+			assertTrue(metrics.getPhaseTime(RequestMetrics.Phase.ResponseWrite) >= 2000000);
+			assertTrue(metrics.getPhaseTime(RequestMetrics.Phase.Serialization) >= 2000000);
+			assertEquals(0, metrics.getPhaseTime(RequestMetrics.Phase.LockWait));
+			assertTrue(metrics.getTotalTime() >= metrics.getPhaseTime(RequestMetrics.Phase.ResponseWrite)
+					+ metrics.getPhaseTime(RequestMetrics.Phase.Serialization));
+			assertEquals(metrics.getTotalTime(), metrics.getMaxTime());
+
+			/* the request has ended: nothing is recorded */
+			assertTrue(RequestMetrics.enter(RequestMetrics.Phase.LockWait) < 0);
+			RequestMetrics.addCharsRendered(10);
+			assertEquals(10, metrics.getCharsRendered());
+		} finally {
+			env.close();
+		}
+	}
+
+	@Test
+	public void testMaxTimeWindow() {
+		RequestMetrics metrics = RequestMetrics.forClass("test.MaxTimeWindow");
+		long w = RequestMetrics.MAX_TIME_WINDOW;
+		long t0 = System.nanoTime();
+
+		metrics.add(new RequestMetrics.Recording(), 100, t0);
+		metrics.add(new RequestMetrics.Recording(), 50, t0 + w / 2);
+		assertEquals(100, metrics.getMaxTime(t0 + w / 2));
+
+		/* the previous window is still included */
+		assertEquals(100, metrics.getMaxTime(t0 + w + 1));
+		metrics.add(new RequestMetrics.Recording(), 70, t0 + w + 2);
+		assertEquals(100, metrics.getMaxTime(t0 + w + 3));
+
+		assertEquals(70, metrics.getMaxTime(t0 + 2 * w + 1));
+		assertEquals(0, metrics.getMaxTime(t0 + 5 * w));
+		assertEquals(3, metrics.getRequestCount());
+	}
+
+	@Test
+	public void testUnregister() throws Exception {
+		WtServlet a = new TestController(new Configuration());
+		WtServlet b = new TestController(new Configuration());
+		Configuration configuration = new Configuration();
+		configuration.setMetricsEnabled(true);
+		WTestEnvironment env = new WTestEnvironment(configuration);
+		WApplication app = new WApplication(env);
+		try {
+			RequestMetrics.begin(configuration);
+			RequestMetrics.end(app.getSession());
+		} finally {
+			env.close();
+		}
+
+		RequestMetrics metrics = RequestMetrics.get(WApplication.class);
+		WtServlet servlet = app.getSession().getController();
+		ObjectName name = new ObjectName("eu.webtoolkit.jwt:type=RequestMetrics,application="
+				+ ObjectName.quote(WApplication.class.getName()));
+		assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+
+		/* other servlets do not discard the metrics */
+		RequestMetrics.unregister(a);
+		RequestMetrics.unregister(b);
+		assertSame(metrics, RequestMetrics.get(WApplication.class));
+		assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+
+		RequestMetrics.unregister(servlet);
+		assertNull(RequestMetrics.get(WApplication.class));
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+	}
+}
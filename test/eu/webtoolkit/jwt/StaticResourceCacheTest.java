@@ -0,0 +1,69 @@
+package eu.webtoolkit.jwt;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class StaticResourceCacheTest {
+	private static StaticResourceCache.Entry entry(int size) {
+		return new StaticResourceCache.Entry("image/png", 0, new byte[size]);
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		StaticResourceCache cache = new StaticResourceCache();
+		cache.add("a", entry(400), 1000);
+		Thread.sleep(1);
+		cache.add("b", entry(400), 1000);
+		Thread.sleep(1);
+		assertTrue(cache.isCached("a"));
+		assertTrue(cache.isCached("b"));
+		assertEquals(800, cache.getCachedSize());
+
+		/* a is the least recently added, but was served since */
+		cache.add("a", entry(400), 1000).lastUsed = System.nanoTime();
+		Thread.sleep(1);
+
+		cache.add("c", entry(400), 1000);
+		assertTrue(cache.isCached("a"));
+		assertFalse(cache.isCached("b"));
+		assertTrue(cache.isCached("c"));
+		assertEquals(800, cache.getCachedSize());
+	}
+
+	@Test
+	public void testEvictsUntilItFits() {
+		StaticResourceCache cache = new StaticResourceCache();
+		cache.add("a", entry(300), 1000);
+		cache.add("b", entry(300), 1000);
+		cache.add("c", entry(300), 1000);
+		cache.add("d", entry(900), 1000);
+		assertFalse(cache.isCached("a"));
+		assertFalse(cache.isCached("b"));
+		assertFalse(cache.isCached("c"));
+		assertTrue(cache.isCached("d"));
+		assertEquals(900, cache.getCachedSize());
+	}
+
+	@Test
+	public void testTooLargeIsNotCached() {
+		StaticResourceCache cache = new StaticResourceCache();
+		cache.add("a", entry(300), 1000);
+		StaticResourceCache.Entry e = entry(2000);
+		assertSame(e, cache.add("big", e, 1000));
+		assertFalse(cache.isCached("big"));
+		assertTrue(cache.isCached("a"));
+	}
+
+	@Test
+	public void testExistingEntryIsKept() {
+		StaticResourceCache cache = new StaticResourceCache();
+		StaticResourceCache.Entry first = cache.add("a", entry(300), 1000);
+		assertSame(first, cache.add("a", entry(300), 1000));
+		assertEquals(300, cache.getCachedSize());
+
+		cache.clear();
+		assertFalse(cache.isCached("a"));
+		assertEquals(0, cache.getCachedSize());
+	}
+}
@@ -0,0 +1,158 @@
+package eu.webtoolkit.jwt;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import eu.webtoolkit.jwt.chart.WStandardChartProxyModel;
+
+public class WColumnarTableModelTest {
+	private static WColumnarTableModel createModel(boolean offHeap) {
+		WColumnarTableModel model = new WColumnarTableModel(offHeap, null);
+		model.addColumn(WColumnarTableModel.ColumnType.StringType, "Name");
+		model.addColumn(WColumnarTableModel.ColumnType.IntType, "Count");
+		model.addColumn(WColumnarTableModel.ColumnType.LongType, "Id");
+		model.addColumn(WColumnarTableModel.ColumnType.DoubleType, "Price");
+		model.appendRows(new String[] { "pear", null, "apple" }, new int[] { 3, 1, 2 },
+				new long[] { 30L, 10L, 20L }, new double[] { 0.5, 1.5, 2.5 });
+		return model;
+	}
+
+	private static List<String> column(WColumnarTableModel model, int column) {
+		List<String> result = new ArrayList<String>();
+		for (int i = 0; i < model.getRowCount(); ++i)
+			result.add(model.getString(i, column));
+		return result;
+	}
+
+	@Test
+	public void testRows() {
+		for (boolean offHeap : new boolean[] { false, true }) {
+			WColumnarTableModel model = createModel(offHeap);
+			final List<String> events = new ArrayList<String>();
+			model.rowsInserted().addListener(null, new Signal3.Listener<WModelIndex, Integer, Integer>() {
+				public void trigger(WModelIndex parent, Integer start, Integer end) {
+					events.add("inserted " + start + "-" + end);
+				}
+			});
+			model.dataChanged().addListener(null, new Signal2.Listener<WModelIndex, WModelIndex>() {
+				public void trigger(WModelIndex topLeft, WModelIndex bottomRight) {
+					events.add("changed " + topLeft.getRow() + "-" + bottomRight.getRow());
+				}
+			});
+
+			assertEquals(3, model.getRowCount());
+			assertEquals(4, model.getColumnCount());
+			assertNull(model.getData(1, 0));
+			assertEquals(2, model.getData(2, 1));
+			assertEquals(20L, model.getData(2, 2));
+			assertEquals(2.5, model.getDouble(2, 3), 0);
+			assertEquals(30, model.getInt(0, 2));
+			assertEquals("2.5", model.getString(2, 3));
+
+			/* replaces two rows and appends one */
+			model.setRows(2, new String[] { "fig", "kiwi" }, new int[] { 4, 5 }, new long[] { 40L, 50L },
+					new double[] { 4.5, 5.5 });
+			assertEquals(4, model.getRowCount());
+			assertEquals("[inserted 3-3, changed 2-2]", events.toString());
+
+			model.insertRows(1, 2);
+			assertEquals(6, model.getRowCount());
+			assertEquals(0, model.getInt(1, 1));
+			assertNull(model.getData(2, 0));
+			model.removeRows(0, 2);
+			assertEquals(4, model.getRowCount());
+			assertEquals("[null, null, fig, kiwi]", column(model, 0).toString());
+			assertEquals(5L, model.getLong(3, 1));
+
+			model.setData(model.getIndex(0, 0), "plum");
+			model.sort(0, SortOrder.AscendingOrder);
+			assertEquals("[null, fig, kiwi, plum]", column(model, 0).toString());
+			assertEquals("[1, 4, 5, 0]", column(model, 1).toString());
+			model.sort(3, SortOrder.DescendingOrder);
+			assertEquals("[kiwi, fig, null, plum]", column(model, 0).toString());
+		}
+	}
+
+	@Test
+	public void testRoleColumnAndFlags() {
+		WColumnarTableModel model = createModel(false);
+		model.setRoleColumn(0, ItemDataRole.ToolTipRole, 3);
+		assertEquals(1.5, model.getData(model.getIndex(1, 0), ItemDataRole.ToolTipRole));
+		assertNull(model.getData(model.getIndex(1, 1), ItemDataRole.ToolTipRole));
+
+		model.setColumnFlags(1, ItemFlag.ItemIsEditable);
+		EnumSet<ItemFlag> flags = model.getFlags(model.getIndex(0, 1));
+		assertEquals(EnumSet.of(ItemFlag.ItemIsEditable), flags);
+		/* the flags of the model are not changed through the result */
+		flags.add(ItemFlag.ItemIsUserCheckable);
+		assertEquals(EnumSet.of(ItemFlag.ItemIsEditable), model.getFlags(model.getIndex(1, 1)));
+	}
+
+	@Test
+	public void testMaxRows() {
+		WColumnarTableModel model = createModel(false);
+		try {
+			model.reserve(WColumnarTableModel.MAX_ROWS + 1);
+			fail();
+		} catch (WException e) {
+		}
+		try {
+			model.insertRows(0, Integer.MAX_VALUE - 1);
+			fail();
+		} catch (WException e) {
+		}
+		assertEquals(3, model.getRowCount());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<String> dictionary(WColumnarTableModel model, int column) throws Exception {
+		Field f = WColumnarTableModel.class.getDeclaredField("columns_");
+		f.setAccessible(true);
+		return ((List<WColumnarTableModel.Column>) f.get(model)).get(column).dictionary;
+	}
+
+	@Test
+	public void testDictionary() throws Exception {
+		WColumnarTableModel model = createModel(false);
+		for (int i = 0; i < 1000; ++i)
+			model.setString(0, 0, "value " + i);
+		assertEquals("value 999", model.getString(0, 0));
+		/* replaced strings are dropped, and their indexes are reused */
+		assertEquals(3, dictionary(model, 0).size());
+
+		/* a string which is still used is kept */
+		model.setString(1, 0, "apple");
+		model.removeRows(2, 1);
+		assertEquals("apple", model.getString(1, 0));
+		model.removeRows(0, 2);
+		for (String s : dictionary(model, 0))
+			assertNull(s);
+
+		model.appendRows(new String[] { "a", "b", "a" }, new int[3], new long[3], new double[3]);
+		assertEquals("[a, b, a]", column(model, 0).toString());
+		assertEquals(3, dictionary(model, 0).size());
+	}
+
+	@Test
+	public void testChartProxyModel() {
+		WColumnarTableModel model = createModel(false);
+		assertEquals(1.5, new WStandardChartProxyModel(model).getData(1, 3), 0);
+
+		/* a subclass is read through getData() */
+		WColumnarTableModel subclass = new WColumnarTableModel() {
+			@Override
+			public Object getData(WModelIndex index, int role) {
+				return 42.0;
+			}
+		};
+		subclass.addColumn(WColumnarTableModel.ColumnType.DoubleType, "Price");
+		subclass.appendRows(new double[] { 1.0 });
+		assertEquals(42.0, new WStandardChartProxyModel(subclass).getData(0, 0), 0);
+	}
+}
@@ -0,0 +1,170 @@
+package eu.webtoolkit.jwt;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.webtoolkit.jwt.servlet.UploadedFile;
+import eu.webtoolkit.jwt.servlet.WebRequest;
+
+public class WFileDropWidgetTest {
+	private WTestEnvironment env;
+
+	@Before
+	public void setUp() {
+		env = new WTestEnvironment(new Configuration());
+		new WApplication(env);
+	}
+
+	@After
+	public void tearDown() {
+		env.close();
+	}
+
+	private static byte[] content(int size) {
+		byte[] result = new byte[size];
+		for (int i = 0; i < size; ++i)
+			result[i] = (byte) ('a' + i % 26);
+		return result;
+	}
+
+	private static WFileDropWidget.ChunkedUpload upload(int size, long chunkSize) {
+		WFileDropWidget.File file = new WFileDropWidget.File(1, "file.txt", "text/plain", size, null);
+		return new WFileDropWidget.ChunkedUpload(file, chunkSize);
+	}
+
+	/*
+	 * Sends a chunk in parts of at most 3 bytes, as the request parser would.
+	 */
+	private static void send(WebRequest.UploadConsumer consumer, byte[] data, int offset, int length, boolean complete)
+			throws IOException {
+		assertFalse(consumer.begin("data", "file.txt", "text/plain"));
+		for (int i = offset; i < offset + length; i += 3)
+			consumer.data(data, i, Math.min(3, offset + length - i));
+		consumer.end(complete);
+	}
+
+	private static byte[] read(UploadedFile file) throws IOException {
+		InputStream in = file.getInputStream();
+		try {
+			byte[] result = new byte[(int) file.getSize()];
+			int n = 0;
+			for (int r; n < result.length && (r = in.read(result, n, result.length - n)) != -1;)
+				n += r;
+			assertEquals(result.length, n);
+			assertEquals(-1, in.read());
+			return result;
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void testChunkConsumerBounds() {
+		WFileDropWidget.ChunkedUpload upload = upload(25, 10);
+		assertNull(upload.getChunkConsumer(-1));
+		assertNotNull(upload.getChunkConsumer(0));
+		assertNotNull(upload.getChunkConsumer(2));
+		assertNull(upload.getChunkConsumer(3));
+		assertFalse(upload.isWritten(-1));
+		assertFalse(upload.isWritten(3));
+
+		/* an empty file has a single, empty chunk */
+		WFileDropWidget.ChunkedUpload empty = upload(0, 10);
+		assertNotNull(empty.getChunkConsumer(0));
+		assertNull(empty.getChunkConsumer(1));
+		assertFalse(empty.isComplete());
+		empty.getChunkConsumer(0).end(true);
+		assertTrue(empty.isComplete());
+		empty.discard();
+	}
+
+	@Test
+	public void testFailedChunks() throws IOException {
+		byte[] data = content(25);
+		WFileDropWidget.ChunkedUpload upload = upload(25, 10);
+		try {
+			/* too long */
+			send(upload.getChunkConsumer(0), data, 0, 11, true);
+			assertFalse(upload.isWritten(0));
+
+			/* too short */
+			send(upload.getChunkConsumer(0), data, 0, 9, true);
+			assertFalse(upload.isWritten(0));
+
+			/* the last chunk is shorter */
+			send(upload.getChunkConsumer(2), data, 20, 10, true);
+			assertFalse(upload.isWritten(2));
+			send(upload.getChunkConsumer(2), data, 20, 5, true);
+			assertTrue(upload.isWritten(2));
+
+			/* interrupted */
+			send(upload.getChunkConsumer(0), data, 0, 10, false);
+			assertFalse(upload.isWritten(0));
+
+			assertEquals(5, upload.getBytesWritten());
+			assertFalse(upload.isComplete());
+		} finally {
+			upload.discard();
+		}
+	}
+
+	@Test
+	public void testChunks() throws IOException {
+		byte[] data = content(25);
+		WFileDropWidget.ChunkedUpload upload = upload(25, 10);
+
+		/* chunks complete out of order, and may be sent twice */
+		WebRequest.UploadConsumer first = upload.getChunkConsumer(0);
+		WebRequest.UploadConsumer second = upload.getChunkConsumer(1);
+		send(upload.getChunkConsumer(2), data, 20, 5, true);
+		send(second, data, 10, 10, true);
+		send(upload.getChunkConsumer(1), data, 10, 10, true);
+		assertEquals(15, upload.getBytesWritten());
+		assertTrue(upload.isWritten(1));
+		assertTrue(upload.isWritten(2));
+		assertFalse(upload.isComplete());
+
+		send(first, data, 0, 10, true);
+		assertTrue(upload.isComplete());
+		assertEquals(25, upload.getBytesWritten());
+
+		UploadedFile file = upload.finish();
+		try {
+			assertEquals("file.txt", file.getClientFileName());
+			assertEquals("text/plain", file.getContentType());
+			assertArrayEquals(data, read(file));
+
+			/* the upload no longer owns the spool file */
+			upload.discard();
+			assertTrue(new java.io.File(file.getSpoolFileName()).exists());
+
+			try {
+				send(upload.getChunkConsumer(0), data, 0, 10, true);
+				fail("a closed upload accepts no data");
+			} catch (IOException e) {
+			}
+		} finally {
+			new java.io.File(file.getSpoolFileName()).delete();
+		}
+	}
+
+	@Test
+	public void testDiscard() throws IOException {
+		byte[] data = content(25);
+		WFileDropWidget.ChunkedUpload upload = upload(25, 10);
+		send(upload.getChunkConsumer(0), data, 0, 10, true);
+		upload.discard();
+
+		try {
+			upload.finish();
+			fail("a discarded upload cannot be finished");
+		} catch (IOException e) {
+		}
+	}
+}
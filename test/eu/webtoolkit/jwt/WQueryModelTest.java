@@ -0,0 +1,234 @@
+package eu.webtoolkit.jwt;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.Test;
+
+public class WQueryModelTest {
+	/*
+	 * Queues the fetches, which the test then runs within the session.
+	 */
+	private static class QueuedExecutor implements Executor {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		boolean reject = false;
+
+		public void execute(Runnable task) {
+			if (reject)
+				throw new RejectedExecutionException();
+			tasks.add(task);
+		}
+
+		void runAll() {
+			while (!tasks.isEmpty())
+				tasks.remove(0).run();
+		}
+	}
+
+	private static class Source implements QueryRowSource<Object[]> {
+		final int rowCount;
+		int failures = 0;
+		int fetches = 0;
+
+		Source(int rowCount) {
+			this.rowCount = rowCount;
+		}
+
+		public List<Object[]> getRows(int offset, int count) {
+			++fetches;
+			if (failures > 0) {
+				--failures;
+				throw new IllegalStateException("database unavailable");
+			}
+			List<Object[]> result = new ArrayList<Object[]>();
+			for (int i = offset; i < Math.min(offset + count, rowCount); ++i)
+				result.add(new Object[] { "row " + i });
+			return result;
+		}
+
+		public int getRowCount() {
+			return rowCount;
+		}
+	}
+
+	private static int serverPush(WApplication app) throws Exception {
+		Field f = WApplication.class.getDeclaredField("serverPush_");
+		f.setAccessible(true);
+		return (Integer) f.get(app);
+	}
+
+	private static WQueryModel<Object[]> createModel(Source source, Executor executor) {
+		WQueryModel<Object[]> model = new WQueryModel<Object[]>(source);
+		model.addColumn("Name");
+		model.setBlockSize(10);
+		model.setExecutor(executor);
+		return model;
+	}
+
+	@Test
+	public void testFetch() throws Exception {
+		WTestEnvironment env = new WTestEnvironment(new Configuration());
+		WApplication app = new WApplication(env);
+		try {
+			Source source = new Source(25);
+			QueuedExecutor executor = new QueuedExecutor();
+			WQueryModel<Object[]> model = createModel(source, executor);
+
+			/* the row count and the first block are fetched in the background */
+			assertEquals(0, model.getRowCount());
+			assertEquals(2, executor.tasks.size());
+			assertNull(model.getResultRow(0));
+			assertEquals(2, executor.tasks.size());
+			executor.runAll();
+			assertEquals(25, model.getRowCount());
+			assertTrue(model.isRowCountExact());
+			assertEquals("row 3", model.getData(3, 0));
+
+			assertNull(model.getData(24, 0));
+			executor.runAll();
+			assertEquals("row 24", model.getData(24, 0));
+			assertEquals(2, source.fetches);
+		} finally {
+			env.close();
+		}
+	}
+
+	@Test
+	public void testUpdates() throws Exception {
+		WTestEnvironment env = new WTestEnvironment(new Configuration());
+		WApplication app = new WApplication(env);
+		try {
+			app.enableUpdates(true);
+			QueuedExecutor executor = new QueuedExecutor();
+			WQueryModel<Object[]> model = createModel(new Source(25), executor);
+
+			/* updates are enabled while a fetch is outstanding */
+			model.getRowCount();
+			assertEquals(2, serverPush(app));
+			executor.tasks.remove(0).run();
+			assertEquals(2, serverPush(app));
+			executor.runAll();
+			assertEquals(1, serverPush(app));
+
+			model.getResultRow(15);
+			assertEquals(2, serverPush(app));
+			model.reload();
+			assertEquals(1, serverPush(app));
+			executor.runAll();
+			assertEquals(1, serverPush(app));
+
+			/* a rejected fetch is not outstanding */
+			executor.reject = true;
+			assertNull(model.getResultRow(15));
+			assertEquals(1, serverPush(app));
+		} finally {
+			env.close();
+		}
+	}
+
+	@Test
+	public void testFailedFetch() throws Exception {
+		WTestEnvironment env = new WTestEnvironment(new Configuration());
+		WApplication app = new WApplication(env);
+		try {
+			Source source = new Source(25);
+			QueuedExecutor executor = new QueuedExecutor();
+			WQueryModel<Object[]> model = createModel(source, executor);
+			model.getRowCount();
+			executor.runAll();
+
+			final List<String> changed = new ArrayList<String>();
+			model.dataChanged().addListener(null, new Signal2.Listener<WModelIndex, WModelIndex>() {
+				public void trigger(WModelIndex topLeft, WModelIndex bottomRight) {
+					changed.add(topLeft.getRow() + "-" + bottomRight.getRow());
+				}
+			});
+
+			/* the rows are signalled, so that a view asks for them again */
+			source.failures = 3;
+			assertNull(model.getResultRow(15));
+			executor.runAll();
+			assertEquals("[10-19]", changed.toString());
+			assertNull(model.getResultRow(15));
+			executor.runAll();
+			assertEquals("[10-19, 10-19]", changed.toString());
+
+			/* ... until the last attempt */
+			assertNull(model.getResultRow(15));
+			executor.runAll();
+			assertEquals(2, changed.size());
+
+			assertNull(model.getResultRow(15));
+			executor.runAll();
+			assertEquals("row 15", model.getData(15, 0));
+			assertEquals("[10-19, 10-19, 10-19]", changed.toString());
+
+			/* a rejected fetch is retried */
+			executor.reject = true;
+			assertNull(model.getResultRow(24));
+			executor.reject = false;
+			assertNull(model.getResultRow(24));
+			executor.runAll();
+			assertEquals("row 24", model.getData(24, 0));
+		} finally {
+			env.close();
+		}
+	}
+
+	@Test
+	public void testPrefetch() throws Exception {
+		WTestEnvironment env = new WTestEnvironment(new Configuration());
+		WApplication app = new WApplication(env);
+		try {
+			Source source = new Source(100);
+			QueuedExecutor executor = new QueuedExecutor();
+			WQueryModel<Object[]> model = createModel(source, executor);
+			model.getRowCount();
+			executor.runAll();
+			assertEquals(1, source.fetches);
+
+			/* the rendered blocks and two blocks on either side */
+			model.prefetch(50, 59);
+			assertEquals(5, executor.tasks.size());
+
+			/* the margin of a queued fetch is not changed afterwards */
+			model.setPrefetchBlocks(0);
+			executor.runAll();
+			assertEquals(6, source.fetches);
+			assertEquals("row 30", model.getData(30, 0));
+			assertEquals("row 79", model.getData(79, 0));
+
+			/* blocks the view has scrolled away from are skipped */
+			model.prefetch(0, 9);
+			model.getResultRow(95);
+			model.prefetch(10, 19);
+			executor.runAll();
+			assertEquals(7, source.fetches);
+			assertEquals("row 15", model.getData(15, 0));
+		} finally {
+			env.close();
+		}
+	}
+
+	@Test
+	public void testServletExecutor() {
+		WtServlet servlet = new TestController(new Configuration());
+		Executor executor = servlet.getQueryExecutor();
+		assertSame(executor, servlet.getQueryExecutor());
+		ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+		assertTrue(pool.getQueue().remainingCapacity() < Integer.MAX_VALUE);
+
+		servlet.destroy();
+		assertTrue(pool.isShutdown());
+		assertNotSame(executor, servlet.getQueryExecutor());
+		servlet.destroy();
+
+		assertNull(new WQueryModel<Object[]>(new Source(0)).getExecutor());
+	}
+}
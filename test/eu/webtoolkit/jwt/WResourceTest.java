@@ -0,0 +1,315 @@
+package eu.webtoolkit.jwt;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.webtoolkit.jwt.servlet.WebRequest;
+import eu.webtoolkit.jwt.servlet.WebResponse;
+import eu.webtoolkit.jwt.utils.HttpUtils;
+
+public class WResourceTest {
+	private static class CountingResource extends WResource {
+		int requests;
+
+		@Override
+		protected void handleRequest(WebRequest request, WebResponse response) throws IOException {
+			++requests;
+			response.setContentType("text/plain");
+			String x = request.getParameter("x");
+			for (int i = 0; i < 100; ++i)
+				response.out().write("hello " + x + "\n");
+		}
+	}
+
+	private static class Response {
+		final Map<String, String> headers = new HashMap<String, String>();
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		int status = HttpServletResponse.SC_OK;
+		String contentType;
+		WebResponse response;
+
+		byte[] getBody() throws IOException {
+			if (!"gzip".equals(headers.get("Content-Encoding")))
+				return body.toByteArray();
+
+			InputStream in = new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()));
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			int c;
+			while ((c = in.read()) != -1)
+				result.write(c);
+			return result.toByteArray();
+		}
+
+		String getText() throws IOException {
+			return new String(getBody(), "UTF-8");
+		}
+	}
+
+	private Object servletApi;
+
+	@Before
+	public void setUp() throws Exception {
+		/* WebResponse.flush() completes the request through the servlet API */
+		Field f = WtServlet.class.getDeclaredField("servletApi");
+		f.setAccessible(true);
+		servletApi = f.get(null);
+		f.set(null, new ServletApi3());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Field f = WtServlet.class.getDeclaredField("servletApi");
+		f.setAccessible(true);
+		f.set(null, servletApi);
+	}
+
+	private static WebRequest request(final String queryString, String... headers) {
+		final Map<String, String> headerMap = new HashMap<String, String>();
+		for (int i = 0; i < headers.length; i += 2)
+			headerMap.put(headers[i], headers[i + 1]);
+		final Map<String, String[]> parameters = new HashMap<String, String[]>();
+		for (String p : queryString.split("&")) {
+			String[] nv = p.split("=");
+			parameters.put(nv[0], new String[] { nv[1] });
+		}
+		final Map<String, Object> attributes = new HashMap<String, Object>();
+
+		HttpServletRequest r = (HttpServletRequest) Proxy.newProxyInstance(WResourceTest.class.getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, java.lang.reflect.Method method, Object[] args) {
+						String n = method.getName();
+						if (n.equals("getMethod"))
+							return "GET";
+						else if (n.equals("getServletPath") || n.equals("getContextPath"))
+							return "";
+						else if (n.equals("getPathInfo"))
+							return null;
+						else if (n.equals("getRequestURI"))
+							return "/app";
+						else if (n.equals("getQueryString"))
+							return queryString;
+						else if (n.equals("getParameterMap"))
+							return parameters;
+						else if (n.equals("getHeader"))
+							return headerMap.get(args[0]);
+						else if (n.equals("getDateHeader"))
+							return -1L;
+						else if (n.equals("getAttribute"))
+							return attributes.get(args[0]);
+						else if (n.equals("setAttribute"))
+							return attributes.put((String) args[0], args[1]);
+						else if (n.equals("isAsyncStarted"))
+							return false;
+						else if (n.equals("getContentLength"))
+							return -1;
+						return null;
+					}
+				});
+
+		return new WebRequest(r, null, new Configuration());
+	}
+
+	private static Response response(WebRequest request, boolean compress) {
+		final Response result = new Response();
+		final ServletOutputStream out = new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				result.body.write(b);
+			}
+		};
+
+		HttpServletResponse r = (HttpServletResponse) Proxy.newProxyInstance(WResourceTest.class.getClassLoader(),
+				new Class<?>[] { HttpServletResponse.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, java.lang.reflect.Method method, Object[] args) {
+						String n = method.getName();
+						if (n.equals("getOutputStream"))
+							return out;
+						else if (n.equals("setStatus"))
+							result.status = (Integer) args[0];
+						else if (n.equals("getStatus"))
+							return result.status;
+						else if (n.equals("setContentType"))
+							result.contentType = (String) args[0];
+						else if (n.equals("getContentType"))
+							return result.contentType;
+						else if (n.equals("getCharacterEncoding"))
+							return "UTF-8";
+						else if (n.equals("setHeader") || n.equals("addHeader"))
+							result.headers.put((String) args[0], (String) args[1]);
+						else if (n.equals("setDateHeader"))
+							result.headers.put((String) args[0], HttpUtils.formatHttpDate((Long) args[1]));
+						else if (n.equals("setContentLength"))
+							result.headers.put("Content-Length", String.valueOf(args[0]));
+						else if (n.equals("containsHeader"))
+							return result.headers.containsKey(args[0]);
+						else if (n.equals("getHeader"))
+							return result.headers.get(args[0]);
+						else if (n.equals("isCommitted"))
+							return false;
+						return null;
+					}
+				});
+
+		result.response = new WebResponse(r, request);
+		if (compress)
+			result.response.enableCompression("gzip", 100, 6);
+		return result;
+	}
+
+	private static Response get(WResource resource, String queryString, boolean compress, String... headers)
+			throws IOException {
+		WebRequest request = request(queryString, headers);
+		Response response = response(request, compress);
+		resource.handle(request, response.response);
+		return response;
+	}
+
+	@Test
+	public void testServerCache() throws IOException {
+		CountingResource resource = new CountingResource();
+		resource.setServerCacheEnabled(true);
+
+		Response first = get(resource, "wtd=abc&resource=r&rand=1&x=a", false);
+		assertEquals(1, resource.requests);
+		assertTrue(first.getText().startsWith("hello a\n"));
+		String etag = first.headers.get("ETag");
+		assertNotNull("the first response has an entity tag", etag);
+		assertEquals(String.valueOf(first.body.size()), first.headers.get("Content-Length"));
+
+		/* the session and version parameters are not part of the key */
+		Response second = get(resource, "wtd=def&resource=r&rand=2&x=a", false);
+		assertEquals(1, resource.requests);
+		assertEquals(first.getText(), second.getText());
+		assertEquals(etag, second.headers.get("ETag"));
+
+		Response other = get(resource, "wtd=abc&resource=r&rand=1&x=b", false);
+		assertEquals(2, resource.requests);
+		assertTrue(other.getText().startsWith("hello b\n"));
+		assertFalse(etag.equals(other.headers.get("ETag")));
+
+		Response notModified = get(resource, "wtd=abc&resource=r&rand=1&x=a", false, "If-None-Match", etag);
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, notModified.status);
+		assertEquals(0, notModified.body.size());
+
+		resource.setChanged();
+		get(resource, "wtd=abc&resource=r&rand=1&x=a", false);
+		assertEquals(3, resource.requests);
+	}
+
+	@Test
+	public void testServerCacheCompression() throws IOException {
+		CountingResource resource = new CountingResource();
+		resource.setServerCacheEnabled(true);
+
+		Response first = get(resource, "x=a", true);
+		assertEquals("gzip", first.headers.get("Content-Encoding"));
+		assertTrue(first.getText().startsWith("hello a\n"));
+
+		/* a cached response is compressed for a client that accepts it ... */
+		Response compressed = get(resource, "x=a", true);
+		assertEquals(1, resource.requests);
+		assertEquals("gzip", compressed.headers.get("Content-Encoding"));
+		assertEquals(first.getText(), compressed.getText());
+
+		/* ... and not for one that does not */
+		Response plain = get(resource, "x=a", false);
+		assertEquals(1, resource.requests);
+		assertNull(plain.headers.get("Content-Encoding"));
+		assertEquals(first.getText(), plain.getText());
+	}
+
+	@Test
+	public void testFileResourceRange() throws IOException {
+		File file = File.createTempFile("jwt", ".txt");
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			out.write("0123456789".getBytes("UTF-8"));
+			out.close();
+
+			WFileResource resource = new WFileResource("text/plain", file.getPath());
+			Response full = get(resource, "x=a", false);
+			String etag = full.headers.get("ETag");
+			assertEquals("0123456789", full.getText());
+			assertFalse(etag.startsWith("W/"));
+
+			/* the file's entity tag validates a range request */
+			Response partial = get(resource, "x=a", false, "Range", "bytes=2-4", "If-Range", etag);
+			assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, partial.status);
+			assertEquals("234", partial.getText());
+
+			Response changed = get(resource, "x=a", false, "Range", "bytes=2-4", "If-Range", "\"other\"");
+			assertEquals(HttpServletResponse.SC_OK, changed.status);
+			assertEquals("0123456789", changed.getText());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testCompressionETag() throws IOException {
+		CountingResource resource = new CountingResource();
+		resource.setServerCacheEnabled(true);
+
+		/* the compressed representation has its own entity tag */
+		Response plain = get(resource, "x=a", false);
+		String etag = plain.headers.get("ETag");
+		Response compressed = get(resource, "x=a", true);
+		assertEquals("gzip", compressed.headers.get("Content-Encoding"));
+		assertEquals(HttpUtils.getEncodedETag(etag, "gzip"), compressed.headers.get("ETag"));
+		assertTrue(compressed.headers.get("ETag").endsWith("-gzip\""));
+
+		/* ... which still validates the resource */
+		Response notModified = get(resource, "x=a", true, "If-None-Match", compressed.headers.get("ETag"));
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, notModified.status);
+		assertEquals(0, notModified.body.size());
+	}
+
+	@Test
+	public void testFileResourceCompressionETag() throws IOException {
+		File file = File.createTempFile("jwt", ".txt");
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			for (int i = 0; i < 50; ++i)
+				out.write("0123456789".getBytes("UTF-8"));
+			out.close();
+
+			WFileResource resource = new WFileResource("text/plain", file.getPath());
+			String etag = get(resource, "x=a", false).headers.get("ETag");
+			Response compressed = get(resource, "x=a", true);
+			assertEquals("gzip", compressed.headers.get("Content-Encoding"));
+			String gzipETag = compressed.headers.get("ETag");
+			assertEquals(HttpUtils.getEncodedETag(etag, "gzip"), gzipETag);
+			assertEquals(500, compressed.getBody().length);
+
+			/* a range of the compressed body is not a range of the file */
+			Response range = get(resource, "x=a", false, "Range", "bytes=2-4", "If-Range", gzipETag);
+			assertEquals(HttpServletResponse.SC_OK, range.status);
+			assertEquals(500, range.getBody().length);
+
+			Response notModified = get(resource, "x=a", true, "If-None-Match", gzipETag);
+			assertEquals(HttpServletResponse.SC_NOT_MODIFIED, notModified.status);
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package eu.webtoolkit.jwt;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class WSortFilterProxyModelTest {
+	private static boolean isNarrowing(String previous, String pattern) {
+		return WSortFilterProxyModel.isNarrowing(previous != null ? Pattern.compile(previous) : null,
+				Pattern.compile(pattern));
+	}
+
+	@Test
+	public void testIsNarrowing() {
+		assertTrue(isNarrowing(null, "a|b"));
+		assertTrue(isNarrowing(".*ab.*", ".*abc.*"));
+		assertTrue(isNarrowing(".*ab.*", ".*xaby.*"));
+		assertTrue(isNarrowing(".*", ".*a.*"));
+		assertTrue(isNarrowing("ab.*", "abc.*"));
+		assertTrue(isNarrowing(".*ab", ".*cab"));
+		assertTrue(isNarrowing("ab", "ab"));
+		assertTrue(isNarrowing(".*a\\.b.*", ".*a\\.bc.*"));
+		assertTrue(isNarrowing(".*\\Qa.b\\E.*", ".*\\Qa.b|\\E.*"));
+
+		assertFalse(isNarrowing(".*abc.*", ".*ab.*"));
+		assertFalse(isNarrowing("ab.*", "xab.*"));
+		assertFalse(isNarrowing(".*ab", ".*abc"));
+		assertFalse(isNarrowing("ab", "abc"));
+		assertFalse(isNarrowing(".*ab.*", "ab.*"));
+		assertFalse(isNarrowing(".*a.*", ".*a|b.*"));
+		assertFalse(isNarrowing(".*a.*", ".*a+.*"));
+		assertFalse(isNarrowing(".*a.*", ".*a\\d.*"));
+		assertFalse(isNarrowing(".*a.*", ".*a\n.*"));
+		assertFalse(WSortFilterProxyModel.isNarrowing(Pattern.compile(".*a.*"),
+				Pattern.compile(".*ab.*", Pattern.CASE_INSENSITIVE)));
+		assertFalse(WSortFilterProxyModel.isNarrowing(Pattern.compile(".*a.*", Pattern.LITERAL),
+				Pattern.compile(".*ab.*", Pattern.LITERAL)));
+	}
+
+	@Test
+	public void testRefilterAccepted() {
+		String[] values = { "ab", "abc", "x", "abcd", "ab", "abc", "abc", "b" };
+		WStandardItemModel source = new WStandardItemModel(values.length, 1);
+		for (int i = 0; i < values.length; ++i)
+			source.setData(i, 0, values[i]);
+
+		WSortFilterProxyModel proxy = new WSortFilterProxyModel();
+		proxy.setSourceModel(source);
+		proxy.setFilterKeyColumn(0);
+		proxy.setFilterRegExp(".*ab.*");
+		assertEquals(6, proxy.getRowCount());
+
+		final List<String> events = new ArrayList<String>();
+		proxy.rowsAboutToBeRemoved().addListener(null, new Signal3.Listener<WModelIndex, Integer, Integer>() {
+			public void trigger(WModelIndex parent, Integer start, Integer end) {
+				events.add("remove " + start + "-" + end);
+			}
+		});
+		proxy.layoutChanged().addListener(null, new Signal.Listener() {
+			public void trigger() {
+				events.add("layout");
+			}
+		});
+
+		/* accepted: ab abc abcd ab abc abc */
+		proxy.setFilterRegExp(".*abc.*");
+		assertEquals(4, proxy.getRowCount());
+		List<String> expected = new ArrayList<String>();
+		expected.add("remove 3-3");
+		expected.add("remove 0-0");
+		assertEquals(expected, events);
+
+		int[] sourceRows = { 1, 3, 5, 6 };
+		for (int i = 0; i < sourceRows.length; ++i) {
+			WModelIndex index = proxy.getIndex(i, 0);
+			assertEquals(sourceRows[i], proxy.mapToSource(index).getRow());
+			assertEquals(index, proxy.mapFromSource(source.getIndex(sourceRows[i], 0)));
+		}
+		assertNull(proxy.mapFromSource(source.getIndex(0, 0)));
+
+		/* not narrowing */
+		events.clear();
+		proxy.setFilterRegExp(".*b.*");
+		assertEquals(7, proxy.getRowCount());
+		assertTrue(events.contains("layout"));
+	}
+}
@@ -0,0 +1,146 @@
+package eu.webtoolkit.jwt;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/*
+ * The item data is kept in a display value and sorted role/value arrays:
+ * compares it with a map of the roles.
+ */
+public class WStandardItemTest {
+	private static int[] roles(WStandardItem item) throws Exception {
+		Field f = WStandardItem.class.getDeclaredField("roles_");
+		f.setAccessible(true);
+		return (int[]) f.get(item);
+	}
+
+	private static Object[] values(WStandardItem item) throws Exception {
+		Field f = WStandardItem.class.getDeclaredField("values_");
+		f.setAccessible(true);
+		return (Object[]) f.get(item);
+	}
+
+	private static void assertData(TreeMap<Integer, Object> expected, WStandardItem item) throws Exception {
+		int[] roles = roles(item);
+		Object[] values = values(item);
+		if (expected.isEmpty()) {
+			assertNull(roles);
+			assertNull(values);
+		} else {
+			assertEquals(roles.length, values.length);
+			int i = 0;
+			for (Integer role : expected.keySet()) {
+				assertEquals(role.intValue(), roles[i]);
+				assertSame(expected.get(role), values[i]);
+				++i;
+			}
+			assertEquals(expected.size(), i);
+		}
+
+		for (int role = ItemDataRole.DecorationRole; role < ItemDataRole.UserRole + 20; ++role)
+			if (role != ItemDataRole.DisplayRole && role != ItemDataRole.EditRole)
+				assertSame(expected.get(role), item.getData(role));
+	}
+
+	@Test
+	public void testRoleOrder() throws Exception {
+		Random random = new Random(42);
+		int[] candidates = { ItemDataRole.DecorationRole, ItemDataRole.ToolTipRole, ItemDataRole.StyleClassRole,
+				ItemDataRole.CheckStateRole, ItemDataRole.LinkRole, ItemDataRole.UserRole, ItemDataRole.UserRole + 1,
+				ItemDataRole.UserRole + 7 };
+
+		for (int n = 0; n < 100; ++n) {
+			WStandardItem item = new WStandardItem();
+			TreeMap<Integer, Object> expected = new TreeMap<Integer, Object>();
+
+			/* roles are set, replaced and removed in any order */
+			for (int i = 0; i < 30; ++i) {
+				int role = candidates[random.nextInt(candidates.length)];
+				Object value = random.nextInt(4) == 0 ? null : "v" + i;
+				item.setData(value, role);
+				if (value == null)
+					expected.remove(role);
+				else
+					expected.put(role, value);
+				assertData(expected, item);
+			}
+		}
+	}
+
+	@Test
+	public void testRemove() throws Exception {
+		WStandardItem item = new WStandardItem();
+		item.setData("a", ItemDataRole.UserRole);
+		item.setData("b", ItemDataRole.ToolTipRole);
+		item.setData("c", ItemDataRole.UserRole + 1);
+		assertEquals(3, roles(item).length);
+
+		item.setData(null, ItemDataRole.ToolTipRole);
+		assertEquals("[" + ItemDataRole.UserRole + ", " + (ItemDataRole.UserRole + 1) + "]",
+				Arrays.toString(roles(item)));
+		assertEquals("[a, c]", Arrays.toString(values(item)));
+
+		/* removing a role that is not set changes nothing */
+		item.setData(null, ItemDataRole.LinkRole);
+		assertEquals(2, roles(item).length);
+
+		item.setData(null, ItemDataRole.UserRole + 1);
+		item.setData(null, ItemDataRole.UserRole);
+		assertNull(roles(item));
+		assertNull(values(item));
+		assertNull(item.getData(ItemDataRole.UserRole));
+	}
+
+	@Test
+	public void testDisplayEditRole() throws Exception {
+		WStandardItem item = new WStandardItem();
+		assertNull(item.getData(ItemDataRole.DisplayRole));
+		assertNull(item.getData(ItemDataRole.EditRole));
+
+		/* the display data is not kept in the role arrays ... */
+		item.setData("text", ItemDataRole.DisplayRole);
+		assertNull(roles(item));
+		assertEquals("text", item.getData(ItemDataRole.DisplayRole));
+		assertEquals("text", item.getData(ItemDataRole.EditRole));
+
+		/* ... and the edit role is an alias for it */
+		item.setData("edited", ItemDataRole.EditRole);
+		assertNull(roles(item));
+		assertEquals("edited", item.getData(ItemDataRole.DisplayRole));
+		assertEquals("edited", item.getData(ItemDataRole.EditRole));
+
+		item.setData(null, ItemDataRole.EditRole);
+		assertNull(item.getData(ItemDataRole.DisplayRole));
+		assertNull(item.getData(ItemDataRole.EditRole));
+	}
+
+	@Test
+	public void testClone() throws Exception {
+		WStandardItem item = new WStandardItem();
+		item.setData("text", ItemDataRole.DisplayRole);
+		item.setData("tip", ItemDataRole.ToolTipRole);
+		item.setData("user", ItemDataRole.UserRole);
+
+		WStandardItem clone = item.clone();
+		assertNotSame(roles(item), roles(clone));
+		assertNotSame(values(item), values(clone));
+		assertEquals("text", clone.getData(ItemDataRole.DisplayRole));
+		assertEquals("tip", clone.getData(ItemDataRole.ToolTipRole));
+		assertEquals("user", clone.getData(ItemDataRole.UserRole));
+
+		/* changes to either do not affect the other */
+		clone.setData("other", ItemDataRole.UserRole);
+		item.setData(null, ItemDataRole.ToolTipRole);
+		assertEquals("user", item.getData(ItemDataRole.UserRole));
+		assertEquals("tip", clone.getData(ItemDataRole.ToolTipRole));
+		assertEquals("other", clone.getData(ItemDataRole.UserRole));
+
+		assertNull(roles(new WStandardItem().clone()));
+	}
+}
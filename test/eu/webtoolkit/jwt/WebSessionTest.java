@@ -0,0 +1,190 @@
+package eu.webtoolkit.jwt;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.webtoolkit.jwt.servlet.UploadedFile;
+import eu.webtoolkit.jwt.servlet.WebRequest;
+import eu.webtoolkit.jwt.servlet.WebResponse;
+
+/*
+ * The handoff between request threads of a session: a script response
+ * yields the session lock to a pending stylesheet request, and a
+ * stylesheet request waits for the application to be created.
+ */
+public class WebSessionTest {
+	private static class Controller extends TestController {
+		Controller(Configuration configuration) {
+			super(configuration);
+		}
+
+		@Override
+		public WApplication createApplication(WEnvironment env) {
+			return new WApplication(env);
+		}
+	}
+
+	private Object servletApi;
+	private WTestEnvironment env;
+	private WebSession session;
+
+	private static Object get(WebSession session, String field) throws Exception {
+		Field f = WebSession.class.getDeclaredField(field);
+		f.setAccessible(true);
+		return f.get(session);
+	}
+
+	private static void set(WebSession session, String field, Object value) throws Exception {
+		Field f = WebSession.class.getDeclaredField(field);
+		f.setAccessible(true);
+		f.set(session, value);
+	}
+
+	private static Object invoke(WebSession session, String name, Class<?>[] types, Object... args)
+			throws Exception {
+		Method m = WebSession.class.getDeclaredMethod(name, types);
+		m.setAccessible(true);
+		return m.invoke(session, args);
+	}
+
+	private static WebRequest styleRequest() {
+		Map<String, String[]> parameters = new HashMap<String, String[]>();
+		parameters.put("request", new String[] { "style" });
+		return new WebRequest(parameters, new HashMap<String, List<UploadedFile>>());
+	}
+
+	private static void waitFor(String what, Condition condition, ReentrantLock mutex) throws InterruptedException {
+		for (long deadline = System.currentTimeMillis() + 5000;;) {
+			mutex.lock();
+			try {
+				if (mutex.hasWaiters(condition))
+					return;
+			} finally {
+				mutex.unlock();
+			}
+			assertTrue(what, System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		/* requests and responses are created through the servlet API */
+		Field f = WtServlet.class.getDeclaredField("servletApi");
+		f.setAccessible(true);
+		servletApi = f.get(null);
+		f.set(null, new ServletApi3());
+
+		env = new WTestEnvironment(new Configuration());
+		new WApplication(env);
+		session = env.session_;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		env.close();
+
+		Field f = WtServlet.class.getDeclaredField("servletApi");
+		f.setAccessible(true);
+		f.set(null, servletApi);
+	}
+
+	@Test
+	public void testAwaitLinkedCss() throws Exception {
+		final AtomicInteger requests = (AtomicInteger) get(session, "linkedCssRequests_");
+
+		/* without a pending stylesheet request, the script response does not wait */
+		long start = System.nanoTime();
+		invoke(session, "awaitLinkedCss", new Class<?>[0]);
+		assertTrue(System.nanoTime() - start < 100 * 1000 * 1000L);
+
+		/* a stylesheet request is pending while it waits for the session lock ... */
+		final WebRequest request = styleRequest();
+		final boolean[] served = { false };
+		Thread style = new Thread() {
+			@Override
+			public void run() {
+				WebSession.Handler handler = new WebSession.Handler(session, request, null);
+				served[0] = handler.isHaveLock();
+				handler.release();
+			}
+		};
+		style.start();
+		for (long deadline = System.currentTimeMillis() + 5000; !session.getMutex().hasQueuedThread(style);) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+		assertEquals(1, requests.get());
+
+		/* ... and the script response yields the lock to it */
+		start = System.nanoTime();
+		invoke(session, "awaitLinkedCss", new Class<?>[0]);
+		long elapsed = System.nanoTime() - start;
+		assertTrue(session.getMutex().isHeldByCurrentThread());
+		style.join(5000);
+		assertFalse(style.isAlive());
+		assertTrue(served[0]);
+		assertTrue("the script response is signalled, it does not time out", elapsed < 900 * 1000 * 1000L);
+
+		/* released without serving the stylesheet, it is no longer pending */
+		assertEquals(0, requests.get());
+	}
+
+	@Test
+	public void testApplicationCreated() throws Exception {
+		set(session, "controller_", new Controller(new Configuration()));
+		set(session, "app_", null);
+		final ReentrantLock mutex = session.getMutex();
+		final Condition applicationCreated = (Condition) get(session, "applicationCreated_");
+
+		/* a stylesheet request waits for the application ... */
+		final long[] waited = { -1 };
+		Thread style = new Thread() {
+			@Override
+			public void run() {
+				mutex.lock();
+				try {
+					long start = System.nanoTime();
+					long nanos = 5000 * 1000 * 1000L;
+					while (session.getApp() == null && nanos > 0)
+						nanos = applicationCreated.awaitNanos(nanos);
+					if (session.getApp() != null)
+						waited[0] = System.nanoTime() - start;
+				} catch (InterruptedException e) {
+				} finally {
+					mutex.unlock();
+				}
+			}
+		};
+
+		mutex.unlock();
+		try {
+			style.start();
+			waitFor("the stylesheet request waits", applicationCreated, mutex);
+
+			/* ... and is signalled by start(), also without the session lock held */
+			invoke(session, "start", new Class<?>[] { WebResponse.class },
+					new WebResponse(new ByteArrayOutputStream()));
+			style.join(5000);
+			assertFalse(style.isAlive());
+			assertTrue(waited[0] >= 0);
+			assertTrue("the stylesheet request is signalled, it does not time out",
+					waited[0] < 4000 * 1000 * 1000L);
+		} finally {
+			mutex.lock();
+		}
+	}
+}
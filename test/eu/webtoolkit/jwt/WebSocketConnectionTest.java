@@ -0,0 +1,235 @@
+package eu.webtoolkit.jwt;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.websocket.CloseReason;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WebSocketConnectionTest {
+	/*
+	 * A web socket session of which the asynchronous sends are completed by
+	 * the test, or immediately (from within sendText()) when synchronous.
+	 */
+	private static class Socket implements InvocationHandler {
+		final Map<String, Object> userProperties = new HashMap<String, Object>();
+		final List<String> sent = new ArrayList<String>();
+		final List<SendHandler> pending = new ArrayList<SendHandler>();
+		CloseReason closeReason;
+		boolean synchronous = false;
+		WebSocketConnection connection;
+
+		Session create() {
+			return (Session) Proxy.newProxyInstance(WebSocketConnectionTest.class.getClassLoader(),
+					new Class<?>[] { Session.class }, this);
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String n = method.getName();
+			if (n.equals("getUserProperties"))
+				return userProperties;
+			else if (n.equals("getId"))
+				return "socket";
+			else if (n.equals("close"))
+				closeReason = (CloseReason) args[0];
+			else if (n.equals("getAsyncRemote"))
+				return Proxy.newProxyInstance(WebSocketConnectionTest.class.getClassLoader(),
+						new Class<?>[] { RemoteEndpoint.Async.class }, new InvocationHandler() {
+							public Object invoke(Object proxy, Method method, Object[] args) {
+								if (method.getName().equals("sendText") && args.length == 2) {
+									assertFalse("the container is called without the connection lock",
+											Thread.holdsLock(connection));
+									sent.add((String) args[0]);
+									if (synchronous)
+										((SendHandler) args[1]).onResult(new SendResult());
+									else
+										pending.add((SendHandler) args[1]);
+									return null;
+								}
+								throw new UnsupportedOperationException(method.getName());
+							}
+						});
+			return null;
+		}
+
+		void complete() {
+			pending.remove(0).onResult(new SendResult());
+		}
+	}
+
+	private Object servletApi;
+	private WTestEnvironment env;
+	private WApplication app;
+	private WebSession session;
+	private Socket socket;
+	private WebSocketConnection connection;
+
+	private static void set(WebSession session, String field, Object value) throws Exception {
+		Field f = WebSession.class.getDeclaredField(field);
+		f.setAccessible(true);
+		f.set(session, value);
+	}
+
+	private static Object get(WebSession session, String field) throws Exception {
+		Field f = WebSession.class.getDeclaredField(field);
+		f.setAccessible(true);
+		return f.get(session);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		/* the connection is a WebResponse, created through the servlet API */
+		Field f = WtServlet.class.getDeclaredField("servletApi");
+		f.setAccessible(true);
+		servletApi = f.get(null);
+		f.set(null, new ServletApi3());
+
+		Configuration configuration = new Configuration();
+		configuration.setWebSocketSendQueueLimit(100);
+		env = new WTestEnvironment(configuration);
+		app = new WApplication(env);
+		session = env.session_;
+
+		socket = new Socket();
+		connection = new WebSocketConnection(socket.create(), new HashMap<String, List<String>>());
+		socket.connection = connection;
+		connection.setWebSession(session);
+		set(session, "webSocket_", connection);
+		set(session, "webSocketConnected_", true);
+		set(session, "canWriteWebSocket_", true);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		env.close();
+
+		Field f = WtServlet.class.getDeclaredField("servletApi");
+		f.setAccessible(true);
+		f.set(null, servletApi);
+	}
+
+	private void send(String message) throws Exception {
+		connection.out().write(message);
+		connection.flushBuffer();
+	}
+
+	@Test
+	public void testQueue() throws Exception {
+		send("a");
+		assertEquals("[a]", socket.sent.toString());
+		assertEquals(1, connection.getQueuedBytes());
+
+		/* one message is sent at a time, the others are queued */
+		send("bb");
+		send("\u00e9\u20ac");
+		assertEquals("[a]", socket.sent.toString());
+		assertEquals(8, connection.getQueuedBytes());
+		assertEquals(8, session.getController().getWebSocketQueuedBytes());
+
+		socket.complete();
+		assertEquals("[a, bb]", socket.sent.toString());
+		assertEquals(7, connection.getQueuedBytes());
+		socket.complete();
+		socket.complete();
+		assertEquals("[a, bb, \u00e9\u20ac]", socket.sent.toString());
+		assertEquals(0, connection.getQueuedBytes());
+		assertEquals(3, session.getController().getWebSocketMessagesSent());
+		assertTrue(socket.pending.isEmpty());
+		assertFalse(connection.isWebSocketMessagePending());
+	}
+
+	@Test
+	public void testSynchronousCompletion() throws Exception {
+		socket.synchronous = true;
+		send("a");
+		send("b");
+		assertEquals("[a, b]", socket.sent.toString());
+		assertEquals(0, connection.getQueuedBytes());
+		assertFalse(connection.isWebSocketMessagePending());
+	}
+
+	@Test
+	public void testCoalescing() throws Exception {
+		new WText("first", app.getRoot());
+		session.pushUpdates();
+		assertEquals(1, socket.sent.size());
+
+		/* while the update is being sent, later updates are held back ... */
+		new WText("second", app.getRoot());
+		session.pushUpdates();
+		new WText("third", app.getRoot());
+		session.pushUpdates();
+		assertEquals(1, socket.sent.size());
+
+		/* ... and pushed as one message once it has been sent */
+		socket.complete();
+		assertEquals(2, socket.sent.size());
+		String update = socket.sent.get(1);
+		assertTrue(update.contains("second"));
+		assertTrue(update.contains("third"));
+		assertFalse(update.contains("first"));
+
+		socket.complete();
+		assertEquals(2, socket.sent.size());
+		assertFalse(connection.isWebSocketMessagePending());
+	}
+
+	@Test
+	public void testOverflow() throws Exception {
+		StringBuilder message = new StringBuilder();
+		for (int i = 0; i < 40; ++i)
+			message.append('x');
+
+		send(message.toString());
+		send(message.toString());
+		assertEquals(80, connection.getQueuedBytes());
+		assertNull(socket.closeReason);
+
+		/* the queue would exceed the limit: the socket is closed */
+		send(message.toString());
+		assertNotNull(socket.closeReason);
+		assertEquals(CloseReason.CloseCodes.TRY_AGAIN_LATER, socket.closeReason.getCloseCode());
+		assertEquals(1, session.getController().getWebSocketOverflowCount());
+		assertEquals(0, connection.getQueuedBytes());
+		assertNull(get(session, "webSocket_"));
+
+		/* the send in flight completes without effect */
+		socket.complete();
+		assertEquals(1, socket.sent.size());
+		send("a");
+		assertEquals(1, socket.sent.size());
+	}
+
+	@Test
+	public void testClosed() throws Exception {
+		send("a");
+		send("b");
+		assertTrue(connection.isWebSocketMessagePending());
+
+		/* a socket closed by the client drops its queue ... */
+		connection.closed();
+		assertEquals(0, connection.getQueuedBytes());
+		assertFalse(connection.isWebSocketMessagePending());
+		socket.complete();
+		assertEquals("[a]", socket.sent.toString());
+
+		/* ... and the session forgets it, so that updates are not held back */
+		assertNull(get(session, "webSocket_"));
+		assertFalse((Boolean) get(session, "webSocketConnected_"));
+	}
+}
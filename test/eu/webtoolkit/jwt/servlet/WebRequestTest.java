@@ -0,0 +1,271 @@
+package eu.webtoolkit.jwt.servlet;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+import eu.webtoolkit.jwt.Configuration;
+
+public class WebRequestTest {
+	private static final String BOUNDARY = "----jwtboundary";
+
+	/*
+	 * A request as a container would present it: the container's parameters
+	 * are the query parameters. It records whether they were read before the
+	 * body was consumed, since a container may then parse the multipart body
+	 * itself.
+	 */
+	private static class FakeRequest implements InvocationHandler {
+		final String queryString;
+		final String contentType;
+		final byte[] body;
+		final ByteArrayInputStream in;
+		boolean parametersReadEarly = false;
+
+		FakeRequest(String queryString, String contentType, byte[] body) {
+			this.queryString = queryString;
+			this.contentType = contentType;
+			this.body = body;
+			this.in = new ByteArrayInputStream(body);
+		}
+
+		HttpServletRequest create() {
+			return (HttpServletRequest) Proxy.newProxyInstance(WebRequestTest.class.getClassLoader(),
+					new Class<?>[] { HttpServletRequest.class }, this);
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String n = method.getName();
+			if (n.equals("getMethod"))
+				return "POST";
+			else if (n.equals("getServletPath") || n.equals("getContextPath"))
+				return "";
+			else if (n.equals("getRequestURI"))
+				return "/app";
+			else if (n.equals("getQueryString"))
+				return queryString;
+			else if (n.equals("getContentType"))
+				return contentType;
+			else if (n.equals("getContentLength"))
+				return body.length;
+			else if (n.equals("getHeader")) {
+				if ("Content-Length".equalsIgnoreCase((String) args[0]))
+					return String.valueOf(body.length);
+				else if ("Content-Type".equalsIgnoreCase((String) args[0]))
+					return contentType;
+				return null;
+			} else if (n.equals("getInputStream")) {
+				return new ServletInputStream() {
+					@Override
+					public int read() {
+						return in.read();
+					}
+
+					@Override
+					public int read(byte[] b, int off, int len) {
+						return in.read(b, off, len);
+					}
+				};
+			} else if (n.equals("getParameterMap")) {
+				if (contentType != null && contentType.startsWith("multipart/") && in.available() > 0)
+					parametersReadEarly = true;
+				Map<String, String[]> result = new HashMap<String, String[]>();
+				for (String p : queryString.split("&")) {
+					String[] nv = p.split("=");
+					result.put(nv[0], new String[] { nv[1] });
+				}
+				return result;
+			}
+			return null;
+		}
+	}
+
+	private static class Multipart {
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		Multipart field(String name, String value) throws IOException {
+			write("--" + BOUNDARY + "\r\n");
+			write("Content-Disposition: form-data; name=\"" + name + "\"\r\n\r\n");
+			write(value + "\r\n");
+			return this;
+		}
+
+		Multipart file(String name, String fileName, byte[] data) throws IOException {
+			write("--" + BOUNDARY + "\r\n");
+			write("Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + fileName + "\"\r\n");
+			write("Content-Type: application/octet-stream\r\n\r\n");
+			body.write(data);
+			write("\r\n");
+			return this;
+		}
+
+		byte[] toByteArray() throws IOException {
+			write("--" + BOUNDARY + "--\r\n");
+			return body.toByteArray();
+		}
+
+		private void write(String s) throws IOException {
+			body.write(s.getBytes("ISO-8859-1"));
+		}
+	}
+
+	private static byte[] content(int size) {
+		byte[] result = new byte[size];
+		for (int i = 0; i < size; ++i)
+			result[i] = (byte) (i * 31);
+		return result;
+	}
+
+	private static byte[] read(UploadedFile file) throws IOException {
+		InputStream in = file.getInputStream();
+		try {
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1000];
+			for (int n; (n = in.read(buffer)) != -1;)
+				result.write(buffer, 0, n);
+			return result.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static UploadedFile.Impl impl(UploadedFile file) throws Exception {
+		Field f = UploadedFile.class.getDeclaredField("fileInfo_");
+		f.setAccessible(true);
+		return (UploadedFile.Impl) f.get(file);
+	}
+
+	private static Configuration configuration() {
+		Configuration configuration = new Configuration();
+		configuration.setUploadMemoryThreshold(1000);
+		return configuration;
+	}
+
+	@Test
+	public void testMultipart() throws Exception {
+		byte[] small = content(1000);
+		byte[] large = content(20000);
+		byte[] body = new Multipart().field("name", "value").file("small", "small.bin", small)
+				.field("name", "other").file("large", "large.bin", large).toByteArray();
+
+		FakeRequest fake = new FakeRequest("wtd=abc&request=resource", "multipart/form-data; boundary=" + BOUNDARY,
+				body);
+		WebRequest request = new WebRequest(fake.create(), null, configuration());
+		assertFalse(fake.parametersReadEarly);
+
+		/* query parameters, and the body's form fields */
+		assertEquals("abc", request.getParameter("wtd"));
+		assertEquals("resource", request.getParameter("request"));
+		assertArrayEquals(new String[] { "value", "other" }, request.getParameterValues("name"));
+
+		/* a file up to the threshold stays in memory */
+		UploadedFile f = request.getUploadedFiles().get("small").get(0);
+		assertEquals("small.bin", f.getClientFileName());
+		assertEquals("application/octet-stream", f.getContentType());
+		assertEquals(1000, f.getSize());
+		assertNotNull(impl(f).data);
+		assertNull(impl(f).spoolFileName);
+		assertArrayEquals(small, read(f));
+		assertNull(impl(f).spoolFileName);
+
+		/* ... and is spooled on demand */
+		String spoolFileName = f.getSpoolFileName();
+		assertEquals(1000, new java.io.File(spoolFileName).length());
+		assertArrayEquals(small, read(f));
+
+		/* a larger file is written to its spool file as it is received */
+		UploadedFile l = request.getUploadedFiles().get("large").get(0);
+		assertNull(impl(l).data);
+		assertNotNull(impl(l).spoolFileName);
+		assertEquals(20000, l.getSize());
+		assertArrayEquals(large, read(l));
+
+		new java.io.File(spoolFileName).delete();
+		new java.io.File(l.getSpoolFileName()).delete();
+	}
+
+	@Test
+	public void testUploadConsumer() throws Exception {
+		final byte[] large = content(20000);
+		byte[] body = new Multipart().file("data", "large.bin", large).toByteArray();
+		FakeRequest fake = new FakeRequest("wtd=abc&resource=upload", "multipart/form-data; boundary=" + BOUNDARY,
+				body);
+
+		final ByteArrayOutputStream consumed = new ByteArrayOutputStream();
+		final StringBuilder events = new StringBuilder();
+		WebRequest.UploadConsumerFactory factory = new WebRequest.UploadConsumerFactory() {
+			public WebRequest.UploadConsumer getUploadConsumer(WebRequest request) {
+				/* the query parameters are available while the body is received */
+				events.append("lookup " + request.getParameter("resource") + ";");
+				return new WebRequest.UploadConsumer() {
+					public boolean begin(String fieldName, String clientFileName, String contentType) {
+						events.append("begin " + fieldName + " " + clientFileName + ";");
+						return false;
+					}
+
+					public void data(byte[] buffer, int offset, int length) {
+						consumed.write(buffer, offset, length);
+					}
+
+					public void end(boolean complete) {
+						events.append("end " + complete + ";");
+					}
+				};
+			}
+		};
+
+		WebRequest request = new WebRequest(fake.create(), null, factory, configuration());
+		assertFalse(fake.parametersReadEarly);
+		assertEquals("lookup upload;begin data large.bin;end true;", events.toString());
+		assertArrayEquals(large, consumed.toByteArray());
+
+		/* the file was not stored, only its size is known */
+		UploadedFile f = request.getUploadedFiles().get("data").get(0);
+		assertEquals(20000, f.getSize());
+		assertNull(f.getSpoolFileName());
+		try {
+			f.getInputStream();
+			fail("the file was not stored");
+		} catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void testMaxRequestSize() throws Exception {
+		byte[] body = new Multipart().file("large", "large.bin", content(20000)).toByteArray();
+		FakeRequest fake = new FakeRequest("wtd=abc", "multipart/form-data; boundary=" + BOUNDARY, body);
+		Configuration configuration = configuration();
+		configuration.setMaximumRequestSize(10000);
+
+		WebRequest request = new WebRequest(fake.create(), null, configuration);
+		assertTrue(request.getPostDataExceeded() > 0);
+		assertTrue(request.getUploadedFiles().isEmpty());
+		assertEquals("abc", request.getParameter("wtd"));
+	}
+
+	@Test
+	public void testFormUrlEncoded() throws Exception {
+		byte[] body = "a=1&b=x%20y".getBytes("UTF-8");
+		FakeRequest fake = new FakeRequest("wtd=abc&contentType=x-www-form-urlencoded", null, body);
+
+		WebRequest request = new WebRequest(fake.create(), null, configuration());
+		assertEquals("abc", request.getParameter("wtd"));
+		assertEquals("1", request.getParameter("a"));
+		assertEquals("x y", request.getParameter("b"));
+		assertTrue(request.getUploadedFiles().isEmpty());
+	}
+}
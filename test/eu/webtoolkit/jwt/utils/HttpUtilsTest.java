@@ -0,0 +1,169 @@
+package eu.webtoolkit.jwt.utils;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+public class HttpUtilsTest {
+	private static HttpServletRequest request(String... headers) {
+		final Map<String, String> map = new HashMap<String, String>();
+		for (int i = 0; i < headers.length; i += 2)
+			map.put(headers[i], headers[i + 1]);
+
+		return (HttpServletRequest) Proxy.newProxyInstance(HttpUtilsTest.class.getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("getHeader"))
+							return map.get(args[0]);
+						else if (method.getName().equals("getDateHeader")) {
+							String v = map.get(args[0]);
+							if (v == null)
+								return -1L;
+							try {
+								java.text.SimpleDateFormat f = new java.text.SimpleDateFormat(
+										"EEE, dd MMM yyyy HH:mm:ss 'GMT'", java.util.Locale.US);
+								f.setTimeZone(java.util.TimeZone.getTimeZone("GMT"));
+								return f.parse(v).getTime();
+							} catch (java.text.ParseException e) {
+								throw new IllegalArgumentException(v);
+							}
+						}
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+	private static void assertRanges(List<HttpUtils.ByteRange> ranges, long... firstLast) {
+		assertNotNull(ranges);
+		assertEquals(firstLast.length / 2, ranges.size());
+		for (int i = 0; i < ranges.size(); ++i) {
+			assertEquals(firstLast[2 * i], ranges.get(i).getFirst());
+			assertEquals(firstLast[2 * i + 1], ranges.get(i).getLast());
+		}
+	}
+
+	private static List<HttpUtils.ByteRange> range(String header) {
+		return HttpUtils.parseRange(request("Range", header), 1000, "\"abc\"", 0);
+	}
+
+	@Test
+	public void testSingleRange() {
+		assertNull(HttpUtils.parseRange(request(), 1000, null, -1));
+		assertRanges(range("bytes=0-0"), 0, 0);
+		assertRanges(range("bytes=0-499"), 0, 499);
+		assertRanges(range("bytes=500-"), 500, 999);
+		assertRanges(range("bytes=900-5000"), 900, 999);
+		assertRanges(range(" bytes= 10 - 19 "), 10, 19);
+	}
+
+	@Test
+	public void testSuffixRange() {
+		assertRanges(range("bytes=-100"), 900, 999);
+		assertRanges(range("bytes=-5000"), 0, 999);
+		assertRanges(range("bytes=-0"));
+	}
+
+	@Test
+	public void testMultiRange() {
+		assertRanges(range("bytes=0-9,20-29"), 0, 9, 20, 29);
+		assertRanges(range("bytes=20-29,0-9"), 20, 29, 0, 9);
+
+		/* overlapping and adjacent ranges are coalesced */
+		assertRanges(range("bytes=0-9,5-14"), 0, 14);
+		assertRanges(range("bytes=0-9,10-19"), 0, 19);
+		assertRanges(range("bytes=0-9,20-29,8-21"), 0, 29);
+		assertRanges(range("bytes=0-9,-10"), 0, 9, 990, 999);
+
+		/* unsatisfiable ranges are dropped */
+		assertRanges(range("bytes=0-9,2000-3000"), 0, 9);
+	}
+
+	@Test
+	public void testUnsatisfiableRange() {
+		assertRanges(range("bytes=1000-"));
+		assertRanges(range("bytes=1000-2000,5000-"));
+	}
+
+	@Test
+	public void testMalformedRange() {
+		assertNull(range("bytes=abc"));
+		assertNull(range("bytes=10"));
+		assertNull(range("bytes=-"));
+		assertNull(range("bytes=20-10"));
+		assertNull(range("bytes=1-x"));
+		assertNull(range("items=0-9"));
+		assertNull(range("bytes=0-9,foo"));
+	}
+
+	@Test
+	public void testIfRange() {
+		String date = HttpUtils.formatHttpDate(1000000000000L);
+
+		assertRanges(HttpUtils.parseRange(request("Range", "bytes=0-9", "If-Range", "\"abc\""),
+				1000, "\"abc\"", -1), 0, 9);
+		assertNull(HttpUtils.parseRange(request("Range", "bytes=0-9", "If-Range", "\"xyz\""),
+				1000, "\"abc\"", -1));
+
+		/* a weak validator never satisfies If-Range */
+		assertNull(HttpUtils.parseRange(request("Range", "bytes=0-9", "If-Range", "W/\"abc\""),
+				1000, "W/\"abc\"", -1));
+
+		assertRanges(HttpUtils.parseRange(request("Range", "bytes=0-9", "If-Range", date),
+				1000, null, 1000000000000L), 0, 9);
+		assertNull(HttpUtils.parseRange(request("Range", "bytes=0-9", "If-Range", date),
+				1000, null, 1000000001000L));
+		assertNull(HttpUtils.parseRange(request("Range", "bytes=0-9", "If-Range", "garbage"),
+				1000, null, 1000000000000L));
+	}
+
+	@Test
+	public void testIfNoneMatch() {
+		assertTrue(HttpUtils.isNotModified(request("If-None-Match", "\"abc\""), "\"abc\"", -1));
+		assertTrue(HttpUtils.isNotModified(request("If-None-Match", "\"x\", \"abc\" ,\"y\""), "\"abc\"", -1));
+		assertTrue(HttpUtils.isNotModified(request("If-None-Match", "W/\"abc\""), "\"abc\"", -1));
+		assertTrue(HttpUtils.isNotModified(request("If-None-Match", "\"abc\""), "W/\"abc\"", -1));
+		assertTrue(HttpUtils.isNotModified(request("If-None-Match", "*"), "\"abc\"", -1));
+		assertFalse(HttpUtils.isNotModified(request("If-None-Match", "\"x\", \"y\""), "\"abc\"", -1));
+		assertFalse(HttpUtils.isNotModified(request("If-None-Match", "\"abc\""), null, -1));
+
+		/* a tag of the compressed representation validates the entity too */
+		assertTrue(HttpUtils.isNotModified(request("If-None-Match", "\"abc-gzip\""), "\"abc\"", -1));
+		assertTrue(HttpUtils.isNotModified(request("If-None-Match", "W/\"abc-deflate\""), "\"abc\"", -1));
+		assertFalse(HttpUtils.isNotModified(request("If-None-Match", "\"abc-br\""), "\"abc\"", -1));
+
+		/* If-None-Match takes precedence over If-Modified-Since */
+		String date = HttpUtils.formatHttpDate(1000000000000L);
+		assertFalse(HttpUtils.isNotModified(request("If-None-Match", "\"x\"", "If-Modified-Since", date),
+				"\"abc\"", 1000000000000L));
+	}
+
+	@Test
+	public void testIfModifiedSince() {
+		String date = HttpUtils.formatHttpDate(1000000000000L);
+		assertTrue(HttpUtils.isNotModified(request("If-Modified-Since", date), null, 1000000000000L));
+		assertTrue(HttpUtils.isNotModified(request("If-Modified-Since", date), null, 1000000000500L));
+		assertFalse(HttpUtils.isNotModified(request("If-Modified-Since", date), null, 1000000001000L));
+		assertFalse(HttpUtils.isNotModified(request("If-Modified-Since", "garbage"), null, 1000000000000L));
+		assertFalse(HttpUtils.isNotModified(request(), null, 1000000000000L));
+	}
+
+	@Test
+	public void testAcceptsEncoding() {
+		assertTrue(HttpUtils.acceptsEncoding(request("Accept-Encoding", "gzip, deflate"), "gzip"));
+		assertTrue(HttpUtils.acceptsEncoding(request("Accept-Encoding", "deflate;q=0.5, GZIP"), "gzip"));
+		assertFalse(HttpUtils.acceptsEncoding(request("Accept-Encoding", "gzip;q=0"), "gzip"));
+		assertTrue(HttpUtils.acceptsEncoding(request("Accept-Encoding", "*"), "gzip"));
+		assertFalse(HttpUtils.acceptsEncoding(request("Accept-Encoding", "*, gzip;q=0"), "gzip"));
+		assertFalse(HttpUtils.acceptsEncoding(request("Accept-Encoding", "deflate"), "gzip"));
+		assertFalse(HttpUtils.acceptsEncoding(request(), "gzip"));
+	}
+}
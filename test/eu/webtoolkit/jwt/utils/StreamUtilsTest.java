@@ -0,0 +1,24 @@
+package eu.webtoolkit.jwt.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class StreamUtilsTest {
+	@Test
+	public void testWrite() throws IOException {
+		int[] lengths = { 0, 1, 100, 8191, 8192, 8193, 20000 };
+		for (int length : lengths) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < length; ++i)
+				sb.append((char) ('a' + i % 26));
+
+			StringWriter w = new StringWriter();
+			StreamUtils.write(sb, w);
+			assertEquals(sb.toString(), w.toString());
+		}
+	}
+}